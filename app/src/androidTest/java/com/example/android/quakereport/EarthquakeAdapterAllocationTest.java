@@ -0,0 +1,77 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 模拟快速滑动10000行：复用同一批列表项反复绑定，统计绑定过程中的对象分配次数。
+ */
+@RunWith(AndroidJUnit4.class)
+public class EarthquakeAdapterAllocationTest {
+
+    private static final String LOG_TAG = EarthquakeAdapterAllocationTest.class.getSimpleName();
+
+    private static final int ROW_COUNT = 10000;
+
+    /** 一屏大约显示的列表项数量，滑动时循环复用 */
+    private static final int RECYCLED_VIEW_COUNT = 12;
+
+    @Test
+    public void flingAllocatesNothingPerRow() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Context context = InstrumentationRegistry.getTargetContext();
+
+                List<Earthquake> earthquakes = new ArrayList<>();
+                for (int i = 0; i < ROW_COUNT; i++) {
+                    earthquakes.add(new Earthquake((i % 100) / 10.0, (i % 50) + "km SSW of Town " + i,
+                            1556000000000L - i * 60000L, "https://earthquake.usgs.gov/earthquakes/eventpage/us" + i));
+                }
+                EarthquakeTable table = new EarthquakeTable();
+                EarthquakeRowFormatter formatter = new EarthquakeRowFormatter(context.getString(R.string.near_the));
+                table.addAll(earthquakes, formatter.format(earthquakes));
+
+                EarthquakeAdapter adapter = new EarthquakeAdapter(context);
+                adapter.setRows(table.view());
+                FrameLayout parent = new FrameLayout(context);
+
+                // 创建复用的列表项，并预热一遍
+                EarthquakeAdapter.ViewHolder[] holders = new EarthquakeAdapter.ViewHolder[RECYCLED_VIEW_COUNT];
+                for (int i = 0; i < RECYCLED_VIEW_COUNT; i++) {
+                    holders[i] = adapter.onCreateViewHolder(parent, 0);
+                }
+                for (int position = 0; position < ROW_COUNT; position++) {
+                    adapter.onBindViewHolder(holders[position % RECYCLED_VIEW_COUNT], position);
+                }
+
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+                long start = System.nanoTime();
+                for (int position = 0; position < ROW_COUNT; position++) {
+                    adapter.onBindViewHolder(holders[position % RECYCLED_VIEW_COUNT], position);
+                }
+                long nanos = System.nanoTime() - start;
+                int allocations = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+
+                Log.i(LOG_TAG, "bound " + ROW_COUNT + " rows in " + nanos / 1000000 + " ms, "
+                        + allocations + " allocations");
+                // 绑定本身不分配对象；留出少量余量给框架内部的偶发分配
+                assertTrue("allocations: " + allocations, allocations < ROW_COUNT / 10);
+            }
+        });
+    }
+}
@@ -0,0 +1,399 @@
+package com.example.android.quakereport;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.test.runner.lifecycle.ActivityLifecycleCallback;
+import android.support.test.runner.lifecycle.ActivityLifecycleMonitorRegistry;
+import android.support.test.runner.lifecycle.Stage;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewTreeObserver;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 启动、滚动和修改设置的耗时，访问本机的模拟USGS服务器，不依赖真实网络。
+ * 启动时间从启动活动到第一行绘制，每次启动前清除本地数据和磁盘缓存；
+ * 测试进程已在运行，不包含创建进程和Application的时间。
+ * 全部结果写入外部文件目录中的frame-timing.json，可用adb pull取出比较各次构建：
+ * /sdcard/Android/data/com.example.android.quakereport/files/frame-timing.json
+ */
+@RunWith(AndroidJUnit4.class)
+public class EarthquakeFrameTimingBenchmark {
+
+    private static final String LOG_TAG = EarthquakeFrameTimingBenchmark.class.getSimpleName();
+
+    private static final String RESULT_FILE_NAME = "frame-timing.json";
+
+    /** 模拟服务器上的地震数量 */
+    private static final int EVENT_COUNT = 10000;
+
+    /** 启动和修改设置重复的次数 */
+    private static final int ITERATIONS = 5;
+
+    /** 滑动的次数，每5次换一个方向 */
+    private static final int FLING_COUNT = 20;
+
+    private static final long TIMEOUT_MILLIS = 60000;
+
+    /** 启动和修改设置时使用的最小等级，约一半的地震 */
+    private static final String MIN_MAGNITUDE = "4.5";
+
+    /** 修改设置后的最小等级，低于原来的查询，不能在本地过滤 */
+    private static final String LOWER_MIN_MAGNITUDE = "2.5";
+
+    @Rule
+    public final ActivityTestRule<EarthquakeActivity> mActivityRule =
+            new ActivityTestRule<>(EarthquakeActivity.class, false, false);
+
+    private static MockHttpServer sServer;
+
+    /** 全部测试的结果，最后一起写入文件 */
+    private static JSONObject sResults;
+
+    /** 启动的次数，每次使用不同的网址，进程内的结果缓存不会命中 */
+    private static int sRun;
+
+    private Context mContext;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        sServer = new MockHttpServer(new MockUsgsFeed(EVENT_COUNT, System.currentTimeMillis()));
+        sResults = new JSONObject();
+        JSONObject device = new JSONObject();
+        device.put("model", Build.MODEL);
+        device.put("sdk", Build.VERSION.SDK_INT);
+        device.put("fingerprint", Build.FINGERPRINT);
+        sResults.put("device", device);
+        sResults.put("versionCode", BuildConfig.VERSION_CODE);
+        sResults.put("versionName", BuildConfig.VERSION_NAME);
+        sResults.put("timestamp", System.currentTimeMillis());
+    }
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        EarthquakeActivity.setRequestUrl(EarthquakeActivity.USGS_REQUEST_URL);
+        sServer.shutdown();
+
+        Context context = InstrumentationRegistry.getTargetContext();
+        File directory = context.getExternalFilesDir(null);
+        if (directory == null) {
+            directory = context.getFilesDir();
+        }
+        File file = new File(directory, RESULT_FILE_NAME);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(sResults.toString(2));
+        } finally {
+            writer.close();
+        }
+        Log.i(LOG_TAG, "Results written to " + file + ": " + sResults);
+    }
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+    }
+
+    @Test
+    public void coldStartToFirstRow() throws Throwable {
+        long[] samples = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            samples[i] = launchToFirstRow(MIN_MAGNITUDE);
+            finishActivity();
+        }
+        sResults.put("coldStartToFirstRow", summarize(samples));
+    }
+
+    @Test
+    public void flingTenThousandRows() throws Throwable {
+        // Choreographer从API 16起才有
+        Assume.assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+        launchToFirstRow("0");
+        final EarthquakeActivity activity = mActivityRule.getActivity();
+        final RecyclerView list = (RecyclerView) activity.findViewById(R.id.list);
+
+        // 反复滚动到末尾，逐页加载全部数据
+        waitUntil(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                int count = list.getAdapter().getItemCount();
+                if (count < EVENT_COUNT) {
+                    list.scrollToPosition(count - 1);
+                }
+                return count >= EVENT_COUNT;
+            }
+        });
+        onMain(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                list.scrollToPosition(0);
+                return true;
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        final FrameTimingRecorder recorder = new FrameTimingRecorder(list,
+                activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+        final int velocity = ViewConfiguration.get(activity).getScaledMaximumFlingVelocity();
+        onMain(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                recorder.start();
+                return true;
+            }
+        });
+        for (int i = 0; i < FLING_COUNT; i++) {
+            final int direction = (i / 5) % 2 == 0 ? 1 : -1;
+            onMain(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return list.fling(0, direction * velocity);
+                }
+            });
+            waitUntil(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return list.getScrollState() == RecyclerView.SCROLL_STATE_IDLE;
+                }
+            });
+        }
+        onMain(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                recorder.stop();
+                return true;
+            }
+        });
+
+        assertEquals(EVENT_COUNT, list.getAdapter().getItemCount());
+        assertTrue(recorder.getFrameCount() > 0);
+        JSONObject fling = recorder.toJson();
+        fling.put("rows", EVENT_COUNT);
+        fling.put("flings", FLING_COUNT);
+        sResults.put("fling", fling);
+    }
+
+    @Test
+    public void settingsChangeToContent() throws Throwable {
+        long[] samples = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            launchToFirstRow(MIN_MAGNITUDE);
+            final EarthquakeActivity activity = mActivityRule.getActivity();
+            // 列表先被清除、显示加载中，再显示新查询的第一行
+            final ContentDrawnListener listener = new ContentDrawnListener(activity, true);
+            final long[] start = new long[1];
+            onMain(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    activity.findViewById(R.id.list).getViewTreeObserver().addOnPreDrawListener(listener);
+                    start[0] = SystemClock.uptimeMillis();
+                    return PreferenceManager.getDefaultSharedPreferences(activity).edit()
+                            .putString(activity.getString(R.string.settings_min_magnitude_key), LOWER_MIN_MAGNITUDE)
+                            .commit();
+                }
+            });
+            assertTrue(listener.mDrawn.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            samples[i] = listener.mDrawnAt - start[0];
+            finishActivity();
+        }
+        JSONObject result = summarize(samples);
+        // 包含合并设置变化的等待时间
+        result.put("debounceMs", EarthquakeRefreshPipeline.DEBOUNCE_MILLIS);
+        sResults.put("settingsChangeToContent", result);
+    }
+
+    /**
+     * 清除本地数据和缓存，按给定的最小等级启动活动
+     * @return 从启动到第一行绘制的毫秒数
+     */
+    private long launchToFirstRow(String minMagnitude) throws Exception {
+        EarthquakeActivity.setRequestUrl(sServer.url() + "/run" + sRun++ + "/fdsnws/event/1/query");
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.settings_min_magnitude_key), minMagnitude)
+                .putString(mContext.getString(R.string.settings_order_by_key),
+                        mContext.getString(R.string.settings_order_by_magnitude_value))
+                .putBoolean(mContext.getString(R.string.settings_live_mode_key), false)
+                .commit();
+        deleteFiles(mContext.getFilesDir());
+        deleteFiles(mContext.getCacheDir());
+
+        final ContentDrawnListener[] listener = new ContentDrawnListener[1];
+        final CountDownLatch created = new CountDownLatch(1);
+        ActivityLifecycleCallback callback = new ActivityLifecycleCallback() {
+            @Override
+            public void onActivityLifecycleChanged(Activity activity, Stage stage) {
+                // onCreate之后、第一帧之前
+                if (stage == Stage.CREATED && activity instanceof EarthquakeActivity) {
+                    listener[0] = new ContentDrawnListener(activity, false);
+                    activity.findViewById(R.id.list).getViewTreeObserver().addOnPreDrawListener(listener[0]);
+                    created.countDown();
+                }
+            }
+        };
+        ActivityLifecycleMonitorRegistry.getInstance().addLifecycleCallback(callback);
+        long start = SystemClock.uptimeMillis();
+        try {
+            mActivityRule.launchActivity(null);
+            assertTrue(created.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        } finally {
+            ActivityLifecycleMonitorRegistry.getInstance().removeLifecycleCallback(callback);
+        }
+        assertTrue(listener[0].mDrawn.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        return listener[0].mDrawnAt - start;
+    }
+
+    /**
+     * 结束活动并等待销毁，下一次启动不会复用Loader
+     */
+    private void finishActivity() throws Exception {
+        final Activity target = mActivityRule.getActivity();
+        final CountDownLatch destroyed = new CountDownLatch(1);
+        ActivityLifecycleCallback callback = new ActivityLifecycleCallback() {
+            @Override
+            public void onActivityLifecycleChanged(Activity activity, Stage stage) {
+                if (activity == target && stage == Stage.DESTROYED) {
+                    destroyed.countDown();
+                }
+            }
+        };
+        ActivityLifecycleMonitorRegistry.getInstance().addLifecycleCallback(callback);
+        try {
+            mActivityRule.finishActivity();
+            assertTrue(destroyed.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        } finally {
+            ActivityLifecycleMonitorRegistry.getInstance().removeLifecycleCallback(callback);
+        }
+    }
+
+    /**
+     * 列表中有行、且没有显示加载中时，记录这一帧的时间
+     */
+    private static final class ContentDrawnListener implements ViewTreeObserver.OnPreDrawListener {
+
+        final CountDownLatch mDrawn = new CountDownLatch(1);
+
+        volatile long mDrawnAt;
+
+        private final RecyclerView mList;
+
+        private final View mLoadingIndicator;
+
+        /** 需要先看到加载中，即列表已清除、开始重新加载 */
+        private boolean mAwaitReload;
+
+        ContentDrawnListener(Activity activity, boolean awaitReload) {
+            mList = (RecyclerView) activity.findViewById(R.id.list);
+            mLoadingIndicator = activity.findViewById(R.id.loading_indicator);
+            mAwaitReload = awaitReload;
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            boolean loading = mLoadingIndicator.getVisibility() == View.VISIBLE;
+            if (mAwaitReload) {
+                mAwaitReload = !loading;
+            } else if (!loading && mList.getChildCount() > 0) {
+                mDrawnAt = SystemClock.uptimeMillis();
+                mList.getViewTreeObserver().removeOnPreDrawListener(this);
+                mDrawn.countDown();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 在主线程执行并返回结果
+     */
+    private static boolean onMain(final Callable<Boolean> callable) {
+        final boolean[] result = new boolean[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = callable.call();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        return result[0];
+    }
+
+    /**
+     * 每隔一段时间在主线程检查一次，直到条件成立
+     */
+    private static void waitUntil(Callable<Boolean> condition) throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (!onMain(condition)) {
+            assertTrue("timed out", SystemClock.uptimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * 删除目录下的全部文件，保留目录，缓存对象仍可写入
+     */
+    private static void deleteFiles(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteFiles(file);
+            } else if (!file.delete()) {
+                throw new IOException("Cannot delete " + file);
+            }
+        }
+    }
+
+    /**
+     * 各次的结果和中位数、最小值、最大值，单位毫秒
+     */
+    private static JSONObject summarize(long[] samples) throws JSONException {
+        long[] sorted = Arrays.copyOf(samples, samples.length);
+        Arrays.sort(sorted);
+        JSONArray values = new JSONArray();
+        for (long sample : samples) {
+            values.put(sample);
+        }
+        JSONObject json = new JSONObject();
+        json.put("samplesMs", values);
+        json.put("medianMs", sorted[sorted.length / 2]);
+        json.put("minMs", sorted[0]);
+        json.put("maxMs", sorted[sorted.length - 1]);
+        Log.i(LOG_TAG, json.toString());
+        return json;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.Loader;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 有附加数据源时Loader的加载：两个模拟数据源各有三页的地震，
+ * 合并后每个地震只出现一次，按时间从新到旧排列，不会因为按页合并而跳过或打乱。
+ */
+@RunWith(AndroidJUnit4.class)
+public class EarthquakeLoaderFederationTest {
+
+    /** 每个数据源的地震数量，按页加载时是三页 */
+    private static final int EVENT_COUNT = EarthquakeLoader.PAGE_SIZE * 2 + 10;
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private MockHttpServer mServer;
+
+    /** 服务器收到的全部请求 */
+    private final List<String> mTargets = Collections.synchronizedList(new ArrayList<String>());
+
+    private EarthquakeLoader mLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        long now = System.currentTimeMillis();
+        final MockUsgsFeed usgs = new MockUsgsFeed(EVENT_COUNT, now, 1, "us");
+        final MockUsgsFeed fdsn = new MockUsgsFeed(EVENT_COUNT, now, 2, "mock");
+        mServer = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public MockHttpServer.Response handle(MockHttpServer.Request request) throws Exception {
+                mTargets.add(request.target);
+                return request.target.startsWith("/fdsn") ? fdsn.handle(request) : usgs.handle(request);
+            }
+        });
+        EarthquakeFeedSource.register(new EarthquakeFeedSource.FdsnText("mock", mServer.url() + "/fdsn/query",
+                "https://example.com/event/"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (mLoader != null) {
+                    mLoader.reset();
+                }
+            }
+        });
+        mServer.shutdown();
+    }
+
+    @Test
+    public void twoSourcesAcrossThreePagesLoadEveryEventOnce() throws Exception {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final String url = mServer.url() + "/query?format=geojson&minmag=0&orderby=time&sources=mock";
+        final CountDownLatch delivered = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader = new EarthquakeLoader(context, url, "0", "time", 4);
+                mLoader.registerListener(0, new Loader.OnLoadCompleteListener<List<Earthquake>>() {
+                    @Override
+                    public void onLoadComplete(Loader<List<Earthquake>> loader, List<Earthquake> data) {
+                        delivered.countDown();
+                    }
+                });
+                mLoader.startLoading();
+            }
+        });
+        assertTrue("timed out", delivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // 在主线程读取分发后的状态
+        final long[] times = new long[EVENT_COUNT * 2 + 1];
+        final List<String> eventIds = new ArrayList<>();
+        final boolean[] state = new boolean[2];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                EarthquakeTable table = mLoader.getTable();
+                for (int row = 0; row < table.size() && row < times.length; row++) {
+                    times[row] = table.getTimeInMilliseconds(row);
+                    eventIds.add(table.getEventId(row));
+                }
+                state[0] = mLoader.hasMore();
+                state[1] = mLoader.loadNextPage();
+            }
+        });
+
+        assertEquals(EVENT_COUNT * 2, eventIds.size());
+        assertEquals(EVENT_COUNT * 2, new HashSet<>(eventIds).size());
+        for (int row = 1; row < eventIds.size(); row++) {
+            assertTrue("row " + row + " out of order", times[row - 1] >= times[row]);
+        }
+        // 第一次分发就是全部数据，没有下一页
+        assertFalse(state[0]);
+        assertFalse(state[1]);
+
+        Set<String> paths = new HashSet<>();
+        synchronized (mTargets) {
+            for (String target : mTargets) {
+                assertFalse(target, target.contains("offset="));
+                paths.add(target.substring(0, target.indexOf('?')));
+            }
+        }
+        assertTrue(paths.contains("/query"));
+        assertTrue(paths.contains("/fdsn/query"));
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.Loader;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按页加载时用网络数据替换快照：只重新请求快照中已有的几页，之后继续按页加载，
+ * 不请求查询的全部数据。
+ */
+@RunWith(AndroidJUnit4.class)
+public class EarthquakeLoaderRefreshTest {
+
+    /** 服务器上的地震数量，多于快照 */
+    private static final int EVENT_COUNT = EarthquakeLoader.PAGE_SIZE * 4;
+
+    /** 快照中的地震数量，即之前加载过的两页 */
+    private static final int SNAPSHOT_COUNT = EarthquakeLoader.PAGE_SIZE * 2;
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private MockHttpServer mServer;
+
+    /** 服务器收到的全部请求 */
+    private final List<String> mTargets = Collections.synchronizedList(new ArrayList<String>());
+
+    /** 每次分发后的行数 */
+    private final LinkedBlockingQueue<Integer> mDeliveries = new LinkedBlockingQueue<>();
+
+    private File mSnapshotFile;
+
+    private EarthquakeLoader mLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        final MockUsgsFeed usgs = new MockUsgsFeed(EVENT_COUNT, System.currentTimeMillis());
+        mServer = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public MockHttpServer.Response handle(MockHttpServer.Request request) throws Exception {
+                mTargets.add(request.target);
+                return usgs.handle(request);
+            }
+        });
+        mSnapshotFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                EarthquakeSnapshot.FILE_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (mLoader != null) {
+                    mLoader.reset();
+                }
+            }
+        });
+        mServer.shutdown();
+        mSnapshotFile.delete();
+    }
+
+    @Test
+    public void refreshAfterSnapshotFetchesOnlyTheLoadedPages() throws Exception {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final String url = mServer.url() + "/query?format=geojson&minmag=0&orderby=time";
+        List<Earthquake> saved = new ArrayList<>(SNAPSHOT_COUNT);
+        for (int i = 0; i < SNAPSHOT_COUNT; i++) {
+            saved.add(new Earthquake(1.0, "snapshot " + i, 1556000000000L - i * 60000L,
+                    "https://earthquake.usgs.gov/earthquakes/eventpage/snapshot" + i));
+        }
+        EarthquakeSnapshot.write(mSnapshotFile, new EarthquakeSnapshot(url, System.currentTimeMillis(), saved));
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader = new EarthquakeLoader(context, url, "0", "time", 4);
+                mLoader.registerListener(0, new Loader.OnLoadCompleteListener<List<Earthquake>>() {
+                    @Override
+                    public void onLoadComplete(Loader<List<Earthquake>> loader, List<Earthquake> data) {
+                        mDeliveries.add(mLoader.getTable().size());
+                    }
+                });
+                mLoader.startLoading();
+            }
+        });
+        // 先显示快照，再用网络上相同数量的地震替换
+        assertEquals(SNAPSHOT_COUNT, nextDelivery());
+        assertEquals(SNAPSHOT_COUNT, nextDelivery());
+        synchronized (mTargets) {
+            assertEquals(1, mTargets.size());
+            assertTrue(mTargets.get(0), mTargets.get(0).contains("limit=" + SNAPSHOT_COUNT + "&offset=1"));
+        }
+
+        // 服务器上还有更多地震，接着加载下一页
+        final boolean[] state = new boolean[2];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                state[0] = mLoader.hasMore();
+                state[1] = mLoader.loadNextPage();
+            }
+        });
+        assertTrue(state[0]);
+        assertTrue(state[1]);
+        assertEquals(SNAPSHOT_COUNT + EarthquakeLoader.PAGE_SIZE, nextDelivery());
+        synchronized (mTargets) {
+            assertEquals(2, mTargets.size());
+            String target = mTargets.get(1);
+            assertTrue(target, target.contains("limit=" + EarthquakeLoader.PAGE_SIZE
+                    + "&offset=" + (SNAPSHOT_COUNT + 1)));
+            for (String request : mTargets) {
+                assertFalse(request, request.contains("starttime="));
+            }
+        }
+    }
+
+    private int nextDelivery() throws InterruptedException {
+        Integer rows = mDeliveries.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("timed out", rows);
+        return rows;
+    }
+}
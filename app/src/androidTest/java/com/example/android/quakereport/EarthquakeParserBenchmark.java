@@ -0,0 +1,129 @@
+package com.example.android.quakereport;
+
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 对比整文档JSONObject解析与流式解析的耗时和内存分配。
+ * 使用按USGS月度数据格式生成的大数据（每条feature包含完整的properties和geometry）。
+ */
+@RunWith(AndroidJUnit4.class)
+public class EarthquakeParserBenchmark {
+
+    private static final String LOG_TAG = EarthquakeParserBenchmark.class.getSimpleName();
+
+    /** 月度全球数据的量级 */
+    private static final int FEATURE_COUNT = 20000;
+
+    private static byte[] sFeed;
+
+    @BeforeClass
+    public static void recordFeed() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":1556000000000,")
+                .append("\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query\",")
+                .append("\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.8.1\",")
+                .append("\"count\":").append(FEATURE_COUNT).append("},\"features\":[");
+        for (int i = 0; i < FEATURE_COUNT; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            double magnitude = (i % 90) / 10.0;
+            long time = 1556000000000L - i * 60000L;
+            builder.append("{\"type\":\"Feature\",\"properties\":{")
+                    .append("\"mag\":").append(magnitude)
+                    .append(",\"place\":\"").append(i % 50).append("km SSW of Town ").append(i % 700)
+                    .append(", Region\",\"time\":").append(time)
+                    .append(",\"updated\":").append(time + 120000)
+                    .append(",\"tz\":-480,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/us")
+                    .append(i).append("\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=us")
+                    .append(i).append("&format=geojson\",\"felt\":null,\"cdi\":null,\"mmi\":null,")
+                    .append("\"alert\":null,\"status\":\"reviewed\",\"tsunami\":0,\"sig\":").append(i % 1000)
+                    .append(",\"net\":\"us\",\"code\":\"").append(i)
+                    .append("\",\"ids\":\",us").append(i).append(",\",\"sources\":\",us,\",")
+                    .append("\"types\":\",geoserve,origin,phase-data,\",\"nst\":null,\"dmin\":1.27,")
+                    .append("\"rms\":0.75,\"gap\":47,\"magType\":\"mb\",\"type\":\"earthquake\",")
+                    .append("\"title\":\"M ").append(magnitude).append(" - Region\"},")
+                    .append("\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(-180 + (i % 360)).append(".1234,").append(-60 + (i % 120)).append(".5678,10]},")
+                    .append("\"id\":\"us").append(i).append("\"}");
+        }
+        builder.append("],\"bbox\":[-180,-60,0,180,60,700]}");
+        sFeed = builder.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Test
+    public void compareParsers() throws Exception {
+        // 预热
+        parseWithJsonObject(new ByteArrayInputStream(sFeed));
+        parseStreaming(new ByteArrayInputStream(sFeed));
+
+        Debug.startAllocCounting();
+
+        Debug.resetThreadAllocSize();
+        long start = System.nanoTime();
+        List<Earthquake> legacy = parseWithJsonObject(new ByteArrayInputStream(sFeed));
+        long legacyNanos = System.nanoTime() - start;
+        long legacyBytes = Debug.getThreadAllocSize();
+
+        Debug.resetThreadAllocSize();
+        start = System.nanoTime();
+        List<Earthquake> streaming = parseStreaming(new ByteArrayInputStream(sFeed));
+        long streamingNanos = System.nanoTime() - start;
+        long streamingBytes = Debug.getThreadAllocSize();
+
+        Debug.stopAllocCounting();
+
+        Log.i(LOG_TAG, "feed=" + sFeed.length + " bytes, features=" + FEATURE_COUNT);
+        Log.i(LOG_TAG, "JSONObject: " + legacyNanos / 1000000 + " ms, " + legacyBytes + " bytes allocated");
+        Log.i(LOG_TAG, "streaming:  " + streamingNanos / 1000000 + " ms, " + streamingBytes + " bytes allocated");
+
+        assertEquals(legacy.size(), streaming.size());
+    }
+
+    /**
+     * 原有解析方式：整段读成字符串，再构建JSONObject树
+     */
+    private static List<Earthquake> parseWithJsonObject(InputStream inputStream) throws Exception {
+        StringBuilder output = new StringBuilder();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        String line = reader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = reader.readLine();
+        }
+
+        List<Earthquake> earthquakes = new ArrayList<>();
+        JSONArray earthquakeArray = new JSONObject(output.toString()).getJSONArray("features");
+        for (int i = 0; i < earthquakeArray.length(); i++) {
+            JSONObject properties = earthquakeArray.getJSONObject(i).getJSONObject("properties");
+            earthquakes.add(new Earthquake(properties.getDouble("mag"), properties.getString("place"),
+                    properties.getLong("time"), properties.getString("url")));
+        }
+        return earthquakes;
+    }
+
+    private static List<Earthquake> parseStreaming(InputStream inputStream) throws Exception {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJsonParser.parseFeatures(inputStream, earthquakes);
+        return earthquakes;
+    }
+}
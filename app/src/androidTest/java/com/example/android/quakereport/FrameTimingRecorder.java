@@ -0,0 +1,112 @@
+package com.example.android.quakereport;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * 用Choreographer记录列表滚动时相邻两帧的间隔。
+ * 只记录列表在滚动中的帧；间隔超过1.5个刷新周期即有丢帧，记为卡顿。
+ * 在主线程调用start()和stop()。
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+class FrameTimingRecorder implements Choreographer.FrameCallback {
+
+    private final RecyclerView mList;
+
+    /** 屏幕的刷新周期 */
+    private final long mFramePeriodNanos;
+
+    private long[] mIntervals = new long[1024];
+
+    private int mCount;
+
+    private long mLastFrameNanos;
+
+    private boolean mRunning;
+
+    /**
+     * @param refreshRate 屏幕的刷新率，即Display.getRefreshRate()
+     */
+    FrameTimingRecorder(RecyclerView list, float refreshRate) {
+        mList = list;
+        mFramePeriodNanos = (long) (1000000000L / refreshRate);
+    }
+
+    void start() {
+        mRunning = true;
+        mLastFrameNanos = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    void stop() {
+        mRunning = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        // 静止时的帧不计入，滚动开始后的第一帧只作为起点
+        if (mList.getScrollState() != RecyclerView.SCROLL_STATE_IDLE) {
+            if (mLastFrameNanos != 0) {
+                if (mCount == mIntervals.length) {
+                    mIntervals = Arrays.copyOf(mIntervals, mCount * 2);
+                }
+                mIntervals[mCount++] = frameTimeNanos - mLastFrameNanos;
+            }
+            mLastFrameNanos = frameTimeNanos;
+        } else {
+            mLastFrameNanos = 0;
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * 记录的帧数
+     */
+    int getFrameCount() {
+        return mCount;
+    }
+
+    /**
+     * 帧数、卡顿帧数和帧间隔的分位数，单位毫秒
+     */
+    JSONObject toJson() throws JSONException {
+        long[] sorted = Arrays.copyOf(mIntervals, mCount);
+        Arrays.sort(sorted);
+        int janky = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (sorted[i] * 2 > mFramePeriodNanos * 3) {
+                janky++;
+            }
+        }
+        JSONObject json = new JSONObject();
+        json.put("frames", mCount);
+        json.put("jankyFrames", janky);
+        json.put("jankPercent", mCount == 0 ? 0 : 100.0 * janky / mCount);
+        json.put("framePeriodMs", mFramePeriodNanos / 1e6);
+        json.put("p50Ms", percentile(sorted, 50));
+        json.put("p90Ms", percentile(sorted, 90));
+        json.put("p95Ms", percentile(sorted, 95));
+        json.put("p99Ms", percentile(sorted, 99));
+        json.put("maxMs", mCount == 0 ? 0 : sorted[mCount - 1] / 1e6);
+        return json;
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
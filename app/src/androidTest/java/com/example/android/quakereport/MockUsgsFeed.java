@@ -0,0 +1,157 @@
+package com.example.android.quakereport;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * 模拟USGS fdsnws查询接口的响应。
+ * 数据由固定的种子生成，时间分布在最近29天内；支持minmag、orderby、starttime、endtime、limit和offset，
+ * 与Loader的分页请求和按时间窗口的并行请求一致。
+ * 请求format=text时按FDSN文本格式响应，可以作为EarthquakeFeedSource.FdsnText数据源。
+ */
+class MockUsgsFeed implements MockHttpServer.Handler {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final String FDSN_HEADER =
+            "#EventID|Time|Latitude|Longitude|Depth/km|Author|Catalog|Contributor|ContributorID|MagType"
+                    + "|Magnitude|MagAuthor|EventLocationName|EventType\n";
+
+    /** 按服务器的排序方式排好的全部地震 */
+    private final List<Earthquake> mByMagnitude;
+
+    private final List<Earthquake> mByTime;
+
+    /**
+     * @param count 地震数量
+     * @param now 最新的地震不晚于这个时间
+     */
+    MockUsgsFeed(int count, long now) {
+        this(count, now, count, "mock");
+    }
+
+    /**
+     * @param seed 生成数据的种子，不同的种子得到不同的地震
+     * @param eventIdPrefix 事件id的前缀，后面接序号
+     */
+    MockUsgsFeed(int count, long now, long seed, String eventIdPrefix) {
+        Random random = new Random(seed);
+        List<Earthquake> earthquakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double magnitude = Math.round(random.nextDouble() * 80) / 10.0;
+            long time = now - 60000 - (long) (random.nextDouble() * 29 * DAY_MILLIS);
+            String place = (1 + random.nextInt(200)) + "km SSW of Town " + random.nextInt(700) + ", Region";
+            earthquakes.add(new Earthquake(magnitude, place, time,
+                    "https://earthquake.usgs.gov/earthquakes/eventpage/" + eventIdPrefix + i,
+                    random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, random.nextDouble() * 600));
+        }
+        mByMagnitude = new ArrayList<>(earthquakes);
+        QueryUtils.sortLikeServer(mByMagnitude, false);
+        mByTime = earthquakes;
+        QueryUtils.sortLikeServer(mByTime, true);
+    }
+
+    /**
+     * 最小等级以上的地震数
+     */
+    int count(double minMagnitude) {
+        int count = 0;
+        for (int i = 0; i < mByTime.size(); i++) {
+            if (mByTime.get(i).getMagnitude() >= minMagnitude) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public MockHttpServer.Response handle(MockHttpServer.Request request) throws Exception {
+        // FDSN数据源使用标准的minmagnitude
+        String minMagnitudeParameter = request.parameter("minmag") != null
+                ? request.parameter("minmag") : request.parameter("minmagnitude");
+        double minMagnitude = minMagnitudeParameter == null ? 0 : Double.parseDouble(minMagnitudeParameter);
+        boolean text = "text".equals(request.parameter("format"));
+        long startTime = parseTime(request.parameter("starttime"), Long.MIN_VALUE);
+        long endTime = parseTime(request.parameter("endtime"), Long.MAX_VALUE);
+        int limit = request.parameter("limit") == null
+                ? Integer.MAX_VALUE : Integer.parseInt(request.parameter("limit"));
+        // FDSN的offset从1开始
+        int offset = request.parameter("offset") == null ? 1 : Integer.parseInt(request.parameter("offset"));
+        List<Earthquake> sorted = "magnitude".equals(request.parameter("orderby")) ? mByMagnitude : mByTime;
+
+        StringBuilder body = new StringBuilder(text ? FDSN_HEADER : "{\"type\":\"FeatureCollection\",\"features\":[");
+        int matched = 0;
+        int written = 0;
+        for (int i = 0; i < sorted.size() && written < limit; i++) {
+            Earthquake earthquake = sorted.get(i);
+            long time = earthquake.getTimeInMilliseconds();
+            if (earthquake.getMagnitude() < minMagnitude || time < startTime || time >= endTime) {
+                continue;
+            }
+            if (++matched < offset) {
+                continue;
+            }
+            if (text) {
+                written++;
+                appendEvent(body, earthquake);
+                continue;
+            }
+            if (written++ > 0) {
+                body.append(',');
+            }
+            appendFeature(body, earthquake);
+        }
+        if (text) {
+            return new MockHttpServer.Response(200, body.toString().getBytes(UTF_8))
+                    .header("Content-Type", "text/plain");
+        }
+        body.append("]}");
+        return new MockHttpServer.Response(200, body.toString().getBytes(UTF_8))
+                .header("Content-Type", "application/json");
+    }
+
+    private static void appendEvent(StringBuilder text, Earthquake earthquake) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        text.append(EarthquakeFanOut.eventId(earthquake.getUrl()))
+                .append('|').append(format.format(earthquake.getTimeInMilliseconds()))
+                .append('|').append(earthquake.getLatitude())
+                .append('|').append(earthquake.getLongitude())
+                .append('|').append(earthquake.getDepth())
+                .append("|MOCK|MOCK|MOCK|1|ML|").append(earthquake.getMagnitude())
+                .append("|MOCK|").append(earthquake.getLocation())
+                .append("|earthquake\n");
+    }
+
+    private static void appendFeature(StringBuilder json, Earthquake earthquake) {
+        json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(earthquake.getMagnitude())
+                .append(",\"place\":\"").append(earthquake.getLocation())
+                .append("\",\"time\":").append(earthquake.getTimeInMilliseconds())
+                .append(",\"updated\":").append(earthquake.getTimeInMilliseconds() + 120000)
+                .append(",\"tz\":null,\"url\":\"").append(earthquake.getUrl())
+                .append("\",\"felt\":null,\"cdi\":null,\"mmi\":null,\"alert\":null,\"status\":\"reviewed\",")
+                .append("\"tsunami\":0,\"sig\":").append((int) (earthquake.getMagnitude() * 100))
+                .append(",\"net\":\"us\",\"magType\":\"mb\",\"type\":\"earthquake\"},")
+                .append("\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                .append(earthquake.getLongitude()).append(',')
+                .append(earthquake.getLatitude()).append(',')
+                .append(earthquake.getDepth()).append("]}}");
+    }
+
+    private static long parseTime(String time, long defaultValue) throws ParseException {
+        if (time == null) {
+            return defaultValue;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.parse(time).getTime();
+    }
+}
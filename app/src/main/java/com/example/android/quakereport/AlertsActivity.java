@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.support.v7.app.AlertDialog;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.Toast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 提醒规则的列表。菜单中添加规则，长按删除。
+ * 规则由后台同步和实时模式在收到新的地震时检查，见EarthquakeAlerts
+ */
+public class AlertsActivity extends AppCompatActivity {
+
+    /** 不填写次数和时间时的默认值 */
+    private static final int DEFAULT_COUNT = 1;
+    private static final int DEFAULT_WINDOW_HOURS = 24;
+
+    /** 时间范围的上限，与本地保存的数据一致 */
+    private static final long MAX_WINDOW_MILLIS = EarthquakeFanOut.DEFAULT_HISTORY_MILLIS;
+
+    private static final long HOUR_MILLIS = 60L * 60 * 1000;
+
+    private EarthquakeAlerts mAlerts;
+
+    /** 与列表中各行对应的规则 */
+    private final List<EarthquakeAlertRule> mRules = new ArrayList<>();
+
+    private ArrayAdapter<String> mAdapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.alerts_activity);
+        mAlerts = EarthquakeAlerts.getInstance(this);
+
+        mAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, new ArrayList<String>());
+        ListView listView = (ListView) findViewById(R.id.alert_rules);
+        listView.setEmptyView(findViewById(R.id.alert_rules_empty));
+        listView.setAdapter(mAdapter);
+        listView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+                confirmDelete(mRules.get(position));
+                return true;
+            }
+        });
+        showRules();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.alerts, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_add_alert_rule) {
+            showAddDialog();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showRules() {
+        mRules.clear();
+        mRules.addAll(mAlerts.getRules());
+        mAdapter.clear();
+        for (int i = 0; i < mRules.size(); i++) {
+            mAdapter.add(describe(mRules.get(i)));
+        }
+    }
+
+    /**
+     * 列表中显示的名称和条件
+     */
+    private String describe(EarthquakeAlertRule rule) {
+        int hours = (int) (rule.windowMillis / HOUR_MILLIS);
+        String condition = rule.isRegional()
+                ? getString(R.string.alert_rule_regional, rule.minMagnitude, rule.latitude, rule.longitude,
+                rule.radiusKm, rule.minCount, hours)
+                : getString(R.string.alert_rule_global, rule.minMagnitude, rule.minCount, hours);
+        return rule.name + "\n" + condition;
+    }
+
+    private void confirmDelete(final EarthquakeAlertRule rule) {
+        new AlertDialog.Builder(this)
+                .setTitle(rule.name)
+                .setMessage(R.string.alerts_delete_confirm)
+                .setPositiveButton(R.string.alerts_delete, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mAlerts.removeRule(rule.id);
+                        showRules();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void showAddDialog() {
+        final View view = getLayoutInflater().inflate(R.layout.alert_rule_dialog, null);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.alerts_add)
+                .setView(view)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        EarthquakeAlertRule rule = readRule(view);
+                        if (rule == null) {
+                            Toast.makeText(AlertsActivity.this, R.string.alerts_invalid_rule, Toast.LENGTH_LONG)
+                                    .show();
+                            return;
+                        }
+                        mAlerts.addRule(rule);
+                        showRules();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * 从对话框读取规则，等级缺失、区域只填了一部分或数值超出范围时返回null
+     */
+    private EarthquakeAlertRule readRule(View view) {
+        String name = text(view, R.id.alert_rule_name);
+        String latitude = text(view, R.id.alert_rule_latitude);
+        String longitude = text(view, R.id.alert_rule_longitude);
+        String radius = text(view, R.id.alert_rule_radius);
+        String count = text(view, R.id.alert_rule_count);
+        String window = text(view, R.id.alert_rule_window);
+        boolean regional = !latitude.isEmpty() || !longitude.isEmpty() || !radius.isEmpty();
+        if (regional && (latitude.isEmpty() || longitude.isEmpty() || radius.isEmpty())) {
+            return null;
+        }
+        try {
+            double minMagnitude = Double.parseDouble(text(view, R.id.alert_rule_min_magnitude));
+            double latitudeValue = regional ? Double.parseDouble(latitude) : Double.NaN;
+            double longitudeValue = regional ? Double.parseDouble(longitude) : Double.NaN;
+            double radiusValue = regional ? Double.parseDouble(radius) : Double.NaN;
+            int countValue = count.isEmpty() ? DEFAULT_COUNT : Integer.parseInt(count);
+            long windowMillis = (window.isEmpty() ? DEFAULT_WINDOW_HOURS : Integer.parseInt(window)) * HOUR_MILLIS;
+            if (regional && (Math.abs(latitudeValue) > 90 || Math.abs(longitudeValue) > 180 || !(radiusValue > 0))
+                    || countValue < 1 || windowMillis <= 0 || windowMillis > MAX_WINDOW_MILLIS) {
+                return null;
+            }
+            if (name.isEmpty()) {
+                name = getString(R.string.alert_rule_default_name, minMagnitude);
+            }
+            // 编号由EarthquakeAlertEngine分配
+            return new EarthquakeAlertRule(0, name, minMagnitude, latitudeValue, longitudeValue, radiusValue,
+                    countValue, windowMillis);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String text(View view, int id) {
+        return ((EditText) view.findViewById(id)).getText().toString().trim();
+    }
+}
@@ -32,12 +32,30 @@ public class Earthquake {
     /** 详细信息的网页URL */
     private String mUrl;
 
-    /** 构造方法 */
+    /** 震中纬度，没有时为NaN */
+    private double mLatitude;
+
+    /** 震中经度，没有时为NaN */
+    private double mLongitude;
+
+    /** 震源深度，单位千米，没有时为NaN */
+    private double mDepth;
+
+    /** 构造方法，没有震中位置 */
     public Earthquake(double magnitude, String location, long timeInMilliseconds, String url) {
+        this(magnitude, location, timeInMilliseconds, url, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /** 构造方法 */
+    public Earthquake(double magnitude, String location, long timeInMilliseconds, String url,
+                      double latitude, double longitude, double depth) {
         mMagnitude = magnitude;
         mLocation = location;
         mTimeInMilliseconds = timeInMilliseconds;
         mUrl = url;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mDepth = depth;
     }
 
     /**
@@ -67,4 +85,32 @@ public class Earthquake {
     public String getUrl() {
         return mUrl;
     }
+
+    /**
+     * 获取震中纬度
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * 获取震中经度
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * 获取震源深度
+     */
+    public double getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * 是否有震中位置
+     */
+    public boolean hasCoordinates() {
+        return !Double.isNaN(mLatitude) && !Double.isNaN(mLongitude);
+    }
 }
@@ -25,17 +25,23 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.net.ConnectivityManagerCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class EarthquakeActivity extends AppCompatActivity
         implements LoaderCallbacks<List<Earthquake>>,   //异步线程接口，需重写三个方法
@@ -44,48 +50,131 @@ public class EarthquakeActivity extends AppCompatActivity
     private static final String LOG_TAG = EarthquakeActivity.class.getName();
 
     /** 地震数据访问网址 */
-    private static final String USGS_REQUEST_URL =
+    static final String USGS_REQUEST_URL =
             "https://earthquake.usgs.gov/fdsnws/event/1/query";
 
+    /** 实际使用的数据访问网址，仪器测试中换成本地的模拟服务器 */
+    private static volatile String sRequestUrl = USGS_REQUEST_URL;
+
     /**loader多线程id*/
     private static final int EARTHQUAKE_LOADER_ID = 1;
 
-    /**地震数据listview适配器 */
+    /** 距离列表末尾还剩多少条时开始加载下一页 */
+    private static final int PREFETCH_DISTANCE = 5;
+
+    /** 停止滚动时，在可见行之外向两侧各预取多少行的详细信息 */
+    private static final int DETAIL_PREFETCH_ROWS = 5;
+
+    /** 保存是否显示地图，活动重建后恢复 */
+    private static final String STATE_SHOW_MAP = "show_map";
+
+    /**地震数据列表适配器 */
     private EarthquakeAdapter mAdapter;
 
+    private LinearLayoutManager mLayoutManager;
+
+    /** 与列表显示同样数据的地图，二者只显示一个 */
+    private EarthquakeMapView mMapView;
+
+    /** 是否显示地图而不是列表 */
+    private boolean mShowMap;
+
     /** 无数据下显示的文本 */
     private TextView mEmptyStateTextView;
 
+    /** 启动时网络是否连接 */
+    private boolean mConnected;
+
+    /** 是否处于实时模式 */
+    private boolean mLiveMode;
+
+    /** 实时模式的轮询，活动可见时才运行 */
+    private EarthquakeLiveFeed mLiveFeed;
+
+    /** 合并连续的设置变化后刷新列表 */
+    private EarthquakeRefreshPipeline mRefreshPipeline;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
 
         // 初始化控件
-        ListView earthquakeListView = (ListView) findViewById(R.id.list);
+        RecyclerView earthquakeListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        earthquakeListView.setLayoutManager(layoutManager);
+        mLayoutManager = layoutManager;
+        // 列表项高度固定，内容变化时不需要重新测量列表
+        earthquakeListView.setHasFixedSize(true);
         // 初始化控件
         mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
-        //设置listview无内容下显示mEmptyStateTextView
-        earthquakeListView.setEmptyView(mEmptyStateTextView);
 
         // 初始化控件
-        mAdapter = new EarthquakeAdapter(this, new ArrayList<Earthquake>());
-        //listview使用适配器
+        mAdapter = new EarthquakeAdapter(this);
+        //列表使用适配器
         earthquakeListView.setAdapter(mAdapter);
+        //RecyclerView没有setEmptyView，数据变化时自己切换无内容下的文本
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
 
         //获取SharedPreferences
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
         // 注册SharedPreferences的监听，获得SharedPreferences的内容变化
         prefs.registerOnSharedPreferenceChangeListener(this);
-
-        //监听listview的点击事件
-        earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mLiveMode = prefs.getBoolean(getString(R.string.settings_live_mode_key), false);
+
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mRefreshPipeline = new EarthquakeRefreshPipeline(EarthquakeRefreshPipeline.DEBOUNCE_MILLIS,
+                new EarthquakeRefreshPipeline.Scheduler() {
+                    @Override
+                    public void postDelayed(Runnable runnable, long delayMillis) {
+                        mainHandler.postDelayed(runnable, delayMillis);
+                    }
+
+                    @Override
+                    public void removeCallbacks(Runnable runnable) {
+                        mainHandler.removeCallbacks(runnable);
+                    }
+                },
+                new EarthquakeRefreshPipeline.Target() {
+                    @Override
+                    public String buildQueryUri() {
+                        return EarthquakeActivity.this.buildQueryUri();
+                    }
+
+                    @Override
+                    public boolean refresh(String uri) {
+                        // 请求和网络加载次数记录在EarthquakeMetrics中，在指标页面查看
+                        return refreshQuery();
+                    }
+                });
+
+        //监听列表项和地图标记的点击事件
+        EarthquakeAdapter.OnItemClickListener onItemClickListener = new EarthquakeAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                // 获取点击的地震数据
-                Earthquake currentEarthquake = mAdapter.getItem(position);
-
-                // 获取网址
+            public void onItemClick(Earthquake currentEarthquake) {
+                // USGS的事件在应用内显示详细信息
+                if (EarthquakeDetailCache.hasDetail(currentEarthquake.getUrl())) {
+                    startActivity(EarthquakeDetailActivity.newIntent(EarthquakeActivity.this, currentEarthquake));
+                    return;
+                }
+
+                // 其他数据源的事件，获取网址
                 Uri earthquakeUri = Uri.parse(currentEarthquake.getUrl());
 
                 // 建立跳转到浏览器的Intent
@@ -94,6 +183,35 @@ public class EarthquakeActivity extends AppCompatActivity
                 // 开始活动跳转到浏览器页面
                 startActivity(websiteIntent);
             }
+        };
+        mAdapter.setOnItemClickListener(onItemClickListener);
+
+        // 地图显示适配器中的数据，随列表一起更新
+        mMapView = (EarthquakeMapView) findViewById(R.id.map);
+        mMapView.setAdapter(mAdapter);
+        mMapView.setOnItemClickListener(onItemClickListener);
+        showMap(savedInstanceState != null && savedInstanceState.getBoolean(STATE_SHOW_MAP));
+
+        //监听列表的滚动，接近末尾时加载下一页；停止滚动时预取附近行的详细信息
+        earthquakeListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    prefetchDetails();
+                }
+            }
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (mLiveMode) {
+                    return;
+                }
+                int totalItemCount = mAdapter.getItemCount();
+                if (totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - 1 - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
         });
 
         // 获取系统网络管理服务
@@ -103,83 +221,410 @@ public class EarthquakeActivity extends AppCompatActivity
         // 获取网络状况的数据
         NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
 
-        // 判断网络是否连接,开启网络访问线程
-        if (networkInfo != null && networkInfo.isConnected()) {
-            // 获得多线程LoaderManager
-            LoaderManager loaderManager = getLoaderManager();
-            //初始化loader
-            // loader接口监听回调
-            loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
-        } else {
+        // 判断网络是否连接
+        mConnected = networkInfo != null && networkInfo.isConnected();
 
-            //隐藏加载进度条
-            View loadingIndicator = findViewById(R.id.loading_indicator);
-            loadingIndicator.setVisibility(View.GONE);
+        // 安排后台定期同步，打开应用时直接显示本地数据
+        EarthquakeSyncWorker.schedule(this, false);
+
+        // 无论是否联网都开启加载线程：本地数据或磁盘缓存中有数据时，离线也能立即显示
+        // 获得多线程LoaderManager
+        LoaderManager loaderManager = getLoaderManager();
+        //初始化loader
+        // loader接口监听回调
+        loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
+        // Loader的数据按当前设置显示，见onLoadFinished
+        mRefreshPipeline.setAppliedUri(buildQueryUri());
+    }
 
-            // 显示文本
-            mEmptyStateTextView.setText(R.string.no_internet_connection);
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (mLiveMode) {
+            startLiveFeed();
         }
     }
 
+    @Override
+    protected void onStop() {
+        stopLiveFeed();
+        super.onStop();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_SHOW_MAP, mShowMap);
+    }
+
+    @Override
+    protected void onDestroy() {
+        PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(this);
+        mRefreshPipeline.shutdown();
+        super.onDestroy();
+    }
+
     /**
      * SharedPreferences内容发生变化，重新加载内容
      */
     @Override
     public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
-        //键判断，清除内容，重写加载
+        //同步的约束条件改变，重新安排定期同步
+        if (key.equals(getString(R.string.settings_sync_unmetered_key)) ||
+                key.equals(getString(R.string.settings_sync_charging_key))) {
+            EarthquakeSyncWorker.schedule(this, true);
+            return;
+        }
+        //切换实时模式
+        if (key.equals(getString(R.string.settings_live_mode_key))) {
+            setLiveMode(prefs.getBoolean(key, false));
+            return;
+        }
+        //本地数据按最小等级和数据源同步，改变后尽快重新同步
         if (key.equals(getString(R.string.settings_min_magnitude_key)) ||
-                key.equals(getString(R.string.settings_order_by_key))){
-            mAdapter.clear();
-            // 隐藏无内容下的文本
-            mEmptyStateTextView.setVisibility(View.GONE);
+                key.equals(getString(R.string.settings_sources_key))) {
+            EarthquakeSyncWorker.syncNow(this);
+        }
+        //实时模式下只重新开始轮询，退出实时模式时再按新的设置显示Loader的数据
+        if (mLiveMode) {
+            if (key.equals(getString(R.string.settings_min_magnitude_key))) {
+                stopLiveFeed();
+                startLiveFeed();
+            }
+            return;
+        }
+        //键判断，连续修改多项设置时合并为一次刷新，查询不变时不刷新
+        if (key.equals(getString(R.string.settings_min_magnitude_key)) ||
+                key.equals(getString(R.string.settings_order_by_key)) ||
+                key.equals(getString(R.string.settings_sources_key))){
+            mRefreshPipeline.requestRefresh();
+        }
+    }
+
+    /**
+     * 按当前的设置刷新列表，清除内容，重新加载
+     * @return 重启了Loader、需要访问网络时返回true
+     */
+    private boolean refreshQuery() {
+        // 新查询是已加载数据的子集时，在本地过滤排序，不访问网络
+        Loader<List<Earthquake>> loader = getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+        String minMagnitude = getMinMagnitudePreference();
+        if (loader != null && ((EarthquakeLoader) loader).canFilterLocally(minMagnitude, getSourcesPreference())) {
+            showFilteredLocally((EarthquakeLoader) loader, minMagnitude, getOrderByPreference());
+            return false;
+        }
+
+        mAdapter.clear();
+        // 隐藏无内容下的文本
+        mEmptyStateTextView.setVisibility(View.GONE);
+
+        // 显示progressbar
+        View loadingIndicator = findViewById(R.id.loading_indicator);
+        loadingIndicator.setVisibility(View.VISIBLE);
+
+        // 重启Loader,加载内容
+        getLoaderManager().restartLoader(EARTHQUAKE_LOADER_ID, null, this);
+        return true;
+    }
+
+    /**
+     * 进入或退出实时模式
+     */
+    private void setLiveMode(boolean liveMode) {
+        if (liveMode == mLiveMode) {
+            return;
+        }
+        mLiveMode = liveMode;
+        invalidateOptionsMenu();
+        if (liveMode) {
+            mRefreshPipeline.cancelPending();
+            startLiveFeed();
+            return;
+        }
+        stopLiveFeed();
+        // 按当前设置恢复Loader的数据
+        mRefreshPipeline.setAppliedUri(buildQueryUri());
+        Loader<List<Earthquake>> loader = getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+        String minMagnitude = getMinMagnitudePreference();
+        if (loader != null && ((EarthquakeLoader) loader).canFilterLocally(minMagnitude, getSourcesPreference())) {
+            findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+            showFilteredLocally((EarthquakeLoader) loader, minMagnitude, getOrderByPreference());
+            return;
+        }
+        mAdapter.clear();
+        mEmptyStateTextView.setVisibility(View.GONE);
+        findViewById(R.id.loading_indicator).setVisibility(View.VISIBLE);
+        showSummary(null);
+        getLoaderManager().restartLoader(EARTHQUAKE_LOADER_ID, null, this);
+    }
 
-            // 显示progressbar
-            View loadingIndicator = findViewById(R.id.loading_indicator);
-            loadingIndicator.setVisibility(View.VISIBLE);
+    /**
+     * 开始实时轮询，列表换成实时数据，按时间从新到旧
+     */
+    private void startLiveFeed() {
+        double minMagnitude;
+        try {
+            minMagnitude = Double.parseDouble(getMinMagnitudePreference());
+        } catch (NumberFormatException e) {
+            minMagnitude = Double.parseDouble(getString(R.string.settings_min_magnitude_default));
+        }
+        mAdapter.clear();
+        mEmptyStateTextView.setVisibility(View.GONE);
+        findViewById(R.id.loading_indicator).setVisibility(View.VISIBLE);
+        showSummary(null);
+
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mLiveFeed = new EarthquakeLiveFeed(minMagnitude,
+                new EarthquakeRowFormatter(getString(R.string.near_the)),
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        mainHandler.post(command);
+                    }
+                },
+                new EarthquakeLiveFeed.Listener() {
+                    @Override
+                    public void onLiveRows(EarthquakeTable.RowView rows, int inserted, int updated) {
+                        findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+                        mEmptyStateTextView.setText(R.string.no_earthquakes);
+                        // 修改的地震保持原来的稳定id，只刷新对应的行
+                        mAdapter.setRows(rows);
+                    }
+                });
+        final EarthquakeAlerts alerts = EarthquakeAlerts.getInstance(this);
+        mLiveFeed.setChangeListener(new EarthquakeLiveFeed.ChangeListener() {
+            @Override
+            public void onChanges(List<Earthquake> changes) {
+                alerts.ingest(changes, System.currentTimeMillis());
+            }
+        });
+        mLiveFeed.start();
+    }
 
-            // 重启Loader,加载内容
-            getLoaderManager().restartLoader(EARTHQUAKE_LOADER_ID, null, this);
+    /**
+     * 停止实时轮询
+     */
+    private void stopLiveFeed() {
+        if (mLiveFeed != null) {
+            mLiveFeed.stop();
+            mLiveFeed = null;
         }
     }
 
-    /**创建Loader*/
-    @Override
-    public Loader<List<Earthquake>> onCreateLoader(int i, Bundle bundle) {
+    /**
+     * 获取设置的最小等级
+     */
+    private String getMinMagnitudePreference() {
         //获取一个SharedPreferences实例，该实例指向给定上下文中的首选项框架使用的默认文件。
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
-        String minMagnitude = sharedPrefs.getString(
+        return sharedPrefs.getString(
                 getString(R.string.settings_min_magnitude_key),
                 getString(R.string.settings_min_magnitude_default));
+    }
 
-        String orderBy = sharedPrefs.getString(
+    /**
+     * 获取设置的排序方式
+     */
+    private String getOrderByPreference() {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        return sharedPrefs.getString(
                 getString(R.string.settings_order_by_key),
                 getString(R.string.settings_order_by_default)
         );
+    }
+
+    /**
+     * 获取设置的并行请求数，下次创建Loader时生效
+     */
+    private int getConcurrencyPreference() {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        String concurrency = sharedPrefs.getString(
+                getString(R.string.settings_concurrency_key),
+                getString(R.string.settings_concurrency_default));
+        try {
+            return Integer.parseInt(concurrency);
+        } catch (NumberFormatException e) {
+            return Integer.parseInt(getString(R.string.settings_concurrency_default));
+        }
+    }
+
+    /**
+     * 获取设置的附加数据源，排序后以逗号分隔，没有时为空字符串
+     */
+    private String getSourcesPreference() {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        return EarthquakeFeedSource.joinIds(sharedPrefs.getStringSet(
+                getString(R.string.settings_sources_key), Collections.<String>emptySet()));
+    }
+
+    /**
+     * 在列表和地图之间切换
+     */
+    private void showMap(boolean showMap) {
+        mShowMap = showMap;
+        findViewById(R.id.list).setVisibility(showMap ? View.GONE : View.VISIBLE);
+        mMapView.setVisibility(showMap ? View.VISIBLE : View.GONE);
+    }
 
-        Uri baseUri = Uri.parse(USGS_REQUEST_URL);
+    /**
+     * 有数据时显示列表，否则显示无内容下的文本
+     */
+    private void updateEmptyView() {
+        mEmptyStateTextView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * 用Loader已加载的数据在本地过滤排序，替换列表的内容。
+     * 顺序整体变化，直接替换而不计算差异
+     */
+    private void showFilteredLocally(EarthquakeLoader loader, String minMagnitude, String orderBy) {
+        EarthquakeTable table = loader.getTable();
+        if (loader.hasQuery(minMagnitude, orderBy)) {
+            // 与Loader的查询相同，直接使用服务器返回的顺序
+            mAdapter.replaceRows(table.view());
+            showSummary(loader.getAggregator());
+        } else {
+            boolean orderByTime = orderBy.equals(getString(R.string.settings_order_by_most_recent_value));
+            int[] rows = loader.getIndex().query(Double.parseDouble(minMagnitude), orderByTime);
+            mAdapter.replaceRows(table.view(rows));
+            // 汇总包含被过滤掉的地震，与列表不一致
+            showSummary(null);
+        }
+    }
+
+    /**
+     * 在标题下显示已加载数据最近24小时的数量和最大等级，只读取汇总的时间段
+     * @param aggregator 列表显示的全部数据的汇总，为null时不显示
+     */
+    private void showSummary(EarthquakeAggregator aggregator) {
+        if (getSupportActionBar() == null) {
+            return;
+        }
+        if (aggregator == null) {
+            getSupportActionBar().setSubtitle(null);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        EarthquakeAggregator.Summary summary = aggregator.summarize(now - EarthquakeAggregator.DAY_MILLIS, now);
+        getSupportActionBar().setSubtitle(summary.count == 0
+                ? getString(R.string.summary_last_day_none)
+                : getString(R.string.summary_last_day, summary.count, summary.maxMagnitude));
+    }
+
+    /**
+     * 数据访问网址，Loader和后台同步共用
+     */
+    static String getRequestUrl() {
+        return sRequestUrl;
+    }
+
+    /**
+     * 替换数据访问网址，之后创建的Loader和同步任务生效
+     */
+    @VisibleForTesting
+    static void setRequestUrl(String requestUrl) {
+        sRequestUrl = requestUrl;
+    }
+
+    /**
+     * 按当前的设置生成查询网址
+     */
+    private String buildQueryUri() {
+        Uri baseUri = Uri.parse(getRequestUrl());
         Uri.Builder uriBuilder = baseUri.buildUpon();
 
+        // limit和offset由EarthquakeLoader按页添加
         uriBuilder.appendQueryParameter("format", "geojson");
-        uriBuilder.appendQueryParameter("limit", "10");
-        uriBuilder.appendQueryParameter("minmag", minMagnitude);
-        uriBuilder.appendQueryParameter("orderby", orderBy);
+        uriBuilder.appendQueryParameter("minmag", getMinMagnitudePreference());
+        uriBuilder.appendQueryParameter("orderby", getOrderByPreference());
+        // 附加数据源只在应用内使用，请求前由EarthquakeFeedSource去掉
+        String sources = getSourcesPreference();
+        if (!sources.isEmpty()) {
+            uriBuilder.appendQueryParameter(EarthquakeFeedSource.PARAM_SOURCES, sources);
+        }
+        return uriBuilder.toString();
+    }
 
-        return new EarthquakeLoader(this, uriBuilder.toString());
+    /**创建Loader*/
+    @Override
+    public Loader<List<Earthquake>> onCreateLoader(int i, Bundle bundle) {
+        return new EarthquakeLoader(this, buildQueryUri(), getMinMagnitudePreference(), getOrderByPreference(),
+                getConcurrencyPreference());
     }
-    /**Loader加载内容完成*/
+    /**
+     * Loader加载完一页
+     * @param earthquakes 新加载的一页数据
+     */
     @Override
     public void onLoadFinished(Loader<List<Earthquake>> loader, List<Earthquake> earthquakes) {
+        // 实时模式下列表显示实时数据，Loader的数据留到退出实时模式时显示
+        if (mLiveMode) {
+            return;
+        }
+
         // 隐藏progressBar。隐藏progressBar加载布局是自动出现
         View loadingIndicator = findViewById(R.id.loading_indicator);
         loadingIndicator.setVisibility(View.GONE);
 
-        // 设置无内容下的显示
-        mEmptyStateTextView.setText(R.string.no_earthquakes);
+        // 设置无内容下的显示；离线且没有缓存时提示没有网络
+        mEmptyStateTextView.setText(mConnected ? R.string.no_earthquakes : R.string.no_internet_connection);
+
+        // Loader保存的是设置变化前更大范围的数据，重新在本地过滤排序
+        EarthquakeLoader earthquakeLoader = (EarthquakeLoader) loader;
+        String minMagnitude = getMinMagnitudePreference();
+        String orderBy = getOrderByPreference();
+        if (!earthquakeLoader.hasQuery(minMagnitude, orderBy)
+                && earthquakeLoader.canFilterLocally(minMagnitude, getSourcesPreference())) {
+            showFilteredLocally(earthquakeLoader, minMagnitude, orderBy);
+            return;
+        }
+
+        //列表显示Loader的整张表，新的一页已追加在表的末尾，不清除、不复制已有内容。
+        //适配器按稳定id计算差异，只插入新的行，滚动位置不变。
+        //活动重建后新的适配器也能显示之前的各页
+        mAdapter.setRows(earthquakeLoader.getTable().view());
+        showSummary(earthquakeLoader.getAggregator());
+        // 等列表完成布局后才知道可见的行
+        findViewById(R.id.list).post(new Runnable() {
+            @Override
+            public void run() {
+                prefetchDetails();
+            }
+        });
+    }
 
-        //listview显示新内容
-        if (earthquakes != null && !earthquakes.isEmpty()) {
-            //EarthquakeAdapter extends ArrayAdapter<Earthquake>
-            mAdapter.addAll(earthquakes);
+    /**
+     * 预取可见行及附近行的详细信息，打开详细页面时不必等待。
+     * 只在不计流量的网络上预取，大多数预取的事件不会被打开
+     */
+    private void prefetchDetails() {
+        ConnectivityManager connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()
+                || ConnectivityManagerCompat.isActiveNetworkMetered(connMgr)) {
+            return;
+        }
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+            return;
+        }
+        List<Integer> positions = EarthquakeDetailCache.prefetchPositions(first, last, mAdapter.getItemCount(),
+                DETAIL_PREFETCH_ROWS);
+        List<String> eventUrls = new ArrayList<>(positions.size());
+        for (int i = 0; i < positions.size(); i++) {
+            eventUrls.add(mAdapter.getUrl(positions.get(i)));
+        }
+        EarthquakeDetailCache.getInstance().prefetch(eventUrls);
+    }
+
+    /**
+     * 列表接近末尾，请求Loader加载下一页
+     */
+    private void loadNextPage() {
+        Loader<List<Earthquake>> loader = getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+        if (loader != null) {
+            ((EarthquakeLoader) loader).loadNextPage();
         }
     }
 
@@ -187,12 +632,19 @@ public class EarthquakeActivity extends AppCompatActivity
     @Override
     public void onLoaderReset(Loader<List<Earthquake>> loader) {
         // Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+        if (!mLiveMode) {
+            mAdapter.clear();
+            showSummary(null);
+        }
     }
     /**创造actionbar的菜单*/
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_live).setChecked(mLiveMode);
+        menu.findItem(R.id.action_map).setChecked(mShowMap);
+        // 指标页面只用于调试
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
         //返回false则不显示
         return true;
     }
@@ -206,6 +658,26 @@ public class EarthquakeActivity extends AppCompatActivity
             startActivity(settingsIntent);
             return true;
         }
+        if (id == R.id.action_map) {
+            showMap(!mShowMap);
+            item.setChecked(mShowMap);
+            return true;
+        }
+        if (id == R.id.action_alerts) {
+            startActivity(new Intent(this, AlertsActivity.class));
+            return true;
+        }
+        if (id == R.id.action_metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
+        }
+        if (id == R.id.action_live) {
+            // 保存到设置，由onSharedPreferenceChanged切换
+            PreferenceManager.getDefaultSharedPreferences(this).edit()
+                    .putBoolean(getString(R.string.settings_live_mode_key), !mLiveMode)
+                    .apply();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 }
@@ -17,94 +17,254 @@ package com.example.android.quakereport;
 
 import android.content.Context;
 import android.graphics.drawable.GradientDrawable;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
-*   编写地震适配器，显示listview的内容
+*   编写地震适配器，显示RecyclerView的内容。
+*   数据来自列式存储的EarthquakeTable，按位置读取视图中对应的行。
+*   显示文本已在后台预先格式化，颜色在创建时解析一次，绑定时不分配对象。
+*   同一查询的数据刷新时在后台线程计算差异，只通知变化的行，保持滚动位置
  */
-public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
+public class EarthquakeAdapter extends RecyclerView.Adapter<EarthquakeAdapter.ViewHolder> {
 
-    /**字符串切割点*/
-    private static final String LOCATION_SEPARATOR = " of ";
+    /** 各等级区间的颜色资源，下标为MagnitudeBand.of()的结果 */
+    private static final int[] MAGNITUDE_COLOR_RESOURCE_IDS = {
+            R.color.magnitude1,
+            R.color.magnitude2,
+            R.color.magnitude3,
+            R.color.magnitude4,
+            R.color.magnitude5,
+            R.color.magnitude6,
+            R.color.magnitude7,
+            R.color.magnitude8,
+            R.color.magnitude9,
+            R.color.magnitude10plus
+    };
+
+    private static final long[] EMPTY = new long[0];
+
+    /** 计算差异的后台线程 */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /** 列表项点击监听 */
+    public interface OnItemClickListener {
+        void onItemClick(Earthquake earthquake);
+    }
+
+    private final Context mContext;
+
+    /** 已解析的各等级区间颜色 */
+    private final int[] mMagnitudeColors = new int[MagnitudeBand.COUNT];
+
+    /** 把差异结果发回主线程 */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** 显示的数据视图，为null时没有数据 */
+    private EarthquakeTable.RowView mRows;
+
+    /** 当前数据各行的稳定id和内容摘要 */
+    private long[] mIds = EMPTY;
+    private long[] mContents = EMPTY;
+
+    /** 每次设置数据加一，丢弃过时的差异结果 */
+    private int mGeneration;
+
+    private OnItemClickListener mOnItemClickListener;
 
     /**
      *
      * @param context
-     * @param earthquakes 适配的数据
      */
-    public EarthquakeAdapter(Context context, List<Earthquake> earthquakes) {
-        super(context, 0, earthquakes);
+    public EarthquakeAdapter(Context context) {
+        mContext = context;
+        for (int band = 0; band < MagnitudeBand.COUNT; band++) {
+            //颜色id参数改为颜色参数
+            mMagnitudeColors[band] = ContextCompat.getColor(context, MAGNITUDE_COLOR_RESOURCE_IDS[band]);
+        }
+        setHasStableIds(true);
     }
 
     /**
-     * 重写实现适配的方法
-     * @param position listview的位置
-     * @param convertView listview item
-     * @param parent listview
-     * @return  返回创造的listview item
+     * 列表项中控件的引用
      */
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        //加载布局
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.earthquake_list_item, parent, false);
+    static final class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView magnitudeView;
+        final GradientDrawable magnitudeCircle;
+        final TextView locationOffsetView;
+        final TextView primaryLocationView;
+        final TextView dateView;
+        final TextView timeView;
+
+        /** 当前圆圈颜色对应的等级区间，相同时不再设置颜色 */
+        int band = -1;
+
+        ViewHolder(View listItemView) {
+            super(listItemView);
+            magnitudeView = (TextView) listItemView.findViewById(R.id.magnitude);
+            // 背景可能与其他列表项共享状态，先mutate再单独设置颜色
+            magnitudeCircle = (GradientDrawable) magnitudeView.getBackground().mutate();
+            locationOffsetView = (TextView) listItemView.findViewById(R.id.location_offset);
+            primaryLocationView = (TextView) listItemView.findViewById(R.id.primary_location);
+            dateView = (TextView) listItemView.findViewById(R.id.date);
+            timeView = (TextView) listItemView.findViewById(R.id.time);
         }
+    }
+
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        mOnItemClickListener = listener;
+    }
 
-        // 获得对应位置的单个地震数据
-        Earthquake currentEarthquake = getItem(position);
-        // 显示地震等级文本；调用编写背景颜色选择方法，数字显示格式方法
-        TextView magnitudeView = (TextView) listItemView.findViewById(R.id.magnitude);
-        String formattedMagnitude = formatMagnitude(currentEarthquake.getMagnitude());
-        magnitudeView.setText(formattedMagnitude);
-
-        GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeView.getBackground();
-        int magnitudeColor = getMagnitudeColor(currentEarthquake.getMagnitude());
-        magnitudeCircle.setColor(magnitudeColor);
-
-        //设置地震地点显示内容。将地点切割为两份显示
-        String originalLocation = currentEarthquake.getLocation();
-        String primaryLocation;
-        String locationOffset;
-        if (originalLocation.contains(LOCATION_SEPARATOR)) {
-            String[] parts = originalLocation.split(LOCATION_SEPARATOR);
-            locationOffset = parts[0] + LOCATION_SEPARATOR;
-            primaryLocation = parts[1];
-        } else {
-            locationOffset = getContext().getString(R.string.near_the);
-            primaryLocation = originalLocation;
+    /**
+     * 同一查询的数据更新（追加新的一页或刷新）。
+     * 在后台线程按稳定id计算新旧数据的差异，只通知插入、删除和内容变化的行
+     */
+    public void setRows(final EarthquakeTable.RowView rows) {
+        final int generation = ++mGeneration;
+        final long[] newIds = stableIds(rows);
+        final long[] newContents = contentHashes(rows);
+        if (mIds.length == 0 || newIds.length == 0) {
+            // 一边为空时不需要计算差异
+            int oldCount = mIds.length;
+            apply(rows, newIds, newContents);
+            if (oldCount > 0) {
+                notifyItemRangeRemoved(0, oldCount);
+            } else if (newIds.length > 0) {
+                notifyItemRangeInserted(0, newIds.length);
+            }
+            return;
         }
 
-        TextView primaryLocationView = (TextView) listItemView.findViewById(R.id.primary_location);
-        primaryLocationView.setText(primaryLocation);
+        final long[] oldIds = mIds;
+        final long[] oldContents = mContents;
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+                        new RowDiffCallback(oldIds, oldContents, newIds, newContents), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        apply(rows, newIds, newContents);
+                        result.dispatchUpdatesTo(EarthquakeAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 换成另一个查询的数据（如本地重新过滤排序），顺序整体变化，不计算差异
+     */
+    public void replaceRows(EarthquakeTable.RowView rows) {
+        mGeneration++;
+        apply(rows, stableIds(rows), contentHashes(rows));
+        notifyDataSetChanged();
+    }
 
-        TextView locationOffsetView = (TextView) listItemView.findViewById(R.id.location_offset);
-        locationOffsetView.setText(locationOffset);
+    /**
+     * 清除显示的数据
+     */
+    public void clear() {
+        replaceRows(null);
+    }
 
-        // 设置显示的日期和时间信息，调用编写的两个时间格式转换方法
-        Date dateObject = new Date(currentEarthquake.getTimeInMilliseconds());
+    private void apply(EarthquakeTable.RowView rows, long[] ids, long[] contents) {
+        mRows = rows;
+        mIds = ids;
+        mContents = contents;
+    }
 
-        TextView dateView = (TextView) listItemView.findViewById(R.id.date);
-        String formattedDate = formatDate(dateObject);
-        dateView.setText(formattedDate);
+    @Override
+    public int getItemCount() {
+        return mIds.length;
+    }
 
-        TextView timeView = (TextView) listItemView.findViewById(R.id.time);
-        String formattedTime = formatTime(dateObject);
-        timeView.setText(formattedTime);
+    /**
+     * 显示的数据视图，没有数据时为null
+     */
+    EarthquakeTable.RowView getRows() {
+        return mRows;
+    }
 
-        //返回UI
-        return listItemView;
+    /**
+     * 把对应位置的行还原为Earthquake对象，只在点击等低频场景使用
+     */
+    public Earthquake getItem(int position) {
+        return mRows.getTable().get(mRows.row(position));
+    }
+
+    /**
+     * 对应位置的事件网址，不创建Earthquake对象，用于预取详细信息
+     */
+    public String getUrl(int position) {
+        return mRows.getTable().getUrl(mRows.row(position));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mIds[position];
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        //加载布局
+        View listItemView = LayoutInflater.from(mContext).inflate(
+                R.layout.earthquake_list_item, parent, false);
+        final ViewHolder holder = new ViewHolder(listItemView);
+        listItemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                int position = holder.getAdapterPosition();
+                if (mOnItemClickListener != null && position != RecyclerView.NO_POSITION) {
+                    mOnItemClickListener.onItemClick(getItem(position));
+                }
+            }
+        });
+        return holder;
+    }
+
+    /**
+     * 重写实现适配的方法
+     * @param holder 列表项
+     * @param position 列表的位置
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long start = System.nanoTime();
+        // 获得对应位置在表中的行
+        EarthquakeTable table = mRows.getTable();
+        int row = mRows.row(position);
+
+        // 显示地震等级文本和背景颜色
+        holder.magnitudeView.setText(table.getMagnitudeText(row));
+        int band = MagnitudeBand.of(table.getMagnitude(row));
+        if (band != holder.band) {
+            holder.magnitudeCircle.setColor(mMagnitudeColors[band]);
+            holder.band = band;
+        }
+
+        //设置地震地点显示内容，地点已切割为两份
+        holder.locationOffsetView.setText(table.getLocationOffset(row));
+        holder.primaryLocationView.setText(table.getPrimaryLocation(row));
+
+        // 设置显示的日期和时间信息
+        holder.dateView.setText(table.getDateText(row));
+        holder.timeView.setText(table.getTimeText(row));
+        EarthquakeMetrics.get().recordDuration(EarthquakeMetrics.SPAN_BIND, System.nanoTime() - start);
     }
 
     /**
@@ -112,73 +272,73 @@ public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
      * @param magnitude 地震等级
      * @return  颜色
      */
-    private int getMagnitudeColor(double magnitude) {
-        int magnitudeColorResourceId;
-        int magnitudeFloor = (int) Math.floor(magnitude);
-        switch (magnitudeFloor) {
-            case 0:
-            case 1:
-                magnitudeColorResourceId = R.color.magnitude1;
-                break;
-            case 2:
-                magnitudeColorResourceId = R.color.magnitude2;
-                break;
-            case 3:
-                magnitudeColorResourceId = R.color.magnitude3;
-                break;
-            case 4:
-                magnitudeColorResourceId = R.color.magnitude4;
-                break;
-            case 5:
-                magnitudeColorResourceId = R.color.magnitude5;
-                break;
-            case 6:
-                magnitudeColorResourceId = R.color.magnitude6;
-                break;
-            case 7:
-                magnitudeColorResourceId = R.color.magnitude7;
-                break;
-            case 8:
-                magnitudeColorResourceId = R.color.magnitude8;
-                break;
-            case 9:
-                magnitudeColorResourceId = R.color.magnitude9;
-                break;
-            default:
-                magnitudeColorResourceId = R.color.magnitude10plus;
-                break;
-        }
-        //颜色id参数改为颜色参数
-        return ContextCompat.getColor(getContext(), magnitudeColorResourceId);
+    int getMagnitudeColor(double magnitude) {
+        return mMagnitudeColors[MagnitudeBand.of(magnitude)];
     }
 
     /**
-     *
-     * @param magnitude 地震等级
-     * @return  固定格式的地震等级
+     * 在主线程取出各行保存在表中的稳定id，后台计算差异时不再读取表（表可能同时在主线程追加）
      */
-    private String formatMagnitude(double magnitude) {
-        DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
-        return magnitudeFormat.format(magnitude);
+    private static long[] stableIds(EarthquakeTable.RowView rows) {
+        if (rows == null || rows.size() == 0) {
+            return EMPTY;
+        }
+        long[] ids = new long[rows.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = rows.getTable().getStableId(rows.row(i));
+        }
+        return ids;
     }
 
     /**
-     *
-     * @param dateObject date对象
-     * @return 日期
+     * 在主线程取出各行追加时算好的内容摘要，不逐行重新计算
      */
-    private String formatDate(Date dateObject) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("LLL dd, yyyy");
-        return dateFormat.format(dateObject);
+    private static long[] contentHashes(EarthquakeTable.RowView rows) {
+        if (rows == null || rows.size() == 0) {
+            return EMPTY;
+        }
+        long[] contents = new long[rows.size()];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = rows.getTable().getContentHash(rows.row(i));
+        }
+        return contents;
     }
 
     /**
-     *
-     * @param dateObject 日期对象
-     * @return 时间
+     * 按稳定id判断是否同一事件，按内容摘要判断是否需要重新绑定
      */
-    private String formatTime(Date dateObject) {
-        SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
-        return timeFormat.format(dateObject);
+    private static final class RowDiffCallback extends DiffUtil.Callback {
+
+        private final long[] mOldIds;
+        private final long[] mOldContents;
+        private final long[] mNewIds;
+        private final long[] mNewContents;
+
+        RowDiffCallback(long[] oldIds, long[] oldContents, long[] newIds, long[] newContents) {
+            mOldIds = oldIds;
+            mOldContents = oldContents;
+            mNewIds = newIds;
+            mNewContents = newContents;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldIds.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewIds.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldIds[oldItemPosition] == mNewIds[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldContents[oldItemPosition] == mNewContents[newItemPosition];
+        }
     }
 }
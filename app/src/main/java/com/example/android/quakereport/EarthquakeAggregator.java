@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * 按时间段增量汇总地震：每个时间段的数量、最大等级和各等级区间的数量。
+ * 时间段保存在环形数组中，只保留最近bucketCount个；加入一条地震是O(1)，
+ * 新的地震超出窗口时清空被移出的时间段，均摊也是O(1)。
+ * 查询只读取时间段，不再遍历原始数据。等级区间与列表的颜色相同，见MagnitudeBand。
+ * 每条地震只应加入一次；不是线程安全的。
+ */
+final class EarthquakeAggregator {
+
+    /** 一小时 */
+    static final long HOUR_MILLIS = 60L * 60 * 1000;
+
+    /** 一天 */
+    static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    /** 每个时间段的长度 */
+    private final long mBucketMillis;
+
+    /** 保留的时间段数 */
+    private final int mBucketCount;
+
+    /** 各时间段的地震数，下标为时间段编号（起始时间 / mBucketMillis）对mBucketCount取模 */
+    private final int[] mCounts;
+
+    /** 各时间段的最大等级，没有地震时为NaN */
+    private final double[] mMaxMagnitudes;
+
+    /** 各时间段各等级区间的地震数，下标为 时间段 * MagnitudeBand.COUNT + 区间 */
+    private final int[] mBandCounts;
+
+    /** 最新时间段的编号，还没有数据时为Long.MIN_VALUE */
+    private long mNewestBucketId = Long.MIN_VALUE;
+
+    /**
+     * @param bucketMillis 每个时间段的长度，如HOUR_MILLIS或DAY_MILLIS
+     * @param bucketCount 保留最近多少个时间段
+     */
+    EarthquakeAggregator(long bucketMillis, int bucketCount) {
+        if (bucketMillis <= 0 || bucketCount <= 0) {
+            throw new IllegalArgumentException("bucketMillis and bucketCount must be positive");
+        }
+        mBucketMillis = bucketMillis;
+        mBucketCount = bucketCount;
+        mCounts = new int[bucketCount];
+        mMaxMagnitudes = new double[bucketCount];
+        mBandCounts = new int[bucketCount * MagnitudeBand.COUNT];
+        Arrays.fill(mMaxMagnitudes, Double.NaN);
+    }
+
+    /**
+     * 加入一条地震
+     * @return 早于保留窗口、没有计入时返回false
+     */
+    boolean add(long timeInMilliseconds, double magnitude) {
+        long bucketId = floorDiv(timeInMilliseconds, mBucketMillis);
+        if (bucketId > mNewestBucketId) {
+            advanceTo(bucketId);
+        } else if (bucketId <= mNewestBucketId - mBucketCount) {
+            return false;
+        }
+        int slot = slot(bucketId);
+        mCounts[slot]++;
+        if (!(mMaxMagnitudes[slot] >= magnitude)) {
+            mMaxMagnitudes[slot] = magnitude;
+        }
+        mBandCounts[slot * MagnitudeBand.COUNT + MagnitudeBand.of(magnitude)]++;
+        return true;
+    }
+
+    /**
+     * 加入表中[fromRow, toRow)的行
+     */
+    void addRows(EarthquakeTable table, int fromRow, int toRow) {
+        for (int row = fromRow; row < toRow; row++) {
+            add(table.getTimeInMilliseconds(row), table.getMagnitude(row));
+        }
+    }
+
+    /**
+     * 窗口移到以bucketId为最新的时间段，清空被移出的时间段
+     */
+    private void advanceTo(long bucketId) {
+        long first = mNewestBucketId == Long.MIN_VALUE
+                ? bucketId - mBucketCount + 1
+                : Math.max(mNewestBucketId + 1, bucketId - mBucketCount + 1);
+        for (long id = first; id <= bucketId; id++) {
+            int slot = slot(id);
+            mCounts[slot] = 0;
+            mMaxMagnitudes[slot] = Double.NaN;
+            Arrays.fill(mBandCounts, slot * MagnitudeBand.COUNT, (slot + 1) * MagnitudeBand.COUNT, 0);
+        }
+        mNewestBucketId = bucketId;
+    }
+
+    /**
+     * 时间段的长度
+     */
+    long getBucketMillis() {
+        return mBucketMillis;
+    }
+
+    /**
+     * 窗口中的时间段数，还没有数据时为0
+     */
+    int getBucketCount() {
+        return mNewestBucketId == Long.MIN_VALUE ? 0 : mBucketCount;
+    }
+
+    /**
+     * 第index个时间段的起始时间，0是最早的时间段
+     */
+    long getBucketStart(int index) {
+        return bucketId(index) * mBucketMillis;
+    }
+
+    /**
+     * 第index个时间段的地震数
+     */
+    int getCount(int index) {
+        return mCounts[slot(bucketId(index))];
+    }
+
+    /**
+     * 第index个时间段的最大等级，没有地震时为NaN
+     */
+    double getMaxMagnitude(int index) {
+        return mMaxMagnitudes[slot(bucketId(index))];
+    }
+
+    /**
+     * 第index个时间段中等级在区间band中的地震数
+     */
+    int getBandCount(int index, int band) {
+        return mBandCounts[slot(bucketId(index)) * MagnitudeBand.COUNT + band];
+    }
+
+    /**
+     * 汇总与[fromTime, toTime)相交的时间段，只读取时间段，不遍历原始数据
+     */
+    Summary summarize(long fromTime, long toTime) {
+        Summary summary = new Summary();
+        if (mNewestBucketId == Long.MIN_VALUE || fromTime >= toTime) {
+            return summary;
+        }
+        long firstId = Math.max(floorDiv(fromTime, mBucketMillis), mNewestBucketId - mBucketCount + 1);
+        long lastId = Math.min(floorDiv(toTime - 1, mBucketMillis), mNewestBucketId);
+        for (long id = firstId; id <= lastId; id++) {
+            int slot = slot(id);
+            summary.count += mCounts[slot];
+            if (mMaxMagnitudes[slot] > summary.maxMagnitude || Double.isNaN(summary.maxMagnitude)) {
+                summary.maxMagnitude = mMaxMagnitudes[slot];
+            }
+            for (int band = 0; band < MagnitudeBand.COUNT; band++) {
+                summary.bandCounts[band] += mBandCounts[slot * MagnitudeBand.COUNT + band];
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * 一段时间的汇总
+     */
+    static final class Summary {
+
+        /** 地震数 */
+        int count;
+
+        /** 最大等级，没有地震时为NaN */
+        double maxMagnitude = Double.NaN;
+
+        /** 各等级区间的地震数，下标为MagnitudeBand.of()的结果 */
+        final int[] bandCounts = new int[MagnitudeBand.COUNT];
+    }
+
+    private long bucketId(int index) {
+        if (index < 0 || index >= getBucketCount()) {
+            throw new IndexOutOfBoundsException("index " + index);
+        }
+        return mNewestBucketId - mBucketCount + 1 + index;
+    }
+
+    private int slot(long bucketId) {
+        int slot = (int) (bucketId % mBucketCount);
+        return slot < 0 ? slot + mBucketCount : slot;
+    }
+
+    /**
+     * 向下取整的除法，早于1970年的时间也落在正确的时间段
+     */
+    private static long floorDiv(long value, long divisor) {
+        long quotient = value / divisor;
+        return (value % divisor != 0 && value < 0) ? quotient - 1 : quotient;
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * 对每批新收到的地震逐条检查提醒规则。
+ * <p>
+ * 规则按区域放入索引，不逐条检查：有区域的规则放入与其外接经纬度范围相交的10°×10°格子，
+ * 全球规则单独一组，每组按最小等级排序。一条地震只查看震中所在格子和全球组中最小等级不高于其等级的规则，
+ * 再逐条计算距离，开销与相关的规则数成正比，与规则总数无关。
+ * <p>
+ * 同一事件可能多次收到（增量同步的重叠、实时feed的修改），已检查过的事件只在等级提高时
+ * 检查最小等级介于新旧等级之间的规则，不重复计数。已检查事件和各规则的计数窗口保留到最长的窗口之外后丢弃。
+ * 不是线程安全的，由调用方同步。
+ */
+final class EarthquakeAlertEngine {
+
+    /** 已检查事件至少保留的时间，也是全部规则窗口都很短时仍能识别重复事件的时间 */
+    static final long MIN_RETAIN_MILLIS = 24L * 60 * 60 * 1000;
+
+    /** 清理过期状态的间隔，不在每条地震时清理 */
+    private static final long PRUNE_INTERVAL_MILLIS = 60L * 60 * 1000;
+
+    /** 格子边长 */
+    private static final double CELL_DEGREES = 10.0;
+
+    /** 纬度方向的格子数 */
+    private static final int LATITUDE_CELLS = 18;
+
+    /** 经度方向的格子数 */
+    private static final int LONGITUDE_CELLS = 36;
+
+    private static final Comparator<EarthquakeAlertRule> BY_MIN_MAGNITUDE = new Comparator<EarthquakeAlertRule>() {
+        @Override
+        public int compare(EarthquakeAlertRule rule1, EarthquakeAlertRule rule2) {
+            return Double.compare(rule1.minMagnitude, rule2.minMagnitude);
+        }
+    };
+
+    private static final EarthquakeAlertRule[] NO_RULES = new EarthquakeAlertRule[0];
+
+    /** 全部规则，按编号 */
+    private final List<EarthquakeAlertRule> mRules = new ArrayList<>();
+
+    /** 下一条规则的编号 */
+    private int mNextId = 1;
+
+    /** 全球规则，按最小等级排序 */
+    private EarthquakeAlertRule[] mGlobalRules = NO_RULES;
+
+    /** 各格子中的区域规则，按最小等级排序，格子编号为 纬度行 * LONGITUDE_CELLS + 经度列 */
+    private EarthquakeAlertRule[][] mCells = new EarthquakeAlertRule[LATITUDE_CELLS * LONGITUDE_CELLS][];
+
+    /** minCount大于1的规则在窗口内已匹配的发震时间 */
+    private final Map<Integer, PriorityQueue<Long>> mPending = new HashMap<>();
+
+    /** 已检查的事件，以详细网址为键 */
+    private final Map<String, Seen> mSeen = new HashMap<>();
+
+    /** 规则改变后索引需要重建，推迟到下一次检查，连续加入多条规则时只重建一次 */
+    private boolean mIndexStale;
+
+    /** 已检查事件的保留时间 */
+    private long mRetainMillis = MIN_RETAIN_MILLIS;
+
+    /** 上次清理过期状态的时间 */
+    private long mPrunedAt;
+
+    /** 计算过距离等完整条件的次数，用于检验索引的效果 */
+    private long mCheckCount;
+
+    EarthquakeAlertEngine() {
+    }
+
+    /**
+     * 一次检查中某条规则的提醒
+     */
+    static final class Alert {
+
+        final EarthquakeAlertRule rule;
+
+        /** 本次触发的次数 */
+        int count;
+
+        /** 最近一次触发时的地震 */
+        Earthquake earthquake;
+
+        Alert(EarthquakeAlertRule rule) {
+            this.rule = rule;
+        }
+    }
+
+    /**
+     * 已检查的事件
+     */
+    private static final class Seen {
+
+        final long time;
+
+        /** 已检查过的最高等级 */
+        final double magnitude;
+
+        Seen(long time, double magnitude) {
+            this.time = time;
+            this.magnitude = magnitude;
+        }
+    }
+
+    /**
+     * 全部规则，按编号
+     */
+    List<EarthquakeAlertRule> getRules() {
+        return new ArrayList<>(mRules);
+    }
+
+    /**
+     * 加入一条规则，分配新编号。只对之后收到的事件生效
+     * @return 带编号的规则
+     */
+    EarthquakeAlertRule addRule(EarthquakeAlertRule rule) {
+        EarthquakeAlertRule added = rule.withId(mNextId++);
+        mRules.add(added);
+        mIndexStale = true;
+        return added;
+    }
+
+    /**
+     * 删除规则，没有这条规则时返回false
+     */
+    boolean removeRule(int id) {
+        for (int i = 0; i < mRules.size(); i++) {
+            if (mRules.get(i).id == id) {
+                mRules.remove(i);
+                mPending.remove(id);
+                mIndexStale = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 依次检查一批新收到的地震
+     * @param now 当前时间，发震时间早于各规则窗口的地震不计数
+     * @return 触发的规则，每条规则一项，按首次触发的顺序
+     */
+    List<Alert> evaluate(List<Earthquake> earthquakes, long now) {
+        if (mIndexStale) {
+            rebuildIndex();
+        }
+        Map<Integer, Alert> alerts = new LinkedHashMap<>();
+        long oldestTime = now - mRetainMillis;
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            long time = earthquake.getTimeInMilliseconds();
+            if (time < oldestTime) {
+                continue;
+            }
+            double magnitude = earthquake.getMagnitude();
+            Seen seen = mSeen.get(earthquake.getUrl());
+            double checkedMagnitude = seen == null ? Double.NEGATIVE_INFINITY : seen.magnitude;
+            if (magnitude <= checkedMagnitude) {
+                continue;
+            }
+            mSeen.put(earthquake.getUrl(), new Seen(time, magnitude));
+
+            evaluate(mGlobalRules, earthquake, checkedMagnitude, now, alerts);
+            if (!Double.isNaN(earthquake.getLatitude()) && !Double.isNaN(earthquake.getLongitude())) {
+                EarthquakeAlertRule[] cell = mCells[latitudeCell(earthquake.getLatitude()) * LONGITUDE_CELLS
+                        + longitudeCell(earthquake.getLongitude())];
+                if (cell != null) {
+                    evaluate(cell, earthquake, checkedMagnitude, now, alerts);
+                }
+            }
+        }
+        if (now - mPrunedAt >= PRUNE_INTERVAL_MILLIS || now < mPrunedAt) {
+            prune(now);
+        }
+        return new ArrayList<>(alerts.values());
+    }
+
+    /**
+     * 检查rules中最小等级在（checkedMagnitude, 地震等级]之间的规则
+     */
+    private void evaluate(EarthquakeAlertRule[] rules, Earthquake earthquake, double checkedMagnitude, long now,
+                          Map<Integer, Alert> alerts) {
+        double magnitude = earthquake.getMagnitude();
+        long time = earthquake.getTimeInMilliseconds();
+        for (int i = firstAbove(rules, checkedMagnitude); i < rules.length && rules[i].minMagnitude <= magnitude;
+             i++) {
+            EarthquakeAlertRule rule = rules[i];
+            if (time < now - rule.windowMillis) {
+                continue;
+            }
+            mCheckCount++;
+            if (rule.matches(earthquake) && count(rule, time, now)) {
+                Alert alert = alerts.get(rule.id);
+                if (alert == null) {
+                    alert = new Alert(rule);
+                    alerts.put(rule.id, alert);
+                }
+                alert.count++;
+                if (alert.earthquake == null || time >= alert.earthquake.getTimeInMilliseconds()) {
+                    alert.earthquake = earthquake;
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录规则的一次匹配
+     * @return 窗口内的匹配达到minCount时返回true，并重新开始计数
+     */
+    private boolean count(EarthquakeAlertRule rule, long time, long now) {
+        if (rule.minCount <= 1) {
+            return true;
+        }
+        PriorityQueue<Long> times = mPending.get(rule.id);
+        if (times == null) {
+            times = new PriorityQueue<>();
+            mPending.put(rule.id, times);
+        }
+        times.add(time);
+        removeOlder(times, now - rule.windowMillis);
+        if (times.size() < rule.minCount) {
+            return false;
+        }
+        times.clear();
+        return true;
+    }
+
+    /**
+     * 丢弃保留时间之外的已检查事件和窗口之外的匹配
+     */
+    private void prune(long now) {
+        mPrunedAt = now;
+        Iterator<Seen> seen = mSeen.values().iterator();
+        while (seen.hasNext()) {
+            if (seen.next().time < now - mRetainMillis) {
+                seen.remove();
+            }
+        }
+        for (int i = 0; i < mRules.size(); i++) {
+            EarthquakeAlertRule rule = mRules.get(i);
+            PriorityQueue<Long> times = mPending.get(rule.id);
+            if (times != null) {
+                removeOlder(times, now - rule.windowMillis);
+            }
+        }
+    }
+
+    private static void removeOlder(PriorityQueue<Long> times, long oldestTime) {
+        while (!times.isEmpty() && times.peek() < oldestTime) {
+            times.poll();
+        }
+    }
+
+    /**
+     * 按最小等级排序的rules中第一条最小等级高于magnitude的位置
+     */
+    private static int firstAbove(EarthquakeAlertRule[] rules, double magnitude) {
+        int low = 0;
+        int high = rules.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (rules[middle].minMagnitude <= magnitude) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 规则改变后重建索引，开销与规则数成正比
+     */
+    private void rebuildIndex() {
+        mIndexStale = false;
+        List<EarthquakeAlertRule> global = new ArrayList<>();
+        List<List<EarthquakeAlertRule>> cells = new ArrayList<>(LATITUDE_CELLS * LONGITUDE_CELLS);
+        for (int cell = 0; cell < LATITUDE_CELLS * LONGITUDE_CELLS; cell++) {
+            cells.add(null);
+        }
+        long retainMillis = MIN_RETAIN_MILLIS;
+        for (int i = 0; i < mRules.size(); i++) {
+            EarthquakeAlertRule rule = mRules.get(i);
+            retainMillis = Math.max(retainMillis, rule.windowMillis);
+            if (!rule.isRegional()) {
+                global.add(rule);
+                continue;
+            }
+            int[] bounds = cellBounds(rule);
+            for (int lat = bounds[0]; lat <= bounds[1]; lat++) {
+                for (int lon = bounds[2]; lon <= bounds[3]; lon++) {
+                    int cell = lat * LONGITUDE_CELLS + lon % LONGITUDE_CELLS;
+                    if (cells.get(cell) == null) {
+                        cells.set(cell, new ArrayList<EarthquakeAlertRule>());
+                    }
+                    cells.get(cell).add(rule);
+                }
+            }
+        }
+
+        mGlobalRules = sorted(global);
+        mCells = new EarthquakeAlertRule[LATITUDE_CELLS * LONGITUDE_CELLS][];
+        for (int cell = 0; cell < mCells.length; cell++) {
+            if (cells.get(cell) != null) {
+                mCells[cell] = sorted(cells.get(cell));
+            }
+        }
+        mRetainMillis = retainMillis;
+    }
+
+    private static EarthquakeAlertRule[] sorted(List<EarthquakeAlertRule> rules) {
+        EarthquakeAlertRule[] array = rules.toArray(new EarthquakeAlertRule[rules.size()]);
+        Arrays.sort(array, BY_MIN_MAGNITUDE);
+        return array;
+    }
+
+    /**
+     * 区域的外接范围覆盖的格子：{第一行, 最后一行, 第一列, 最后一列}，列号可以超出LONGITUDE_CELLS，取余后使用
+     */
+    private static int[] cellBounds(EarthquakeAlertRule rule) {
+        double angle = rule.radiusKm / EarthquakeSpatialIndex.EARTH_RADIUS_KM;
+        double latitudeRadius = Math.toDegrees(angle);
+        double south = rule.latitude - latitudeRadius;
+        double north = rule.latitude + latitudeRadius;
+        int firstRow = latitudeCell(Math.max(-90, south));
+        int lastRow = latitudeCell(Math.min(90, north));
+        if (south <= -90 || north >= 90) {
+            // 区域包含极点，覆盖所有经度
+            return new int[] {firstRow, lastRow, 0, LONGITUDE_CELLS - 1};
+        }
+        // 圆的经度范围：sin(Δλ) = sin(半径对应的角度) / cos(纬度)
+        double ratio = Math.sin(angle) / Math.cos(Math.toRadians(rule.latitude));
+        double longitudeRadius = ratio >= 1 ? 180 : Math.toDegrees(Math.asin(ratio));
+        if (longitudeRadius >= 180 - CELL_DEGREES) {
+            return new int[] {firstRow, lastRow, 0, LONGITUDE_CELLS - 1};
+        }
+        int firstColumn = longitudeCell(rule.longitude - longitudeRadius);
+        int lastColumn = longitudeCell(rule.longitude + longitudeRadius);
+        if (lastColumn < firstColumn) {
+            // 跨过经度180°
+            lastColumn += LONGITUDE_CELLS;
+        }
+        return new int[] {firstRow, lastRow, firstColumn, lastColumn};
+    }
+
+    private static int latitudeCell(double latitude) {
+        int cell = (int) Math.floor((latitude + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(LATITUDE_CELLS - 1, cell));
+    }
+
+    private static int longitudeCell(double longitude) {
+        int cell = (int) Math.floor((longitude + 180) / CELL_DEGREES) % LONGITUDE_CELLS;
+        return cell < 0 ? cell + LONGITUDE_CELLS : cell;
+    }
+
+    /**
+     * 计算过完整条件的次数
+     */
+    long getCheckCount() {
+        return mCheckCount;
+    }
+
+    /**
+     * 写出规则和检查状态
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mNextId);
+        out.writeInt(mRules.size());
+        for (int i = 0; i < mRules.size(); i++) {
+            EarthquakeAlertRule rule = mRules.get(i);
+            out.writeInt(rule.id);
+            out.writeUTF(rule.name);
+            out.writeDouble(rule.minMagnitude);
+            out.writeDouble(rule.latitude);
+            out.writeDouble(rule.longitude);
+            out.writeDouble(rule.radiusKm);
+            out.writeInt(rule.minCount);
+            out.writeLong(rule.windowMillis);
+            PriorityQueue<Long> times = mPending.get(rule.id);
+            out.writeInt(times == null ? 0 : times.size());
+            if (times != null) {
+                for (Long time : times) {
+                    out.writeLong(time);
+                }
+            }
+        }
+        out.writeLong(mPrunedAt);
+        out.writeInt(mSeen.size());
+        for (Map.Entry<String, Seen> entry : mSeen.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue().time);
+            out.writeDouble(entry.getValue().magnitude);
+        }
+    }
+
+    /**
+     * 读取writeTo写出的规则和检查状态
+     */
+    static EarthquakeAlertEngine readFrom(DataInputStream in) throws IOException {
+        EarthquakeAlertEngine engine = new EarthquakeAlertEngine();
+        engine.mNextId = in.readInt();
+        int ruleCount = in.readInt();
+        for (int i = 0; i < ruleCount; i++) {
+            EarthquakeAlertRule rule = new EarthquakeAlertRule(in.readInt(), in.readUTF(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readDouble(), in.readInt(), in.readLong());
+            engine.mRules.add(rule);
+            int pendingCount = in.readInt();
+            if (pendingCount > 0) {
+                PriorityQueue<Long> times = new PriorityQueue<>(pendingCount);
+                for (int j = 0; j < pendingCount; j++) {
+                    times.add(in.readLong());
+                }
+                engine.mPending.put(rule.id, times);
+            }
+        }
+        engine.mPrunedAt = in.readLong();
+        int seenCount = in.readInt();
+        for (int i = 0; i < seenCount; i++) {
+            engine.mSeen.put(in.readUTF(), new Seen(in.readLong(), in.readDouble()));
+        }
+        engine.mIndexStale = true;
+        return engine;
+    }
+}
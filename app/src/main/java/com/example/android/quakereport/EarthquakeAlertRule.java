@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+/**
+ * 一条提醒规则：在windowMillis时间内，区域中发生了至少minCount次不低于minMagnitude的地震时提醒。
+ * 区域是以（latitude, longitude）为中心、半径radiusKm的圆，没有区域时匹配全球。
+ * minCount为1时每次符合条件的地震都提醒，windowMillis只限制地震的新旧。
+ */
+final class EarthquakeAlertRule {
+
+    /** 规则编号，由EarthquakeAlertEngine分配，同时用作通知的id */
+    final int id;
+
+    /** 显示的名称 */
+    final String name;
+
+    /** 最小等级 */
+    final double minMagnitude;
+
+    /** 区域的中心，没有区域时为NaN */
+    final double latitude;
+    final double longitude;
+
+    /** 区域的半径，单位千米，没有区域时为NaN */
+    final double radiusKm;
+
+    /** 提醒需要的地震次数 */
+    final int minCount;
+
+    /** 计数的时间范围，按发震时间 */
+    final long windowMillis;
+
+    EarthquakeAlertRule(int id, String name, double minMagnitude, double latitude, double longitude,
+                        double radiusKm, int minCount, long windowMillis) {
+        this.id = id;
+        this.name = name;
+        this.minMagnitude = minMagnitude;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radiusKm = radiusKm;
+        this.minCount = Math.max(1, minCount);
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * 使用新编号的同一规则
+     */
+    EarthquakeAlertRule withId(int id) {
+        return new EarthquakeAlertRule(id, name, minMagnitude, latitude, longitude, radiusKm, minCount, windowMillis);
+    }
+
+    /**
+     * 是否限定了区域
+     */
+    boolean isRegional() {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude) && !Double.isNaN(radiusKm);
+    }
+
+    /**
+     * 地震是否符合等级和区域条件，不考虑时间
+     */
+    boolean matches(Earthquake earthquake) {
+        if (earthquake.getMagnitude() < minMagnitude) {
+            return false;
+        }
+        if (!isRegional()) {
+            return true;
+        }
+        // 没有震中位置时无法判断是否在区域内
+        return !Double.isNaN(earthquake.getLatitude()) && !Double.isNaN(earthquake.getLongitude())
+                && EarthquakeSpatialIndex.distanceKm(latitude, longitude,
+                earthquake.getLatitude(), earthquake.getLongitude()) <= radiusKm;
+    }
+}
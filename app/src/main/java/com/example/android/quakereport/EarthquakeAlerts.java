@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 提醒规则的保存和本地通知。
+ * 后台同步和实时模式收到新的地震后交给ingest，由EarthquakeAlertEngine检查规则，
+ * 触发的规则各发一条通知，同一规则的新通知替换旧的。规则和检查状态保存在一个文件中，
+ * 进程重启后不会对已检查的事件重复提醒。
+ */
+public final class EarthquakeAlerts {
+
+    /** 获取类名称 */
+    private static final String LOG_TAG = EarthquakeAlerts.class.getSimpleName();
+
+    /** 文件格式版本 */
+    private static final int FORMAT_VERSION = 1;
+
+    /** 数据文件名 */
+    private static final String FILE_NAME = "earthquake_alerts";
+
+    /** Android 8.0以上的通知渠道 */
+    private static final String CHANNEL_ID = "earthquake_alerts";
+
+    private static EarthquakeAlerts sInstance;
+
+    private final Context mContext;
+
+    /** 数据文件 */
+    private final File mFile;
+
+    /** 第一次使用时从文件读取 */
+    private EarthquakeAlertEngine mEngine;
+
+    /**
+     * 获取进程内唯一的实例
+     */
+    public static synchronized EarthquakeAlerts getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new EarthquakeAlerts(appContext, new File(appContext.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private EarthquakeAlerts(Context context, File file) {
+        mContext = context;
+        mFile = file;
+    }
+
+    /**
+     * 全部规则，按编号
+     */
+    public synchronized List<EarthquakeAlertRule> getRules() {
+        return engine().getRules();
+    }
+
+    /**
+     * 加入一条规则并保存
+     */
+    public synchronized void addRule(EarthquakeAlertRule rule) {
+        engine().addRule(rule);
+        write();
+    }
+
+    /**
+     * 删除规则并保存，同时取消它的通知
+     */
+    public void removeRule(int id) {
+        synchronized (this) {
+            if (!engine().removeRule(id)) {
+                return;
+            }
+            write();
+        }
+        NotificationManagerCompat.from(mContext).cancel(id);
+    }
+
+    /**
+     * 检查新收到的地震，触发的规则发出通知。在后台线程调用
+     * @param earthquakes 新增或修改的地震，重复收到的事件不会重复提醒
+     */
+    public void ingest(List<Earthquake> earthquakes, long now) {
+        if (earthquakes.isEmpty()) {
+            return;
+        }
+        List<EarthquakeAlertEngine.Alert> alerts;
+        synchronized (this) {
+            EarthquakeAlertEngine engine = engine();
+            if (engine.getRules().isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            alerts = engine.evaluate(earthquakes, now);
+            EarthquakeMetrics.get().recordDuration(EarthquakeMetrics.SPAN_ALERTS, System.nanoTime() - start);
+            write();
+        }
+        for (int i = 0; i < alerts.size(); i++) {
+            EarthquakeMetrics.get().increment(EarthquakeMetrics.COUNTER_ALERTS_RAISED, alerts.get(i).count);
+            notify(alerts.get(i));
+        }
+    }
+
+    /**
+     * 为触发的规则发出通知，点击时打开最近一次触发的地震的详细网页
+     */
+    private void notify(EarthquakeAlertEngine.Alert alert) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    mContext.getString(R.string.alerts_channel_name), NotificationManager.IMPORTANCE_HIGH);
+            // 重复创建同一渠道不会改变用户的设置
+            ((NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE))
+                    .createNotificationChannel(channel);
+        }
+
+        Earthquake earthquake = alert.earthquake;
+        String text = alert.count > 1
+                ? mContext.getString(R.string.alert_notification_text_multiple, alert.count,
+                earthquake.getMagnitude(), earthquake.getLocation())
+                : mContext.getString(R.string.alert_notification_text,
+                earthquake.getMagnitude(), earthquake.getLocation());
+        Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(earthquake.getUrl()));
+        PendingIntent contentIntent = PendingIntent.getActivity(mContext, alert.rule.id, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_sys_warning)
+                .setContentTitle(alert.rule.name)
+                .setContentText(text)
+                .setWhen(earthquake.getTimeInMilliseconds())
+                .setShowWhen(true)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setCategory(NotificationCompat.CATEGORY_EVENT)
+                .setContentIntent(contentIntent)
+                .setAutoCancel(true);
+        NotificationManagerCompat.from(mContext).notify(alert.rule.id, builder.build());
+    }
+
+    /**
+     * 规则和检查状态，第一次使用时读取文件，没有或损坏时从空白开始
+     */
+    private EarthquakeAlertEngine engine() {
+        if (mEngine == null) {
+            mEngine = read();
+        }
+        return mEngine;
+    }
+
+    private EarthquakeAlertEngine read() {
+        if (!mFile.exists()) {
+            return new EarthquakeAlertEngine();
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() == FORMAT_VERSION) {
+                return EarthquakeAlertEngine.readFrom(in);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the alert rules.", e);
+            mFile.delete();
+        } finally {
+            closeQuietly(in);
+        }
+        return new EarthquakeAlertEngine();
+    }
+
+    /**
+     * 先写临时文件再改名，失败时内存中的规则仍然有效，下次写入时再保存
+     */
+    private void write() {
+        File directory = mFile.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT_VERSION);
+            mEngine.writeTo(out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the alert rules.", e);
+            tmp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.app.Application;
+
+/**
+ * 进程启动时的设置，在任何活动、Loader或后台同步之前执行
+ */
+public class EarthquakeApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // HttpURLConnection的连接池在第一次请求时读取这两项，之后修改不再生效，所以在进程启动时设置。
+        // 为每个主机保留的空闲连接数与并行请求数的上限一致
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(EarthquakeFanOut.MAX_CONCURRENCY));
+    }
+}
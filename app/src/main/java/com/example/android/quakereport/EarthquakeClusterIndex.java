@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * 地图标记的分层网格聚合索引，建好后绘制每一帧只查询可见范围内的聚合点，与地震总数无关。
+ * <p>
+ * 地图使用等距圆柱投影，世界坐标x = (经度 + 180) / 360，y = (90 - 纬度) / 360，
+ * 即x在[0, 1)，y在[0, 0.5]，宽高比2:1。第level层把世界划分为 (BASE_CELLS << level) 列的正方形格子，
+ * 每一层的格子是下一层2×2个格子的合并。建索引时先在最细的一层按格子聚合，再逐层向上合并，
+ * 每个聚合点保存数量、质心、最大等级和最大等级那次地震的位置。
+ * 各层的聚合点按格子编号（行 * 列数 + 列）排序，查询时每个可见的行二分查找一次。
+ * 位置是建索引时传入的数组下标，即列表中的位置；没有震中位置的地震不在索引中。
+ */
+final class EarthquakeClusterIndex {
+
+    /** 第0层的列数，格子为45°，整个世界宽度约一屏时格子与聚合间距相当 */
+    static final int BASE_CELLS = 8;
+
+    /** 最细的一层，格子约0.011°（赤道处约1.2千米） */
+    static final int MAX_LEVEL = 12;
+
+    /** 各层的聚合点，下标为层号 */
+    private final Level[] mLevels = new Level[MAX_LEVEL + 1];
+
+    /** 建索引时的地震数，包括没有位置的 */
+    private final int mSize;
+
+    /**
+     * 一层的聚合点，按格子编号排序
+     */
+    private static final class Level {
+        /** 每行的格子数 */
+        final int cells;
+        final int[] keys;
+        final float[] xs;
+        final float[] ys;
+        final int[] counts;
+        final float[] maxMagnitudes;
+        /** 最大等级那次地震的位置 */
+        final int[] positions;
+
+        Level(int cells, int size) {
+            this.cells = cells;
+            keys = new int[size];
+            xs = new float[size];
+            ys = new float[size];
+            counts = new int[size];
+            maxMagnitudes = new float[size];
+            positions = new int[size];
+        }
+
+        int size() {
+            return keys.length;
+        }
+    }
+
+    /**
+     * 按位置给出各地震的纬度、经度和等级建立索引，没有位置的为NaN
+     */
+    EarthquakeClusterIndex(double[] latitudes, double[] longitudes, double[] magnitudes) {
+        mSize = latitudes.length;
+        int cells = BASE_CELLS << MAX_LEVEL;
+        int count = 0;
+        long[] sorted = new long[mSize];
+        for (int position = 0; position < mSize; position++) {
+            if (Double.isNaN(latitudes[position]) || Double.isNaN(longitudes[position])) {
+                continue;
+            }
+            int key = cell(y(latitudes[position]), cells) * cells + cell(x(longitudes[position]), cells);
+            // 高32位为格子编号，低32位为位置，排序后同一格子的地震相邻
+            sorted[count++] = (long) key << 32 | position;
+        }
+        Arrays.sort(sorted, 0, count);
+
+        Level finest = new Level(cells, countRuns(sorted, count));
+        int cluster = -1;
+        int previousKey = -1;
+        for (int i = 0; i < count; i++) {
+            int key = (int) (sorted[i] >>> 32);
+            int position = (int) sorted[i];
+            if (key != previousKey) {
+                cluster++;
+                finest.keys[cluster] = key;
+                finest.maxMagnitudes[cluster] = Float.NEGATIVE_INFINITY;
+                previousKey = key;
+            }
+            // 先累加坐标，最后除以数量得到质心
+            finest.xs[cluster] += (float) x(longitudes[position]);
+            finest.ys[cluster] += (float) y(latitudes[position]);
+            finest.counts[cluster]++;
+            float magnitude = (float) magnitudes[position];
+            if (magnitude > finest.maxMagnitudes[cluster]) {
+                finest.maxMagnitudes[cluster] = magnitude;
+                finest.positions[cluster] = position;
+            }
+        }
+        for (int i = 0; i < finest.size(); i++) {
+            finest.xs[i] /= finest.counts[i];
+            finest.ys[i] /= finest.counts[i];
+        }
+        mLevels[MAX_LEVEL] = finest;
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            mLevels[level] = merge(mLevels[level + 1], sorted);
+        }
+    }
+
+    /**
+     * 把下一层的聚合点按2×2个格子合并为上一层
+     * @param sorted 排序用的临时数组，长度不小于child的聚合点数
+     */
+    private static Level merge(Level child, long[] sorted) {
+        int cells = child.cells / 2;
+        int count = child.size();
+        for (int i = 0; i < count; i++) {
+            int key = child.keys[i];
+            int parentKey = (key / child.cells / 2) * cells + (key % child.cells) / 2;
+            sorted[i] = (long) parentKey << 32 | i;
+        }
+        Arrays.sort(sorted, 0, count);
+
+        Level parent = new Level(cells, countRuns(sorted, count));
+        int cluster = -1;
+        int previousKey = -1;
+        for (int j = 0; j < count; j++) {
+            int key = (int) (sorted[j] >>> 32);
+            int i = (int) sorted[j];
+            if (key != previousKey) {
+                cluster++;
+                parent.keys[cluster] = key;
+                parent.maxMagnitudes[cluster] = Float.NEGATIVE_INFINITY;
+                previousKey = key;
+            }
+            // 按数量加权的质心
+            parent.xs[cluster] += child.xs[i] * child.counts[i];
+            parent.ys[cluster] += child.ys[i] * child.counts[i];
+            parent.counts[cluster] += child.counts[i];
+            if (child.maxMagnitudes[i] > parent.maxMagnitudes[cluster]) {
+                parent.maxMagnitudes[cluster] = child.maxMagnitudes[i];
+                parent.positions[cluster] = child.positions[i];
+            }
+        }
+        for (int i = 0; i < parent.size(); i++) {
+            parent.xs[i] /= parent.counts[i];
+            parent.ys[i] /= parent.counts[i];
+        }
+        return parent;
+    }
+
+    /**
+     * 排序后不同格子编号的个数
+     */
+    private static int countRuns(long[] sorted, int count) {
+        int runs = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || sorted[i] >>> 32 != sorted[i - 1] >>> 32) {
+                runs++;
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * 建索引时的地震数，包括没有位置的
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * 一层的聚合点数，查询结果不会超过这个数
+     */
+    int getClusterCount(int level) {
+        return mLevels[level].size();
+    }
+
+    /**
+     * 整个世界宽度为worldWidth像素时应显示的层：格子不小于clusterSize像素的最细一层
+     */
+    static int levelFor(double worldWidth, double clusterSize) {
+        double cellsPerCluster = worldWidth / (BASE_CELLS * clusterSize);
+        if (!(cellsPerCluster >= 2)) {
+            return 0;
+        }
+        int level = 31 - Integer.numberOfLeadingZeros((int) Math.min(cellsPerCluster, 1 << 30));
+        return Math.min(level, MAX_LEVEL);
+    }
+
+    /**
+     * 查询一层中质心所在格子与世界坐标范围相交的聚合点
+     * @param out 写入聚合点在这一层的下标，长度应不小于getClusterCount(level)
+     * @return 写入的个数
+     */
+    int query(int level, double left, double top, double right, double bottom, int[] out) {
+        Level clusters = mLevels[level];
+        int cells = clusters.cells;
+        int fromColumn = cell(left, cells);
+        int toColumn = cell(right, cells);
+        int fromRow = cell(top, cells);
+        // 世界的高度只有宽度的一半，y = 0.5（南极）在第cells / 2行
+        int toRow = Math.min(cell(bottom, cells), cells / 2);
+        int count = 0;
+        for (int row = fromRow; row <= toRow; row++) {
+            int toKey = row * cells + toColumn;
+            int i = lowerBound(clusters.keys, row * cells + fromColumn);
+            for (; i < clusters.size() && clusters.keys[i] <= toKey; i++) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    float getX(int level, int cluster) {
+        return mLevels[level].xs[cluster];
+    }
+
+    float getY(int level, int cluster) {
+        return mLevels[level].ys[cluster];
+    }
+
+    int getCount(int level, int cluster) {
+        return mLevels[level].counts[cluster];
+    }
+
+    float getMaxMagnitude(int level, int cluster) {
+        return mLevels[level].maxMagnitudes[cluster];
+    }
+
+    /**
+     * 聚合点中等级最大的地震的位置
+     */
+    int getPosition(int level, int cluster) {
+        return mLevels[level].positions[cluster];
+    }
+
+    /**
+     * 经度对应的世界坐标x，在[0, 1)
+     */
+    static double x(double longitude) {
+        double x = (longitude + 180) / 360;
+        return x - Math.floor(x);
+    }
+
+    /**
+     * 纬度对应的世界坐标y，在[0, 0.5]
+     */
+    static double y(double latitude) {
+        return (90 - Math.max(-90, Math.min(90, latitude))) / 360;
+    }
+
+    /**
+     * 世界坐标在一层中的格子行或列，超出世界范围时取边上的格子
+     */
+    private static int cell(double coordinate, int cells) {
+        return (int) Math.max(0, Math.min(cells - 1, Math.floor(coordinate * cells)));
+    }
+
+    private static int lowerBound(int[] keys, int key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 合并多个目录（数据源）中的同一次地震。
+ * 不同目录给出的发震时间和震中略有差别，事件id也不同，按时间和距离判断：
+ * 相差不超过MATCH_TIME_MILLIS和MATCH_DISTANCE_KM的两条记录是同一事件，合并后保留先加入的记录。
+ * 同一目录中的两条记录总是不同的事件（如相距很近的余震），不会合并。
+ * <p>
+ * 记录按（时间段，纬度格，经度格）放入哈希表，时间段的长度等于MATCH_TIME_MILLIS，格子为1°×1°，
+ * 查找时只检查相邻的时间段和格子。每加入一条记录的开销与已有记录数无关，合并总开销与记录总数成正比。
+ */
+final class EarthquakeDedupIndex {
+
+    /** 发震时间相差不超过此值才可能是同一事件 */
+    static final long MATCH_TIME_MILLIS = 16 * 1000;
+
+    /** 震中相距不超过此值才可能是同一事件 */
+    static final double MATCH_DISTANCE_KM = 100;
+
+    /** 格子边长，一度纬度约111千米，不小于MATCH_DISTANCE_KM */
+    private static final double CELL_DEGREES = 1.0;
+
+    /** 纬度方向的格子数，包含两极 */
+    private static final int LATITUDE_CELLS = 181;
+
+    /** 经度方向的格子数 */
+    private static final int LONGITUDE_CELLS = 360;
+
+    /** 合并后的记录，按加入的顺序 */
+    private final List<Earthquake> mEarthquakes;
+
+    /** 每条记录已包含哪些数据源，第i位对应第i个数据源，超过63的数据源共用最高位 */
+    private long[] mSources;
+
+    /** 同一键的记录连成链表：mHeads是链表中最后加入的记录，mNext指向前一条，-1表示结束 */
+    private final Map<Long, Integer> mHeads;
+    private int[] mNext;
+
+    /** 合并掉的重复记录数 */
+    private int mMergedCount;
+
+    /**
+     * @param expectedSize 预计加入的记录总数
+     */
+    EarthquakeDedupIndex(int expectedSize) {
+        mEarthquakes = new ArrayList<>(expectedSize);
+        mSources = new long[Math.max(expectedSize, 16)];
+        mNext = new int[mSources.length];
+        mHeads = new HashMap<>(expectedSize * 2);
+    }
+
+    /**
+     * 加入第source个数据源的一条地震。数据源按优先级从高到低依次加入
+     * @return 是新的事件时返回true；与已有记录是同一事件时合并到那条记录，返回false
+     */
+    boolean add(Earthquake earthquake, int source) {
+        long sourceBit = 1L << Math.min(source, 63);
+        boolean located = hasLocation(earthquake);
+        if (located) {
+            int match = findMatch(earthquake, sourceBit);
+            if (match >= 0) {
+                mSources[match] |= sourceBit;
+                mMergedCount++;
+                return false;
+            }
+        }
+
+        int index = mEarthquakes.size();
+        if (index == mSources.length) {
+            mSources = Arrays.copyOf(mSources, index * 2);
+            mNext = Arrays.copyOf(mNext, index * 2);
+        }
+        mEarthquakes.add(earthquake);
+        mSources[index] = sourceBit;
+        mNext[index] = -1;
+        if (located) {
+            Integer head = mHeads.put(key(timeSlot(earthquake.getTimeInMilliseconds()),
+                    latitudeCell(earthquake.getLatitude()), longitudeCell(earthquake.getLongitude())), index);
+            mNext[index] = head == null ? -1 : head;
+        }
+        return true;
+    }
+
+    /**
+     * 合并后的记录，按加入的顺序
+     */
+    List<Earthquake> getEarthquakes() {
+        return mEarthquakes;
+    }
+
+    /**
+     * 合并掉的重复记录数
+     */
+    int getMergedCount() {
+        return mMergedCount;
+    }
+
+    /**
+     * 在相邻的时间段和格子中查找同一事件，多条符合时选发震时间最接近的；没有时返回-1
+     */
+    private int findMatch(Earthquake earthquake, long sourceBit) {
+        long time = earthquake.getTimeInMilliseconds();
+        double latitude = earthquake.getLatitude();
+        double longitude = earthquake.getLongitude();
+        long slot = timeSlot(time);
+        int latitudeCell = latitudeCell(latitude);
+        int longitudeCell = longitudeCell(longitude);
+        int longitudeSpan = longitudeSpan(latitude);
+
+        int best = -1;
+        long bestDiff = Long.MAX_VALUE;
+        for (long s = slot - 1; s <= slot + 1; s++) {
+            for (int lat = Math.max(0, latitudeCell - 1); lat <= Math.min(LATITUDE_CELLS - 1, latitudeCell + 1); lat++) {
+                for (int lon = -longitudeSpan; lon <= longitudeSpan; lon++) {
+                    Integer head = mHeads.get(key(s, lat, (longitudeCell + lon + LONGITUDE_CELLS) % LONGITUDE_CELLS));
+                    for (int i = head == null ? -1 : head; i >= 0; i = mNext[i]) {
+                        if ((mSources[i] & sourceBit) != 0) {
+                            continue;
+                        }
+                        Earthquake candidate = mEarthquakes.get(i);
+                        long diff = Math.abs(candidate.getTimeInMilliseconds() - time);
+                        if (diff <= MATCH_TIME_MILLIS && diff < bestDiff
+                                && EarthquakeSpatialIndex.distanceKm(latitude, longitude,
+                                candidate.getLatitude(), candidate.getLongitude()) <= MATCH_DISTANCE_KM) {
+                            best = i;
+                            bestDiff = diff;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private static boolean hasLocation(Earthquake earthquake) {
+        return !Double.isNaN(earthquake.getLatitude()) && !Double.isNaN(earthquake.getLongitude());
+    }
+
+    private static long key(long timeSlot, int latitudeCell, int longitudeCell) {
+        return (timeSlot * LATITUDE_CELLS + latitudeCell) * LONGITUDE_CELLS + longitudeCell;
+    }
+
+    /**
+     * 时间所在的时间段，向下取整，1970年以前的时间也连续
+     */
+    private static long timeSlot(long time) {
+        long slot = time / MATCH_TIME_MILLIS;
+        return time < 0 && slot * MATCH_TIME_MILLIS != time ? slot - 1 : slot;
+    }
+
+    private static int latitudeCell(double latitude) {
+        int cell = (int) Math.floor((latitude + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(LATITUDE_CELLS - 1, cell));
+    }
+
+    private static int longitudeCell(double longitude) {
+        int cell = (int) Math.floor((longitude + 180) / CELL_DEGREES) % LONGITUDE_CELLS;
+        return cell < 0 ? cell + LONGITUDE_CELLS : cell;
+    }
+
+    /**
+     * 覆盖MATCH_DISTANCE_KM需要向两侧检查的经度格子数。高纬度的经线更密，需要检查更多格子
+     */
+    private static int longitudeSpan(double latitude) {
+        double kmPerDegree = Math.PI * EarthquakeSpatialIndex.EARTH_RADIUS_KM / 180;
+        // 按相邻纬度格中离极点更近的一侧计算
+        double cos = Math.cos(Math.toRadians(Math.min(90, Math.abs(latitude) + 2 * CELL_DEGREES)));
+        double degrees = MATCH_DISTANCE_KM / (kmPerDegree * Math.max(cos, 1e-9));
+        return (int) Math.min((LONGITUDE_CELLS - 1) / 2, Math.ceil(degrees / CELL_DEGREES));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+/**
+ * 单个事件的详细信息，来自USGS的detail GeoJSON，只在打开详细页面时（或预取时）请求。
+ * 列表中的Earthquake只有等级、地点、时间和位置，不包含这里的任何字段。
+ * 由EarthquakeDetailParser填写，之后不再修改。缺失的数值为NaN，缺失的文本为null
+ */
+final class EarthquakeDetail {
+
+    /** 事件id */
+    String eventId;
+
+    /** 标题，如"M 4.6 - 10km N of Town" */
+    String title;
+
+    /** 等级的类型，如mb、ml、mww */
+    String magnitudeType;
+
+    /** 审核状态：automatic或reviewed */
+    String status;
+
+    /** PAGER的预警级别：green、yellow、orange、red */
+    String alert;
+
+    /** 是否可能引发海啸 */
+    boolean tsunami;
+
+    /** 显著性，0到1000以上 */
+    double significance = Double.NaN;
+
+    // 定位使用的震相（origin/phase-data产品）
+
+    /** 定位使用的震相数 */
+    double phaseCount = Double.NaN;
+
+    /** 定位使用的台站数 */
+    double stationCount = Double.NaN;
+
+    /** 最大方位角空隙，单位度 */
+    double azimuthalGap = Double.NaN;
+
+    /** 最近台站的距离，单位度 */
+    double minimumDistance = Double.NaN;
+
+    /** 走时残差的均方根，单位秒 */
+    double standardError = Double.NaN;
+
+    // 有感报告（DYFI，Did You Feel It?）
+
+    /** 有感报告数 */
+    double feltReports = Double.NaN;
+
+    /** 有感报告得到的最大烈度 */
+    double maxReportedIntensity = Double.NaN;
+
+    // ShakeMap
+
+    /** 仪器估计的最大烈度 */
+    double shakemapMaxIntensity = Double.NaN;
+
+    /** ShakeMap的版本 */
+    String shakemapVersion;
+
+    /** 烈度图图片的网址 */
+    String shakemapImageUrl;
+
+    /**
+     * 是否有DYFI有感报告
+     */
+    boolean hasFeltReports() {
+        return !Double.isNaN(feltReports);
+    }
+
+    /**
+     * 是否有ShakeMap
+     */
+    boolean hasShakemap() {
+        return !Double.isNaN(shakemapMaxIntensity) || shakemapImageUrl != null;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * 单个地震的详细页面。等级、地点和时间从列表传入，立即显示；
+ * 震相、有感报告和ShakeMap等详细信息由EarthquakeDetailCache取得，已预取时不必等待
+ */
+public class EarthquakeDetailActivity extends AppCompatActivity {
+
+    private static final String EXTRA_URL = "url";
+    private static final String EXTRA_MAGNITUDE = "magnitude";
+    private static final String EXTRA_LOCATION = "location";
+    private static final String EXTRA_TIME = "time";
+
+    private String mUrl;
+
+    /** 取得的详细信息，尚未取得或失败时为null */
+    private EarthquakeDetail mDetail;
+
+    private View mProgressBar;
+
+    private TextView mDetailTextView;
+
+    private final EarthquakeDetailCache.Callback mCallback = new EarthquakeDetailCache.Callback() {
+        @Override
+        public void onDetail(String eventUrl, EarthquakeDetail detail) {
+            showDetail(detail);
+        }
+    };
+
+    /**
+     * 打开一个地震的详细页面
+     */
+    static Intent newIntent(Context context, Earthquake earthquake) {
+        Intent intent = new Intent(context, EarthquakeDetailActivity.class);
+        intent.putExtra(EXTRA_URL, earthquake.getUrl());
+        intent.putExtra(EXTRA_MAGNITUDE, earthquake.getMagnitude());
+        intent.putExtra(EXTRA_LOCATION, earthquake.getLocation());
+        intent.putExtra(EXTRA_TIME, earthquake.getTimeInMilliseconds());
+        return intent;
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.detail_activity);
+
+        Intent intent = getIntent();
+        mUrl = intent.getStringExtra(EXTRA_URL);
+        long time = intent.getLongExtra(EXTRA_TIME, 0);
+        EarthquakeRowFormatter formatter = new EarthquakeRowFormatter(getString(R.string.near_the));
+        ((TextView) findViewById(R.id.detail_magnitude)).setText(
+                formatter.formatMagnitude(intent.getDoubleExtra(EXTRA_MAGNITUDE, 0)));
+        ((TextView) findViewById(R.id.detail_location)).setText(intent.getStringExtra(EXTRA_LOCATION));
+        ((TextView) findViewById(R.id.detail_time)).setText(
+                formatter.formatDate(time) + " " + formatter.formatTime(time));
+
+        mProgressBar = findViewById(R.id.detail_loading_indicator);
+        mDetailTextView = (TextView) findViewById(R.id.detail_text);
+
+        // 已缓存时立即回调
+        EarthquakeDetailCache.getInstance().get(mUrl, mCallback);
+    }
+
+    @Override
+    protected void onDestroy() {
+        EarthquakeDetailCache.getInstance().cancel(mCallback);
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.detail, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_view_shakemap).setVisible(mDetail != null && mDetail.shakemapImageUrl != null);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.action_open_in_browser) {
+            openUrl(mUrl);
+            return true;
+        }
+        if (id == R.id.action_view_shakemap) {
+            openUrl(mDetail.shakemapImageUrl);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void openUrl(String url) {
+        startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(url)));
+    }
+
+    private void showDetail(EarthquakeDetail detail) {
+        mDetail = detail;
+        mProgressBar.setVisibility(View.GONE);
+        if (detail == null) {
+            mDetailTextView.setText(R.string.detail_unavailable);
+            return;
+        }
+        mDetailTextView.setText(describe(detail));
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * 详细信息的文本，每项一行，缺失的项不显示
+     */
+    private String describe(EarthquakeDetail detail) {
+        StringBuilder text = new StringBuilder();
+        appendLine(text, detail.magnitudeType == null ? null
+                : getString(R.string.detail_magnitude_type, detail.magnitudeType));
+        appendLine(text, detail.status == null ? null : getString(R.string.detail_status, detail.status));
+        appendLine(text, detail.alert == null ? null : getString(R.string.detail_alert, detail.alert));
+        appendLine(text, detail.tsunami ? getString(R.string.detail_tsunami) : null);
+        appendLine(text, Double.isNaN(detail.significance) ? null
+                : getString(R.string.detail_significance, (int) detail.significance));
+
+        appendLine(text, Double.isNaN(detail.phaseCount) ? null
+                : getString(R.string.detail_phases, (int) detail.phaseCount));
+        appendLine(text, Double.isNaN(detail.stationCount) ? null
+                : getString(R.string.detail_stations, (int) detail.stationCount));
+        appendLine(text, Double.isNaN(detail.azimuthalGap) ? null
+                : getString(R.string.detail_azimuthal_gap, detail.azimuthalGap));
+        appendLine(text, Double.isNaN(detail.minimumDistance) ? null
+                : getString(R.string.detail_minimum_distance, detail.minimumDistance));
+        appendLine(text, Double.isNaN(detail.standardError) ? null
+                : getString(R.string.detail_standard_error, detail.standardError));
+
+        appendLine(text, detail.hasFeltReports()
+                ? getString(R.string.detail_felt_reports, (int) detail.feltReports) : null);
+        appendLine(text, Double.isNaN(detail.maxReportedIntensity) ? null
+                : getString(R.string.detail_reported_intensity, detail.maxReportedIntensity));
+
+        appendLine(text, Double.isNaN(detail.shakemapMaxIntensity) ? null
+                : getString(R.string.detail_shakemap_intensity, detail.shakemapMaxIntensity));
+        appendLine(text, detail.shakemapVersion == null ? null
+                : getString(R.string.detail_shakemap_version, detail.shakemapVersion));
+        return text.length() == 0 ? getString(R.string.detail_unavailable) : text.toString();
+    }
+
+    private static void appendLine(StringBuilder text, String line) {
+        if (line == null) {
+            return;
+        }
+        if (text.length() > 0) {
+            text.append('\n');
+        }
+        text.append(line);
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按事件id缓存事件的详细信息（EarthquakeDetail），只在需要时请求。
+ * 列表只请求摘要数据，打开详细页面时才请求这个事件的detail GeoJSON；
+ * 列表停止滚动时预取可见行附近的事件，之后打开时直接从内存取得。
+ * <p>
+ * 打开页面的请求排在预取之前。预取队列只保留最近一次给出的行：滚动到别处后，
+ * 尚未开始的旧预取直接丢弃，已经开始的请求完成后仍然放入缓存。同一事件同时只有一个请求。
+ * 内存中最多保留MAX_ENTRIES个事件，按最近使用淘汰。
+ */
+final class EarthquakeDetailCache {
+
+    /** 获取类名称 */
+    private static final String LOG_TAG = EarthquakeDetailCache.class.getSimpleName();
+
+    /** 内存中保留的事件数 */
+    static final int MAX_ENTRIES = 200;
+
+    /** 一次最多预取的事件数 */
+    static final int MAX_PREFETCH = 16;
+
+    /** 同时请求的线程数，预取不应占满连接 */
+    private static final int MAX_THREADS = 2;
+
+    /** USGS事件网页的网址，只有这些事件有detail GeoJSON */
+    private static final String USGS_EVENT_PAGE = "earthquake.usgs.gov/earthquakes/eventpage/";
+
+    /** 单个事件的detail GeoJSON，后接事件id */
+    private static final String DETAIL_URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&eventid=";
+
+    private static EarthquakeDetailCache sInstance;
+
+    /** 请求一个事件的详细信息 */
+    interface Fetcher {
+        /**
+         * @param eventUrl 事件网页的网址
+         * @throws IOException 请求失败
+         */
+        EarthquakeDetail fetch(String eventUrl) throws IOException;
+    }
+
+    /** 在回调线程接收详细信息 */
+    interface Callback {
+        /**
+         * @param detail 请求失败时为null
+         */
+        void onDetail(String eventUrl, EarthquakeDetail detail);
+    }
+
+    private final Fetcher mFetcher;
+
+    /** 执行回调的线程，应用中是主线程 */
+    private final Executor mCallbackExecutor;
+
+    private final ExecutorService mExecutor;
+
+    /** 已取得的详细信息，按访问顺序，最久未用的先淘汰 */
+    private final Map<String, EarthquakeDetail> mDetails =
+            new LinkedHashMap<String, EarthquakeDetail>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, EarthquakeDetail> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    /** 排队中或请求中的事件，以及等待它的回调；只有预取时回调为空 */
+    private final Map<String, List<Callback>> mPending = new HashMap<>();
+
+    /** 打开页面的请求，后来的先请求 */
+    private final ArrayDeque<String> mDemandQueue = new ArrayDeque<>();
+
+    /** 预取请求，离可见区域近的在前 */
+    private final ArrayDeque<String> mPrefetchQueue = new ArrayDeque<>();
+
+    /** 正在处理队列的线程数 */
+    private int mRunning;
+
+    /**
+     * 获取进程内唯一的实例，回调在主线程执行
+     */
+    static synchronized EarthquakeDetailCache getInstance() {
+        if (sInstance == null) {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            sInstance = new EarthquakeDetailCache(new Fetcher() {
+                @Override
+                public EarthquakeDetail fetch(String eventUrl) throws IOException {
+                    return fetchFromUsgs(eventUrl);
+                }
+            }, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    mainHandler.post(command);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    EarthquakeDetailCache(Fetcher fetcher, Executor callbackExecutor) {
+        mFetcher = fetcher;
+        mCallbackExecutor = callbackExecutor;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    /**
+     * 预取的顺序：先是可见的行，再从两侧交替向外，各延伸extra行
+     * @param first 第一个可见的位置
+     * @param last 最后一个可见的位置
+     * @param count 列表的总行数
+     */
+    static List<Integer> prefetchPositions(int first, int last, int count, int extra) {
+        List<Integer> positions = new ArrayList<>(last - first + 1 + 2 * extra);
+        for (int position = Math.max(0, first); position <= last && position < count; position++) {
+            positions.add(position);
+        }
+        for (int distance = 1; distance <= extra; distance++) {
+            if (last + distance < count) {
+                positions.add(last + distance);
+            }
+            if (first - distance >= 0) {
+                positions.add(first - distance);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * 这个事件是否有详细信息可以请求。其他数据源的事件只有网页
+     */
+    static boolean hasDetail(String eventUrl) {
+        return eventUrl.contains(USGS_EVENT_PAGE);
+    }
+
+    /**
+     * 取得事件的详细信息：已缓存时立即回调，否则排在预取之前请求，完成后回调
+     */
+    void get(String eventUrl, Callback callback) {
+        String eventId = EarthquakeFanOut.eventId(eventUrl);
+        EarthquakeDetail detail;
+        synchronized (this) {
+            detail = mDetails.get(eventId);
+            if (detail == null) {
+                List<Callback> callbacks = mPending.get(eventId);
+                if (callbacks == null) {
+                    callbacks = new ArrayList<>(1);
+                    mPending.put(eventId, callbacks);
+                    mDemandQueue.addFirst(eventUrl);
+                } else if (mPrefetchQueue.remove(eventUrl)) {
+                    // 已在预取队列中但还没开始，提前
+                    mDemandQueue.addFirst(eventUrl);
+                }
+                callbacks.add(callback);
+                startWorkers();
+                return;
+            }
+        }
+        EarthquakeMetrics.get().increment(EarthquakeMetrics.COUNTER_DETAIL_CACHE_HITS, 1);
+        deliver(eventUrl, detail, Collections.singletonList(callback));
+    }
+
+    /**
+     * 只从缓存取得，没有时返回null，不发出请求
+     */
+    synchronized EarthquakeDetail peek(String eventUrl) {
+        return mDetails.get(EarthquakeFanOut.eventId(eventUrl));
+    }
+
+    /**
+     * 预取一组事件，替换之前尚未开始的预取。已缓存、请求中或没有详细信息的事件跳过
+     * @param eventUrls 按优先级排列，只取前MAX_PREFETCH个需要请求的
+     */
+    void prefetch(List<String> eventUrls) {
+        synchronized (this) {
+            Iterator<String> stale = mPrefetchQueue.iterator();
+            while (stale.hasNext()) {
+                String eventId = EarthquakeFanOut.eventId(stale.next());
+                List<Callback> callbacks = mPending.get(eventId);
+                if (callbacks != null && callbacks.isEmpty()) {
+                    mPending.remove(eventId);
+                }
+            }
+            mPrefetchQueue.clear();
+            for (int i = 0; i < eventUrls.size() && mPrefetchQueue.size() < MAX_PREFETCH; i++) {
+                String eventUrl = eventUrls.get(i);
+                String eventId = EarthquakeFanOut.eventId(eventUrl);
+                if (!hasDetail(eventUrl) || mDetails.containsKey(eventId) || mPending.containsKey(eventId)) {
+                    continue;
+                }
+                mPending.put(eventId, new ArrayList<Callback>(1));
+                mPrefetchQueue.addLast(eventUrl);
+            }
+            startWorkers();
+        }
+    }
+
+    /**
+     * 不再接收回调，如页面关闭时。请求本身继续，完成后放入缓存
+     */
+    synchronized void cancel(Callback callback) {
+        for (List<Callback> callbacks : mPending.values()) {
+            callbacks.remove(callback);
+        }
+    }
+
+    /**
+     * 队列中的请求多于正在运行的线程时，启动新线程，不超过MAX_THREADS
+     */
+    private void startWorkers() {
+        while (mRunning < MAX_THREADS && mRunning < mDemandQueue.size() + mPrefetchQueue.size()) {
+            mRunning++;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        }
+    }
+
+    /**
+     * 依次处理队列中的请求，队列空时结束
+     */
+    private void drain() {
+        while (true) {
+            String eventUrl;
+            boolean speculative = false;
+            synchronized (this) {
+                eventUrl = mDemandQueue.pollFirst();
+                if (eventUrl == null) {
+                    eventUrl = mPrefetchQueue.pollFirst();
+                    speculative = true;
+                }
+                if (eventUrl == null) {
+                    mRunning--;
+                    return;
+                }
+            }
+
+            EarthquakeDetail detail = null;
+            try {
+                detail = mFetcher.fetch(eventUrl);
+            } catch (IOException | RuntimeException e) {
+                // 解析出错等也当作失败，事件仍从mPending移除、线程继续处理队列，否则之后不会再请求这个事件
+                Log.w(LOG_TAG, "Problem fetching the detail of " + eventUrl, e);
+            }
+            EarthquakeMetrics metrics = EarthquakeMetrics.get();
+            metrics.increment(EarthquakeMetrics.COUNTER_DETAIL_FETCHES, 1);
+            if (speculative) {
+                metrics.increment(EarthquakeMetrics.COUNTER_DETAIL_PREFETCHES, 1);
+            }
+
+            String eventId = EarthquakeFanOut.eventId(eventUrl);
+            List<Callback> callbacks;
+            synchronized (this) {
+                callbacks = mPending.remove(eventId);
+                if (detail != null) {
+                    mDetails.put(eventId, detail);
+                }
+            }
+            if (callbacks != null && !callbacks.isEmpty()) {
+                deliver(eventUrl, detail, callbacks);
+            }
+        }
+    }
+
+    private void deliver(final String eventUrl, final EarthquakeDetail detail, final List<Callback> callbacks) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < callbacks.size(); i++) {
+                    callbacks.get(i).onDetail(eventUrl, detail);
+                }
+            }
+        });
+    }
+
+    /**
+     * 请求USGS的detail GeoJSON并解析，不重试：打开页面时可以重新进入，预取失败无关紧要
+     */
+    static EarthquakeDetail fetchFromUsgs(String eventUrl) throws IOException {
+        EarthquakeHttpClient.Response response = EarthquakeHttpClient.getInstance().get(
+                new URL(DETAIL_URL + EarthquakeFanOut.eventId(eventUrl)), null, null);
+        try {
+            if (response.code != 200) {
+                throw new IOException("Error response code: " + response.code);
+            }
+            return EarthquakeDetailParser.parse(response.body());
+        } finally {
+            response.close();
+        }
+    }
+}
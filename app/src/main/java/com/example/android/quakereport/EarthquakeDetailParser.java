@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * USGS单个事件的detail GeoJSON的流式解析。
+ * 除摘要字段外，只读取origin/phase-data、dyfi、shakemap三类产品中第一个（首选的）产品的部分属性，
+ * 其余产品和各产品的文件列表直接跳过，不读取产品中的QuakeML等大文件。
+ * 产品属性的值在USGS中都是字符串，按数字解析；格式错误的值视为缺失。
+ */
+final class EarthquakeDetailParser {
+
+    /** 顶层关心的字段 */
+    private static final String[] ROOT_NAMES = {"id", "properties"};
+    private static final int ROOT_ID = 0;
+    private static final int ROOT_PROPERTIES = 1;
+
+    /** properties关心的字段 */
+    private static final String[] PROPERTY_NAMES = {"title", "magType", "status", "alert", "tsunami", "sig",
+            "felt", "cdi", "mmi", "nst", "gap", "dmin", "rms", "products"};
+    private static final int PROPERTY_TITLE = 0;
+    private static final int PROPERTY_MAG_TYPE = 1;
+    private static final int PROPERTY_STATUS = 2;
+    private static final int PROPERTY_ALERT = 3;
+    private static final int PROPERTY_TSUNAMI = 4;
+    private static final int PROPERTY_SIG = 5;
+    private static final int PROPERTY_FELT = 6;
+    private static final int PROPERTY_CDI = 7;
+    private static final int PROPERTY_MMI = 8;
+    private static final int PROPERTY_NST = 9;
+    private static final int PROPERTY_GAP = 10;
+    private static final int PROPERTY_DMIN = 11;
+    private static final int PROPERTY_RMS = 12;
+    private static final int PROPERTY_PRODUCTS = 13;
+
+    /** 关心的产品类型 */
+    private static final String[] PRODUCT_NAMES = {"origin", "phase-data", "dyfi", "shakemap"};
+    private static final int PRODUCT_ORIGIN = 0;
+    private static final int PRODUCT_PHASE_DATA = 1;
+    private static final int PRODUCT_DYFI = 2;
+    private static final int PRODUCT_SHAKEMAP = 3;
+
+    /** 单个产品关心的字段 */
+    private static final String[] PRODUCT_FIELD_NAMES = {"properties", "contents"};
+    private static final int PRODUCT_PROPERTIES = 0;
+    private static final int PRODUCT_CONTENTS = 1;
+
+    /** origin和phase-data产品的属性 */
+    private static final String[] ORIGIN_NAMES = {"num-phases-used", "num-stations-used", "azimuthal-gap",
+            "minimum-distance", "standard-error"};
+    private static final int ORIGIN_PHASES = 0;
+    private static final int ORIGIN_STATIONS = 1;
+    private static final int ORIGIN_GAP = 2;
+    private static final int ORIGIN_DISTANCE = 3;
+    private static final int ORIGIN_ERROR = 4;
+
+    /** dyfi产品的属性 */
+    private static final String[] DYFI_NAMES = {"num-responses", "maxmmi"};
+    private static final int DYFI_RESPONSES = 0;
+    private static final int DYFI_MAX_MMI = 1;
+
+    /** shakemap产品的属性 */
+    private static final String[] SHAKEMAP_NAMES = {"maxmmi", "version"};
+    private static final int SHAKEMAP_MAX_MMI = 0;
+    private static final int SHAKEMAP_VERSION = 1;
+
+    /** shakemap产品中的烈度图文件 */
+    private static final String[] SHAKEMAP_CONTENT_NAMES = {"download/intensity.jpg"};
+
+    /** 文件的网址 */
+    private static final String[] CONTENT_NAMES = {"url"};
+
+    private EarthquakeDetailParser() {
+    }
+
+    /**
+     * 解析一个事件的detail GeoJSON
+     * @throws IOException JSON语法错误或传输中断
+     */
+    static EarthquakeDetail parse(InputStream inputStream) throws IOException {
+        JsonStreamReader reader = new JsonStreamReader(
+                new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        EarthquakeDetail detail = new EarthquakeDetail();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int index = reader.nextName(ROOT_NAMES);
+            if (index == ROOT_ID) {
+                detail.eventId = readText(reader);
+            } else if (index == ROOT_PROPERTIES && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                readProperties(reader, detail);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        // 读到末尾，之后的多余内容说明格式错误
+        reader.endDocument();
+        return detail;
+    }
+
+    /**
+     * 读取properties。摘要字段与产品属性有重复时（如felt与DYFI的有感报告数），先读到的有效值优先
+     */
+    private static void readProperties(JsonStreamReader reader, EarthquakeDetail detail) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName(PROPERTY_NAMES)) {
+                case PROPERTY_TITLE:
+                    detail.title = readText(reader);
+                    break;
+                case PROPERTY_MAG_TYPE:
+                    detail.magnitudeType = readText(reader);
+                    break;
+                case PROPERTY_STATUS:
+                    detail.status = readText(reader);
+                    break;
+                case PROPERTY_ALERT:
+                    detail.alert = readText(reader);
+                    break;
+                case PROPERTY_TSUNAMI:
+                    detail.tsunami = readNumber(reader) > 0;
+                    break;
+                case PROPERTY_SIG:
+                    detail.significance = readNumber(reader);
+                    break;
+                case PROPERTY_FELT:
+                    detail.feltReports = firstValid(detail.feltReports, readNumber(reader));
+                    break;
+                case PROPERTY_CDI:
+                    detail.maxReportedIntensity = firstValid(detail.maxReportedIntensity, readNumber(reader));
+                    break;
+                case PROPERTY_MMI:
+                    detail.shakemapMaxIntensity = firstValid(detail.shakemapMaxIntensity, readNumber(reader));
+                    break;
+                case PROPERTY_NST:
+                    detail.stationCount = firstValid(detail.stationCount, readNumber(reader));
+                    break;
+                case PROPERTY_GAP:
+                    detail.azimuthalGap = firstValid(detail.azimuthalGap, readNumber(reader));
+                    break;
+                case PROPERTY_DMIN:
+                    detail.minimumDistance = firstValid(detail.minimumDistance, readNumber(reader));
+                    break;
+                case PROPERTY_RMS:
+                    detail.standardError = firstValid(detail.standardError, readNumber(reader));
+                    break;
+                case PROPERTY_PRODUCTS:
+                    if (reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                        readProducts(reader, detail);
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * 读取各类产品的第一个产品，同一类型的其余产品（其他网络的版本）跳过
+     */
+    private static void readProducts(JsonStreamReader reader, EarthquakeDetail detail) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int type = reader.nextName(PRODUCT_NAMES);
+            if (type == -1 || reader.peek() != JsonStreamReader.Token.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            for (boolean first = true; reader.hasNext(); first = false) {
+                if (first && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                    readProduct(reader, type, detail);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    private static void readProduct(JsonStreamReader reader, int type, EarthquakeDetail detail) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int index = reader.nextName(PRODUCT_FIELD_NAMES);
+            if (index == -1 || reader.peek() != JsonStreamReader.Token.BEGIN_OBJECT) {
+                reader.skipValue();
+            } else if (index == PRODUCT_PROPERTIES) {
+                readProductProperties(reader, type, detail);
+            } else if (index == PRODUCT_CONTENTS && type == PRODUCT_SHAKEMAP) {
+                readShakemapContents(reader, detail);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readProductProperties(JsonStreamReader reader, int type, EarthquakeDetail detail)
+            throws IOException {
+        String[] names = type == PRODUCT_DYFI ? DYFI_NAMES
+                : type == PRODUCT_SHAKEMAP ? SHAKEMAP_NAMES : ORIGIN_NAMES;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int index = reader.nextName(names);
+            if (index == -1) {
+                reader.skipValue();
+            } else if (type == PRODUCT_DYFI) {
+                double value = readNumber(reader);
+                if (index == DYFI_RESPONSES) {
+                    detail.feltReports = firstValid(detail.feltReports, value);
+                } else if (index == DYFI_MAX_MMI) {
+                    detail.maxReportedIntensity = firstValid(detail.maxReportedIntensity, value);
+                }
+            } else if (type == PRODUCT_SHAKEMAP) {
+                if (index == SHAKEMAP_MAX_MMI) {
+                    detail.shakemapMaxIntensity = firstValid(detail.shakemapMaxIntensity, readNumber(reader));
+                } else if (index == SHAKEMAP_VERSION) {
+                    detail.shakemapVersion = readText(reader);
+                }
+            } else {
+                readOriginProperty(index, readNumber(reader), detail);
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * origin和phase-data产品的定位参数
+     */
+    private static void readOriginProperty(int index, double value, EarthquakeDetail detail) {
+        switch (index) {
+            case ORIGIN_PHASES:
+                detail.phaseCount = firstValid(detail.phaseCount, value);
+                break;
+            case ORIGIN_STATIONS:
+                detail.stationCount = firstValid(detail.stationCount, value);
+                break;
+            case ORIGIN_GAP:
+                detail.azimuthalGap = firstValid(detail.azimuthalGap, value);
+                break;
+            case ORIGIN_DISTANCE:
+                detail.minimumDistance = firstValid(detail.minimumDistance, value);
+                break;
+            case ORIGIN_ERROR:
+                detail.standardError = firstValid(detail.standardError, value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 在shakemap产品的文件列表中查找烈度图的网址
+     */
+    private static void readShakemapContents(JsonStreamReader reader, EarthquakeDetail detail) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName(SHAKEMAP_CONTENT_NAMES) == 0
+                    && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName(CONTENT_NAMES) == 0) {
+                        detail.shakemapImageUrl = readText(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * 读取文本，null或其他类型时返回null
+     */
+    private static String readText(JsonStreamReader reader) throws IOException {
+        if (reader.peek() != JsonStreamReader.Token.STRING) {
+            reader.skipValue();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * 读取数字或数字字符串，null、其他类型或格式错误时返回NaN
+     */
+    private static double readNumber(JsonStreamReader reader) throws IOException {
+        JsonStreamReader.Token token = reader.peek();
+        if (token == JsonStreamReader.Token.NUMBER) {
+            return reader.nextDouble();
+        }
+        if (token != JsonStreamReader.Token.STRING) {
+            reader.skipValue();
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(reader.nextString());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static double firstValid(double current, double value) {
+        return Double.isNaN(current) ? value : current;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 地震数据磁盘缓存。
+ * 以规范化后的查询URL为键，保存解析好的地震数据以及ETag/Last-Modified，
+ * 用于条件请求；超过有效期的数据需要重新验证，总大小超出上限时按最近最少使用淘汰。
+ */
+public final class EarthquakeDiskCache {
+
+    /** 获取类名称 */
+    private static final String LOG_TAG = EarthquakeDiskCache.class.getSimpleName();
+
+    /** 缓存文件格式版本 */
+    private static final int FORMAT_VERSION = 2;
+
+    /** validatedAt在文件中的位置，紧跟版本号之后，304时原地更新 */
+    private static final int VALIDATED_AT_OFFSET = 4;
+
+    /** 有效期：在此时间内直接使用缓存，不访问网络 */
+    static final long TTL_MILLIS = 2 * 60 * 1000;
+
+    /** 缓存目录的大小上限 */
+    static final long MAX_SIZE_BYTES = 2 * 1024 * 1024;
+
+    /** 缓存子目录名 */
+    private static final String DIRECTORY_NAME = "earthquakes";
+
+    private static EarthquakeDiskCache sInstance;
+
+    /** 缓存目录 */
+    private final File mDirectory;
+
+    /** 缓存目录大小上限 */
+    private final long mMaxSizeBytes;
+
+    /**
+     * 获取进程内唯一的缓存实例
+     */
+    public static synchronized EarthquakeDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME);
+            sInstance = new EarthquakeDiskCache(directory, MAX_SIZE_BYTES);
+        }
+        return sInstance;
+    }
+
+    EarthquakeDiskCache(File directory, long maxSizeBytes) {
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * 一条缓存记录
+     */
+    public static final class Entry {
+
+        /** 解析好的地震数据 */
+        final List<Earthquake> earthquakes;
+
+        /** 服务器返回的ETag，没有则为空字符串 */
+        final String etag;
+
+        /** 服务器返回的Last-Modified，没有则为空字符串 */
+        final String lastModified;
+
+        /** 最近一次从服务器确认有效的时间 */
+        final long validatedAt;
+
+        Entry(List<Earthquake> earthquakes, String etag, String lastModified, long validatedAt) {
+            this.earthquakes = earthquakes;
+            this.etag = etag == null ? "" : etag;
+            this.lastModified = lastModified == null ? "" : lastModified;
+            this.validatedAt = validatedAt;
+        }
+
+        /**
+         * 是否仍在有效期内
+         */
+        boolean isFresh(long now) {
+            return now - validatedAt < TTL_MILLIS && now >= validatedAt;
+        }
+    }
+
+    /**
+     * 读取缓存，没有或损坏时返回null
+     */
+    public synchronized Entry get(String url) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            long validatedAt = in.readLong();
+            if (!normalizeUrl(url).equals(in.readUTF())) {
+                // 哈希冲突
+                return null;
+            }
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            int count = in.readInt();
+            List<Earthquake> earthquakes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                double magnitude = in.readDouble();
+                String location = in.readUTF();
+                long time = in.readLong();
+                String detailUrl = in.readUTF();
+                double latitude = in.readDouble();
+                double longitude = in.readDouble();
+                double depth = in.readDouble();
+                earthquakes.add(new Earthquake(magnitude, location, time, detailUrl,
+                        latitude, longitude, depth));
+            }
+            // 记录最近使用时间，用于淘汰
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(earthquakes, etag, lastModified, validatedAt);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake cache.", e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 写入缓存，先写临时文件再改名，写入后按大小上限淘汰
+     */
+    public synchronized void put(String url, Entry entry) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            return;
+        }
+        File file = fileFor(url);
+        File tmp = new File(mDirectory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(entry.validatedAt);
+            out.writeUTF(normalizeUrl(url));
+            out.writeUTF(entry.etag);
+            out.writeUTF(entry.lastModified);
+            out.writeInt(entry.earthquakes.size());
+            for (Earthquake earthquake : entry.earthquakes) {
+                out.writeDouble(earthquake.getMagnitude());
+                out.writeUTF(earthquake.getLocation());
+                out.writeLong(earthquake.getTimeInMilliseconds());
+                out.writeUTF(earthquake.getUrl());
+                out.writeDouble(earthquake.getLatitude());
+                out.writeDouble(earthquake.getLongitude());
+                out.writeDouble(earthquake.getDepth());
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquake cache.", e);
+            tmp.delete();
+            return;
+        } finally {
+            closeQuietly(out);
+        }
+        trimToSize();
+    }
+
+    /**
+     * 服务器返回304，只更新确认有效的时间，不重写数据
+     */
+    public synchronized void markValidated(String url, long validatedAt) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.seek(VALIDATED_AT_OFFSET);
+            raf.writeLong(validatedAt);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem updating the earthquake cache.", e);
+        } finally {
+            closeQuietly(raf);
+        }
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * 总大小超出上限时，按最近使用时间从旧到新删除
+     */
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxSizeBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (size <= mMaxSizeBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(mDirectory, sha1Hex(normalizeUrl(url)));
+    }
+
+    /**
+     * 规范化查询URL：查询参数按字典序排列，保证参数顺序不同的相同查询命中同一条缓存
+     */
+    static String normalizeUrl(String url) {
+        int queryStart = url.indexOf('?');
+        if (queryStart < 0) {
+            return url;
+        }
+        String[] params = url.substring(queryStart + 1).split("&");
+        Arrays.sort(params);
+        StringBuilder builder = new StringBuilder(url.length());
+        builder.append(url, 0, queryStart + 1);
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0) {
+                builder.append('&');
+            }
+            builder.append(params[i]);
+        }
+        return builder.toString();
+    }
+
+    private static String sha1Hex(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(value.getBytes(Charset.forName("UTF-8")));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(value.hashCode());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把一个长时间范围的查询切分为多个时间窗口并行请求，再合并为一个有序结果。
+ * 每个窗口是一次独立的请求，带limit参数，结果数超过USGS单次请求的上限时服务器只返回上限条，
+ * 不再以400拒绝整个请求；达到上限的窗口分成两半重新请求，直到每个窗口都在上限以内。
+ * 窗口边界对齐到整点，除最新的窗口外，各窗口的网址在一段时间内不变，可以命中缓存。
+ * 同一事件可能出现在相邻两个窗口的边界上，合并时按事件id去重。
+ */
+final class EarthquakeFanOut {
+
+    /** 并行请求数的上限，也是共享线程池的大小 */
+    static final int MAX_CONCURRENCY = 8;
+
+    /** 切分的时间窗口数量 */
+    static final int WINDOW_COUNT = 8;
+
+    /** USGS单次请求的结果数上限，超过时不带limit的请求返回400 */
+    static final int WINDOW_LIMIT = 20000;
+
+    /** 窗口不再切分的最小长度，查询时间精确到秒 */
+    private static final long MIN_WINDOW_MILLIS = 60L * 1000;
+
+    /** 不指定starttime时USGS默认查询最近30天 */
+    static final long DEFAULT_HISTORY_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /** 窗口边界对齐的单位 */
+    private static final long ALIGN_MILLIS = 60L * 60 * 1000;
+
+    /** 所有查询共享的线程池，线程数不超过MAX_CONCURRENCY，空闲时回收 */
+    private static final ExecutorService EXECUTOR = newExecutor();
+
+    /** 请求一个窗口的数据，失败返回null */
+    interface Fetcher {
+        List<Earthquake> fetch(String url);
+    }
+
+    private final Fetcher mFetcher;
+
+    /** 同时进行的请求数 */
+    private final int mConcurrency;
+
+    /** 每个窗口请求的结果数上限 */
+    private final int mWindowLimit;
+
+    /**
+     * @param concurrency 同时进行的请求数，限制在1到MAX_CONCURRENCY之间
+     */
+    EarthquakeFanOut(Fetcher fetcher, int concurrency) {
+        this(fetcher, concurrency, WINDOW_LIMIT);
+    }
+
+    /**
+     * @param windowLimit 每个窗口请求的结果数上限，达到时切分窗口
+     */
+    @VisibleForTesting
+    EarthquakeFanOut(Fetcher fetcher, int concurrency, int windowLimit) {
+        mFetcher = fetcher;
+        mConcurrency = Math.max(1, Math.min(concurrency, MAX_CONCURRENCY));
+        mWindowLimit = windowLimit;
+    }
+
+    /**
+     * 按时间范围切分窗口并行请求，合并去重后按查询的排序方式返回。
+     * 有窗口失败或只得到部分数据时，其余窗口的数据作为QueryUtils.PartialResult返回，
+     * 不会被当作全部数据；全部窗口都失败时返回null
+     * @param baseUrl 不含starttime、endtime、limit和offset的查询网址
+     * @param startTime 范围起点，向下对齐到整点
+     * @param endTime 范围终点，最新的窗口不带endtime，一直到服务器的当前时间
+     * @param orderByTime true按时间从新到旧，false按等级从大到小
+     */
+    List<Earthquake> fetch(final String baseUrl, long startTime, long endTime, boolean orderByTime)
+            throws InterruptedException {
+        final List<long[]> windows = windows(startTime, endTime, WINDOW_COUNT);
+        // 各窗口的结果，每个工作任务只写自己领取的下标，大小不变；worker.get()之后对这里可见
+        final List<List<Earthquake>> results = new ArrayList<>(windows.size());
+        for (int i = 0; i < windows.size(); i++) {
+            results.add(null);
+        }
+
+        // 每个工作任务依次领取下一个窗口，同时进行的请求数不超过mConcurrency
+        final AtomicInteger nextWindow = new AtomicInteger();
+        int workerCount = Math.min(mConcurrency, windows.size());
+        List<Future<Boolean>> workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(EXECUTOR.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    int window;
+                    while ((window = nextWindow.getAndIncrement()) < windows.size()) {
+                        long[] bounds = windows.get(window);
+                        // 最新的窗口不带endtime
+                        results.set(window, fetchWindow(baseUrl, bounds[0], bounds[1], window == 0));
+                    }
+                    return true;
+                }
+            }));
+        }
+
+        try {
+            for (Future<Boolean> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            return null;
+        } finally {
+            // 加载被取消时停止尚未完成的请求
+            for (Future<Boolean> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+        return merge(results, orderByTime);
+    }
+
+    /**
+     * 请求一个窗口。结果达到上限时窗口内还有更多地震，分成两半依次请求后合并；
+     * 窗口已不能再分时，上限条的结果作为部分数据返回
+     * @param open 是否不带endtime，一直到服务器的当前时间
+     * @return 失败时返回null；有一半失败时另一半作为部分数据返回
+     */
+    private List<Earthquake> fetchWindow(String baseUrl, long start, long end, boolean open) {
+        List<Earthquake> result = mFetcher.fetch(windowUrl(baseUrl, start, end, open, mWindowLimit));
+        if (result == null || result.size() < mWindowLimit || QueryUtils.isPartial(result)) {
+            return result;
+        }
+        if (end - start < 2 * MIN_WINDOW_MILLIS) {
+            return new QueryUtils.PartialResult(result);
+        }
+        // 在整秒处切分，两半的网址都精确表示切分点
+        long middle = start + (end - start) / 2;
+        middle -= middle % 1000;
+        List<List<Earthquake>> halves = new ArrayList<>(2);
+        halves.add(fetchWindow(baseUrl, middle, end, open));
+        halves.add(fetchWindow(baseUrl, start, middle, false));
+        List<Earthquake> merged = new ArrayList<>(result.size());
+        boolean partial = false;
+        for (List<Earthquake> half : halves) {
+            if (half == null) {
+                partial = true;
+                continue;
+            }
+            merged.addAll(half);
+            partial |= QueryUtils.isPartial(half);
+        }
+        if (halves.get(0) == null && halves.get(1) == null) {
+            return null;
+        }
+        return partial ? new QueryUtils.PartialResult(merged) : merged;
+    }
+
+    /**
+     * 把[startTime, endTime]切分为windowCount个窗口，从新到旧排列
+     * @return 每个窗口的起止时间
+     */
+    private static List<long[]> windows(long startTime, long endTime, int windowCount) {
+        long start = startTime - startTime % ALIGN_MILLIS;
+        long windowMillis = (endTime - start) / windowCount;
+        windowMillis = Math.max(ALIGN_MILLIS, windowMillis - windowMillis % ALIGN_MILLIS);
+
+        List<long[]> windows = new ArrayList<>(windowCount);
+        for (int i = 0; i < windowCount; i++) {
+            long windowStart = start + i * windowMillis;
+            boolean last = i == windowCount - 1 || windowStart + windowMillis >= endTime;
+            windows.add(0, new long[] {windowStart, last ? endTime : windowStart + windowMillis});
+            if (last) {
+                break;
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * 把[startTime, endTime]切分为windowCount个窗口，从新到旧排列，返回各窗口的网址
+     */
+    static List<String> windowUrls(String baseUrl, long startTime, long endTime, int windowCount) {
+        List<long[]> windows = windows(startTime, endTime, windowCount);
+        List<String> urls = new ArrayList<>(windows.size());
+        for (int i = 0; i < windows.size(); i++) {
+            urls.add(windowUrl(baseUrl, windows.get(i)[0], windows.get(i)[1], i == 0, WINDOW_LIMIT));
+        }
+        return urls;
+    }
+
+    private static String windowUrl(String baseUrl, long start, long end, boolean open, int limit) {
+        StringBuilder url = new StringBuilder(baseUrl)
+                .append(baseUrl.indexOf('?') < 0 ? '?' : '&')
+                .append("starttime=").append(QueryUtils.formatQueryTime(start));
+        if (!open) {
+            url.append("&endtime=").append(QueryUtils.formatQueryTime(end));
+        }
+        return url.append("&limit=").append(limit).toString();
+    }
+
+    /**
+     * 按事件id去重后按服务器的方式排序，有窗口失败（null）或不完整时结果也标记为不完整
+     * @return 全部窗口都失败时返回null
+     */
+    static List<Earthquake> merge(List<List<Earthquake>> windows, boolean orderByTime) {
+        int total = 0;
+        boolean partial = false;
+        int failed = 0;
+        for (List<Earthquake> window : windows) {
+            if (window == null) {
+                failed++;
+                continue;
+            }
+            total += window.size();
+            partial |= QueryUtils.isPartial(window);
+        }
+        if (failed == windows.size()) {
+            return null;
+        }
+        partial |= failed > 0;
+        List<Earthquake> merged = partial ? new QueryUtils.PartialResult(total)
+                : new ArrayList<Earthquake>(total);
+        Set<String> eventIds = new HashSet<>(total * 2);
+        for (List<Earthquake> window : windows) {
+            if (window == null) {
+                continue;
+            }
+            for (int i = 0; i < window.size(); i++) {
+                Earthquake earthquake = window.get(i);
+                if (eventIds.add(eventId(earthquake.getUrl()))) {
+                    merged.add(earthquake);
+                }
+            }
+        }
+
+        QueryUtils.sortLikeServer(merged, orderByTime);
+        return merged;
+    }
+
+    /**
+     * 事件id，即详细网址最后一个'/'之后的部分，与EarthquakeTable的网址后缀一致
+     */
+    static String eventId(String url) {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+    private static ExecutorService newExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONCURRENCY, MAX_CONCURRENCY,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同时向多个数据源请求同一查询，合并为一个结果。
+ * 主数据源在调用线程请求，附加数据源在共享线程池中并行请求；各数据源分别重试和使用磁盘缓存。
+ * 主数据源决定结果是否完整：附加数据源失败时只少了它的数据，结果仍是完整的；
+ * 主数据源失败时只有附加数据源的数据，作为不完整的结果（QueryUtils.PartialResult）返回。
+ */
+final class EarthquakeFederation {
+
+    private static final String LOG_TAG = EarthquakeFederation.class.getSimpleName();
+
+    /** 同时请求附加数据源的线程数上限 */
+    private static final int MAX_THREADS = 4;
+
+    /** 所有查询共享的线程池，空闲时回收 */
+    private static final ExecutorService EXECUTOR = newExecutor();
+
+    private EarthquakeFederation() {
+    }
+
+    /**
+     * 请求各数据源并合并
+     * @param sources 按优先级排列，第一个是主数据源
+     * @param query USGS格式的查询网址
+     * @param call 不为null时，取消会中断所有数据源的请求
+     * @return 全部数据源都失败或请求被取消时返回null
+     */
+    static List<Earthquake> fetch(final List<EarthquakeFeedSource> sources, final String query,
+                                  final EarthquakeDiskCache diskCache, EarthquakeFetchScheduler.Call call) {
+        // 每个数据源一个Call，各自登记中断方法；外层的Call被取消时全部取消
+        final SourceCall[] calls = new SourceCall[sources.size()];
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = new SourceCall();
+        }
+        if (call != null) {
+            call.setAbortAction(new Runnable() {
+                @Override
+                public void run() {
+                    cancelAll(calls);
+                }
+            });
+        }
+
+        List<Future<List<Earthquake>>> futures = new ArrayList<>(sources.size() - 1);
+        for (int i = 1; i < sources.size(); i++) {
+            final int index = i;
+            futures.add(EXECUTOR.submit(new Callable<List<Earthquake>>() {
+                @Override
+                public List<Earthquake> call() {
+                    return QueryUtils.fetchFromSource(sources.get(index), query, diskCache, calls[index]);
+                }
+            }));
+        }
+
+        List<List<Earthquake>> results = new ArrayList<>(sources.size());
+        results.add(QueryUtils.fetchFromSource(sources.get(0), query, diskCache, calls[0]));
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Problem fetching " + sources.get(i + 1).id, e);
+                    results.add(null);
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelAll(calls);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (call != null && call.isCancelled()) {
+            return null;
+        }
+
+        EarthquakeMetrics metrics = EarthquakeMetrics.get();
+        List<List<Earthquake>> available = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) != null) {
+                available.add(results.get(i));
+            } else {
+                Log.w(LOG_TAG, "Source " + sources.get(i).id + " failed");
+                metrics.increment(EarthquakeMetrics.COUNTER_SOURCE_FAILURES, 1);
+            }
+        }
+        if (available.isEmpty()) {
+            return null;
+        }
+
+        boolean orderByTime = !"magnitude".equals(EarthquakeFeedSource.getParameter(query, "orderby"));
+        List<Earthquake> merged = merge(available, orderByTime);
+        List<Earthquake> primary = results.get(0);
+        return primary == null || QueryUtils.isPartial(primary) ? new QueryUtils.PartialResult(merged) : merged;
+    }
+
+    /**
+     * 合并各数据源的结果，同一事件只保留优先级最高的数据源的记录，再按服务器的方式排序
+     * @param results 按优先级排列
+     */
+    static List<Earthquake> merge(List<List<Earthquake>> results, boolean orderByTime) {
+        int total = 0;
+        for (int i = 0; i < results.size(); i++) {
+            total += results.get(i).size();
+        }
+        EarthquakeDedupIndex index = new EarthquakeDedupIndex(total);
+        for (int source = 0; source < results.size(); source++) {
+            List<Earthquake> earthquakes = results.get(source);
+            for (int i = 0; i < earthquakes.size(); i++) {
+                index.add(earthquakes.get(i), source);
+            }
+        }
+        EarthquakeMetrics.get().increment(EarthquakeMetrics.COUNTER_DUPLICATES_MERGED, index.getMergedCount());
+
+        List<Earthquake> merged = index.getEarthquakes();
+        QueryUtils.sortLikeServer(merged, orderByTime);
+        return merged;
+    }
+
+    private static void cancelAll(SourceCall[] calls) {
+        for (SourceCall call : calls) {
+            call.cancel();
+        }
+    }
+
+    private static ExecutorService newExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 一个数据源的请求，取消时执行登记的中断方法
+     */
+    private static final class SourceCall implements EarthquakeFetchScheduler.Call {
+
+        private Runnable mAbort;
+
+        private boolean mCancelled;
+
+        @Override
+        public void setAbortAction(Runnable abort) {
+            synchronized (this) {
+                if (!mCancelled) {
+                    mAbort = abort;
+                    return;
+                }
+            }
+            abort.run();
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        void cancel() {
+            Runnable abort;
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                abort = mAbort;
+            }
+            if (abort != null) {
+                abort.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.support.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 地震数据源：把应用使用的USGS格式查询网址转换为这个数据源的网址，并解析它的响应。
+ * 查询网址本身的服务器是主数据源（USGS GeoJSON）；附加的FDSN数据源列在sources参数中，
+ * 如sources=emsc,geonet。数据源随查询网址传递，内存缓存、磁盘缓存和快照都按数据源的组合区分。
+ */
+abstract class EarthquakeFeedSource {
+
+    /** 列出附加数据源的查询参数，只在应用内使用，不发送给任何服务器 */
+    static final String PARAM_SOURCES = "sources";
+
+    /** 主数据源的id */
+    static final String PRIMARY_ID = "usgs";
+
+    /** 已知的附加数据源，按id查找 */
+    private static final Map<String, EarthquakeFeedSource> REGISTRY = new LinkedHashMap<>();
+
+    static {
+        register(new FdsnText("emsc", "https://www.seismicportal.eu/fdsnws/event/1/query",
+                "https://www.seismicportal.eu/eventdetails.html?unid="));
+        register(new FdsnText("geonet", "https://service.geonet.org.nz/fdsnws/event/1/query",
+                "https://www.geonet.org.nz/earthquake/"));
+    }
+
+    private static final EarthquakeFeedSource PRIMARY = new EarthquakeFeedSource(PRIMARY_ID) {
+        @Override
+        String buildUrl(String query) {
+            return removeParameter(query, PARAM_SOURCES);
+        }
+
+        @Override
+        int parse(InputStream inputStream, List<Earthquake> earthquakes) throws IOException {
+            return EarthquakeJsonParser.parseFeatures(inputStream, earthquakes);
+        }
+    };
+
+    /** 数据源的id，用在sources参数中 */
+    final String id;
+
+    EarthquakeFeedSource(String id) {
+        this.id = id;
+    }
+
+    /**
+     * 把查询网址转换为这个数据源的请求网址
+     */
+    abstract String buildUrl(String query);
+
+    /**
+     * 解析响应，逐条加入earthquakes
+     * @return 丢弃的条数
+     * @throws IOException 连接中断或格式错误，已解析的数据保留在earthquakes中
+     */
+    abstract int parse(InputStream inputStream, List<Earthquake> earthquakes) throws IOException;
+
+    /**
+     * 主数据源：查询网址本身的服务器，USGS GeoJSON格式
+     */
+    static EarthquakeFeedSource primary() {
+        return PRIMARY;
+    }
+
+    /**
+     * 登记附加数据源，已有同一id时替换
+     */
+    @VisibleForTesting
+    static void register(EarthquakeFeedSource source) {
+        synchronized (REGISTRY) {
+            REGISTRY.put(source.id, source);
+        }
+    }
+
+    /**
+     * 查询网址使用的数据源，主数据源在最前，之后按sources参数的顺序；未知的id被忽略
+     */
+    static List<EarthquakeFeedSource> forQuery(String query) {
+        List<EarthquakeFeedSource> sources = new ArrayList<>();
+        sources.add(PRIMARY);
+        String ids = getParameter(query, PARAM_SOURCES);
+        if (ids == null) {
+            return sources;
+        }
+        synchronized (REGISTRY) {
+            for (String id : ids.split(",")) {
+                EarthquakeFeedSource source = REGISTRY.get(id);
+                if (source != null && !sources.contains(source)) {
+                    sources.add(source);
+                }
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * 查询网址中sources参数的值，没有附加数据源时返回空字符串
+     */
+    static String getSources(String query) {
+        String ids = getParameter(query, PARAM_SOURCES);
+        return ids == null ? "" : ids;
+    }
+
+    /**
+     * 把附加数据源的id排序后拼成sources参数的值，同样的组合总是得到同样的查询网址
+     */
+    static String joinIds(Collection<String> ids) {
+        StringBuilder joined = new StringBuilder();
+        for (String id : new TreeSet<>(ids)) {
+            if (id.isEmpty() || id.equals(PRIMARY_ID)) {
+                continue;
+            }
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(id);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * 查询参数的值，没有时返回null
+     */
+    static String getParameter(String url, String name) {
+        int query = url.indexOf('?');
+        if (query < 0) {
+            return null;
+        }
+        for (String pair : url.substring(query + 1).split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                return decode(pair.substring(equals + 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 去掉查询参数，没有这个参数时原样返回
+     */
+    static String removeParameter(String url, String name) {
+        int query = url.indexOf('?');
+        if (query < 0 || url.indexOf(name + "=", query) < 0) {
+            return url;
+        }
+        StringBuilder result = new StringBuilder(url.length()).append(url, 0, query);
+        char separator = '?';
+        for (String pair : url.substring(query + 1).split("&")) {
+            if (pair.isEmpty() || pair.startsWith(name + "=")) {
+                continue;
+            }
+            result.append(separator).append(pair);
+            separator = '&';
+        }
+        return result.toString();
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * 支持FDSN event服务文本格式（format=text）的数据源。
+     * 查询参数与USGS相同，只把format换成text，USGS的简写minmag换成标准的minmagnitude
+     */
+    static final class FdsnText extends EarthquakeFeedSource {
+
+        /** 不转发给其他服务器的参数 */
+        private static final List<String> DROPPED_PARAMETERS = Arrays.asList(PARAM_SOURCES, "format");
+
+        private final String mEndpoint;
+
+        private final String mEventUrlPrefix;
+
+        /**
+         * @param endpoint 不含查询参数的query网址
+         * @param eventUrlPrefix 事件详细网页的网址前缀，后面接事件id
+         */
+        FdsnText(String id, String endpoint, String eventUrlPrefix) {
+            super(id);
+            mEndpoint = endpoint;
+            mEventUrlPrefix = eventUrlPrefix;
+        }
+
+        @Override
+        String buildUrl(String query) {
+            StringBuilder url = new StringBuilder(mEndpoint).append("?format=text");
+            int start = query.indexOf('?');
+            if (start >= 0) {
+                for (String pair : query.substring(start + 1).split("&")) {
+                    int equals = pair.indexOf('=');
+                    if (equals <= 0 || DROPPED_PARAMETERS.contains(pair.substring(0, equals))) {
+                        continue;
+                    }
+                    url.append('&');
+                    if (pair.startsWith("minmag=")) {
+                        url.append("minmagnitude").append(pair, equals, pair.length());
+                    } else {
+                        url.append(pair);
+                    }
+                }
+            }
+            return url.toString();
+        }
+
+        @Override
+        int parse(InputStream inputStream, List<Earthquake> earthquakes) throws IOException {
+            return EarthquakeTextParser.parseEvents(inputStream, mEventUrlPrefix, earthquakes);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 地震数据请求的调度器。
+ * 所有请求在一个有上限的线程池中执行，线程都忙时排队的请求按优先级出队，当前屏幕需要的先于预取的；
+ * 同一网址正在进行的请求只发出一次，结果交给所有请求者；
+ * 所有请求者都取消后，排队的请求直接移出队列，正在读取的请求关闭连接，在读取中途停止。
+ * 网络访问由Transport完成，单元测试中可以替换。
+ */
+final class EarthquakeFetchScheduler {
+
+    /** 当前屏幕需要的数据 */
+    static final int PRIORITY_VISIBLE = 0;
+
+    /** 预取的数据 */
+    static final int PRIORITY_PREFETCH = 1;
+
+    private static EarthquakeFetchScheduler sInstance;
+
+    /**
+     * 一次进行中的请求，由Transport在建立连接后登记中断方法
+     */
+    interface Call {
+
+        /**
+         * 登记取消时中断请求的方法，如关闭连接；已取消时立即执行
+         */
+        void setAbortAction(Runnable abort);
+
+        /** 是否已被取消 */
+        boolean isCancelled();
+    }
+
+    /**
+     * 实际发出请求并解析结果
+     */
+    interface Transport {
+
+        /**
+         * @return 请求失败时返回null
+         */
+        List<Earthquake> fetch(String url, Call call);
+    }
+
+    private final Transport mTransport;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /** 按网址索引的进行中（排队或执行）的请求，访问时持有mInFlight的锁 */
+    private final Map<String, Request> mInFlight = new HashMap<>();
+
+    /** 同优先级的请求按加入的先后执行 */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * 获取进程内唯一的实例，通过QueryUtils访问网络并使用磁盘缓存
+     */
+    static synchronized EarthquakeFetchScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            final EarthquakeDiskCache diskCache = EarthquakeDiskCache.getInstance(context);
+            sInstance = new EarthquakeFetchScheduler(new Transport() {
+                @Override
+                public List<Earthquake> fetch(String url, Call call) {
+                    return QueryUtils.fetchEarthquakeData(url, diskCache, call);
+                }
+            }, EarthquakeFanOut.MAX_CONCURRENCY);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param threadCount 同时进行的请求数上限
+     */
+    EarthquakeFetchScheduler(Transport transport, int threadCount) {
+        mTransport = transport;
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 请求一个网址。同一网址已有进行中的请求时合并到该请求，并按需提高其优先级
+     * @param priority PRIORITY_VISIBLE或PRIORITY_PREFETCH
+     * @return 用于等待结果或取消的句柄，每个句柄只能取消一次
+     */
+    Handle fetch(String url, int priority) {
+        Request request;
+        Handle handle;
+        boolean requeue = false;
+        synchronized (mInFlight) {
+            request = mInFlight.get(url);
+            if (request == null) {
+                request = new Request(url, priority, mSequence.getAndIncrement());
+                mInFlight.put(url, request);
+                mExecutor.execute(request);
+            } else if (priority < request.mPriority && mExecutor.remove(request)) {
+                // 还在排队，提高优先级后重新排队
+                request.mPriority = priority;
+                requeue = true;
+            }
+            handle = new Handle(request);
+            request.mHandles.add(handle);
+        }
+        if (requeue) {
+            mExecutor.execute(request);
+        }
+        return handle;
+    }
+
+    /**
+     * 正在排队和执行的请求数
+     */
+    int getInFlightCount() {
+        synchronized (mInFlight) {
+            return mInFlight.size();
+        }
+    }
+
+    /**
+     * 一个请求者得到的句柄
+     */
+    final class Handle {
+
+        private final Request mRequest;
+
+        /** 请求结束或这个句柄被取消 */
+        private final CountDownLatch mDone = new CountDownLatch(1);
+
+        private boolean mCancelled;
+
+        private Handle(Request request) {
+            mRequest = request;
+        }
+
+        /**
+         * 等待结果，句柄被取消时立即返回
+         * @return 请求失败或已取消时返回null
+         */
+        List<Earthquake> get() throws InterruptedException {
+            mDone.await();
+            synchronized (mInFlight) {
+                return mCancelled ? null : mRequest.mResult;
+            }
+        }
+
+        /**
+         * 取消这个请求者。没有其他请求者时取消请求本身
+         */
+        void cancel() {
+            Runnable abort = null;
+            boolean dequeued = false;
+            synchronized (mInFlight) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                mDone.countDown();
+                mRequest.mHandles.remove(this);
+                if (!mRequest.mHandles.isEmpty() || mRequest.mFinished) {
+                    return;
+                }
+                mRequest.mCancelled = true;
+                if (mInFlight.get(mRequest.mUrl) == mRequest) {
+                    mInFlight.remove(mRequest.mUrl);
+                }
+                dequeued = mExecutor.remove(mRequest);
+                abort = mRequest.mAbort;
+            }
+            if (abort != null && !dequeued) {
+                abort.run();
+            }
+        }
+    }
+
+    /**
+     * 同一网址的一次请求，可能有多个请求者
+     */
+    private final class Request implements Runnable, Comparable<Request>, Call {
+
+        private final String mUrl;
+
+        /** 排队时的优先级，只在持有mInFlight的锁且不在队列中时修改 */
+        private int mPriority;
+
+        private final long mSequence;
+
+        /** 还在等待结果的请求者 */
+        private final List<Handle> mHandles = new ArrayList<>(1);
+
+        /** 已执行完 */
+        private boolean mFinished;
+
+        private volatile boolean mCancelled;
+
+        /** 取消时中断请求的方法 */
+        private Runnable mAbort;
+
+        private List<Earthquake> mResult;
+
+        Request(String url, int priority, long sequence) {
+            mUrl = url;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            List<Earthquake> result = mCancelled ? null : mTransport.fetch(mUrl, this);
+            synchronized (mInFlight) {
+                if (mInFlight.get(mUrl) == this) {
+                    mInFlight.remove(mUrl);
+                }
+                mResult = mCancelled ? null : result;
+                mAbort = null;
+                mFinished = true;
+                for (int i = 0; i < mHandles.size(); i++) {
+                    mHandles.get(i).mDone.countDown();
+                }
+                mHandles.clear();
+            }
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence > other.mSequence ? 1 : 0);
+        }
+
+        @Override
+        public void setAbortAction(Runnable abort) {
+            synchronized (mInFlight) {
+                if (!mCancelled) {
+                    mAbort = abort;
+                    return;
+                }
+            }
+            abort.run();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 默认的EarthquakeMetrics实现：每个耗时一个直方图，每个计数一个AtomicLong，只保存在进程内。
+ * 第一次记录某个名称时创建对应的对象，之后的记录不分配对象、不加锁。
+ */
+final class EarthquakeHistogramMetrics extends EarthquakeMetrics {
+
+    private final ConcurrentHashMap<String, Histogram> mSpans = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, AtomicLong> mCounters = new ConcurrentHashMap<>();
+
+    @Override
+    void recordDuration(String span, long nanos) {
+        Histogram histogram = mSpans.get(span);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = mSpans.putIfAbsent(span, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    @Override
+    void increment(String counter, long delta) {
+        AtomicLong value = mCounters.get(counter);
+        if (value == null) {
+            AtomicLong created = new AtomicLong();
+            value = mCounters.putIfAbsent(counter, created);
+            if (value == null) {
+                value = created;
+            }
+        }
+        value.addAndGet(delta);
+    }
+
+    /**
+     * 记录过的耗时名称，按名称排序
+     */
+    List<String> getSpanNames() {
+        List<String> names = new ArrayList<>(mSpans.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * 耗时的直方图，没有记录过时返回null
+     */
+    Histogram getHistogram(String span) {
+        return mSpans.get(span);
+    }
+
+    /**
+     * 记录过的计数名称，按名称排序
+     */
+    List<String> getCounterNames() {
+        List<String> names = new ArrayList<>(mCounters.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * 计数的当前值，没有记录过时为0
+     */
+    long getCounter(String counter) {
+        AtomicLong value = mCounters.get(counter);
+        return value == null ? 0 : value.get();
+    }
+
+    /**
+     * 清除全部记录
+     */
+    void reset() {
+        mSpans.clear();
+        mCounters.clear();
+    }
+
+    /**
+     * 耗时的直方图，单位纳秒。
+     * 按数值的最高位分组，每组再分16个桶，桶宽不超过所在数值的1/16，
+     * 分位数的相对误差在3.2%以内；小于16纳秒的值精确记录。共960个桶，覆盖全部非负long值
+     */
+    static final class Histogram {
+
+        /** 每组的桶数 */
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+        /** 桶数：最高位从第4位到第62位各一组，加上小于16的一组 */
+        static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+        private final AtomicLong mCount = new AtomicLong();
+
+        private final AtomicLong mSum = new AtomicLong();
+
+        private final AtomicLong mMax = new AtomicLong();
+
+        /**
+         * 记录一个值，负数按0记录
+         */
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            mBuckets.incrementAndGet(bucketIndex(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max;
+            while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+                // 重试
+            }
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        /**
+         * 平均值，没有记录时为0
+         */
+        long getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mSum.get() / count;
+        }
+
+        long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * 第percentile百分位的值，取所在桶的中点，不超过最大值；没有记录时为0
+         * @param percentile 0到100
+         */
+        long getPercentile(double percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            if (rank >= count) {
+                // 最大的一个值是精确记录的
+                return mMax.get();
+            }
+            long seen = 0;
+            for (int index = 0; index < mBuckets.length(); index++) {
+                seen += mBuckets.get(index);
+                if (seen >= rank) {
+                    long lower = bucketLowerBound(index);
+                    long width = bucketLowerBound(index + 1) - lower;
+                    return Math.min(lower + (width - 1) / 2, mMax.get());
+                }
+            }
+            // 记录和读取同时进行时各计数可能不一致
+            return mMax.get();
+        }
+
+        /**
+         * 值所在的桶：小于16时为值本身，否则为 (最高位 - 3) * 16 + 最高位之后的4位
+         */
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKET_COUNT) {
+                return (int) value;
+            }
+            int highestBit = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+            return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+        }
+
+        /**
+         * 桶中最小的值
+         */
+        static long bucketLowerBound(int index) {
+            if (index < SUB_BUCKET_COUNT) {
+                return index;
+            }
+            int highestBit = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+            if (highestBit > 62) {
+                return Long.MAX_VALUE;
+            }
+            long subBucket = index % SUB_BUCKET_COUNT;
+            return (SUB_BUCKET_COUNT + subBucket) << (highestBit - SUB_BUCKET_BITS);
+        }
+    }
+}
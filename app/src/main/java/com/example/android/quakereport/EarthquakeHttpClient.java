@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 进程内共享的HTTP访问层。
+ * 请求完成后读完并关闭响应流而不调用disconnect()，连接回到HttpURLConnection的
+ * keep-alive连接池，下次请求同一主机时省去TCP和TLS握手；
+ * 请求gzip压缩的响应，在读取时边解压边解析，不在内存中保存压缩或解压后的完整数据。
+ */
+final class EarthquakeHttpClient {
+
+    /** 连接主机的超时时间（单位：毫秒） */
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /** 从主机读取数据的超时时间（单位：毫秒） */
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+
+    /** 归还连接前最多读取并丢弃的剩余字节数，超过时直接断开 */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final EarthquakeHttpClient INSTANCE = new EarthquakeHttpClient();
+
+    /** 从网络收到的字节数（压缩后） */
+    private final AtomicLong mBytesReceived = new AtomicLong();
+
+    /** 发出的请求数 */
+    private final AtomicLong mRequestCount = new AtomicLong();
+
+    /** 连接池的大小在EarthquakeApplication中设置 */
+    private EarthquakeHttpClient() {
+    }
+
+    static EarthquakeHttpClient getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 发出GET请求
+     * @param etag 条件请求的ETag，可以为null或空
+     * @param lastModified 条件请求的Last-Modified，可以为null或空
+     * @return 响应，使用后必须调用close()
+     */
+    Response get(URL url, String etag, String lastModified) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setRequestMethod("GET");
+            // 显式请求gzip，由这里负责解压，各平台行为一致
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (etag != null && !etag.isEmpty()) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null && !lastModified.isEmpty()) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            mRequestCount.incrementAndGet();
+            // 单独建立连接，与等待响应的时间分开统计
+            connection.connect();
+            long connected = System.nanoTime();
+            EarthquakeMetrics metrics = EarthquakeMetrics.get();
+            metrics.recordDuration(EarthquakeMetrics.SPAN_CONNECT, connected - start);
+            int code = connection.getResponseCode();
+            // 从连接建立后到收到响应头，不含建立连接的时间
+            metrics.recordDuration(EarthquakeMetrics.SPAN_FIRST_BYTE, System.nanoTime() - connected);
+            return new Response(connection, code);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * 从网络收到的字节数，不含响应头
+     */
+    long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * 一次请求的响应
+     */
+    final class Response {
+
+        private final HttpURLConnection mConnection;
+
+        /** 响应码 */
+        final int code;
+
+        /** 网络上的原始响应流，只在打开body后非空 */
+        private CountingInputStream mRaw;
+
+        /** 解压后的响应正文，只在打开body后非空 */
+        private InputStream mBody;
+
+        /** 是否已记录读取的耗时和字节数 */
+        private boolean mRecorded;
+
+        /** 是否已从其他线程中断 */
+        private volatile boolean mAborted;
+
+        Response(HttpURLConnection connection, int code) {
+            mConnection = connection;
+            this.code = code;
+        }
+
+        String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * 响应正文，已按Content-Encoding解压
+         */
+        InputStream body() throws IOException {
+            mRaw = new CountingInputStream(this, mConnection.getInputStream());
+            String encoding = mConnection.getContentEncoding();
+            if (encoding != null && encoding.equalsIgnoreCase("gzip")) {
+                mBody = new GZIPInputStream(mRaw, 8192);
+            } else {
+                mBody = mRaw;
+            }
+            return mBody;
+        }
+
+        /**
+         * 确认正文已读到末尾且完整：解压后的流没有剩余数据（gzip的校验和在读到末尾时检查），
+         * 有Content-Length时收到的字节数与它一致。连接提前关闭时读取可能只是正常结束，不会抛出异常
+         * @throws IOException 正文之后还有数据，或正文不完整
+         */
+        void checkBodyComplete() throws IOException {
+            if (mBody.read() != -1) {
+                throw new IOException("Unexpected data after the response body");
+            }
+            String contentLength = mConnection.getHeaderField("Content-Length");
+            if (contentLength != null) {
+                try {
+                    long expected = Long.parseLong(contentLength.trim());
+                    if (mRaw.mBytes != expected) {
+                        throw new IOException("Truncated response body: " + mRaw.mBytes
+                                + " of " + expected + " bytes");
+                    }
+                } catch (NumberFormatException e) {
+                    // 无效的Content-Length，只依赖正文本身的结束
+                }
+            }
+        }
+
+        /**
+         * 到目前为止等待网络读取正文的时间
+         */
+        long getReadNanos() {
+            return mRaw == null ? 0 : mRaw.mReadNanos;
+        }
+
+        /**
+         * 从其他线程中断请求：断开连接，正在进行的读取抛出IOException。之后仍需调用close()。
+         * 有的HttpURLConnection实现在剩余正文不多时不关闭套接字，而是在后台读完后归还连接，
+         * 所以之后的每次读取也直接抛出IOException
+         */
+        void abort() {
+            mAborted = true;
+            mConnection.disconnect();
+        }
+
+        /**
+         * 读完剩余的少量数据并关闭流，使连接可以被复用；剩余数据过多时断开连接
+         */
+        void close() {
+            recordBody();
+            try {
+                if (mAborted) {
+                    throw new IOException("Aborted");
+                }
+                InputStream raw = mRaw;
+                if (raw == null) {
+                    raw = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                            ? mConnection.getErrorStream() : mConnection.getInputStream();
+                }
+                if (raw == null) {
+                    // 没有正文，如304
+                    return;
+                }
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read = 0;
+                while (drained <= MAX_DRAIN_BYTES && (read = raw.read(buffer)) != -1) {
+                    drained += read;
+                }
+                raw.close();
+                if (read == -1) {
+                    return;
+                }
+            } catch (IOException e) {
+                // 连接已断开
+            }
+            mConnection.disconnect();
+        }
+
+        /**
+         * 记录读取正文的耗时和字节数，不含关闭时丢弃的剩余数据
+         */
+        private void recordBody() {
+            if (mRaw == null || mRecorded) {
+                return;
+            }
+            mRecorded = true;
+            EarthquakeMetrics metrics = EarthquakeMetrics.get();
+            metrics.recordDuration(EarthquakeMetrics.SPAN_DOWNLOAD, mRaw.mReadNanos);
+            metrics.increment(EarthquakeMetrics.COUNTER_BYTES_READ, mRaw.mBytes);
+        }
+    }
+
+    /**
+     * 统计读取字节数和等待时间的输入流，只在读取线程访问
+     */
+    private final class CountingInputStream extends FilterInputStream {
+
+        /** 这个响应读取的字节数 */
+        long mBytes;
+
+        /** 阻塞在读取上的时间 */
+        long mReadNanos;
+
+        private final Response mResponse;
+
+        CountingInputStream(Response response, InputStream in) {
+            super(in);
+            mResponse = response;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkAborted();
+            long start = System.nanoTime();
+            int b = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (b >= 0) {
+                mBytes++;
+                mBytesReceived.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            checkAborted();
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            mReadNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mBytes += read;
+                mBytesReceived.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            checkAborted();
+            long start = System.nanoTime();
+            long skipped = super.skip(count);
+            mReadNanos += System.nanoTime() - start;
+            mBytes += skipped;
+            mBytesReceived.addAndGet(skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            checkAborted();
+            return super.available();
+        }
+
+        private void checkAborted() throws IOException {
+            if (mResponse.mAborted) {
+                throw new IOException("Aborted");
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 地震表的本地索引，用于在本地完成最小等级过滤和排序。
+ * 建索引时按等级和按时间各排序一次；查询时二分查找等级下界，
+ * 按等级排序为 O(log n + k)，按时间排序只对k个整数名次排序。
+ * 查询结果是表的行号，不复制数据。
+ */
+final class EarthquakeIndex {
+
+    /** 按等级升序排列的行号 */
+    private final int[] mByMagnitude;
+
+    /** 与mByMagnitude对应的等级，用于二分查找 */
+    private final double[] mMagnitudes;
+
+    /** 按时间降序（最新在前）排列的行号 */
+    private final int[] mByTime;
+
+    /** mByMagnitude[i] 在 mByTime 中的位置 */
+    private final int[] mTimeRank;
+
+    /**
+     * 为表的前size行建立索引
+     */
+    EarthquakeIndex(EarthquakeTable table, int size) {
+        this(magnitudes(table, size), times(table, size));
+    }
+
+    /**
+     * 按行号给出各行的等级和时间建立索引
+     */
+    EarthquakeIndex(final double[] magnitudes, final long[] times) {
+        int size = magnitudes.length;
+        Integer[] timeOrder = sortedRows(size, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long diff = times[b] - times[a];
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        Integer[] magnitudeOrder = sortedRows(size, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(magnitudes[a], magnitudes[b]);
+            }
+        });
+
+        mByTime = new int[size];
+        int[] timePosition = new int[size];
+        for (int rank = 0; rank < size; rank++) {
+            mByTime[rank] = timeOrder[rank];
+            timePosition[timeOrder[rank]] = rank;
+        }
+
+        mByMagnitude = new int[size];
+        mMagnitudes = new double[size];
+        mTimeRank = new int[size];
+        for (int i = 0; i < size; i++) {
+            int row = magnitudeOrder[i];
+            mByMagnitude[i] = row;
+            mMagnitudes[i] = magnitudes[row];
+            mTimeRank[i] = timePosition[row];
+        }
+    }
+
+    /**
+     * 索引中的行数
+     */
+    int size() {
+        return mByMagnitude.length;
+    }
+
+    /**
+     * 查询等级不小于minMagnitude的地震，返回表的行号
+     * @param orderByTime true按时间从新到旧，false按等级从大到小，与USGS的orderby一致
+     */
+    int[] query(double minMagnitude, boolean orderByTime) {
+        int from = lowerBound(minMagnitude);
+        int count = mByMagnitude.length - from;
+        int[] rows = new int[count];
+        if (!orderByTime) {
+            for (int i = 0; i < count; i++) {
+                rows[i] = mByMagnitude[mByMagnitude.length - 1 - i];
+            }
+        } else if (from == 0) {
+            System.arraycopy(mByTime, 0, rows, 0, count);
+        } else {
+            int[] ranks = Arrays.copyOfRange(mTimeRank, from, mTimeRank.length);
+            Arrays.sort(ranks);
+            for (int i = 0; i < count; i++) {
+                rows[i] = mByTime[ranks[i]];
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 第一个等级不小于magnitude的位置
+     */
+    private int lowerBound(double magnitude) {
+        int low = 0;
+        int high = mMagnitudes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mMagnitudes[mid] < magnitude) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static double[] magnitudes(EarthquakeTable table, int size) {
+        double[] magnitudes = new double[size];
+        for (int row = 0; row < size; row++) {
+            magnitudes[row] = table.getMagnitude(row);
+        }
+        return magnitudes;
+    }
+
+    private static long[] times(EarthquakeTable table, int size) {
+        long[] times = new long[size];
+        for (int row = 0; row < size; row++) {
+            times[row] = table.getTimeInMilliseconds(row);
+        }
+        return times;
+    }
+
+    private static Integer[] sortedRows(int size, Comparator<Integer> comparator) {
+        Integer[] rows = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        Arrays.sort(rows, comparator);
+        return rows;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * USGS GeoJSON流式解析。
+ * 只读取 features[].properties 下的 mag、place、time、url
+ * 和 features[].geometry.coordinates 中的经度、纬度、深度，其余字段直接跳过。
+ */
+final class EarthquakeJsonParser {
+
+    /** 顶层关心的字段 */
+    private static final String[] ROOT_NAMES = {"features"};
+    private static final int ROOT_FEATURES = 0;
+
+    /** 单个feature关心的字段 */
+    private static final String[] FEATURE_NAMES = {"properties", "geometry"};
+    private static final int FEATURE_PROPERTIES = 0;
+    private static final int FEATURE_GEOMETRY = 1;
+
+    /** geometry关心的字段 */
+    private static final String[] GEOMETRY_NAMES = {"coordinates"};
+    private static final int GEOMETRY_COORDINATES = 0;
+
+    /** properties关心的字段 */
+    private static final String[] PROPERTY_NAMES = {"mag", "place", "time", "url"};
+    private static final int PROPERTY_MAG = 0;
+    private static final int PROPERTY_PLACE = 1;
+    private static final int PROPERTY_TIME = 2;
+    private static final int PROPERTY_URL = 3;
+
+    private EarthquakeJsonParser() {
+    }
+
+    /**
+     * 从输入流解析地震数据，逐条加入earthquakes。
+     * 各feature相互独立：某个feature缺少必要字段、字段类型错误或不是对象时只丢弃这一个，继续解析后面的。
+     * JSON语法错误或传输中断时无法继续，抛出IOException，已解析的数据保留在earthquakes中。
+     * @return 丢弃的feature数
+     */
+    static int parseFeatures(InputStream inputStream, List<Earthquake> earthquakes)
+            throws IOException {
+        JsonStreamReader reader = new JsonStreamReader(
+                new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        Feature feature = new Feature();
+        int dropped = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName(ROOT_NAMES) == ROOT_FEATURES) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Earthquake earthquake = null;
+                    if (reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                        earthquake = readFeature(reader, feature);
+                    } else {
+                        reader.skipValue();
+                    }
+                    if (earthquake != null) {
+                        earthquakes.add(earthquake);
+                    } else {
+                        dropped++;
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        // 读到末尾，之后的多余内容说明格式错误
+        reader.endDocument();
+        return dropped;
+    }
+
+    /**
+     * 读取单个feature，缺少必要字段或字段类型错误时返回null。
+     * properties和geometry的先后顺序不固定，读完整个feature后再创建对象
+     */
+    private static Earthquake readFeature(JsonStreamReader reader, Feature feature) throws IOException {
+        feature.reset();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int index = reader.nextName(FEATURE_NAMES);
+            if (index != -1 && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                if (index == FEATURE_PROPERTIES) {
+                    readProperties(reader, feature);
+                } else {
+                    readGeometry(reader, feature);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return feature.toEarthquake();
+    }
+
+    /**
+     * 读取geometry中的坐标：[经度, 纬度, 深度]
+     */
+    private static void readGeometry(JsonStreamReader reader, Feature feature) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName(GEOMETRY_NAMES) == GEOMETRY_COORDINATES
+                    && reader.peek() == JsonStreamReader.Token.BEGIN_ARRAY) {
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    if (i > 2 || reader.peek() != JsonStreamReader.Token.NUMBER) {
+                        reader.skipValue();
+                    } else if (i == 0) {
+                        feature.longitude = reader.nextDouble();
+                    } else if (i == 1) {
+                        feature.latitude = reader.nextDouble();
+                    } else {
+                        feature.depth = reader.nextDouble();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * 读取properties
+     */
+    private static void readProperties(JsonStreamReader reader, Feature feature) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int index = reader.nextName(PROPERTY_NAMES);
+            JsonStreamReader.Token token = reader.peek();
+            // USGS中的字段可能为null，视为缺失；类型不对的值跳过，这个feature会因缺少字段被丢弃
+            if (index == -1 || token == JsonStreamReader.Token.NULL || !hasExpectedType(index, token)) {
+                if (index != -1 && token != JsonStreamReader.Token.NULL) {
+                    feature.malformed = true;
+                }
+                reader.skipValue();
+                continue;
+            }
+            switch (index) {
+                case PROPERTY_MAG:
+                    if (token == JsonStreamReader.Token.NUMBER) {
+                        feature.magnitude = reader.nextDouble();
+                        feature.hasMagnitude = true;
+                    } else {
+                        readQuotedMagnitude(reader, feature);
+                    }
+                    break;
+                case PROPERTY_PLACE:
+                    feature.location = reader.nextString();
+                    break;
+                case PROPERTY_TIME:
+                    feature.time = reader.nextLong();
+                    feature.hasTime = true;
+                    break;
+                case PROPERTY_URL:
+                    feature.url = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * 字段的值是否是可以读取的类型：等级为数字或数字字符串，时间为数字，地点和网址为字符串
+     */
+    private static boolean hasExpectedType(int index, JsonStreamReader.Token token) {
+        switch (index) {
+            case PROPERTY_MAG:
+                return token == JsonStreamReader.Token.NUMBER || token == JsonStreamReader.Token.STRING;
+            case PROPERTY_TIME:
+                return token == JsonStreamReader.Token.NUMBER;
+            default:
+                return token == JsonStreamReader.Token.STRING;
+        }
+    }
+
+    /**
+     * 读取字符串形式的等级，如"4.5"；不是数字时这个feature被丢弃。
+     * 读取失败时字符串已被完整读出，读取器的状态仍然正确
+     */
+    private static void readQuotedMagnitude(JsonStreamReader reader, Feature feature) throws IOException {
+        String value = reader.nextString();
+        try {
+            feature.magnitude = Double.parseDouble(value);
+            feature.hasMagnitude = true;
+        } catch (NumberFormatException e) {
+            feature.malformed = true;
+        }
+    }
+
+    /**
+     * 读取单个feature时的字段，各feature之间复用
+     */
+    private static final class Feature {
+        double magnitude;
+        String location;
+        long time;
+        String url;
+        boolean hasMagnitude;
+        boolean hasTime;
+        /** 有字段的类型或格式错误 */
+        boolean malformed;
+        double latitude;
+        double longitude;
+        double depth;
+
+        void reset() {
+            location = null;
+            url = null;
+            hasMagnitude = false;
+            hasTime = false;
+            malformed = false;
+            latitude = Double.NaN;
+            longitude = Double.NaN;
+            depth = Double.NaN;
+        }
+
+        /**
+         * 缺少必要字段或有字段格式错误时返回null；没有坐标时位置为NaN
+         */
+        Earthquake toEarthquake() {
+            if (malformed || !hasMagnitude || !hasTime || location == null || url == null) {
+                return null;
+            }
+            return new Earthquake(magnitude, location, time, url, latitude, longitude, depth);
+        }
+    }
+}
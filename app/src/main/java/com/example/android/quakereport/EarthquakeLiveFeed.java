@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 实时模式：轮询USGS的摘要feed，只把新增或修改的地震交给界面。
+ * 第一次请求最近一天的feed作为初始数据，之后轮询数据量很小的最近一小时的feed；
+ * 带ETag/Last-Modified条件请求，数据没有变化时服务器只返回304。
+ * 有变化时以最短间隔继续轮询，没有变化时间隔逐次加倍，直到最长间隔。
+ * 轮询、比较和格式化在后台线程进行，地震表只在回调线程（主线程）上追加。
+ * 超过一天的地震、修订后低于最小等级的地震和从轮询feed中删除的地震都被移除；
+ * 被修订或移除的旧行积累到与当前的行一样多时，按当前的行重建地震表，长时间运行时内存不会一直增长。
+ * 每个实例只能开始和停止一次。
+ */
+final class EarthquakeLiveFeed {
+
+    /** 摘要feed的地址 */
+    private static final String FEED_URL = "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/";
+
+    /** USGS每分钟更新一次摘要feed */
+    static final long MIN_INTERVAL_MILLIS = 30 * 1000;
+
+    /** 长时间没有新地震时的最长轮询间隔 */
+    static final long MAX_INTERVAL_MILLIS = 5 * 60 * 1000;
+
+    /** 保留的时间范围，与初始数据的feed相同 */
+    static final long RETENTION_MILLIS = 24 * 60 * 60 * 1000;
+
+    /** 轮询的feed覆盖的时间范围 */
+    static final long POLL_WINDOW_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * 判断删除时留出的余量：时间接近轮询feed范围边缘的地震可能因为两边时钟不同而不在feed中，
+     * 只有不在feed中、且时间晚于范围起点加上余量的地震才当作已删除
+     */
+    static final long DELETION_MARGIN_MILLIS = 5 * 60 * 1000;
+
+    /** 旧行至少有这么多时才重建地震表 */
+    static final int COMPACT_MIN_STALE_ROWS = 64;
+
+    /** 界面接收数据的回调 */
+    interface Listener {
+        /**
+         * 有新增、修改或被移除的地震，没有变化时不回调
+         * @param rows 当前全部地震，按时间从新到旧
+         * @param inserted 新增的数量
+         * @param updated 修改的数量
+         */
+        void onLiveRows(EarthquakeTable.RowView rows, int inserted, int updated);
+    }
+
+    /** 在轮询线程接收新增或修改的地震，如检查提醒规则 */
+    interface ChangeListener {
+        void onChanges(List<Earthquake> changes);
+    }
+
+    /** 初始数据的feed */
+    private final String mPrimeUrl;
+
+    /** 轮询的feed */
+    private final String mPollUrl;
+
+    /** 显示的最小等级 */
+    private final double mMinMagnitude;
+
+    private final long mMinIntervalMillis;
+    private final long mMaxIntervalMillis;
+    private final long mRetentionMillis;
+
+    /** 显示文本格式化，只在轮询线程使用 */
+    private final EarthquakeRowFormatter mFormatter;
+
+    /** 执行回调的线程，应用中是主线程 */
+    private final Executor mCallbackExecutor;
+
+    private final Listener mListener;
+
+    private volatile ChangeListener mChangeListener;
+
+    private volatile ScheduledExecutorService mScheduler;
+
+    private volatile boolean mStopped;
+
+    // 以下只在轮询线程访问
+
+    /** 轮询feed上一次的响应，用于条件请求 */
+    private EarthquakeDiskCache.Entry mLastResponse;
+
+    /** 已持有的各事件，键为事件id */
+    private final Map<String, Seen> mSeen = new HashMap<>();
+
+    /** 是否已取得初始数据 */
+    private boolean mPrimed;
+
+    /** 当前的轮询间隔 */
+    private long mIntervalMillis;
+
+    // 以下只在回调线程访问
+
+    /** 收到的地震，同一事件修改后追加新行；旧行过多时重建 */
+    private EarthquakeTable mTable = new EarthquakeTable();
+
+    /** 各事件当前对应的行 */
+    private final Map<String, Integer> mRowByEventId = new HashMap<>();
+
+    /** 当前的行，按时间从新到旧 */
+    private int[] mOrder = new int[0];
+
+    /** 被修订或移除的旧行，重建地震表时清空 */
+    private BitSet mStaleRows = new BitSet();
+
+    /**
+     * @param minMagnitude 显示的最小等级，同时用来选择数据量最小的feed
+     * @param formatter 显示文本格式化
+     * @param callbackExecutor 执行回调的线程
+     */
+    EarthquakeLiveFeed(double minMagnitude, EarthquakeRowFormatter formatter,
+                       Executor callbackExecutor, Listener listener) {
+        this(FEED_URL + feedName(minMagnitude) + "_day.geojson",
+                FEED_URL + feedName(minMagnitude) + "_hour.geojson",
+                minMagnitude, MIN_INTERVAL_MILLIS, MAX_INTERVAL_MILLIS, RETENTION_MILLIS,
+                formatter, callbackExecutor, listener);
+    }
+
+    /**
+     * @param retentionMillis 保留的时间范围，更早的地震被移除
+     */
+    EarthquakeLiveFeed(String primeUrl, String pollUrl, double minMagnitude,
+                       long minIntervalMillis, long maxIntervalMillis, long retentionMillis,
+                       EarthquakeRowFormatter formatter, Executor callbackExecutor, Listener listener) {
+        mPrimeUrl = primeUrl;
+        mPollUrl = pollUrl;
+        mMinMagnitude = minMagnitude;
+        mMinIntervalMillis = minIntervalMillis;
+        mMaxIntervalMillis = maxIntervalMillis;
+        mRetentionMillis = retentionMillis;
+        mIntervalMillis = minIntervalMillis;
+        mFormatter = formatter;
+        mCallbackExecutor = callbackExecutor;
+        mListener = listener;
+    }
+
+    /**
+     * 覆盖最小等级的数据量最小的feed：all、1.0、2.5或4.5
+     */
+    static String feedName(double minMagnitude) {
+        if (minMagnitude >= 4.5) {
+            return "4.5";
+        } else if (minMagnitude >= 2.5) {
+            return "2.5";
+        } else if (minMagnitude >= 1.0) {
+            return "1.0";
+        }
+        return "all";
+    }
+
+    /**
+     * 在开始之前设置，每次有新增或修改的地震时先在轮询线程调用
+     */
+    void setChangeListener(ChangeListener listener) {
+        mChangeListener = listener;
+    }
+
+    /**
+     * 开始轮询
+     */
+    void start() {
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+        mScheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        });
+    }
+
+    /**
+     * 停止轮询，之后不再回调
+     */
+    void stop() {
+        mStopped = true;
+        if (mScheduler != null) {
+            mScheduler.shutdownNow();
+            mScheduler = null;
+        }
+    }
+
+    /**
+     * 已收到的地震表，只在回调线程读取
+     */
+    EarthquakeTable getTable() {
+        return mTable;
+    }
+
+    /**
+     * 请求一次feed，比较后把新增、修改和移除的地震交给回调线程，再安排下一次轮询。
+     * 有地震超过保留范围时，即使feed没有变化也通知回调线程移除
+     */
+    private void poll() {
+        if (mStopped) {
+            return;
+        }
+        // 两个feed的ETag/Last-Modified互不相关，初始请求不带条件
+        boolean priming = !mPrimed;
+        long pollStart = System.nanoTime();
+        EarthquakeDiskCache.Entry cached = priming ? null : mLastResponse;
+        EarthquakeDiskCache.Entry response = QueryUtils.fetchIfModified(priming ? mPrimeUrl : mPollUrl, cached);
+        long now = System.currentTimeMillis();
+        long oldestTime = now - mRetentionMillis;
+        List<Earthquake> changes = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        if (response != null && response != cached) {
+            mPrimed = true;
+            mLastResponse = priming ? null : response;
+            changes = diff(response.earthquakes, oldestTime, removed);
+            if (!priming) {
+                removeDeleted(response.earthquakes, now - POLL_WINDOW_MILLIS + DELETION_MARGIN_MILLIS, removed);
+            }
+        }
+        boolean changed = !changes.isEmpty() || !removed.isEmpty();
+        if (!changes.isEmpty()) {
+            ChangeListener changeListener = mChangeListener;
+            if (changeListener != null) {
+                changeListener.onChanges(changes);
+            }
+        }
+        if (removeExpired(oldestTime) || changed) {
+            deliver(changes, mFormatter.format(changes), removed, oldestTime, pollStart);
+        }
+
+        mIntervalMillis = changed ? mMinIntervalMillis : Math.min(mIntervalMillis * 2, mMaxIntervalMillis);
+        ScheduledExecutorService scheduler = mScheduler;
+        if (!mStopped && scheduler != null) {
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        poll();
+                    }
+                }, mIntervalMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 已停止
+            }
+        }
+    }
+
+    /**
+     * 不低于最小等级、在保留范围内、且是新的或内容有变化的地震
+     * @param removed 已持有、但修订后低于最小等级的事件id加到这里
+     */
+    private List<Earthquake> diff(List<Earthquake> earthquakes, long oldestTime, List<String> removed) {
+        List<Earthquake> changes = new ArrayList<>();
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            String eventId = EarthquakeFanOut.eventId(earthquake.getUrl());
+            if (earthquake.getMagnitude() < mMinMagnitude) {
+                if (mSeen.remove(eventId) != null) {
+                    removed.add(eventId);
+                }
+                continue;
+            }
+            if (earthquake.getTimeInMilliseconds() < oldestTime) {
+                continue;
+            }
+            long hash = EarthquakeTable.contentHash(earthquake.getMagnitude(),
+                    earthquake.getTimeInMilliseconds(), earthquake.getLocation());
+            Seen previous = mSeen.put(eventId, new Seen(hash, earthquake.getTimeInMilliseconds()));
+            if (previous == null || previous.contentHash != hash) {
+                changes.add(earthquake);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * 忘记从轮询feed中删除的事件。轮询feed只覆盖最近一小时，更早的事件不在其中是正常的，
+     * 只比较时间不早于coveredFrom的事件
+     * @param removed 被删除的事件id加到这里
+     */
+    private void removeDeleted(List<Earthquake> earthquakes, long coveredFrom, List<String> removed) {
+        Set<String> present = new HashSet<>();
+        for (int i = 0; i < earthquakes.size(); i++) {
+            present.add(EarthquakeFanOut.eventId(earthquakes.get(i).getUrl()));
+        }
+        Iterator<Map.Entry<String, Seen>> seen = mSeen.entrySet().iterator();
+        while (seen.hasNext()) {
+            Map.Entry<String, Seen> entry = seen.next();
+            if (entry.getValue().time >= coveredFrom && !present.contains(entry.getKey())) {
+                seen.remove();
+                removed.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 忘记超过保留范围的事件
+     * @return 是否有事件被移除
+     */
+    private boolean removeExpired(long oldestTime) {
+        boolean removed = false;
+        Iterator<Seen> seen = mSeen.values().iterator();
+        while (seen.hasNext()) {
+            if (seen.next().time < oldestTime) {
+                seen.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 在回调线程追加到表中，把新行插入按时间排列的当前行，去掉被修订、移除和超过保留范围的行后回调；
+     * 当前的行没有变化时不回调
+     * @param removed 要移除的事件id
+     * @param pollStart 发出这次请求的时间（System.nanoTime()），记录到交给界面为止的耗时
+     */
+    private void deliver(final List<Earthquake> changes, final EarthquakeRowFormatter.Rows rows,
+                         final List<String> removed, final long oldestTime, final long pollStart) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mStopped) {
+                    return;
+                }
+                int firstRow = mTable.size();
+                mTable.addAll(changes, rows);
+                int inserted = 0;
+                for (int row = firstRow; row < mTable.size(); row++) {
+                    Integer previous = mRowByEventId.put(mTable.getEventId(row), row);
+                    if (previous == null) {
+                        inserted++;
+                    } else {
+                        mStaleRows.set(previous);
+                    }
+                }
+                int dropped = 0;
+                for (int i = 0; i < removed.size(); i++) {
+                    Integer row = mRowByEventId.remove(removed.get(i));
+                    if (row != null) {
+                        mStaleRows.set(row);
+                        dropped++;
+                    }
+                }
+                int[] order = merge(mOrder, newRowsByTime(firstRow), oldestTime);
+                // 没有新增、修改和移除时，行数不变说明也没有超过保留范围的行
+                if (changes.isEmpty() && dropped == 0 && order.length == mOrder.length) {
+                    return;
+                }
+                if (mTable.size() - order.length >= Math.max(COMPACT_MIN_STALE_ROWS, order.length)) {
+                    order = compact(order);
+                }
+                mOrder = order;
+                if (!changes.isEmpty()) {
+                    EarthquakeMetrics.get().recordDuration(EarthquakeMetrics.SPAN_LIVE_DELIVERY,
+                            System.nanoTime() - pollStart);
+                }
+                mListener.onLiveRows(mTable.view(order), inserted, changes.size() - inserted);
+            }
+        });
+    }
+
+    /**
+     * 只用当前的行重建地震表，旧表仍被界面上的视图引用，不能原地修改
+     * @param order 当前的行，按时间从新到旧
+     * @return 新表中按时间从新到旧的行
+     */
+    private int[] compact(int[] order) {
+        EarthquakeTable table = new EarthquakeTable();
+        int[] rows = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            table.addRow(mTable, order[i]);
+            mRowByEventId.put(table.getEventId(i), i);
+            rows[i] = i;
+        }
+        mTable = table;
+        mStaleRows = new BitSet();
+        return rows;
+    }
+
+    /**
+     * 从firstRow开始新追加的行，按时间从新到旧。每次只有少量新行，用插入排序
+     */
+    private int[] newRowsByTime(int firstRow) {
+        int[] rows = new int[mTable.size() - firstRow];
+        for (int i = 0; i < rows.length; i++) {
+            int row = firstRow + i;
+            long time = mTable.getTimeInMilliseconds(row);
+            int j = i;
+            while (j > 0 && mTable.getTimeInMilliseconds(rows[j - 1]) < time) {
+                rows[j] = rows[j - 1];
+                j--;
+            }
+            rows[j] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * 合并两组按时间从新到旧的行，跳过旧行；超过保留范围的行从mRowByEventId中移除，不再出现
+     */
+    private int[] merge(int[] current, int[] added, long oldestTime) {
+        int[] order = new int[current.length + added.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < current.length || j < added.length) {
+            int row;
+            if (j == added.length || (i < current.length
+                    && mTable.getTimeInMilliseconds(current[i]) > mTable.getTimeInMilliseconds(added[j]))) {
+                row = current[i++];
+            } else {
+                row = added[j++];
+            }
+            if (mStaleRows.get(row)) {
+                continue;
+            }
+            if (mTable.getTimeInMilliseconds(row) < oldestTime) {
+                mRowByEventId.remove(mTable.getEventId(row));
+                mStaleRows.set(row);
+                continue;
+            }
+            order[size++] = row;
+        }
+        return size == order.length ? order : Arrays.copyOf(order, size);
+    }
+
+    /**
+     * 已持有的一个事件
+     */
+    private static final class Seen {
+        /** 内容摘要，见EarthquakeTable.getContentHash */
+        final long contentHash;
+        final long time;
+
+        Seen(long contentHash, long time) {
+            this.contentHash = contentHash;
+            this.time = time;
+        }
+    }
+}
@@ -15,45 +15,674 @@
  */
 package com.example.android.quakereport;
 
-import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.content.Loader;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Loader类获取地震数据线程，重写三个方法
+ * Loader类获取地震数据线程，重写三个方法。
+ * 按页加载：每次只请求一页（limit/offset），结果追加到已加载的数据后面，
+ * 内存只随用户实际滚动到的数据增长。
+ * 查询有附加数据源（sources参数）时不分页：各数据源的同一页覆盖的时间范围不同，
+ * 按页合并会跳过或打乱数据，因此按时间窗口并行请求全部数据，在每个窗口内合并各数据源。
+ * 后台同步的本地数据足够新且覆盖查询时，直接使用本地数据，不访问网络。
+ * 否则有同一查询的快照（EarthquakeSnapshot）时先显示快照，再按时间窗口并行请求全部数据替换它，
+ * 快照本来就是查询的全部数据。
+ * 每次从网络加载完查询的全部数据后写入快照，供下次冷启动使用。
+ * 请求通过EarthquakeFetchScheduler发出：第一页优先于预取的下一页；
+ * 设置改变、Loader被重启或销毁时取消这次加载的全部请求，正在下载的连接被关闭，
+ * 不再有被丢弃的下载与新的请求争抢网络。
  */
-public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
+public class EarthquakeLoader extends Loader<List<Earthquake>> {
 
     /** 获得类名称 */
     private static final String LOG_TAG = EarthquakeLoader.class.getName();
 
-    /** Query URL */
+    /** 每页请求的地震数量 */
+    static final int PAGE_SIZE = 20;
+
+    /** 加载任务的种类：第一页、下一页、替换快照的全部数据 */
+    private static final int LOAD_FIRST_PAGE = 0;
+    private static final int LOAD_NEXT_PAGE = 1;
+    private static final int LOAD_REFRESH = 2;
+
+    /** 执行加载任务的线程，网络请求由调度器的线程执行 */
+    private static final ThreadPoolExecutor LOAD_EXECUTOR = newLoadExecutor();
+
+    /** Query URL，不含limit和offset */
     private String mUrl;
 
-    /** 构造方法 */
-    public EarthquakeLoader(Context context, String url) {
+    /** 查询的最小等级 */
+    private final String mMinMagnitude;
+
+    /** 查询的排序方式 */
+    private final String mOrderBy;
+
+    /** 按时间窗口并行请求全部数据时同时进行的请求数 */
+    private final int mConcurrency;
+
+    /** 是否按页加载，有附加数据源时一次加载全部数据 */
+    private final boolean mPaged;
+
+    /** 请求调度器 */
+    private final EarthquakeFetchScheduler mScheduler;
+
+    /** 主线程，加载任务结束后在这里分发结果 */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** 当前的加载任务，只在主线程访问 */
+    private LoadTask mTask;
+
+    /** 已加载的全部地震数据，列式存储，只在主线程追加；网络数据替换快照时换成新的表 */
+    private EarthquakeTable mTable = new EarthquakeTable();
+
+    /** 下一页的起始位置，FDSN的offset从1开始 */
+    private int mNextOffset = 1;
+
+    /** 是否还有下一页 */
+    private boolean mHasMore = true;
+
+    /** 是否已加载了查询的全部数据 */
+    private boolean mComplete;
+
+    /** 全部数据加载完后建立的本地索引 */
+    private volatile EarthquakeIndex mIndex;
+
+    /** 已加载数据按小时的汇总，随每一页增量更新 */
+    private EarthquakeAggregator mAggregator = newAggregator();
+
+    /** 全部数据加载完后建立的空间索引 */
+    private volatile EarthquakeSpatialIndex mSpatialIndex;
+
+    /** 是否有一页正在加载 */
+    private boolean mLoading;
+
+    /** 进程内的结果缓存 */
+    private final EarthquakeResultCache mResultCache;
+
+    /** 显示文本格式化，只在加载线程使用 */
+    private final EarthquakeRowFormatter mFormatter;
+
+    /** 加载任务为当前这一页预先格式化的显示文本，分发前在主线程设置 */
+    private EarthquakeRowFormatter.Rows mPageRows;
+
+    /** 当前这一页是否是查询的全部数据，分发前在主线程设置 */
+    private boolean mPageCompletes;
+
+    /** 当前这一页是否来自快照，分发前在主线程设置 */
+    private boolean mPageFromSnapshot;
+
+    /** 当前这一页是否替换已有的全部数据，分发前在主线程设置 */
+    private boolean mPageReplaces;
+
+    /** 显示的是快照，还没有被网络数据替换 */
+    private boolean mShowingSnapshot;
+
+    /** 快照文件 */
+    private final File mSnapshotFile;
+
+    /** 后台同步的本地数据 */
+    private final EarthquakeStore mStore;
+
+    /**
+     * 构造方法
+     * @param minMagnitude url中的最小等级
+     * @param orderBy url中的排序方式
+     * @param concurrency 按时间窗口并行请求全部数据时同时进行的请求数
+     */
+    public EarthquakeLoader(Context context, String url, String minMagnitude, String orderBy,
+                            int concurrency) {
         super(context);
         mUrl = url;
+        mMinMagnitude = minMagnitude;
+        mOrderBy = orderBy;
+        mConcurrency = concurrency;
+        mPaged = url == null || EarthquakeFeedSource.getSources(url).isEmpty();
+        mScheduler = EarthquakeFetchScheduler.getInstance(context);
+        mResultCache = EarthquakeResultCache.getInstance();
+        mStore = EarthquakeStore.getInstance(context);
+        mFormatter = new EarthquakeRowFormatter(context.getString(R.string.near_the));
+        mSnapshotFile = new File(context.getApplicationContext().getCacheDir(), EarthquakeSnapshot.FILE_NAME);
     }
 
     @Override
     protected void onStartLoading() {
-        //强制执行异步加载。 与startLoading()不同，这将忽略以前加载的数据集并加载新的数据集。
-        forceLoad();
+        // 只在还没有任何数据时加载第一页；已有数据时由LoaderManager重新分发，避免重复追加
+        if (mTable.size() == 0 && mHasMore) {
+            forceLoad();
+        } else if (mShowingSnapshot && mTask == null) {
+            // 上次替换快照失败或没有开始，重新从网络加载
+            startTask(LOAD_REFRESH);
+        }
+    }
+
+    @Override
+    protected void onForceLoad() {
+        super.onForceLoad();
+        if (mTable.size() == 0) {
+            startTask(LOAD_FIRST_PAGE);
+        } else {
+            // 不分页时已有的是不完整的数据，用全部数据替换
+            startTask(mPaged ? LOAD_NEXT_PAGE : LOAD_REFRESH);
+        }
     }
 
     /**
-     * 调用工作线程来执行实际加载并返回加载操作的结果
+     * 开始一次加载，取代还在进行的加载
      */
+    private void startTask(int kind) {
+        cancelTask();
+        mLoading = true;
+        mTask = new LoadTask(kind);
+        LOAD_EXECUTOR.execute(mTask);
+    }
+
+    /**
+     * LoaderManager重启Loader时调用（API 16+），任务结束后通知LoaderManager
+     */
+    @Override
+    protected boolean onCancelLoad() {
+        if (mTask == null) {
+            return false;
+        }
+        mTask.mDeliverCancellation = true;
+        cancelTask();
+        return true;
+    }
+
+    @Override
+    protected void onAbandon() {
+        // 结果不会再被使用
+        cancelTask();
+    }
+
     @Override
-    public List<Earthquake> loadInBackground() {
+    protected void onReset() {
+        cancelTask();
+    }
+
+    /**
+     * 取消当前的加载任务及其全部请求
+     */
+    private void cancelTask() {
+        if (mTask != null) {
+            mTask.cancel();
+            mTask = null;
+            mLoading = false;
+        }
+    }
+
+    /**
+     * 加载任务结束，在主线程分发结果；已取消的任务只在需要时通知LoaderManager
+     */
+    private void onTaskFinished(LoadTask task, List<Earthquake> page) {
+        if (task != mTask) {
+            if (task.mDeliverCancellation) {
+                deliverCancellation();
+            }
+            return;
+        }
+        mTask = null;
+        mPageRows = task.mRows;
+        mPageCompletes = task.mCompletes;
+        mPageFromSnapshot = task.mFromSnapshot;
+        mPageReplaces = task.mKind == LOAD_REFRESH;
+        if (task.mIndex != null) {
+            mIndex = task.mIndex;
+            mSpatialIndex = task.mSpatialIndex;
+        }
+        deliverResult(page);
+    }
+
+    /**
+     * 加载下一页。已在加载或没有更多数据时返回false
+     */
+    public boolean loadNextPage() {
+        if (mLoading || !mHasMore || !isStarted()) {
+            return false;
+        }
+        forceLoad();
+        return true;
+    }
+
+    /**
+     * 在加载线程执行实际加载，返回一页数据
+     */
+    private List<Earthquake> load(LoadTask task) {
         if (mUrl == null) {
             return null;
         }
 
-        //获得网络解析回来的数据并返回
-        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(mUrl);
+        List<Earthquake> page;
+        // 得到的数据是否来自网络（或网络结果的缓存）
+        boolean fetched = true;
+        if (task.mKind == LOAD_NEXT_PAGE) {
+            page = fetchPage(task, EarthquakeFetchScheduler.PRIORITY_PREFETCH);
+            // 不满一页说明已是最后一页；只得到部分数据时仍可继续翻页
+            task.mCompletes = page != null && !QueryUtils.isPartial(page) && page.size() < PAGE_SIZE;
+        } else if (task.mKind == LOAD_REFRESH && mPaged) {
+            // 只重新请求已加载的几页，之后继续按页加载
+            int limit = mNextOffset - 1;
+            page = fetchRange(task, EarthquakeFetchScheduler.PRIORITY_PREFETCH, 1, limit);
+            if (QueryUtils.isPartial(page)) {
+                // 不完整的数据不替换快照
+                page = null;
+            }
+            // 不满请求的数量说明已是全部数据
+            task.mCompletes = page != null && page.size() < limit;
+        } else if (task.mKind == LOAD_REFRESH) {
+            page = fetchAll(task, EarthquakeFetchScheduler.PRIORITY_PREFETCH);
+            if (QueryUtils.isPartial(page)) {
+                // 不完整的数据不替换快照
+                page = null;
+            }
+            task.mCompletes = true;
+        } else {
+            page = readStore();
+            if (page == null) {
+                page = readSnapshot();
+                task.mFromSnapshot = page != null;
+            }
+            fetched = page == null;
+            task.mCompletes = page != null;
+            if (page == null && mPaged) {
+                page = fetchPage(task, EarthquakeFetchScheduler.PRIORITY_VISIBLE);
+                // 第一页不满一页，说明已是全部数据
+                task.mCompletes = page != null && !QueryUtils.isPartial(page) && page.size() < PAGE_SIZE;
+            } else if (page == null) {
+                page = fetchAll(task, EarthquakeFetchScheduler.PRIORITY_VISIBLE);
+                // 只得到部分数据时，加载下一页改为用全部数据替换
+                task.mCompletes = page != null && !QueryUtils.isPartial(page);
+            }
+        }
+        if (page == null || task.mCancelled) {
+            return null;
+        }
+        // 在后台预先格式化显示文本，deliverResult时与这一页一起追加到表中
+        task.mRows = mFormatter.format(page);
+        if (task.mCompletes) {
+            boolean replaces = task.mKind == LOAD_REFRESH;
+            buildIndex(task, page, replaces);
+            if (fetched) {
+                writeSnapshot(page, replaces);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * 读取同一查询的快照，没有或损坏时返回null
+     */
+    private List<Earthquake> readSnapshot() {
+        long start = System.nanoTime();
+        EarthquakeSnapshot snapshot;
+        try {
+            snapshot = EarthquakeSnapshot.read(mSnapshotFile);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake snapshot.", e);
+            mSnapshotFile.delete();
+            return null;
+        }
+        if (snapshot == null || !snapshot.query.equals(mUrl)) {
+            return null;
+        }
+        Log.i(LOG_TAG, "Read " + snapshot.earthquakes.size() + " earthquakes from the snapshot in "
+                + (System.nanoTime() - start) / 1000000 + " ms, saved "
+                + (System.currentTimeMillis() - snapshot.savedAt) / 1000 + " s ago");
+        return snapshot.earthquakes;
+    }
+
+    /**
+     * 把查询的全部数据写入快照：已加载的行加上这一页，或只有这一页（替换已有数据时）。
+     * 此时没有其他页在加载，mTable不会被同时修改
+     */
+    private void writeSnapshot(List<Earthquake> page, boolean replaces) {
+        List<Earthquake> all = page;
+        if (!replaces && mTable.size() > 0) {
+            all = new ArrayList<>(mTable.size() + page.size());
+            for (int row = 0; row < mTable.size(); row++) {
+                all.add(mTable.get(row));
+            }
+            all.addAll(page);
+        }
+        try {
+            EarthquakeSnapshot.write(mSnapshotFile,
+                    new EarthquakeSnapshot(mUrl, System.currentTimeMillis(), all));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquake snapshot.", e);
+        }
+    }
+
+    /**
+     * 本地数据足够新且覆盖查询的最小等级时，在本地过滤排序后返回全部数据；否则返回null
+     */
+    private List<Earthquake> readStore() {
+        double minMagnitude;
+        try {
+            minMagnitude = Double.parseDouble(mMinMagnitude);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        EarthquakeStore.Snapshot snapshot = mStore.read();
+        if (!EarthquakeSync.canServe(snapshot, minMagnitude, EarthquakeFeedSource.getSources(mUrl),
+                System.currentTimeMillis())) {
+            return null;
+        }
+        List<Earthquake> earthquakes = new ArrayList<>(snapshot.earthquakes.size());
+        for (int i = 0; i < snapshot.earthquakes.size(); i++) {
+            Earthquake earthquake = snapshot.earthquakes.get(i);
+            if (earthquake.getMagnitude() >= minMagnitude) {
+                earthquakes.add(earthquake);
+            }
+        }
+        QueryUtils.sortLikeServer(earthquakes, isOrderByTime());
         return earthquakes;
     }
+
+    /**
+     * 是否按时间排序
+     */
+    private boolean isOrderByTime() {
+        return mOrderBy.equals(getContext().getString(R.string.settings_order_by_most_recent_value));
+    }
+
+    /**
+     * 请求mNextOffset开始的一页。第一页要尽快显示，之后的页在滚动到末尾附近时预取
+     */
+    private List<Earthquake> fetchPage(LoadTask task, int priority) {
+        return fetchRange(task, priority, mNextOffset, PAGE_SIZE);
+    }
+
+    /**
+     * 请求从offset开始的最多limit个地震
+     */
+    private List<Earthquake> fetchRange(LoadTask task, int priority, int offset, int limit) {
+        String pageUrl = Uri.parse(mUrl).buildUpon()
+                .appendQueryParameter("limit", String.valueOf(limit))
+                .appendQueryParameter("offset", String.valueOf(offset))
+                .toString();
+        return task.fetch(pageUrl, priority);
+    }
+
+    /**
+     * 按时间窗口并行请求查询的全部数据，按服务器的排序方式合并
+     */
+    private List<Earthquake> fetchAll(final LoadTask task, final int priority) {
+        EarthquakeFanOut fanOut = new EarthquakeFanOut(new EarthquakeFanOut.Fetcher() {
+            @Override
+            public List<Earthquake> fetch(String url) {
+                return task.fetch(url, priority);
+            }
+        }, mConcurrency);
+        long now = System.currentTimeMillis();
+        List<Earthquake> all;
+        try {
+            all = fanOut.fetch(mUrl, now - EarthquakeFanOut.DEFAULT_HISTORY_MILLIS, now, isOrderByTime());
+        } catch (InterruptedException e) {
+            return null;
+        }
+        return all;
+    }
+
+    /**
+     * 在主线程把新的一页追加到已加载数据中，再分发结果
+     */
+    @Override
+    public void deliverResult(List<Earthquake> page) {
+        mLoading = false;
+        if (isReset()) {
+            return;
+        }
+        if (page == null) {
+            // 请求失败，不再继续翻页；替换快照失败时继续显示快照
+            mHasMore = false;
+        } else {
+            if (mPageReplaces) {
+                // 网络上的全部数据替换快照，适配器按稳定id只更新变化的行
+                mTable = new EarthquakeTable();
+                mAggregator = newAggregator();
+                mShowingSnapshot = false;
+                mNextOffset = 1;
+            }
+            int firstRow = mTable.size();
+            mTable.addAll(page, mPageRows);
+            mAggregator.addRows(mTable, firstRow, mTable.size());
+            mPageRows = null;
+            // 只得到部分数据时，下一页从缺少的第一个地震开始
+            mNextOffset += page.size();
+            mComplete = mPageCompletes;
+            mHasMore = !mComplete;
+        }
+        boolean fromSnapshot = page != null && mPageFromSnapshot;
+        mPageFromSnapshot = false;
+        mPageReplaces = false;
+        super.deliverResult(page);
+        if (fromSnapshot) {
+            // 快照已显示，接着从网络加载最新数据
+            mShowingSnapshot = true;
+            if (isStarted()) {
+                startTask(LOAD_REFRESH);
+            }
+        }
+    }
+
+    /**
+     * 加载完全部数据后，在后台线程为已有的行和这一页一起建立本地索引，
+     * 避免之后在主线程建立。此时没有其他页在加载，mTable不会被同时修改
+     * @param replaces 这一页替换已有的行，索引中只有这一页
+     */
+    private void buildIndex(LoadTask task, List<Earthquake> page, boolean replaces) {
+        // 这一页在deliverResult时追加在表的末尾，行号接在已有的行之后
+        int loaded = replaces ? 0 : mTable.size();
+        int size = loaded + page.size();
+        double[] magnitudes = new double[size];
+        long[] times = new long[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        for (int row = 0; row < loaded; row++) {
+            magnitudes[row] = mTable.getMagnitude(row);
+            times[row] = mTable.getTimeInMilliseconds(row);
+            latitudes[row] = mTable.getLatitude(row);
+            longitudes[row] = mTable.getLongitude(row);
+        }
+        for (int i = 0; i < page.size(); i++) {
+            Earthquake earthquake = page.get(i);
+            magnitudes[loaded + i] = earthquake.getMagnitude();
+            times[loaded + i] = earthquake.getTimeInMilliseconds();
+            latitudes[loaded + i] = earthquake.getLatitude();
+            longitudes[loaded + i] = earthquake.getLongitude();
+        }
+        // 分发时与这一页一起在主线程生效，之前主线程仍使用旧的表和索引
+        task.mIndex = new EarthquakeIndex(magnitudes, times);
+        task.mSpatialIndex = new EarthquakeSpatialIndex(latitudes, longitudes);
+    }
+
+    /**
+     * 是否是给定的查询条件
+     */
+    public boolean hasQuery(String minMagnitude, String orderBy) {
+        return mMinMagnitude.equals(minMagnitude) && mOrderBy.equals(orderBy);
+    }
+
+    /**
+     * 已加载全部数据，数据源相同，且新的最小等级不低于本次查询的最小等级时，
+     * 新查询的结果是已加载数据的子集，可以在本地过滤排序
+     * @param sources 新查询的附加数据源，见EarthquakeFeedSource.joinIds
+     */
+    public boolean canFilterLocally(String minMagnitude, String sources) {
+        if (!mComplete || mLoading || !EarthquakeFeedSource.getSources(mUrl).equals(sources)) {
+            return false;
+        }
+        try {
+            return Double.parseDouble(minMagnitude) >= Double.parseDouble(mMinMagnitude);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 已加载数据的本地索引
+     */
+    public EarthquakeIndex getIndex() {
+        EarthquakeIndex index = mIndex;
+        if (index == null || index.size() != mTable.size()) {
+            index = new EarthquakeIndex(mTable, mTable.size());
+            mIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * 已加载数据按小时的汇总，列表标题下的最近24小时汇总由此读取；只在主线程读取
+     */
+    public EarthquakeAggregator getAggregator() {
+        return mAggregator;
+    }
+
+    /**
+     * 已加载数据的空间索引，按区域或距离在本地查询
+     */
+    public EarthquakeSpatialIndex getSpatialIndex() {
+        EarthquakeSpatialIndex index = mSpatialIndex;
+        if (index == null || index.size() != mTable.size()) {
+            index = new EarthquakeSpatialIndex(mTable, mTable.size());
+            mSpatialIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * 已加载的全部地震数据
+     */
+    public EarthquakeTable getTable() {
+        return mTable;
+    }
+
+    /**
+     * 是否还有下一页
+     */
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    private static EarthquakeAggregator newAggregator() {
+        return new EarthquakeAggregator(EarthquakeAggregator.HOUR_MILLIS,
+                (int) (EarthquakeFanOut.DEFAULT_HISTORY_MILLIS / EarthquakeAggregator.HOUR_MILLIS));
+    }
+
+    private static ThreadPoolExecutor newLoadExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 一次加载。在LOAD_EXECUTOR中运行，记录通过调度器发出的请求，取消时一起取消
+     */
+    private final class LoadTask implements Runnable {
+
+        /** 加载的种类，LOAD_开头的常量 */
+        final int mKind;
+
+        /** 已取消 */
+        volatile boolean mCancelled;
+
+        /** 取消后是否需要通知LoaderManager，只在主线程访问 */
+        boolean mDeliverCancellation;
+
+        /** 预先格式化的显示文本 */
+        EarthquakeRowFormatter.Rows mRows;
+
+        /** 得到的是否是查询的全部数据 */
+        boolean mCompletes;
+
+        /** 得到的是否是快照中的数据 */
+        boolean mFromSnapshot;
+
+        /** 得到全部数据时建立的索引，包含已加载的行和这一页 */
+        EarthquakeIndex mIndex;
+        EarthquakeSpatialIndex mSpatialIndex;
+
+        /** 进行中的请求，访问时持有它的锁 */
+        private final Set<EarthquakeFetchScheduler.Handle> mHandles = new HashSet<>();
+
+        LoadTask(int kind) {
+            mKind = kind;
+        }
+
+        @Override
+        public void run() {
+            final List<Earthquake> page = mCancelled ? null : load(this);
+            // 通过Handler交给主线程，这里的写入对主线程可见
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onTaskFinished(LoadTask.this, page);
+                }
+            });
+        }
+
+        /**
+         * 依次从内存缓存和调度器（磁盘缓存、网络）获取一页数据
+         */
+        List<Earthquake> fetch(String pageUrl, int priority) {
+            // 先查内存缓存，用户切换回刚看过的设置时不必再访问网络
+            List<Earthquake> page = mResultCache.get(pageUrl);
+            if (page != null) {
+                return page;
+            }
+
+            EarthquakeFetchScheduler.Handle handle;
+            synchronized (mHandles) {
+                if (mCancelled) {
+                    return null;
+                }
+                handle = mScheduler.fetch(pageUrl, priority);
+                mHandles.add(handle);
+            }
+            try {
+                page = handle.get();
+            } catch (InterruptedException e) {
+                handle.cancel();
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                synchronized (mHandles) {
+                    mHandles.remove(handle);
+                }
+            }
+            if (page != null && !QueryUtils.isPartial(page)) {
+                mResultCache.put(pageUrl, page);
+            }
+            return page;
+        }
+
+        /**
+         * 取消这次加载，已发出的请求没有其他请求者时被中断
+         */
+        void cancel() {
+            List<EarthquakeFetchScheduler.Handle> handles;
+            synchronized (mHandles) {
+                mCancelled = true;
+                handles = new ArrayList<>(mHandles);
+            }
+            for (int i = 0; i < handles.size(); i++) {
+                handles.get(i).cancel();
+            }
+        }
+    }
 }
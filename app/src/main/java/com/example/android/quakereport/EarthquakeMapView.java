@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.RecyclerView;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * 在地图上显示列表中的地震，数据和等级颜色都来自EarthquakeAdapter。
+ * <p>
+ * 底图是本地绘制的经纬网（等距圆柱投影），不请求瓦片，离线和测试中都能显示。
+ * 地震按缩放级别聚合（EarthquakeClusterIndex），聚合点的颜色取其中最大等级所在的区间，
+ * 大小随数量增长。数据变化时在后台线程重建索引；绘制每一帧只查询可见范围，不分配对象。
+ * 拖动平移，双指或双击缩放；点击单个地震打开它，点击聚合点放大到它所在的位置。
+ */
+public class EarthquakeMapView extends View {
+
+    /** 建索引的后台线程 */
+    private static final Executor INDEX_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /** 聚合点之间的大致间距，单位dp */
+    private static final float CLUSTER_SIZE_DP = 48;
+
+    /** 单个地震的半径，单位dp，聚合点按数量的对数增大 */
+    private static final float MARKER_RADIUS_DP = 6;
+    private static final float MARKER_GROWTH_DP = 2.5f;
+
+    /** 经纬网线之间的最小间距，单位dp */
+    private static final float GRATICULE_SPACING_DP = 64;
+
+    /** 可选的经纬网间隔，单位度 */
+    private static final int[] GRATICULE_STEPS = {30, 15, 10, 5, 2, 1};
+
+    /** 最多放大到世界宽度为视图宽度的多少倍，此时最细一层的格子已小于聚合间距 */
+    private static final float MAX_ZOOM = (EarthquakeClusterIndex.BASE_CELLS << EarthquakeClusterIndex.MAX_LEVEL) / 16f;
+
+    /** 数量标签的缓存：1到999直接显示，更大的按千显示 */
+    private static final int LABEL_CACHE_SIZE = 1000;
+
+    /** 点击单个地震时的监听，与列表共用 */
+    private EarthquakeAdapter.OnItemClickListener mOnItemClickListener;
+
+    private EarthquakeAdapter mAdapter;
+
+    /** 当前数据的索引，尚未建好时为null */
+    private EarthquakeClusterIndex mIndex;
+
+    /** 可见聚合点的下标，每帧复用 */
+    private int[] mVisible = new int[0];
+
+    /** 最近一帧绘制的层和聚合点数，用于点击查找 */
+    private int mDrawnLevel;
+    private int mDrawnCount;
+
+    /** 每次请求重建索引加一，丢弃过时的结果 */
+    private int mGeneration;
+
+    /** 隐藏时数据有变化，显示时再重建 */
+    private boolean mIndexStale = true;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** 视图中心的世界坐标 */
+    private double mCenterX = 0.5;
+    private double mCenterY = 0.25;
+
+    /** 世界宽度的像素数，为0时尚未确定，按视图宽度显示整个世界 */
+    private double mWorldWidth;
+
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+
+    private final float mDensity;
+
+    private final Paint mWorldPaint = new Paint();
+    private final Paint mGraticulePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mEquatorPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mMarkerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mOutlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mLabelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final int mOceanColor;
+
+    private final String[] mLabels = new String[LABEL_CACHE_SIZE];
+    private final String[] mThousandLabels = new String[LABEL_CACHE_SIZE];
+
+    /** 列表数据变化时重建索引 */
+    private final RecyclerView.AdapterDataObserver mDataObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            onDataChanged();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            onDataChanged();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            onDataChanged();
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            onDataChanged();
+        }
+    };
+
+    public EarthquakeMapView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mDensity = getResources().getDisplayMetrics().density;
+
+        mOceanColor = ContextCompat.getColor(context, R.color.map_ocean);
+        mWorldPaint.setColor(ContextCompat.getColor(context, R.color.map_world));
+        mGraticulePaint.setColor(ContextCompat.getColor(context, R.color.map_graticule));
+        mGraticulePaint.setStrokeWidth(mDensity);
+        mEquatorPaint.setColor(ContextCompat.getColor(context, R.color.map_graticule));
+        mEquatorPaint.setStrokeWidth(2 * mDensity);
+        mMarkerPaint.setStyle(Paint.Style.FILL);
+        mOutlinePaint.setStyle(Paint.Style.STROKE);
+        mOutlinePaint.setStrokeWidth(mDensity);
+        mOutlinePaint.setColor(ContextCompat.getColor(context, R.color.map_marker_outline));
+        mLabelPaint.setColor(ContextCompat.getColor(context, R.color.map_marker_outline));
+        mLabelPaint.setTextAlign(Paint.Align.CENTER);
+        mLabelPaint.setTextSize(11 * mDensity);
+
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                mCenterX += distanceX / mWorldWidth;
+                mCenterY += distanceY / mWorldWidth;
+                clampCenter();
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                zoomBy(2, e.getX(), e.getY());
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapConfirmed(MotionEvent e) {
+                onTap(e.getX(), e.getY());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 显示适配器中的地震，之后随适配器的数据更新
+     */
+    public void setAdapter(EarthquakeAdapter adapter) {
+        mAdapter = adapter;
+        adapter.registerAdapterDataObserver(mDataObserver);
+        onDataChanged();
+    }
+
+    public void setOnItemClickListener(EarthquakeAdapter.OnItemClickListener listener) {
+        mOnItemClickListener = listener;
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        if (visibility == VISIBLE && mIndexStale && mAdapter != null) {
+            rebuildIndex();
+        }
+    }
+
+    private void onDataChanged() {
+        mIndexStale = true;
+        if (getVisibility() == VISIBLE) {
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * 在主线程取出各行的位置和等级，在后台线程建索引
+     */
+    private void rebuildIndex() {
+        mIndexStale = false;
+        final int generation = ++mGeneration;
+        EarthquakeTable.RowView rows = mAdapter.getRows();
+        int size = mAdapter.getItemCount();
+        final double[] latitudes = new double[size];
+        final double[] longitudes = new double[size];
+        final double[] magnitudes = new double[size];
+        for (int position = 0; position < size; position++) {
+            int row = rows.row(position);
+            latitudes[position] = rows.getTable().getLatitude(row);
+            longitudes[position] = rows.getTable().getLongitude(row);
+            magnitudes[position] = rows.getTable().getMagnitude(row);
+        }
+        INDEX_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                final EarthquakeClusterIndex index = new EarthquakeClusterIndex(latitudes, longitudes, magnitudes);
+                EarthquakeMetrics.get().recordDuration(EarthquakeMetrics.SPAN_MAP_INDEX, System.nanoTime() - start);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mIndex = index;
+                        // 最细一层的聚合点最多，查询结果不会超过它
+                        if (mVisible.length < index.getClusterCount(EarthquakeClusterIndex.MAX_LEVEL)) {
+                            mVisible = new int[index.getClusterCount(EarthquakeClusterIndex.MAX_LEVEL)];
+                        }
+                        mDrawnCount = 0;
+                        invalidate();
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mWorldWidth = Math.max(mWorldWidth, minWorldWidth());
+        clampCenter();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = mScaleDetector.onTouchEvent(event);
+        handled |= mGestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    /**
+     * 以焦点为中心缩放，焦点下的位置保持不动
+     */
+    private void zoomBy(float factor, float focusX, float focusY) {
+        double focusWorldX = mCenterX + (focusX - getWidth() / 2f) / mWorldWidth;
+        double focusWorldY = mCenterY + (focusY - getHeight() / 2f) / mWorldWidth;
+        mWorldWidth = Math.max(minWorldWidth(), Math.min(getWidth() * MAX_ZOOM, mWorldWidth * factor));
+        mCenterX = focusWorldX - (focusX - getWidth() / 2f) / mWorldWidth;
+        mCenterY = focusWorldY - (focusY - getHeight() / 2f) / mWorldWidth;
+        clampCenter();
+        invalidate();
+    }
+
+    /**
+     * 整个世界至少占满视图的宽度
+     */
+    private double minWorldWidth() {
+        return getWidth();
+    }
+
+    /**
+     * 世界大于视图时不露出世界之外的部分，小于视图时居中
+     */
+    private void clampCenter() {
+        double halfWidth = getWidth() / 2.0 / mWorldWidth;
+        double halfHeight = getHeight() / 2.0 / mWorldWidth;
+        mCenterX = halfWidth >= 0.5 ? 0.5 : Math.max(halfWidth, Math.min(1 - halfWidth, mCenterX));
+        mCenterY = halfHeight >= 0.25 ? 0.25 : Math.max(halfHeight, Math.min(0.5 - halfHeight, mCenterY));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mWorldWidth <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        float worldLeft = (float) (getWidth() / 2.0 - mCenterX * mWorldWidth);
+        float worldTop = (float) (getHeight() / 2.0 - mCenterY * mWorldWidth);
+        float worldWidth = (float) mWorldWidth;
+        drawBase(canvas, worldLeft, worldTop, worldWidth);
+
+        if (mIndex == null) {
+            return;
+        }
+        float clusterSize = CLUSTER_SIZE_DP * mDensity;
+        int level = EarthquakeClusterIndex.levelFor(worldWidth, clusterSize);
+        // 视图外一个聚合间距内的点也画出，边上的圆不会被截断
+        int count = mIndex.query(level,
+                (-worldLeft - clusterSize) / worldWidth, (-worldTop - clusterSize) / worldWidth,
+                (getWidth() - worldLeft + clusterSize) / worldWidth,
+                (getHeight() - worldTop + clusterSize) / worldWidth, mVisible);
+        for (int i = 0; i < count; i++) {
+            int cluster = mVisible[i];
+            float x = worldLeft + mIndex.getX(level, cluster) * worldWidth;
+            float y = worldTop + mIndex.getY(level, cluster) * worldWidth;
+            int quakes = mIndex.getCount(level, cluster);
+            float radius = markerRadius(quakes);
+            mMarkerPaint.setColor(mAdapter.getMagnitudeColor(mIndex.getMaxMagnitude(level, cluster)));
+            canvas.drawCircle(x, y, radius, mMarkerPaint);
+            canvas.drawCircle(x, y, radius, mOutlinePaint);
+            if (quakes > 1) {
+                canvas.drawText(label(quakes), x, y - (mLabelPaint.ascent() + mLabelPaint.descent()) / 2,
+                        mLabelPaint);
+            }
+        }
+        mDrawnLevel = level;
+        mDrawnCount = count;
+        EarthquakeMetrics.get().recordDuration(EarthquakeMetrics.SPAN_MAP_DRAW, System.nanoTime() - start);
+    }
+
+    /**
+     * 底图：海洋、世界范围和经纬网，线的间隔随缩放变化
+     */
+    private void drawBase(Canvas canvas, float worldLeft, float worldTop, float worldWidth) {
+        canvas.drawColor(mOceanColor);
+        canvas.drawRect(worldLeft, worldTop, worldLeft + worldWidth, worldTop + worldWidth / 2, mWorldPaint);
+
+        int step = GRATICULE_STEPS[GRATICULE_STEPS.length - 1];
+        for (int i = 0; i < GRATICULE_STEPS.length; i++) {
+            if (GRATICULE_STEPS[i] * worldWidth / 360 < GRATICULE_SPACING_DP * mDensity) {
+                break;
+            }
+            step = GRATICULE_STEPS[i];
+        }
+        float degree = worldWidth / 360;
+        float top = Math.max(0, worldTop);
+        float bottom = Math.min(getHeight(), worldTop + worldWidth / 2);
+        float left = Math.max(0, worldLeft);
+        float right = Math.min(getWidth(), worldLeft + worldWidth);
+        // 只画可见的线
+        int fromLongitude = (int) Math.floor((left - worldLeft) / degree / step) * step;
+        for (int longitude = fromLongitude; longitude <= 360 && worldLeft + longitude * degree <= right;
+             longitude += step) {
+            float x = worldLeft + longitude * degree;
+            canvas.drawLine(x, top, x, bottom, longitude == 180 ? mEquatorPaint : mGraticulePaint);
+        }
+        int fromColatitude = (int) Math.floor((top - worldTop) / degree / step) * step;
+        for (int colatitude = fromColatitude; colatitude <= 180 && worldTop + colatitude * degree <= bottom;
+             colatitude += step) {
+            float y = worldTop + colatitude * degree;
+            canvas.drawLine(left, y, right, y, colatitude == 90 ? mEquatorPaint : mGraticulePaint);
+        }
+    }
+
+    private float markerRadius(int quakes) {
+        return (MARKER_RADIUS_DP + MARKER_GROWTH_DP * (31 - Integer.numberOfLeadingZeros(quakes))) * mDensity;
+    }
+
+    /**
+     * 聚合点的数量标签，缓存后绘制时不再分配字符串
+     */
+    private String label(int quakes) {
+        if (quakes < LABEL_CACHE_SIZE) {
+            if (mLabels[quakes] == null) {
+                mLabels[quakes] = String.valueOf(quakes);
+            }
+            return mLabels[quakes];
+        }
+        int thousands = Math.min(quakes / 1000, LABEL_CACHE_SIZE - 1);
+        if (mThousandLabels[thousands] == null) {
+            mThousandLabels[thousands] = thousands + "k";
+        }
+        return mThousandLabels[thousands];
+    }
+
+    /**
+     * 点击位置最近的标记：单个地震交给监听，聚合点放大到下一层把它分开
+     */
+    private void onTap(float tapX, float tapY) {
+        if (mIndex == null) {
+            return;
+        }
+        float worldLeft = (float) (getWidth() / 2.0 - mCenterX * mWorldWidth);
+        float worldTop = (float) (getHeight() / 2.0 - mCenterY * mWorldWidth);
+        int nearest = -1;
+        float nearestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < mDrawnCount; i++) {
+            int cluster = mVisible[i];
+            float dx = worldLeft + mIndex.getX(mDrawnLevel, cluster) * (float) mWorldWidth - tapX;
+            float dy = worldTop + mIndex.getY(mDrawnLevel, cluster) * (float) mWorldWidth - tapY;
+            float distance = dx * dx + dy * dy;
+            float radius = markerRadius(mIndex.getCount(mDrawnLevel, cluster)) + 8 * mDensity;
+            if (distance <= radius * radius && distance < nearestDistance) {
+                nearest = cluster;
+                nearestDistance = distance;
+            }
+        }
+        if (nearest < 0) {
+            return;
+        }
+        // 已放大到最大时，同一位置的多次地震打开等级最大的一次
+        if (mIndex.getCount(mDrawnLevel, nearest) == 1 || mWorldWidth >= getWidth() * MAX_ZOOM) {
+            if (mOnItemClickListener != null) {
+                mOnItemClickListener.onItemClick(mAdapter.getItem(mIndex.getPosition(mDrawnLevel, nearest)));
+            }
+            return;
+        }
+        mCenterX = mIndex.getX(mDrawnLevel, nearest);
+        mCenterY = mIndex.getY(mDrawnLevel, nearest);
+        zoomBy(2, getWidth() / 2f, getHeight() / 2f);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+/**
+ * 数据请求各阶段的耗时和计数。
+ * 默认记录在进程内的直方图中（EarthquakeHistogramMetrics），可用set()换成其他实现，如上报到服务器。
+ * 实现必须线程安全；记录在列表绑定等热点路径上，不应分配对象或加锁等待。
+ */
+abstract class EarthquakeMetrics {
+
+    /** 建立连接，包括DNS解析、TCP和TLS握手；复用连接时接近0 */
+    static final String SPAN_CONNECT = "connect";
+
+    /** 从发出请求到收到响应头 */
+    static final String SPAN_FIRST_BYTE = "first_byte";
+
+    /** 等待网络读取响应正文的时间 */
+    static final String SPAN_DOWNLOAD = "download";
+
+    /** 解压和解析响应正文的时间，不含等待网络 */
+    static final String SPAN_PARSE = "parse";
+
+    /** 绑定一个列表项 */
+    static final String SPAN_BIND = "bind";
+
+    /** 对一批新收到的地震检查提醒规则 */
+    static final String SPAN_ALERTS = "alerts";
+
+    /** 地图数据变化后重建聚合索引 */
+    static final String SPAN_MAP_INDEX = "map_index";
+
+    /** 绘制一帧地图 */
+    static final String SPAN_MAP_DRAW = "map_draw";
+
+    /** 实时模式中从发出取得新增或修改地震的请求，到回调线程把它们交给界面 */
+    static final String SPAN_LIVE_DELIVERY = "live_delivery";
+
+    /** 从网络读取的响应正文字节数（压缩后） */
+    static final String COUNTER_BYTES_READ = "bytes_read";
+
+    /** 解析出的地震数 */
+    static final String COUNTER_FEATURES_PARSED = "features_parsed";
+
+    /** 缺少必要字段或字段类型错误而丢弃的feature数 */
+    static final String COUNTER_FEATURES_DROPPED = "features_dropped";
+
+    /** 响应格式错误、解析在中途停止的次数 */
+    static final String COUNTER_PARSE_ERRORS = "parse_errors";
+
+    /** 进程内结果缓存的命中次数 */
+    static final String COUNTER_RESULT_CACHE_HITS = "result_cache_hits";
+
+    /** 磁盘缓存在有效期内、不访问网络的次数 */
+    static final String COUNTER_DISK_CACHE_HITS = "disk_cache_hits";
+
+    /** 条件请求返回304、使用磁盘缓存的次数 */
+    static final String COUNTER_NOT_MODIFIED = "not_modified";
+
+    /** 失败后重试的次数 */
+    static final String COUNTER_RETRIES = "retries";
+
+    /** 重试预算用完、放弃重试的次数 */
+    static final String COUNTER_RETRIES_DENIED = "retries_denied";
+
+    /** 请求失败、退回使用过期缓存的次数 */
+    static final String COUNTER_STALE_FALLBACKS = "stale_fallbacks";
+
+    /** 请求失败、只得到部分数据的次数 */
+    static final String COUNTER_PARTIAL_RESULTS = "partial_results";
+
+    /** 合并多个数据源时失败的数据源数 */
+    static final String COUNTER_SOURCE_FAILURES = "source_failures";
+
+    /** 合并多个数据源时合并掉的重复事件数 */
+    static final String COUNTER_DUPLICATES_MERGED = "duplicates_merged";
+
+    /** 提醒规则触发的次数 */
+    static final String COUNTER_ALERTS_RAISED = "alerts_raised";
+
+    /** 请求事件详细信息的次数，包括预取 */
+    static final String COUNTER_DETAIL_FETCHES = "detail_fetches";
+
+    /** 其中预取的次数 */
+    static final String COUNTER_DETAIL_PREFETCHES = "detail_prefetches";
+
+    /** 打开详细页面时已在内存中的次数 */
+    static final String COUNTER_DETAIL_CACHE_HITS = "detail_cache_hits";
+
+    /** 设置变化请求刷新的次数，合并前 */
+    static final String COUNTER_REFRESH_REQUESTS = "refresh_requests";
+
+    /** 合并后实际从网络重新加载的次数，与请求次数之差是节省的请求 */
+    static final String COUNTER_NETWORK_REFRESHES = "network_refreshes";
+
+    private static volatile EarthquakeMetrics sInstance = new EarthquakeHistogramMetrics();
+
+    /**
+     * 当前使用的实现
+     */
+    static EarthquakeMetrics get() {
+        return sInstance;
+    }
+
+    /**
+     * 替换实现，之后的记录都交给metrics
+     */
+    static void set(EarthquakeMetrics metrics) {
+        sInstance = metrics;
+    }
+
+    /**
+     * 记录一段耗时
+     * @param span SPAN_开头的名称
+     */
+    abstract void recordDuration(String span, long nanos);
+
+    /**
+     * 计数增加delta
+     * @param counter COUNTER_开头的名称
+     */
+    abstract void increment(String counter, long delta);
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+/**
+ * 设置变化后的刷新。
+ * 连续的设置变化在最后一次变化debounceMillis后合并为一次刷新，刷新时按当时的设置生成查询网址；
+ * 网址与上次显示的查询相同时（如改了又改回）不刷新。
+ * 统计刷新请求数和实际访问网络的次数，两者之差即节省的请求数。
+ * 计时由Scheduler完成，应用中是主线程的Handler，不另开线程；全部方法只在主线程调用。
+ */
+final class EarthquakeRefreshPipeline {
+
+    /** 最后一次设置变化后等待的时间 */
+    static final long DEBOUNCE_MILLIS = 500;
+
+    /**
+     * 执行刷新的对象
+     */
+    interface Target {
+
+        /**
+         * 按当前的设置生成查询网址
+         */
+        String buildQueryUri();
+
+        /**
+         * 显示网址对应的查询
+         * @return 访问了网络时返回true，在本地过滤等不访问网络时返回false
+         */
+        boolean refresh(String uri);
+    }
+
+    /**
+     * 在主线程延迟执行，应用中是主线程Handler的postDelayed和removeCallbacks
+     */
+    interface Scheduler {
+
+        void postDelayed(Runnable runnable, long delayMillis);
+
+        void removeCallbacks(Runnable runnable);
+    }
+
+    private final long mDebounceMillis;
+
+    private final Scheduler mScheduler;
+
+    private final Target mTarget;
+
+    /** 计时结束时执行的刷新 */
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            mPending = false;
+            refreshNow();
+        }
+    };
+
+    /** 是否有等待中的刷新 */
+    private boolean mPending;
+
+    /** 正在显示的查询网址 */
+    private String mAppliedUri;
+
+    /** 请求刷新的次数 */
+    private int mRequestCount;
+
+    /** 实际访问网络的次数 */
+    private int mNetworkRefreshCount;
+
+    EarthquakeRefreshPipeline(long debounceMillis, Scheduler scheduler, Target target) {
+        mDebounceMillis = debounceMillis;
+        mScheduler = scheduler;
+        mTarget = target;
+    }
+
+    /**
+     * 记录正在显示的查询，如创建Loader或退出实时模式时
+     */
+    void setAppliedUri(String uri) {
+        mAppliedUri = uri;
+    }
+
+    /**
+     * 设置变化，推迟刷新；之前等待中的刷新合并到这一次
+     */
+    void requestRefresh() {
+        mRequestCount++;
+        EarthquakeMetrics.get().increment(EarthquakeMetrics.COUNTER_REFRESH_REQUESTS, 1);
+        cancelPending();
+        mPending = true;
+        mScheduler.postDelayed(mRefresh, mDebounceMillis);
+    }
+
+    /**
+     * 取消等待中的刷新，如进入实时模式时
+     */
+    void cancelPending() {
+        if (mPending) {
+            mScheduler.removeCallbacks(mRefresh);
+            mPending = false;
+        }
+    }
+
+    /**
+     * 是否有等待中的刷新
+     */
+    boolean isPending() {
+        return mPending;
+    }
+
+    private void refreshNow() {
+        String uri = mTarget.buildQueryUri();
+        if (uri.equals(mAppliedUri)) {
+            return;
+        }
+        mAppliedUri = uri;
+        if (mTarget.refresh(uri)) {
+            mNetworkRefreshCount++;
+            EarthquakeMetrics.get().increment(EarthquakeMetrics.COUNTER_NETWORK_REFRESHES, 1);
+        }
+    }
+
+    /**
+     * 请求刷新的次数，不合并时每次都会重新加载
+     */
+    int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * 实际访问网络的次数
+     */
+    int getNetworkRefreshCount() {
+        return mNetworkRefreshCount;
+    }
+
+    /**
+     * 节省的网络请求数
+     */
+    int getSavedRequestCount() {
+        return mRequestCount - mNetworkRefreshCount;
+    }
+
+    /**
+     * 取消等待中的刷新，活动销毁时调用，之后不再刷新
+     */
+    void shutdown() {
+        cancelPending();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程内的查询结果LRU缓存，Loader重启后仍然有效。
+ * 以规范化后的查询URL为键，按估算的字节数限制总大小，并统计命中和未命中次数。
+ */
+public final class EarthquakeResultCache {
+
+    /** 缓存大小上限（估算字节数） */
+    private static final int MAX_SIZE_BYTES = 4 * 1024 * 1024;
+
+    /** 对象头的字节数 */
+    private static final int OBJECT_HEADER_BYTES = 12;
+
+    /** 引用的字节数（压缩指针） */
+    private static final int REFERENCE_BYTES = 4;
+
+    /**
+     * 每条地震数据除字符串以外的估算字节数：Earthquake对象（对象头，
+     * 等级、时间、纬度、经度、深度5个8字节字段和地点、网址2个引用，按8字节对齐，共64字节）加上列表中的引用
+     */
+    static final int EARTHQUAKE_OVERHEAD_BYTES =
+            alignObject(OBJECT_HEADER_BYTES + 5 * 8 + 2 * REFERENCE_BYTES) + REFERENCE_BYTES;
+
+    /** 每个String对象除字符以外的估算字节数 */
+    static final int STRING_OVERHEAD_BYTES = 40;
+
+    private static final EarthquakeResultCache sInstance = new EarthquakeResultCache(MAX_SIZE_BYTES);
+
+    /** 缓存大小上限（估算字节数） */
+    private final int mMaxSizeBytes;
+
+    /** 缓存的结果，按访问顺序，最久未用的先淘汰；访问时对本对象加锁 */
+    private final LinkedHashMap<String, CachedResult> mCache = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** 缓存中结果的估算字节数之和 */
+    private int mSizeBytes;
+
+    /** 命中次数，过期的结果算作未命中 */
+    private final AtomicInteger mHitCount = new AtomicInteger();
+
+    /** 未命中次数 */
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
+    /**
+     * 获取进程内唯一的缓存实例
+     */
+    public static EarthquakeResultCache getInstance() {
+        return sInstance;
+    }
+
+    EarthquakeResultCache(int maxSizeBytes) {
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * 一条缓存的查询结果
+     */
+    private static final class CachedResult {
+
+        final List<Earthquake> earthquakes;
+
+        /** 放入缓存的时间 */
+        final long storedAt;
+
+        /** 估算的字节数，放入时计算一次 */
+        final int sizeBytes;
+
+        CachedResult(List<Earthquake> earthquakes, long storedAt) {
+            this.earthquakes = earthquakes;
+            this.storedAt = storedAt;
+            this.sizeBytes = estimateSize(earthquakes);
+        }
+    }
+
+    /**
+     * 查询缓存，没有或已超过有效期时返回null
+     */
+    public List<Earthquake> get(String url) {
+        return get(url, System.currentTimeMillis());
+    }
+
+    /**
+     * 按给定的当前时间查询缓存
+     */
+    List<Earthquake> get(String url, long now) {
+        String key = EarthquakeDiskCache.normalizeUrl(url);
+        synchronized (this) {
+            CachedResult result = mCache.get(key);
+            if (result != null) {
+                long age = now - result.storedAt;
+                if (age >= 0 && age < EarthquakeDiskCache.TTL_MILLIS) {
+                    mHitCount.incrementAndGet();
+                    EarthquakeMetrics.get().increment(EarthquakeMetrics.COUNTER_RESULT_CACHE_HITS, 1);
+                    return result.earthquakes;
+                }
+                mCache.remove(key);
+                mSizeBytes -= result.sizeBytes;
+            }
+        }
+        mMissCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 放入缓存
+     */
+    public void put(String url, List<Earthquake> earthquakes) {
+        put(url, earthquakes, System.currentTimeMillis());
+    }
+
+    /**
+     * 按给定的放入时间放入缓存，超过大小上限时淘汰最久未用的结果
+     */
+    void put(String url, List<Earthquake> earthquakes, long now) {
+        CachedResult result = new CachedResult(earthquakes, now);
+        synchronized (this) {
+            CachedResult previous = mCache.put(EarthquakeDiskCache.normalizeUrl(url), result);
+            mSizeBytes += result.sizeBytes;
+            if (previous != null) {
+                mSizeBytes -= previous.sizeBytes;
+            }
+            // 与LruCache相同，单个结果超过上限时也不保留
+            Iterator<Map.Entry<String, CachedResult>> eldest = mCache.entrySet().iterator();
+            while (mSizeBytes > mMaxSizeBytes && eldest.hasNext()) {
+                mSizeBytes -= eldest.next().getValue().sizeBytes;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * 命中次数
+     */
+    public int hitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 未命中次数
+     */
+    public int missCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * 当前估算的缓存字节数
+     */
+    public synchronized int sizeBytes() {
+        return mSizeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "EarthquakeResultCache[hits=" + hitCount() + ",misses=" + missCount()
+                + ",size=" + sizeBytes() + "/" + mMaxSizeBytes + "]";
+    }
+
+    /**
+     * 估算一组地震数据占用的字节数
+     */
+    static int estimateSize(List<Earthquake> earthquakes) {
+        int size = 0;
+        for (Earthquake earthquake : earthquakes) {
+            size += EARTHQUAKE_OVERHEAD_BYTES
+                    + 2 * STRING_OVERHEAD_BYTES
+                    + 2 * (earthquake.getLocation().length() + earthquake.getUrl().length());
+        }
+        return Math.max(size, 1);
+    }
+
+    /**
+     * 对象大小按8字节对齐
+     */
+    private static int alignObject(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+}
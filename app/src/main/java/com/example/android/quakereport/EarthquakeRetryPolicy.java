@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 请求失败后的重试策略：带随机抖动的指数退避，加上进程内共享的重试预算。
+ * 每个请求存入一定比例的重试额度，每次重试取出一次；服务器持续出错时预算很快用完，
+ * 之后的请求不再重试，不会因为重试成倍增加服务器的负载。
+ */
+final class EarthquakeRetryPolicy {
+
+    /** 每个请求最多的尝试次数，包括第一次 */
+    static final int MAX_ATTEMPTS = 4;
+
+    /** 第一次重试前的基准等待时间 */
+    static final long BASE_DELAY_MILLIS = 500;
+
+    /** 等待时间的上限；服务器要求等待更久（Retry-After）时不再重试 */
+    static final long MAX_DELAY_MILLIS = 8000;
+
+    /** 启动时和最多积累的重试次数 */
+    static final int MAX_BUDGET = 10;
+
+    /** 每个请求存入的重试额度，即长期来看重试最多占请求的20% */
+    private static final long DEPOSIT_PER_REQUEST = 200;
+
+    /** 一次重试取出的额度 */
+    private static final long COST_PER_RETRY = 1000;
+
+    private static volatile EarthquakeRetryPolicy sInstance = new EarthquakeRetryPolicy(
+            MAX_ATTEMPTS, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, MAX_BUDGET, new Random());
+
+    private final int mMaxAttempts;
+
+    private final long mBaseDelayMillis;
+
+    private final long mMaxDelayMillis;
+
+    /** 预算上限，单位与mBalance相同 */
+    private final long mMaxBalance;
+
+    /** 当前的重试额度，1000为一次重试 */
+    private final AtomicLong mBalance;
+
+    private final Random mRandom;
+
+    /** 进行过的重试次数 */
+    private final AtomicLong mRetryCount = new AtomicLong();
+
+    /** 因预算用完而放弃重试的次数 */
+    private final AtomicLong mDeniedCount = new AtomicLong();
+
+    /**
+     * @param maxAttempts 每个请求最多的尝试次数
+     * @param baseDelayMillis 第一次重试前的基准等待时间
+     * @param maxDelayMillis 等待时间的上限
+     * @param budget 启动时和最多积累的重试次数
+     */
+    EarthquakeRetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, int budget,
+                          Random random) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mMaxBalance = budget * COST_PER_RETRY;
+        mBalance = new AtomicLong(mMaxBalance);
+        mRandom = random;
+    }
+
+    /**
+     * 当前使用的策略，进程内共享预算
+     */
+    static EarthquakeRetryPolicy getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 替换策略，如测试中缩短等待时间
+     */
+    @VisibleForTesting
+    static void setInstance(EarthquakeRetryPolicy policy) {
+        sInstance = policy;
+    }
+
+    /**
+     * 响应码表示的错误是否可能在稍后恢复：超时、限流、服务器错误和网关错误
+     */
+    static boolean isRetryable(int responseCode) {
+        switch (responseCode) {
+            case 408:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 发出一个请求（不含重试），存入重试额度
+     */
+    void onRequest() {
+        long balance;
+        do {
+            balance = mBalance.get();
+            if (balance >= mMaxBalance) {
+                return;
+            }
+        } while (!mBalance.compareAndSet(balance, Math.min(mMaxBalance, balance + DEPOSIT_PER_REQUEST)));
+    }
+
+    /**
+     * 第attempt次尝试失败后，决定是否重试以及重试前的等待时间
+     * @param attempt 已进行的尝试次数，从1开始
+     * @param retryAfterMillis 服务器要求的等待时间，没有时为-1
+     * @return 等待的毫秒数；不再重试时返回-1
+     */
+    long nextDelayMillis(int attempt, long retryAfterMillis) {
+        if (attempt >= mMaxAttempts || retryAfterMillis > mMaxDelayMillis) {
+            return -1;
+        }
+        long balance;
+        do {
+            balance = mBalance.get();
+            if (balance < COST_PER_RETRY) {
+                mDeniedCount.incrementAndGet();
+                EarthquakeMetrics.get().increment(EarthquakeMetrics.COUNTER_RETRIES_DENIED, 1);
+                return -1;
+            }
+        } while (!mBalance.compareAndSet(balance, balance - COST_PER_RETRY));
+        mRetryCount.incrementAndGet();
+        EarthquakeMetrics.get().increment(EarthquakeMetrics.COUNTER_RETRIES, 1);
+
+        // 等待时间在上限的一半到上限之间随机，同时失败的请求不会同时重试
+        long ceiling = Math.min(mMaxDelayMillis, mBaseDelayMillis << Math.min(attempt - 1, 30));
+        long delay = ceiling / 2 + (long) (mRandom.nextDouble() * (ceiling / 2));
+        return Math.max(delay, retryAfterMillis);
+    }
+
+    /**
+     * 剩余可用的重试次数
+     */
+    int getRemainingBudget() {
+        return (int) (mBalance.get() / COST_PER_RETRY);
+    }
+
+    long getRetryCount() {
+        return mRetryCount.get();
+    }
+
+    long getDeniedCount() {
+        return mDeniedCount.get();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 列表显示文本的预先格式化。
+ * 在后台线程为每条地震计算一次等级、日期、时间和切割后的地点文本，
+ * 列表绑定时直接使用，不再在主线程创建格式化对象。
+ * 复用格式化对象，非线程安全，每个加载线程使用自己的实例。
+ */
+final class EarthquakeRowFormatter {
+
+    /**字符串切割点*/
+    static final String LOCATION_SEPARATOR = " of ";
+
+    /** 地点中没有距离信息时显示的前缀 */
+    private final String mNearThe;
+
+    private final DecimalFormat mMagnitudeFormat = new DecimalFormat("0.0");
+
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("LLL dd, yyyy");
+
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("h:mm a");
+
+    /** 复用的日期对象 */
+    private final Date mDate = new Date();
+
+    /**
+     * @param nearThe 地点中没有距离信息时显示的前缀，即R.string.near_the
+     */
+    EarthquakeRowFormatter(String nearThe) {
+        mNearThe = nearThe;
+    }
+
+    /**
+     * 一组地震的显示文本，按列保存，下标与输入的列表一致
+     */
+    static final class Rows {
+        final String[] magnitudes;
+        final String[] dates;
+        final String[] times;
+        final String[] locationOffsets;
+        final String[] primaryLocations;
+
+        Rows(int size) {
+            magnitudes = new String[size];
+            dates = new String[size];
+            times = new String[size];
+            locationOffsets = new String[size];
+            primaryLocations = new String[size];
+        }
+
+        int size() {
+            return magnitudes.length;
+        }
+    }
+
+    /**
+     * 格式化一组地震的显示文本
+     */
+    Rows format(List<Earthquake> earthquakes) {
+        Rows rows = new Rows(earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            rows.magnitudes[i] = formatMagnitude(earthquake.getMagnitude());
+            rows.dates[i] = formatDate(earthquake.getTimeInMilliseconds());
+            rows.times[i] = formatTime(earthquake.getTimeInMilliseconds());
+            String location = earthquake.getLocation();
+            int separator = location.indexOf(LOCATION_SEPARATOR);
+            if (separator >= 0) {
+                rows.locationOffsets[i] = location.substring(0, separator + LOCATION_SEPARATOR.length());
+                rows.primaryLocations[i] = primaryLocation(location, separator);
+            } else {
+                rows.locationOffsets[i] = mNearThe;
+                rows.primaryLocations[i] = location;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     *
+     * @param magnitude 地震等级
+     * @return  固定格式的地震等级
+     */
+    String formatMagnitude(double magnitude) {
+        return mMagnitudeFormat.format(magnitude);
+    }
+
+    /**
+     *
+     * @param timeInMilliseconds 地震时间
+     * @return 日期
+     */
+    String formatDate(long timeInMilliseconds) {
+        mDate.setTime(timeInMilliseconds);
+        return mDateFormat.format(mDate);
+    }
+
+    /**
+     *
+     * @param timeInMilliseconds 地震时间
+     * @return 时间
+     */
+    String formatTime(long timeInMilliseconds) {
+        mDate.setTime(timeInMilliseconds);
+        return mTimeFormat.format(mDate);
+    }
+
+    /**
+     * 切割点之后、下一个切割点之前的部分，与原来 split(LOCATION_SEPARATOR)[1] 的结果一致
+     */
+    private static String primaryLocation(String location, int separator) {
+        int start = separator + LOCATION_SEPARATOR.length();
+        int end = location.indexOf(LOCATION_SEPARATOR, start);
+        return end < 0 ? location.substring(start) : location.substring(start, end);
+    }
+}
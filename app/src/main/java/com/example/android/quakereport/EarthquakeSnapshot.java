@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 最近一次完整加载的地震数据的二进制快照，冷启动时先显示它，不等待网络和JSON解析。
+ * 读取时把文件映射到内存，校验后直接从映射的内存解码。不依赖Android，可以在JVM上测试。
+ *
+ * 文件格式（整数为大端序）：
+ * <pre>
+ * int 魔数 "EQSN"
+ * int 格式版本
+ * int 数据部分的字节数
+ * int 数据部分的CRC32
+ * 数据部分：
+ *   字符串 查询网址
+ *   varint 保存时间
+ *   varint 字符串表的大小，之后是各个字符串（varint字节数 + UTF-8）
+ *   varint 行数，之后是各行：
+ *     zigzag 等级×100
+ *     zigzag 时间与上一行的差，第一行与0的差
+ *     varint 地点在字符串表中的编号
+ *     varint 网址前缀的编号
+ *     varint 网址后缀（事件id）的编号
+ *     zigzag 纬度×10^7、经度×10^7、深度×1000
+ * </pre>
+ * 数值按上述精度量化，USGS的数据不超过这些精度，读回的值与原值相同；没有的值（NaN）记为Long.MIN_VALUE。
+ */
+final class EarthquakeSnapshot {
+
+    /** 快照文件名，在缓存目录下 */
+    static final String FILE_NAME = "earthquake_snapshot";
+
+    /** 文件开头的魔数 "EQSN" */
+    private static final int MAGIC = 0x4551534e;
+
+    /** 格式版本，格式改变时加一，旧版本的文件不再读取 */
+    static final int FORMAT_VERSION = 1;
+
+    /** 文件头的字节数 */
+    private static final int HEADER_SIZE = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** 各列的量化倍数 */
+    private static final double MAGNITUDE_SCALE = 100;
+    private static final double COORDINATE_SCALE = 1e7;
+    private static final double DEPTH_SCALE = 1000;
+
+    /** 没有值（NaN）时的量化结果 */
+    private static final long MISSING = Long.MIN_VALUE;
+
+    /** 生成快照的查询网址，不含limit和offset */
+    final String query;
+
+    /** 保存时间 */
+    final long savedAt;
+
+    /** 地震数据，顺序与保存时相同 */
+    final List<Earthquake> earthquakes;
+
+    EarthquakeSnapshot(String query, long savedAt, List<Earthquake> earthquakes) {
+        this.query = query;
+        this.savedAt = savedAt;
+        this.earthquakes = earthquakes;
+    }
+
+    /**
+     * 写入快照，先写临时文件再改名，读取中的映射不受影响
+     */
+    static synchronized void write(File file, EarthquakeSnapshot snapshot) throws IOException {
+        byte[] data = encode(snapshot);
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp);
+        }
+    }
+
+    /**
+     * 读取快照，没有文件或版本不同时返回null
+     * @throws IOException 读取失败或文件损坏
+     */
+    static EarthquakeSnapshot read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try {
+            // 关闭文件后映射仍然有效，由GC回收
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        return decode(buffer);
+    }
+
+    /**
+     * 编码为完整的文件内容
+     */
+    static byte[] encode(EarthquakeSnapshot snapshot) {
+        List<Earthquake> earthquakes = snapshot.earthquakes;
+        StringTable strings = new StringTable();
+        int[] ids = new int[earthquakes.size() * 3];
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            String url = earthquake.getUrl();
+            int prefixEnd = url.lastIndexOf('/') + 1;
+            ids[i * 3] = strings.encode(earthquake.getLocation());
+            ids[i * 3 + 1] = strings.encode(url.substring(0, prefixEnd));
+            ids[i * 3 + 2] = strings.encode(url.substring(prefixEnd));
+        }
+
+        ByteSink sink = new ByteSink(HEADER_SIZE + 64 + earthquakes.size() * 40);
+        sink.position(HEADER_SIZE);
+        sink.writeString(snapshot.query);
+        sink.writeVarLong(snapshot.savedAt);
+        sink.writeVarLong(strings.mValues.size());
+        for (int i = 0; i < strings.mValues.size(); i++) {
+            sink.writeString(strings.mValues.get(i));
+        }
+        sink.writeVarLong(earthquakes.size());
+        long previousTime = 0;
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            sink.writeZigZag(quantize(earthquake.getMagnitude(), MAGNITUDE_SCALE));
+            sink.writeZigZag(earthquake.getTimeInMilliseconds() - previousTime);
+            previousTime = earthquake.getTimeInMilliseconds();
+            sink.writeVarLong(ids[i * 3]);
+            sink.writeVarLong(ids[i * 3 + 1]);
+            sink.writeVarLong(ids[i * 3 + 2]);
+            sink.writeZigZag(quantize(earthquake.getLatitude(), COORDINATE_SCALE));
+            sink.writeZigZag(quantize(earthquake.getLongitude(), COORDINATE_SCALE));
+            sink.writeZigZag(quantize(earthquake.getDepth(), DEPTH_SCALE));
+        }
+
+        int payloadSize = sink.position() - HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(sink.mBytes, HEADER_SIZE, payloadSize);
+        int end = sink.position();
+        sink.position(0);
+        sink.writeInt(MAGIC);
+        sink.writeInt(FORMAT_VERSION);
+        sink.writeInt(payloadSize);
+        sink.writeInt((int) crc.getValue());
+        return Arrays.copyOf(sink.mBytes, end);
+    }
+
+    /**
+     * 从文件内容解码，版本不同时返回null
+     * @throws IOException 文件损坏
+     */
+    static EarthquakeSnapshot decode(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Not an earthquake snapshot");
+            }
+            if (buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int payloadSize = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (payloadSize != buffer.remaining()) {
+                throw new IOException("Truncated earthquake snapshot");
+            }
+            if (checksum != checksum(buffer)) {
+                throw new IOException("Earthquake snapshot checksum mismatch");
+            }
+
+            byte[] scratch = new byte[256];
+            String query = readString(buffer, scratch);
+            long savedAt = readVarLong(buffer);
+            String[] strings = new String[readCount(buffer)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buffer, scratch);
+            }
+            int count = readCount(buffer);
+            List<Earthquake> earthquakes = new ArrayList<>(count);
+            // 网址前缀和事件id的拼接结果不在字符串表中，每行各拼接一次
+            StringBuilder url = new StringBuilder(64);
+            long time = 0;
+            for (int i = 0; i < count; i++) {
+                double magnitude = dequantize(readZigZag(buffer), MAGNITUDE_SCALE);
+                time += readZigZag(buffer);
+                String location = strings[readVarInt(buffer)];
+                url.setLength(0);
+                url.append(strings[readVarInt(buffer)]).append(strings[readVarInt(buffer)]);
+                double latitude = dequantize(readZigZag(buffer), COORDINATE_SCALE);
+                double longitude = dequantize(readZigZag(buffer), COORDINATE_SCALE);
+                double depth = dequantize(readZigZag(buffer), DEPTH_SCALE);
+                earthquakes.add(new Earthquake(magnitude, location, time, url.toString(),
+                        latitude, longitude, depth));
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Trailing bytes in earthquake snapshot");
+            }
+            return new EarthquakeSnapshot(query, savedAt, earthquakes);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            // 校验和碰巧相同的损坏数据
+            throw new IOException("Corrupt earthquake snapshot", e);
+        }
+    }
+
+    /**
+     * 从当前位置到末尾的CRC32，不移动buffer的位置。
+     * CRC32.update(ByteBuffer)在API 26才有，分块复制到数组中计算
+     */
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        ByteBuffer duplicate = buffer.duplicate();
+        byte[] chunk = new byte[8192];
+        while (duplicate.hasRemaining()) {
+            int length = Math.min(chunk.length, duplicate.remaining());
+            duplicate.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static long quantize(double value, double scale) {
+        return Double.isNaN(value) ? MISSING : Math.round(value * scale);
+    }
+
+    private static double dequantize(long value, double scale) {
+        return value == MISSING ? Double.NaN : value / scale;
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] scratch) throws IOException {
+        int length = readCount(buffer);
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, UTF_8);
+    }
+
+    /**
+     * 读取表示数量或长度的varint，不能超过剩余的字节数
+     */
+    private static int readCount(ByteBuffer buffer) throws IOException {
+        int count = readVarInt(buffer);
+        if (count > buffer.remaining()) {
+            throw new IOException("Corrupt earthquake snapshot");
+        }
+        return count;
+    }
+
+    private static int readVarInt(ByteBuffer buffer) throws IOException {
+        long value = readVarLong(buffer);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt earthquake snapshot");
+        }
+        return (int) value;
+    }
+
+    private static long readZigZag(ByteBuffer buffer) throws IOException {
+        long value = readVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 每字节7位，低位在前，最高位为1表示后面还有字节
+     */
+    private static long readVarLong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in earthquake snapshot");
+    }
+
+    /**
+     * 字符串表，相同的字符串只保存一份
+     */
+    private static final class StringTable {
+
+        private final Map<String, Integer> mIds = new HashMap<>();
+
+        private final List<String> mValues = new ArrayList<>();
+
+        int encode(String value) {
+            Integer id = mIds.get(value);
+            if (id == null) {
+                id = mValues.size();
+                mValues.add(value);
+                mIds.put(value, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * 按需扩容的字节数组
+     */
+    private static final class ByteSink {
+
+        private byte[] mBytes;
+
+        private int mPosition;
+
+        ByteSink(int capacity) {
+            mBytes = new byte[capacity];
+        }
+
+        int position() {
+            return mPosition;
+        }
+
+        void position(int position) {
+            ensureCapacity(position);
+            mPosition = position;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(mPosition + 4);
+            mBytes[mPosition++] = (byte) (value >>> 24);
+            mBytes[mPosition++] = (byte) (value >>> 16);
+            mBytes[mPosition++] = (byte) (value >>> 8);
+            mBytes[mPosition++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(mPosition + 10);
+            while ((value & ~0x7fL) != 0) {
+                mBytes[mPosition++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            mBytes[mPosition++] = (byte) value;
+        }
+
+        /**
+         * 有符号数先做zigzag变换，绝对值小的负数也只占少量字节
+         */
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarLong(bytes.length);
+            ensureCapacity(mPosition + bytes.length);
+            System.arraycopy(bytes, 0, mBytes, mPosition, bytes.length);
+            mPosition += bytes.length;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, Math.max(capacity, mBytes.length * 2));
+            }
+        }
+    }
+}
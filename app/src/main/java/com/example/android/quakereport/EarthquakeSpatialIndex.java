@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * 地震表的空间索引，用于在本地按区域或按距离查询，不再为缩小范围重新请求USGS。
+ * 把地球按经纬度划分为1°×1°的格子，建索引时按格子编号做一次计数排序，
+ * 同一纬度行中相邻格子的行号在数组中连续；查询时只检查与范围相交的格子。
+ * 没有震中位置的行不在索引中。查询结果是表的行号，顺序不定，不复制数据。
+ */
+final class EarthquakeSpatialIndex {
+
+    /** 地球平均半径，单位千米 */
+    static final double EARTH_RADIUS_KM = 6371.0;
+
+    /** 纬度方向的格子数 */
+    private static final int LATITUDE_CELLS = 180;
+
+    /** 经度方向的格子数 */
+    private static final int LONGITUDE_CELLS = 360;
+
+    /** 建索引时表的行数，包括没有位置的行 */
+    private final int mSize;
+
+    /** 各格子在mRows中的起始位置，格子编号为 纬度行 * LONGITUDE_CELLS + 经度列 */
+    private final int[] mCellStarts;
+
+    /** 按格子排列的行号 */
+    private final int[] mRows;
+
+    /** 与mRows对应的纬度、经度，查询时顺序读取 */
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+
+    /**
+     * 为表的前size行建立索引
+     */
+    EarthquakeSpatialIndex(EarthquakeTable table, int size) {
+        this(latitudes(table, size), longitudes(table, size));
+    }
+
+    /**
+     * 按行号给出各行的纬度和经度建立索引，没有位置的行为NaN
+     */
+    EarthquakeSpatialIndex(double[] latitudes, double[] longitudes) {
+        mSize = latitudes.length;
+        int[] cells = new int[mSize];
+        int[] starts = new int[LATITUDE_CELLS * LONGITUDE_CELLS + 1];
+        int count = 0;
+        for (int row = 0; row < mSize; row++) {
+            if (Double.isNaN(latitudes[row]) || Double.isNaN(longitudes[row])) {
+                cells[row] = -1;
+                continue;
+            }
+            cells[row] = latitudeCell(latitudes[row]) * LONGITUDE_CELLS + longitudeCell(longitudes[row]);
+            starts[cells[row] + 1]++;
+            count++;
+        }
+        for (int cell = 0; cell < LATITUDE_CELLS * LONGITUDE_CELLS; cell++) {
+            starts[cell + 1] += starts[cell];
+        }
+
+        mCellStarts = starts;
+        mRows = new int[count];
+        mLatitudes = new double[count];
+        mLongitudes = new double[count];
+        int[] next = Arrays.copyOf(starts, starts.length - 1);
+        for (int row = 0; row < mSize; row++) {
+            if (cells[row] < 0) {
+                continue;
+            }
+            int position = next[cells[row]]++;
+            mRows[position] = row;
+            mLatitudes[position] = latitudes[row];
+            mLongitudes[position] = normalizeLongitude(longitudes[row]);
+        }
+    }
+
+    /**
+     * 建索引时表的行数
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * 查询震中在经纬度范围内的地震，返回表的行号。
+     * west大于east时表示跨越180°经线的范围
+     */
+    int[] inBox(double south, double west, double north, double east) {
+        final double fromLongitude = normalizeLongitude(west);
+        final double toLongitude = normalizeLongitude(east);
+        final boolean wraps = fromLongitude > toLongitude;
+        return collect(south, north, fromLongitude, toLongitude, false, new Filter() {
+            @Override
+            public boolean accept(double latitude, double longitude) {
+                return wraps ? longitude >= fromLongitude || longitude <= toLongitude
+                        : longitude >= fromLongitude && longitude <= toLongitude;
+            }
+        });
+    }
+
+    /**
+     * 查询震中到给定点的大圆距离不超过radiusKm的地震，返回表的行号
+     */
+    int[] withinRadius(final double latitude, final double longitude, double radiusKm) {
+        final double angle = Math.min(radiusKm / EARTH_RADIUS_KM, Math.PI);
+        double latitudeDelta = Math.toDegrees(angle);
+        double south = latitude - latitudeDelta;
+        double north = latitude + latitudeDelta;
+
+        // 范围包含极点或经度跨度超过一周时检查整个纬度带
+        boolean allLongitudes = south <= -90 || north >= 90;
+        double west = -180;
+        double east = 180;
+        if (!allLongitudes) {
+            double sinRatio = Math.sin(angle) / Math.cos(Math.toRadians(latitude));
+            double longitudeDelta = sinRatio >= 1 ? 180 : Math.toDegrees(Math.asin(sinRatio));
+            allLongitudes = longitudeDelta >= 180;
+            west = normalizeLongitude(longitude - longitudeDelta);
+            east = normalizeLongitude(longitude + longitudeDelta);
+        }
+
+        // 半正矢公式：距离不超过angle 等价于 hav(距离) <= hav(angle)
+        final double maxHaversine = haversine(angle);
+        final double latitudeRadians = Math.toRadians(latitude);
+        final double cosLatitude = Math.cos(latitudeRadians);
+        return collect(south, north, west, east, allLongitudes, new Filter() {
+            @Override
+            public boolean accept(double pointLatitude, double pointLongitude) {
+                double pointRadians = Math.toRadians(pointLatitude);
+                double h = haversine(pointRadians - latitudeRadians) + cosLatitude * Math.cos(pointRadians)
+                        * haversine(Math.toRadians(pointLongitude - longitude));
+                return h <= maxHaversine;
+            }
+        });
+    }
+
+    /**
+     * 两点间的大圆距离，单位千米
+     */
+    static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double radians1 = Math.toRadians(latitude1);
+        double radians2 = Math.toRadians(latitude2);
+        double h = haversine(radians2 - radians1) + Math.cos(radians1) * Math.cos(radians2)
+                * haversine(Math.toRadians(longitude2 - longitude1));
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(Math.min(h, 1)));
+    }
+
+    /** 候选点的精确判断 */
+    private interface Filter {
+        boolean accept(double latitude, double longitude);
+    }
+
+    /**
+     * 检查与纬度范围和经度范围相交的格子，收集通过filter的行号
+     */
+    private int[] collect(double south, double north, double west, double east,
+                          boolean allLongitudes, Filter filter) {
+        if (south > north || mRows.length == 0) {
+            return new int[0];
+        }
+        int fromRow = latitudeCell(Math.max(south, -90));
+        int toRow = latitudeCell(Math.min(north, 90));
+        int fromColumn = allLongitudes ? 0 : longitudeCell(west);
+        int toColumn = allLongitudes ? LONGITUDE_CELLS - 1 : longitudeCell(east);
+        boolean wraps = !allLongitudes && west > east;
+
+        int[] result = new int[16];
+        int count = 0;
+        for (int latitudeRow = fromRow; latitudeRow <= toRow; latitudeRow++) {
+            int rowStart = latitudeRow * LONGITUDE_CELLS;
+            // 跨越180°经线时分成两段，每段的格子在数组中连续
+            for (int part = 0; part < 2; part++) {
+                int from;
+                int to;
+                if (!wraps) {
+                    if (part > 0) {
+                        break;
+                    }
+                    from = mCellStarts[rowStart + fromColumn];
+                    to = mCellStarts[rowStart + toColumn + 1];
+                } else if (part == 0) {
+                    from = mCellStarts[rowStart + fromColumn];
+                    to = mCellStarts[rowStart + LONGITUDE_CELLS];
+                } else {
+                    from = mCellStarts[rowStart];
+                    to = mCellStarts[rowStart + toColumn + 1];
+                }
+                for (int position = from; position < to; position++) {
+                    double latitude = mLatitudes[position];
+                    if (latitude < south || latitude > north
+                            || !filter.accept(latitude, mLongitudes[position])) {
+                        continue;
+                    }
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, count * 2);
+                    }
+                    result[count++] = mRows[position];
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static double haversine(double radians) {
+        double sin = Math.sin(radians / 2);
+        return sin * sin;
+    }
+
+    private static int latitudeCell(double latitude) {
+        int cell = (int) Math.floor(latitude + 90);
+        return Math.max(0, Math.min(LATITUDE_CELLS - 1, cell));
+    }
+
+    private static int longitudeCell(double longitude) {
+        int cell = (int) Math.floor(normalizeLongitude(longitude) + 180);
+        return Math.max(0, Math.min(LONGITUDE_CELLS - 1, cell));
+    }
+
+    /**
+     * 把经度换算到[-180, 180]
+     */
+    private static double normalizeLongitude(double longitude) {
+        if (longitude >= -180 && longitude <= 180) {
+            return longitude;
+        }
+        return ((longitude + 180) % 360 + 360) % 360 - 180;
+    }
+
+    private static double[] latitudes(EarthquakeTable table, int size) {
+        double[] latitudes = new double[size];
+        for (int row = 0; row < size; row++) {
+            latitudes[row] = table.getLatitude(row);
+        }
+        return latitudes;
+    }
+
+    private static double[] longitudes(EarthquakeTable table, int size) {
+        double[] longitudes = new double[size];
+        for (int row = 0; row < size; row++) {
+            longitudes[row] = table.getLongitude(row);
+        }
+        return longitudes;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 后台同步维护的本地地震数据。
+ * 保存最近一段时间内不低于某个最小等级的全部地震，按事件id合并服务器返回的新增和修改；
+ * 打开应用时直接读取，不等待网络。与按查询URL保存的EarthquakeDiskCache不同，
+ * 这里只有一份数据，过滤和排序在本地完成。
+ */
+public final class EarthquakeStore {
+
+    /** 获取类名称 */
+    private static final String LOG_TAG = EarthquakeStore.class.getSimpleName();
+
+    /** 文件格式版本 */
+    private static final int FORMAT_VERSION = 3;
+
+    /** 数据文件名 */
+    private static final String FILE_NAME = "earthquake_store";
+
+    private static EarthquakeStore sInstance;
+
+    /** 数据文件 */
+    private final File mFile;
+
+    /**
+     * 获取进程内唯一的实例
+     */
+    public static synchronized EarthquakeStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EarthquakeStore(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    EarthquakeStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * 一份本地数据
+     */
+    public static final class Snapshot {
+
+        /** 数据覆盖的最小等级 */
+        final double minMagnitude;
+
+        /** 合并的附加数据源，见EarthquakeFeedSource.joinIds */
+        final String sources;
+
+        /** 最近一次同步开始的时间，下次增量同步从这里开始 */
+        final long syncedAt;
+
+        /** 最近一次全量同步开始的时间 */
+        final long fullSyncedAt;
+
+        /** 地震数据，无序 */
+        final List<Earthquake> earthquakes;
+
+        Snapshot(double minMagnitude, String sources, long syncedAt, long fullSyncedAt,
+                 List<Earthquake> earthquakes) {
+            this.minMagnitude = minMagnitude;
+            this.sources = sources;
+            this.syncedAt = syncedAt;
+            this.fullSyncedAt = fullSyncedAt;
+            this.earthquakes = earthquakes;
+        }
+    }
+
+    /**
+     * 读取本地数据，没有或损坏时返回null
+     */
+    public synchronized Snapshot read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            double minMagnitude = in.readDouble();
+            String sources = in.readUTF();
+            long syncedAt = in.readLong();
+            long fullSyncedAt = in.readLong();
+            int count = in.readInt();
+            List<Earthquake> earthquakes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                double magnitude = in.readDouble();
+                String location = in.readUTF();
+                long time = in.readLong();
+                String detailUrl = in.readUTF();
+                double latitude = in.readDouble();
+                double longitude = in.readDouble();
+                double depth = in.readDouble();
+                earthquakes.add(new Earthquake(magnitude, location, time, detailUrl,
+                        latitude, longitude, depth));
+            }
+            return new Snapshot(minMagnitude, sources, syncedAt, fullSyncedAt, earthquakes);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake store.", e);
+            mFile.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 写入本地数据，先写临时文件再改名
+     */
+    public synchronized boolean write(Snapshot snapshot) {
+        File directory = mFile.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            return false;
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeDouble(snapshot.minMagnitude);
+            out.writeUTF(snapshot.sources);
+            out.writeLong(snapshot.syncedAt);
+            out.writeLong(snapshot.fullSyncedAt);
+            out.writeInt(snapshot.earthquakes.size());
+            for (Earthquake earthquake : snapshot.earthquakes) {
+                out.writeDouble(earthquake.getMagnitude());
+                out.writeUTF(earthquake.getLocation());
+                out.writeLong(earthquake.getTimeInMilliseconds());
+                out.writeUTF(earthquake.getUrl());
+                out.writeDouble(earthquake.getLatitude());
+                out.writeDouble(earthquake.getLongitude());
+                out.writeDouble(earthquake.getDepth());
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                tmp.delete();
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquake store.", e);
+            tmp.delete();
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * 按事件id把changes合并到existing中：已有的事件被替换，新的事件被加入，
+     * 发生时间早于oldestTime的事件被移出
+     */
+    static List<Earthquake> merge(List<Earthquake> existing, List<Earthquake> changes, long oldestTime) {
+        Map<String, Integer> positions = new HashMap<>(existing.size() * 2);
+        List<Earthquake> merged = new ArrayList<>(existing.size() + changes.size());
+        for (int i = 0; i < existing.size(); i++) {
+            Earthquake earthquake = existing.get(i);
+            if (earthquake.getTimeInMilliseconds() >= oldestTime) {
+                positions.put(EarthquakeFanOut.eventId(earthquake.getUrl()), merged.size());
+                merged.add(earthquake);
+            }
+        }
+        for (int i = 0; i < changes.size(); i++) {
+            Earthquake earthquake = changes.get(i);
+            if (earthquake.getTimeInMilliseconds() < oldestTime) {
+                continue;
+            }
+            Integer position = positions.get(EarthquakeFanOut.eventId(earthquake.getUrl()));
+            if (position != null) {
+                merged.set(position, earthquake);
+            } else {
+                positions.put(EarthquakeFanOut.eventId(earthquake.getUrl()), merged.size());
+                merged.add(earthquake);
+            }
+        }
+        return merged;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.util.List;
+
+/**
+ * 把本地数据与服务器同步。
+ * 平时用updatedafter只请求上次同步之后新增或修改的地震，传输量与变化量成正比；
+ * 没有本地数据、最小等级或附加数据源改变、距上次全量同步超过一天时，按时间窗口并行请求全部数据，
+ * 同时移除服务器上已删除的事件。
+ */
+final class EarthquakeSync {
+
+    /** 全量同步的间隔 */
+    static final long FULL_SYNC_INTERVAL_MILLIS = 24L * 60 * 60 * 1000;
+
+    /** 本地数据在此时间内可以直接显示，超过后加载时访问网络 */
+    static final long MAX_STORE_AGE_MILLIS = 6L * 60 * 60 * 1000;
+
+    /** 增量同步的起点比上次同步提前的时间，容忍服务器索引的延迟，重复的事件按id合并 */
+    static final long OVERLAP_MILLIS = 5L * 60 * 1000;
+
+    private final EarthquakeStore mStore;
+
+    private final EarthquakeFanOut mFanOut;
+
+    /**
+     * @param fanOut 全量同步时并行请求各时间窗口
+     */
+    EarthquakeSync(EarthquakeStore store, EarthquakeFanOut fanOut) {
+        mStore = store;
+        mFanOut = fanOut;
+    }
+
+    /**
+     * 同步一次
+     * @param baseUrl 含format和minmag的查询网址
+     * @param minMagnitude 查询的最小等级
+     * @param now 当前时间
+     * @return 同步结果，失败返回null
+     */
+    Result sync(String baseUrl, double minMagnitude, long now) throws InterruptedException {
+        long oldestTime = now - EarthquakeFanOut.DEFAULT_HISTORY_MILLIS;
+        String sources = EarthquakeFeedSource.getSources(baseUrl);
+        EarthquakeStore.Snapshot snapshot = mStore.read();
+
+        if (snapshot == null || snapshot.minMagnitude != minMagnitude || !snapshot.sources.equals(sources)
+                || now - snapshot.fullSyncedAt >= FULL_SYNC_INTERVAL_MILLIS || now < snapshot.syncedAt) {
+            List<Earthquake> earthquakes = mFanOut.fetch(baseUrl, oldestTime, now, true);
+            if (earthquakes == null || QueryUtils.isPartial(earthquakes)
+                    || !mStore.write(new EarthquakeStore.Snapshot(minMagnitude, sources, now, now, earthquakes))) {
+                return null;
+            }
+            return new Result(true, earthquakes, earthquakes.size());
+        }
+
+        String deltaUrl = baseUrl + (baseUrl.indexOf('?') < 0 ? '?' : '&')
+                + "starttime=" + QueryUtils.formatQueryTime(oldestTime)
+                + "&updatedafter=" + QueryUtils.formatQueryTime(snapshot.syncedAt - OVERLAP_MILLIS);
+        List<Earthquake> changes = QueryUtils.fetchEarthquakeData(deltaUrl, null);
+        if (changes == null || QueryUtils.isPartial(changes)) {
+            return null;
+        }
+        List<Earthquake> merged = EarthquakeStore.merge(snapshot.earthquakes, changes, oldestTime);
+        if (!mStore.write(new EarthquakeStore.Snapshot(minMagnitude, sources, now, snapshot.fullSyncedAt, merged))) {
+            return null;
+        }
+        return new Result(false, changes, merged.size());
+    }
+
+    /**
+     * 一次同步的结果
+     */
+    static final class Result {
+
+        /** 是否是全量同步 */
+        final boolean full;
+
+        /** 从服务器收到的地震数 */
+        final int received;
+
+        /** 从服务器收到的地震，全量同步时是全部数据，增量同步时是新增和修改的 */
+        final List<Earthquake> earthquakes;
+
+        /** 同步后本地的地震数 */
+        final int stored;
+
+        Result(boolean full, List<Earthquake> earthquakes, int stored) {
+            this.full = full;
+            this.received = earthquakes.size();
+            this.earthquakes = earthquakes;
+            this.stored = stored;
+        }
+    }
+
+    /**
+     * 本地数据能否直接用于最小等级为minMagnitude、附加数据源为sources的查询
+     */
+    static boolean canServe(EarthquakeStore.Snapshot snapshot, double minMagnitude, String sources, long now) {
+        return snapshot != null && minMagnitude >= snapshot.minMagnitude && sources.equals(snapshot.sources)
+                && now >= snapshot.syncedAt && now - snapshot.syncedAt < MAX_STORE_AGE_MILLIS;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定期在后台同步本地地震数据。
+ * 按设置只在不计流量的网络和/或充电时运行，失败时由WorkManager按退避策略重试。
+ */
+public class EarthquakeSyncWorker extends Worker {
+
+    /** 获取类名称 */
+    private static final String LOG_TAG = EarthquakeSyncWorker.class.getSimpleName();
+
+    /** 定期同步的唯一名称 */
+    private static final String PERIODIC_WORK_NAME = "earthquake_sync";
+
+    /** 立即同步的唯一名称 */
+    private static final String ONE_TIME_WORK_NAME = "earthquake_sync_now";
+
+    /** 同步间隔 */
+    private static final long SYNC_INTERVAL_HOURS = 1;
+
+    public EarthquakeSyncWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * 安排定期同步
+     * @param replace 约束条件改变时为true，替换已安排的同步
+     */
+    public static void schedule(Context context, boolean replace) {
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                EarthquakeSyncWorker.class, SYNC_INTERVAL_HOURS, TimeUnit.HOURS)
+                .setConstraints(constraints(context))
+                .build();
+        WorkManager.getInstance().enqueueUniquePeriodicWork(PERIODIC_WORK_NAME,
+                replace ? ExistingPeriodicWorkPolicy.REPLACE : ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    /**
+     * 满足约束条件时尽快同步一次，如最小等级改变后
+     */
+    public static void syncNow(Context context) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(EarthquakeSyncWorker.class)
+                .setConstraints(constraints(context))
+                .build();
+        WorkManager.getInstance().enqueueUniqueWork(ONE_TIME_WORK_NAME, ExistingWorkPolicy.REPLACE, request);
+    }
+
+    /**
+     * 由设置决定的约束条件
+     */
+    private static Constraints constraints(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean unmeteredOnly = prefs.getBoolean(context.getString(R.string.settings_sync_unmetered_key),
+                context.getResources().getBoolean(R.bool.settings_sync_unmetered_default));
+        boolean chargingOnly = prefs.getBoolean(context.getString(R.string.settings_sync_charging_key),
+                context.getResources().getBoolean(R.bool.settings_sync_charging_default));
+        return new Constraints.Builder()
+                .setRequiredNetworkType(unmeteredOnly ? NetworkType.UNMETERED : NetworkType.CONNECTED)
+                .setRequiresCharging(chargingOnly)
+                .build();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String minMagnitude = prefs.getString(
+                context.getString(R.string.settings_min_magnitude_key),
+                context.getString(R.string.settings_min_magnitude_default));
+        String concurrency = prefs.getString(
+                context.getString(R.string.settings_concurrency_key),
+                context.getString(R.string.settings_concurrency_default));
+
+        String sources = EarthquakeFeedSource.joinIds(prefs.getStringSet(
+                context.getString(R.string.settings_sources_key), Collections.<String>emptySet()));
+
+        Uri.Builder uriBuilder = Uri.parse(EarthquakeActivity.getRequestUrl()).buildUpon()
+                .appendQueryParameter("format", "geojson")
+                .appendQueryParameter("minmag", minMagnitude);
+        if (!sources.isEmpty()) {
+            uriBuilder.appendQueryParameter(EarthquakeFeedSource.PARAM_SOURCES, sources);
+        }
+        String baseUrl = uriBuilder.toString();
+
+        final EarthquakeDiskCache diskCache = EarthquakeDiskCache.getInstance(context);
+        EarthquakeFanOut fanOut;
+        double minMagnitudeValue;
+        try {
+            fanOut = new EarthquakeFanOut(new EarthquakeFanOut.Fetcher() {
+                @Override
+                public List<Earthquake> fetch(String url) {
+                    return QueryUtils.fetchEarthquakeData(url, diskCache);
+                }
+            }, Integer.parseInt(concurrency));
+            minMagnitudeValue = Double.parseDouble(minMagnitude);
+        } catch (NumberFormatException e) {
+            Log.e(LOG_TAG, "Invalid settings for sync.", e);
+            return Result.failure();
+        }
+
+        long bytesBefore = EarthquakeHttpClient.getInstance().getBytesReceived();
+        EarthquakeSync.Result result;
+        try {
+            result = new EarthquakeSync(EarthquakeStore.getInstance(context), fanOut)
+                    .sync(baseUrl, minMagnitudeValue, System.currentTimeMillis());
+        } catch (InterruptedException e) {
+            // 约束条件不再满足，WorkManager停止了任务
+            return Result.retry();
+        }
+        if (result == null) {
+            return Result.retry();
+        }
+        Log.i(LOG_TAG, (result.full ? "full" : "delta") + " sync: received " + result.received
+                + ", stored " + result.stored + ", "
+                + (EarthquakeHttpClient.getInstance().getBytesReceived() - bytesBefore) + " bytes");
+        // 已检查过的事件不会重复提醒
+        EarthquakeAlerts.getInstance(context).ingest(result.earthquakes, System.currentTimeMillis());
+        return Result.success();
+    }
+}
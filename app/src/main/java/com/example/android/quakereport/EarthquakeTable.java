@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 列式存储的地震表。
+ * 等级、时间和震中位置存在基本类型数组中，地点用字典编码，网址拆成字典编码的前缀和各自的后缀，
+ * 不再为每条地震创建一个对象。按行号读取；只在主线程追加。
+ * 列表显示用的文本由EarthquakeRowFormatter在后台预先格式化，同样字典编码后保存。
+ */
+public final class EarthquakeTable {
+
+    /** 初始容量 */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** 等级列 */
+    private double[] mMagnitudes = new double[INITIAL_CAPACITY];
+
+    /** 时间列 */
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+
+    /** 震中纬度、经度和震源深度列，没有时为NaN */
+    private double[] mLatitudes = new double[INITIAL_CAPACITY];
+    private double[] mLongitudes = new double[INITIAL_CAPACITY];
+    private double[] mDepths = new double[INITIAL_CAPACITY];
+
+    /** 地点列，存地点字典中的编号 */
+    private int[] mLocationIds = new int[INITIAL_CAPACITY];
+
+    /** 网址前缀列，存前缀字典中的编号 */
+    private int[] mUrlPrefixIds = new int[INITIAL_CAPACITY];
+
+    /** 网址后缀列，如USGS网址中的事件id */
+    private String[] mUrlSuffixes = new String[INITIAL_CAPACITY];
+
+    /** 由事件id计算的稳定id，用于列表的增量更新 */
+    private long[] mStableIds = new long[INITIAL_CAPACITY];
+
+    /** 显示内容的摘要，追加时计算一次，适配器比较新旧数据时不再逐行计算 */
+    private long[] mContentHashes = new long[INITIAL_CAPACITY];
+
+    /** 地点字典 */
+    private final StringDictionary mLocations = new StringDictionary();
+
+    /** 网址前缀字典 */
+    private final StringDictionary mUrlPrefixes = new StringDictionary();
+
+    /** 显示文本列，存显示文本字典中的编号；没有预先格式化的行为-1 */
+    private int[] mMagnitudeTextIds = new int[INITIAL_CAPACITY];
+    private int[] mDateTextIds = new int[INITIAL_CAPACITY];
+    private int[] mTimeTextIds = new int[INITIAL_CAPACITY];
+    private int[] mLocationOffsetIds = new int[INITIAL_CAPACITY];
+    private int[] mPrimaryLocationIds = new int[INITIAL_CAPACITY];
+
+    /** 显示文本字典，日期、时间、等级等文本大量重复 */
+    private final StringDictionary mDisplayTexts = new StringDictionary();
+
+    /** 行数 */
+    private int mSize;
+
+    /**
+     * 行数
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * 追加一条没有震中位置的地震数据，不含显示文本
+     */
+    public void add(double magnitude, String location, long timeInMilliseconds, String url) {
+        add(magnitude, location, timeInMilliseconds, url, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * 追加一条地震数据，不含显示文本
+     */
+    public void add(double magnitude, String location, long timeInMilliseconds, String url,
+                    double latitude, double longitude, double depth) {
+        ensureCapacity(mSize + 1);
+        int prefixEnd = url.lastIndexOf('/') + 1;
+        mMagnitudes[mSize] = magnitude;
+        mTimes[mSize] = timeInMilliseconds;
+        mLatitudes[mSize] = latitude;
+        mLongitudes[mSize] = longitude;
+        mDepths[mSize] = depth;
+        mLocationIds[mSize] = mLocations.encode(location);
+        mUrlPrefixIds[mSize] = mUrlPrefixes.encode(url.substring(0, prefixEnd));
+        mUrlSuffixes[mSize] = url.substring(prefixEnd);
+        mStableIds[mSize] = stableId(mUrlSuffixes[mSize]);
+        mContentHashes[mSize] = contentHash(magnitude, timeInMilliseconds, location);
+        mMagnitudeTextIds[mSize] = -1;
+        mDateTextIds[mSize] = -1;
+        mTimeTextIds[mSize] = -1;
+        mLocationOffsetIds[mSize] = -1;
+        mPrimaryLocationIds[mSize] = -1;
+        mSize++;
+    }
+
+    /**
+     * 追加多条地震数据及其预先格式化的显示文本
+     * @param rows 由EarthquakeRowFormatter.format(earthquakes)得到
+     */
+    void addAll(List<Earthquake> earthquakes, EarthquakeRowFormatter.Rows rows) {
+        ensureCapacity(mSize + earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            int row = mSize;
+            add(earthquake.getMagnitude(), earthquake.getLocation(),
+                    earthquake.getTimeInMilliseconds(), earthquake.getUrl(),
+                    earthquake.getLatitude(), earthquake.getLongitude(), earthquake.getDepth());
+            mMagnitudeTextIds[row] = mDisplayTexts.encode(rows.magnitudes[i]);
+            mDateTextIds[row] = mDisplayTexts.encode(rows.dates[i]);
+            mTimeTextIds[row] = mDisplayTexts.encode(rows.times[i]);
+            mLocationOffsetIds[row] = mDisplayTexts.encode(rows.locationOffsets[i]);
+            mPrimaryLocationIds[row] = mDisplayTexts.encode(rows.primaryLocations[i]);
+        }
+    }
+
+    /**
+     * 从另一张表复制一行，包括预先格式化的显示文本，字典编号在这张表中重新编码
+     */
+    void addRow(EarthquakeTable source, int row) {
+        add(source.mMagnitudes[row], source.getLocation(row), source.mTimes[row], source.getUrl(row),
+                source.mLatitudes[row], source.mLongitudes[row], source.mDepths[row]);
+        int copy = mSize - 1;
+        mMagnitudeTextIds[copy] = encodeDisplayText(source.getMagnitudeText(row));
+        mDateTextIds[copy] = encodeDisplayText(source.getDateText(row));
+        mTimeTextIds[copy] = encodeDisplayText(source.getTimeText(row));
+        mLocationOffsetIds[copy] = encodeDisplayText(source.getLocationOffset(row));
+        mPrimaryLocationIds[copy] = encodeDisplayText(source.getPrimaryLocation(row));
+    }
+
+    public double getMagnitude(int row) {
+        return mMagnitudes[row];
+    }
+
+    public long getTimeInMilliseconds(int row) {
+        return mTimes[row];
+    }
+
+    public double getLatitude(int row) {
+        return mLatitudes[row];
+    }
+
+    public double getLongitude(int row) {
+        return mLongitudes[row];
+    }
+
+    /** 震源深度，单位千米 */
+    public double getDepth(int row) {
+        return mDepths[row];
+    }
+
+    public String getLocation(int row) {
+        return mLocations.decode(mLocationIds[row]);
+    }
+
+    /**
+     * 地点的字典编号，相同地点编号相同
+     */
+    public int getLocationId(int row) {
+        return mLocationIds[row];
+    }
+
+    /**
+     * 事件id。USGS的详细网址以事件id结尾，如 .../eventpage/us1000abcd
+     */
+    public String getEventId(int row) {
+        return mUrlSuffixes[row];
+    }
+
+    /**
+     * 由事件id得到的稳定id，同一事件在不同次加载中相同
+     */
+    public long getStableId(int row) {
+        return mStableIds[row];
+    }
+
+    /**
+     * 显示内容的摘要，同一事件的等级、时间或地点被修订后会改变。
+     * 地点按字符串计算而不是字典编号，不同的表（如快照和之后加载的数据）之间可以比较
+     */
+    public long getContentHash(int row) {
+        return mContentHashes[row];
+    }
+
+    /**
+     * 与getContentHash相同的摘要，用于还没有放入表中的地震
+     */
+    static long contentHash(double magnitude, long timeInMilliseconds, String location) {
+        long hash = Double.doubleToLongBits(magnitude);
+        hash = hash * 31 + timeInMilliseconds;
+        hash = hash * 31 + location.hashCode();
+        return hash;
+    }
+
+    /** 预先格式化的等级文本 */
+    public String getMagnitudeText(int row) {
+        return mDisplayTexts.decode(mMagnitudeTextIds[row]);
+    }
+
+    /** 预先格式化的日期文本 */
+    public String getDateText(int row) {
+        return mDisplayTexts.decode(mDateTextIds[row]);
+    }
+
+    /** 预先格式化的时间文本 */
+    public String getTimeText(int row) {
+        return mDisplayTexts.decode(mTimeTextIds[row]);
+    }
+
+    /** 地点切割后的距离部分，如"30km S of " */
+    public String getLocationOffset(int row) {
+        return mDisplayTexts.decode(mLocationOffsetIds[row]);
+    }
+
+    /** 地点切割后的主要地点部分 */
+    public String getPrimaryLocation(int row) {
+        return mDisplayTexts.decode(mPrimaryLocationIds[row]);
+    }
+
+    /**
+     * 网址，每次调用拼接一次，只在点击等低频场景使用
+     */
+    public String getUrl(int row) {
+        return mUrlPrefixes.decode(mUrlPrefixIds[row]) + mUrlSuffixes[row];
+    }
+
+    /**
+     * 把一行还原为Earthquake对象
+     */
+    public Earthquake get(int row) {
+        return new Earthquake(getMagnitude(row), getLocation(row), getTimeInMilliseconds(row), getUrl(row),
+                mLatitudes[row], mLongitudes[row], mDepths[row]);
+    }
+
+    /**
+     * 整张表当前所有行的视图，按行号顺序
+     */
+    public RowView view() {
+        return new RowView(this, null, mSize);
+    }
+
+    /**
+     * 由给定行号组成的视图
+     */
+    public RowView view(int[] rows) {
+        return new RowView(this, rows, rows.length);
+    }
+
+    /**
+     * 没有预先格式化的文本为-1
+     */
+    private int encodeDisplayText(String text) {
+        return text == null ? -1 : mDisplayTexts.encode(text);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mMagnitudes.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mMagnitudes.length * 2);
+        mMagnitudes = Arrays.copyOf(mMagnitudes, newCapacity);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mDepths = Arrays.copyOf(mDepths, newCapacity);
+        mLocationIds = Arrays.copyOf(mLocationIds, newCapacity);
+        mUrlPrefixIds = Arrays.copyOf(mUrlPrefixIds, newCapacity);
+        mUrlSuffixes = Arrays.copyOf(mUrlSuffixes, newCapacity);
+        mStableIds = Arrays.copyOf(mStableIds, newCapacity);
+        mContentHashes = Arrays.copyOf(mContentHashes, newCapacity);
+        mMagnitudeTextIds = Arrays.copyOf(mMagnitudeTextIds, newCapacity);
+        mDateTextIds = Arrays.copyOf(mDateTextIds, newCapacity);
+        mTimeTextIds = Arrays.copyOf(mTimeTextIds, newCapacity);
+        mLocationOffsetIds = Arrays.copyOf(mLocationOffsetIds, newCapacity);
+        mPrimaryLocationIds = Arrays.copyOf(mPrimaryLocationIds, newCapacity);
+    }
+
+    /**
+     * 64位FNV-1a哈希
+     */
+    private static long stableId(String eventId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < eventId.length(); i++) {
+            hash ^= eventId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * 表的只读视图：按位置映射到表中的行，用于过滤排序后的结果，不复制数据。
+     * 表只追加不修改，视图的行数在创建时确定，之后追加的行不在视图中
+     */
+    public static final class RowView {
+
+        private final EarthquakeTable mTable;
+
+        /** 位置到行号的映射，为null时表示表的前mSize行 */
+        private final int[] mRows;
+
+        /** 视图中的行数 */
+        private final int mSize;
+
+        private RowView(EarthquakeTable table, int[] rows, int size) {
+            mTable = table;
+            mRows = rows;
+            mSize = size;
+        }
+
+        public EarthquakeTable getTable() {
+            return mTable;
+        }
+
+        /**
+         * 视图中的行数
+         */
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * 视图中第position个位置对应的表行号
+         */
+        public int row(int position) {
+            return mRows == null ? position : mRows[position];
+        }
+    }
+
+    /**
+     * 字符串字典，相同的字符串只保存一份
+     */
+    private static final class StringDictionary {
+
+        private final Map<String, Integer> mIds = new HashMap<>();
+
+        private final List<String> mValues = new ArrayList<>();
+
+        int encode(String value) {
+            Integer id = mIds.get(value);
+            if (id == null) {
+                id = mValues.size();
+                mValues.add(value);
+                mIds.put(value, id);
+            }
+            return id;
+        }
+
+        String decode(int id) {
+            return id < 0 ? null : mValues.get(id);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * FDSN event服务文本格式（format=text）的流式解析。
+ * 每行一个事件，字段以'|'分隔：
+ * EventID|Time|Latitude|Longitude|Depth/km|Author|Catalog|Contributor|ContributorID|MagType|Magnitude|MagAuthor|EventLocationName，
+ * 部分服务器在最后多出EventType等字段。以'#'开头的是表头。
+ */
+final class EarthquakeTextParser {
+
+    private static final int FIELD_EVENT_ID = 0;
+    private static final int FIELD_TIME = 1;
+    private static final int FIELD_LATITUDE = 2;
+    private static final int FIELD_LONGITUDE = 3;
+    private static final int FIELD_DEPTH = 4;
+    private static final int FIELD_MAGNITUDE = 10;
+    private static final int FIELD_LOCATION = 12;
+
+    /** 需要读取的字段数 */
+    private static final int FIELD_COUNT = FIELD_LOCATION + 1;
+
+    private EarthquakeTextParser() {
+    }
+
+    /**
+     * 从输入流解析地震数据，逐条加入earthquakes。
+     * 各行相互独立：某行字段不全或格式错误时只丢弃这一行；传输中断时抛出IOException，
+     * 已解析的数据保留在earthquakes中。
+     * @param eventUrlPrefix 事件详细网页的网址前缀，后面接事件id
+     * @return 丢弃的行数
+     */
+    static int parseEvents(InputStream inputStream, String eventUrlPrefix, List<Earthquake> earthquakes)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        String[] fields = new String[FIELD_COUNT];
+        int dropped = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            Earthquake earthquake = split(line, fields) ? readEvent(fields, eventUrlPrefix) : null;
+            if (earthquake != null) {
+                earthquakes.add(earthquake);
+            } else {
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * 把一行的前FIELD_COUNT个字段放入fields，字段不够时返回false
+     */
+    private static boolean split(String line, String[] fields) {
+        int start = 0;
+        for (int i = 0; i < fields.length; i++) {
+            int end = line.indexOf('|', start);
+            if (end < 0) {
+                if (i != fields.length - 1) {
+                    return false;
+                }
+                end = line.length();
+            }
+            fields[i] = line.substring(start, end).trim();
+            start = end + 1;
+        }
+        return true;
+    }
+
+    /**
+     * 缺少事件id、时间或等级，或有字段格式错误时返回null；没有坐标时位置为NaN
+     */
+    private static Earthquake readEvent(String[] fields, String eventUrlPrefix) {
+        String eventId = fields[FIELD_EVENT_ID];
+        if (eventId.isEmpty() || fields[FIELD_MAGNITUDE].isEmpty()) {
+            return null;
+        }
+        try {
+            return new Earthquake(
+                    Double.parseDouble(fields[FIELD_MAGNITUDE]),
+                    fields[FIELD_LOCATION],
+                    parseTime(fields[FIELD_TIME]),
+                    eventUrlPrefix + eventId,
+                    parseOptional(fields[FIELD_LATITUDE]),
+                    parseOptional(fields[FIELD_LONGITUDE]),
+                    parseOptional(fields[FIELD_DEPTH]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static double parseOptional(String value) {
+        return value.isEmpty() ? Double.NaN : Double.parseDouble(value);
+    }
+
+    /**
+     * 解析UTC时间，格式为yyyy-MM-ddTHH:mm:ss，之后可以有任意位数的小数秒和Z。
+     * 逐个字符计算，不为每行创建SimpleDateFormat或Calendar
+     * @throws NumberFormatException 格式错误
+     */
+    static long parseTime(String time) {
+        if (time.length() < 19 || time.charAt(4) != '-' || time.charAt(7) != '-'
+                || (time.charAt(10) != 'T' && time.charAt(10) != ' ')
+                || time.charAt(13) != ':' || time.charAt(16) != ':') {
+            throw new NumberFormatException("Bad time: " + time);
+        }
+        int year = digits(time, 0, 4);
+        int month = digits(time, 5, 7);
+        int day = digits(time, 8, 10);
+        int hour = digits(time, 11, 13);
+        int minute = digits(time, 14, 16);
+        int second = digits(time, 17, 19);
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 60) {
+            throw new NumberFormatException("Bad time: " + time);
+        }
+
+        int millis = 0;
+        int end = time.length();
+        if (time.charAt(end - 1) == 'Z') {
+            end--;
+        }
+        if (end > 19) {
+            if (time.charAt(19) != '.' || end == 20) {
+                throw new NumberFormatException("Bad time: " + time);
+            }
+            // 只保留到毫秒
+            int fractionEnd = Math.min(end, 23);
+            millis = digits(time, 20, fractionEnd);
+            for (int i = fractionEnd; i < 23; i++) {
+                millis *= 10;
+            }
+            digits(time, fractionEnd, end);
+        }
+
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    /**
+     * [start, end)之间的十进制数字
+     */
+    private static int digits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Bad time: " + text);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * 公历日期距1970-01-01的天数
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        // 把一年的起点移到3月1日，闰日落在年末
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,548 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 拉取式（pull）JSON流读取器。
+ * 边读输入流边解析，不构建整棵JSON树；跳过的字段只移动读取位置，不分配对象。
+ * 纯Java实现，不依赖android.util.JsonReader，便于在JVM上测试。
+ */
+final class JsonStreamReader implements Closeable {
+
+    /** 读取到的下一个记号类型 */
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY,
+        NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    /** 嵌套作用域状态 */
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    /** 输入字符流 */
+    private final Reader mIn;
+
+    /** 读取缓冲区 */
+    private final char[] mBuffer = new char[8192];
+    private int mPos;
+    private int mLimit;
+
+    /** 字符串、字段名、数字的复用暂存区 */
+    private char[] mScratch = new char[64];
+    private int mScratchLength;
+
+    /** 作用域栈 */
+    private int[] mStack = new int[32];
+    private int mStackSize = 1;
+
+    /** 已预读但未消费的记号 */
+    private Token mPeeked;
+
+    /** 已读到输入流的末尾 */
+    private boolean mEnd;
+
+    JsonStreamReader(Reader in) {
+        mIn = in;
+        mStack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * 查看下一个记号但不消费
+     */
+    Token peek() throws IOException {
+        if (mPeeked != null) {
+            return mPeeked;
+        }
+        int c;
+        switch (mStack[mStackSize - 1]) {
+            case EMPTY_ARRAY:
+                mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return mPeeked = Token.END_ARRAY;
+                }
+                if (c == -1) {
+                    // 不能退回读取位置，否则会再次读到上一个字符
+                    throw syntaxError("Unexpected end of document");
+                }
+                mPos--;
+                return mPeeked = readValueToken();
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return mPeeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                return mPeeked = readValueToken();
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return mPeeked = Token.END_OBJECT;
+                }
+                if (mStack[mStackSize - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected name");
+                }
+                mStack[mStackSize - 1] = DANGLING_NAME;
+                return mPeeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+                return mPeeked = readValueToken();
+            case EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+                return mPeeked = readValueToken();
+            default:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("Expected end of document");
+                }
+                return mPeeked = Token.END_DOCUMENT;
+        }
+    }
+
+    /**
+     * 当前数组或对象中是否还有元素
+     */
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY
+                && token != Token.END_DOCUMENT;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        mStackSize--;
+    }
+
+    /**
+     * 读到输入的末尾，顶层的值之后只能有空白
+     */
+    void endDocument() throws IOException {
+        expect(Token.END_DOCUMENT);
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        mStackSize--;
+    }
+
+    /**
+     * 读取字段名，返回其在names中的下标；不在其中返回-1。
+     * 比较在暂存区内完成，不为字段名创建String。
+     */
+    int nextName(String[] names) throws IOException {
+        expect(Token.NAME);
+        readQuoted();
+        for (int i = 0; i < names.length; i++) {
+            if (scratchEquals(names[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 读取字段名
+     */
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        readQuoted();
+        return new String(mScratch, 0, mScratchLength);
+    }
+
+    /**
+     * 读取字符串值，数字也按原文返回
+     */
+    String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            mPeeked = null;
+            readQuoted();
+        } else if (token == Token.NUMBER) {
+            mPeeked = null;
+            readNumber();
+        } else {
+            throw syntaxError("Expected a string but was " + token);
+        }
+        return new String(mScratch, 0, mScratchLength);
+    }
+
+    /**
+     * 读取浮点数值
+     */
+    double nextDouble() throws IOException {
+        Token token = peek();
+        if (token == Token.NUMBER) {
+            mPeeked = null;
+            readNumber();
+        } else if (token == Token.STRING) {
+            mPeeked = null;
+            readQuoted();
+        } else {
+            throw syntaxError("Expected a double but was " + token);
+        }
+        return parseScratchAsDouble();
+    }
+
+    /**
+     * 读取整数值；纯数字时直接累加，不分配对象
+     */
+    long nextLong() throws IOException {
+        if (peek() != Token.NUMBER) {
+            throw syntaxError("Expected a long but was " + mPeeked);
+        }
+        mPeeked = null;
+        readNumber();
+        long value = 0;
+        boolean negative = false;
+        int i = 0;
+        if (mScratchLength > 0 && mScratch[0] == '-') {
+            negative = true;
+            i = 1;
+        }
+        if (i == mScratchLength || mScratchLength > 18) {
+            return (long) parseScratchAsDouble();
+        }
+        for (; i < mScratchLength; i++) {
+            char c = mScratch[i];
+            if (c < '0' || c > '9') {
+                return (long) parseScratchAsDouble();
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        int c = mBuffer[mPos - 1];
+        skipLiteral(c == 't' ? "rue" : "alse");
+        return c == 't';
+    }
+
+    void nextNull() throws IOException {
+        expect(Token.NULL);
+        skipLiteral("ull");
+    }
+
+    /**
+     * 跳过下一个值（包括嵌套的对象和数组），不分配任何对象
+     */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            mPeeked = null;
+            switch (token) {
+                case BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    mStackSize--;
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipQuoted();
+                    break;
+                case NUMBER:
+                    skipNumber();
+                    break;
+                case BOOLEAN:
+                    skipLiteral(mBuffer[mPos - 1] == 't' ? "rue" : "alse");
+                    break;
+                case NULL:
+                    skipLiteral("ull");
+                    break;
+                default:
+                    throw syntaxError("Unexpected end of document");
+            }
+        } while (depth != 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    private Token readValueToken() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            case -1:
+                throw syntaxError("Unexpected end of document");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    mPos--;
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        mPeeked = null;
+    }
+
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            int[] newStack = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, newStack, 0, mStackSize);
+            mStack = newStack;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    /**
+     * 读取一个字符，读到流末尾返回-1
+     */
+    private int nextChar() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPos++];
+    }
+
+    private boolean fill() throws IOException {
+        int count = mIn.read(mBuffer, 0, mBuffer.length);
+        if (count <= 0) {
+            mEnd = true;
+            return false;
+        }
+        mPos = 0;
+        mLimit = count;
+        return true;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = nextChar();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    /**
+     * 把引号内的内容（开引号已消费）解码到暂存区
+     */
+    private void readQuoted() throws IOException {
+        mScratchLength = 0;
+        while (true) {
+            int c = nextChar();
+            if (c == '"') {
+                return;
+            }
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            }
+            if (c == '\\') {
+                c = readEscape();
+            }
+            appendScratch((char) c);
+        }
+    }
+
+    private void skipQuoted() throws IOException {
+        while (true) {
+            int c = nextChar();
+            if (c == '"') {
+                return;
+            }
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            }
+            if (c == '\\') {
+                readEscape();
+            }
+        }
+    }
+
+    private int readEscape() throws IOException {
+        int c = nextChar();
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(nextChar(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return value;
+            case -1:
+                throw syntaxError("Unterminated escape");
+            default:
+                // \" \\ \/ 原样保留
+                return c;
+        }
+    }
+
+    /**
+     * 把数字原文读到暂存区
+     */
+    private void readNumber() throws IOException {
+        mScratchLength = 0;
+        int c;
+        while ((c = nextChar()) != -1) {
+            if (isDelimiter(c)) {
+                mPos--;
+                return;
+            }
+            appendScratch((char) c);
+        }
+    }
+
+    /**
+     * 跳过数字，只检查字符是否都可以出现在数字中且至少有一位数字，不检查完整的语法
+     */
+    private void skipNumber() throws IOException {
+        boolean hasDigit = false;
+        int c;
+        while ((c = nextChar()) != -1 && !isDelimiter(c)) {
+            if (c >= '0' && c <= '9') {
+                hasDigit = true;
+            } else if (c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E') {
+                throw syntaxError("Malformed number");
+            }
+        }
+        if (c != -1) {
+            mPos--;
+        }
+        if (!hasDigit) {
+            throw syntaxError("Malformed number");
+        }
+    }
+
+    private void skipLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (nextChar() != rest.charAt(i)) {
+                throw syntaxError("Malformed literal");
+            }
+        }
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c == ',' || c == '}' || c == ']' || c == ':'
+                || c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private void appendScratch(char c) {
+        if (mScratchLength == mScratch.length) {
+            char[] newScratch = new char[mScratchLength * 2];
+            System.arraycopy(mScratch, 0, newScratch, 0, mScratchLength);
+            mScratch = newScratch;
+        }
+        mScratch[mScratchLength++] = c;
+    }
+
+    private boolean scratchEquals(String s) {
+        if (s.length() != mScratchLength) {
+            return false;
+        }
+        for (int i = 0; i < mScratchLength; i++) {
+            if (mScratch[i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double parseScratchAsDouble() throws IOException {
+        try {
+            return Double.parseDouble(new String(mScratch, 0, mScratchLength));
+        } catch (NumberFormatException e) {
+            throw syntaxError("Malformed number");
+        }
+    }
+
+    /**
+     * 已读到流末尾时是文档在中途结束（EOFException），正文可能被截断；否则是格式错误
+     */
+    private IOException syntaxError(String message) {
+        return mEnd ? new EOFException(message) : new MalformedJsonException(message);
+    }
+
+    /**
+     * 文档本身的格式错误，重新读取同样的内容也会出错
+     */
+    static final class MalformedJsonException extends IOException {
+
+        MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+/**
+ * 地震等级区间，与列表中等级圆圈的颜色一一对应。
+ * 区间0对应R.color.magnitude1，区间9对应R.color.magnitude10plus。
+ */
+final class MagnitudeBand {
+
+    /** 区间数量 */
+    static final int COUNT = 10;
+
+    private MagnitudeBand() {
+    }
+
+    /**
+     * 地震等级所在的区间
+     * @param magnitude 地震等级
+     * @return 0到COUNT-1
+     */
+    static int of(double magnitude) {
+        int magnitudeFloor = (int) Math.floor(magnitude);
+        switch (magnitudeFloor) {
+            case 0:
+            case 1:
+                return 0;
+            case 2:
+            case 3:
+            case 4:
+            case 5:
+            case 6:
+            case 7:
+            case 8:
+            case 9:
+                return magnitudeFloor - 1;
+            default:
+                return COUNT - 1;
+        }
+    }
+}
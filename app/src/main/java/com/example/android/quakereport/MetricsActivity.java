@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.quakereport;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import java.util.Locale;
+
+/**
+ * 调试用的指标页面，显示各阶段耗时的p50/p95/p99和各项计数。只在debug版本的菜单中出现
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    private TextView mMetricsText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.metrics_activity);
+        mMetricsText = (TextView) findViewById(R.id.metrics_text);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.metrics, menu);
+        menu.findItem(R.id.action_reset_metrics)
+                .setVisible(EarthquakeMetrics.get() instanceof EarthquakeHistogramMetrics);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_reset_metrics) {
+            ((EarthquakeHistogramMetrics) EarthquakeMetrics.get()).reset();
+            showMetrics();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showMetrics() {
+        EarthquakeMetrics metrics = EarthquakeMetrics.get();
+        if (metrics instanceof EarthquakeHistogramMetrics) {
+            mMetricsText.setText(format((EarthquakeHistogramMetrics) metrics));
+        } else {
+            // 换成了其他实现，数据不在进程内
+            mMetricsText.setText(R.string.metrics_unavailable);
+        }
+    }
+
+    /**
+     * 把耗时（毫秒）和计数排成等宽文本表格
+     */
+    static String format(EarthquakeHistogramMetrics metrics) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.US, "%-11s %7s %8s %8s %8s %8s%n",
+                "span", "count", "p50", "p95", "p99", "max"));
+        for (String span : metrics.getSpanNames()) {
+            EarthquakeHistogramMetrics.Histogram histogram = metrics.getHistogram(span);
+            text.append(String.format(Locale.US, "%-11s %7d %8.2f %8.2f %8.2f %8.2f%n",
+                    span, histogram.getCount(),
+                    histogram.getPercentile(50) / 1e6,
+                    histogram.getPercentile(95) / 1e6,
+                    histogram.getPercentile(99) / 1e6,
+                    histogram.getMax() / 1e6));
+        }
+        text.append(String.format(Locale.US, "%n%-20s %12s%n", "counter", "value"));
+        for (String counter : metrics.getCounterNames()) {
+            text.append(String.format(Locale.US, "%-20s %12d%n", counter, metrics.getCounter(counter)));
+        }
+        return text.toString();
+    }
+}
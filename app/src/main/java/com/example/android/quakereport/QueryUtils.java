@@ -15,23 +15,22 @@
  */
 package com.example.android.quakereport;
 
-import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 访问网络工具类
@@ -46,25 +45,215 @@ public final class QueryUtils {
     }
 
     /**
-     *工具类的外部调用方法方法
+     * 请求在正文中途失败、重试后仍不完整，又没有上次的完整结果时，挽救出的部分数据。
+     * 不写入任何缓存；Loader不把它当作查询的全部数据，后台同步把它当作请求失败
+     */
+    static final class PartialResult extends ArrayList<Earthquake> {
+
+        PartialResult(int capacity) {
+            super(capacity);
+        }
+
+        PartialResult(List<Earthquake> earthquakes) {
+            super(earthquakes);
+        }
+    }
+
+    /**
+     * 是否是挽救出的部分数据
+     */
+    static boolean isPartial(List<Earthquake> earthquakes) {
+        return earthquakes instanceof PartialResult;
+    }
+
+    /**
+     * 一次请求的结果
+     */
+    private static final class Attempt {
+
+        /** 完整的结果，304时为原来的缓存；失败时为null */
+        EarthquakeDiskCache.Entry response;
+
+        /** 正文在中途出错时已解析出的数据 */
+        List<Earthquake> partial;
+
+        /** 失败可能是暂时的，可以重试 */
+        boolean retryable;
+
+        /** 服务器要求的等待时间（Retry-After），没有时为-1 */
+        long retryAfterMillis = -1;
+    }
+
+    /**
+     *工具类的外部调用方法方法。
+     * 先查磁盘缓存：有效期内直接返回；过期则带ETag/Last-Modified条件请求，
+     * 304时直接使用缓存。连接失败、服务器暂时错误或正文传输中断时，按EarthquakeRetryPolicy退避重试；
+     * 正文格式错误和无法解析主机名（没有网络连接）不重试。
+     * 最终失败时退回使用过期的缓存，没有缓存时返回挽救出的部分数据（PartialResult）。
+     * @param diskCache 磁盘缓存，为null时不使用缓存
+     */
+    public static List<Earthquake> fetchEarthquakeData(String requestUrl, EarthquakeDiskCache diskCache) {
+        return fetchEarthquakeData(requestUrl, diskCache, null);
+    }
+
+    /**
+     * 同上，请求可以被调度器取消：取消时关闭连接，解析在中途停止，返回null，不写入缓存。
+     * 查询网址的sources参数列出附加数据源时，同时请求各数据源并合并同一事件（EarthquakeFederation）
+     * @param call 调度器中的请求，为null时不能取消
+     */
+    static List<Earthquake> fetchEarthquakeData(String requestUrl, EarthquakeDiskCache diskCache,
+                                                EarthquakeFetchScheduler.Call call) {
+        List<EarthquakeFeedSource> sources = EarthquakeFeedSource.forQuery(requestUrl);
+        if (sources.size() == 1) {
+            return fetchFromSource(sources.get(0), requestUrl, diskCache, call);
+        }
+        return EarthquakeFederation.fetch(sources, requestUrl, diskCache, call);
+    }
+
+    /**
+     * 从一个数据源请求查询的数据，缓存、重试和失败时的处理见fetchEarthquakeData
+     * @param query USGS格式的查询网址，由数据源转换为它的请求网址，磁盘缓存按转换后的网址保存
      */
-    public static List<Earthquake> fetchEarthquakeData(String requestUrl) {
+    static List<Earthquake> fetchFromSource(EarthquakeFeedSource source, String query,
+                                            EarthquakeDiskCache diskCache, EarthquakeFetchScheduler.Call call) {
+        String requestUrl = source.buildUrl(query);
+        EarthquakeDiskCache.Entry cached = null;
+        if (diskCache != null) {
+            cached = diskCache.get(requestUrl);
+            if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+                EarthquakeMetrics.get().increment(EarthquakeMetrics.COUNTER_DISK_CACHE_HITS, 1);
+                return cached.earthquakes;
+            }
+        }
+
         // 创建URL对象
         URL url = createUrl(requestUrl);
 
-        // 访问网站获得数据，读取，解析，获得字符串
-        String jsonResponse = null;
-        try {
-            jsonResponse = makeHttpRequest(url);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem making the HTTP request.", e);
+        // 访问网站，边读取边解析，获得地震集合；失败时退避重试
+        EarthquakeRetryPolicy retryPolicy = EarthquakeRetryPolicy.getInstance();
+        retryPolicy.onRequest();
+        Attempt attempt;
+        List<Earthquake> salvaged = null;
+        for (int attempts = 1; ; attempts++) {
+            attempt = makeHttpRequest(source, url, cached, call);
+            if (call != null && call.isCancelled()) {
+                // 已取消，读到的可能只是部分数据
+                return null;
+            }
+            if (attempt.response != null) {
+                break;
+            }
+            if (attempt.partial != null && (salvaged == null || attempt.partial.size() > salvaged.size())) {
+                salvaged = attempt.partial;
+            }
+            long delay = attempt.retryable ? retryPolicy.nextDelayMillis(attempts, attempt.retryAfterMillis) : -1;
+            if (delay < 0) {
+                break;
+            }
+            Log.w(LOG_TAG, "Retrying " + requestUrl + " in " + delay + " ms");
+            if (!backOff(delay, call)) {
+                return null;
+            }
         }
 
-        // 从响应的字符串中获取需要的信息
-        List<Earthquake> earthquakes = extractFeatureFromJson(jsonResponse);
+        EarthquakeDiskCache.Entry response = attempt.response;
+        if (response == null) {
+            // 请求失败，有缓存则使用上次完整的结果，否则使用挽救出的部分数据
+            EarthquakeMetrics metrics = EarthquakeMetrics.get();
+            if (cached != null) {
+                metrics.increment(EarthquakeMetrics.COUNTER_STALE_FALLBACKS, 1);
+                return cached.earthquakes;
+            }
+            if (salvaged != null) {
+                metrics.increment(EarthquakeMetrics.COUNTER_PARTIAL_RESULTS, 1);
+                return new PartialResult(salvaged);
+            }
+            return null;
+        }
+        if (diskCache != null) {
+            if (response == cached) {
+                diskCache.markValidated(requestUrl, System.currentTimeMillis());
+            } else {
+                diskCache.put(requestUrl, response);
+            }
+        }
 
         // 返回需要的地震集合
-        return earthquakes;
+        return response.earthquakes;
+    }
+
+    /**
+     * 条件请求：cached不为null时带上它的ETag/Last-Modified。
+     * 数据没有变化（304）时原样返回cached，请求失败或正文不完整时返回null，不重试
+     */
+    static EarthquakeDiskCache.Entry fetchIfModified(String requestUrl, EarthquakeDiskCache.Entry cached) {
+        return makeHttpRequest(EarthquakeFeedSource.primary(), createUrl(requestUrl), cached, null).response;
+    }
+
+    /**
+     * 重试前等待
+     * @return 等待期间请求被取消或线程被中断时返回false
+     */
+    private static boolean backOff(long delayMillis, EarthquakeFetchScheduler.Call call) {
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        if (call != null) {
+            // 等待期间没有连接可以关闭，取消时直接结束等待
+            call.setAbortAction(new Runnable() {
+                @Override
+                public void run() {
+                    cancelled.countDown();
+                }
+            });
+        }
+        try {
+            return !cancelled.await(delayMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Retry-After中的秒数，没有或是日期格式时返回-1
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            long seconds = Long.parseLong(retryAfter.trim());
+            return seconds < 0 ? -1 : seconds * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 按USGS的orderby排序：按时间从新到旧，或按等级从大到小，等级相同时从新到旧
+     */
+    static void sortLikeServer(List<Earthquake> earthquakes, final boolean orderByTime) {
+        Collections.sort(earthquakes, new Comparator<Earthquake>() {
+            @Override
+            public int compare(Earthquake a, Earthquake b) {
+                if (!orderByTime) {
+                    int byMagnitude = Double.compare(b.getMagnitude(), a.getMagnitude());
+                    if (byMagnitude != 0) {
+                        return byMagnitude;
+                    }
+                }
+                long diff = b.getTimeInMilliseconds() - a.getTimeInMilliseconds();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+    }
+
+    /**
+     * 把时间格式化为查询参数（starttime、endtime、updatedafter）使用的UTC时间
+     */
+    static String formatQueryTime(long timeInMilliseconds) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(timeInMilliseconds);
     }
 
     /**
@@ -81,108 +270,105 @@ public final class QueryUtils {
     }
 
     /**
-     * 连接网站，获取数据返回
+     * 连接网站，直接从输入流解析数据，返回这一次请求的结果，不重试。
+     * 有缓存时发送条件请求，服务器返回304则原样返回cached，不解析任何数据。
+     * 只有正文读到末尾且解析无误时才返回数据，不完整的正文不会被写入缓存。
+     * 通过共享的EarthquakeHttpClient请求，连接可以复用，响应以gzip传输并边解压边解析。
+     * @param call 不为null时，取消请求会断开连接，正在进行的读取抛出IOException
      */
-    private static String makeHttpRequest(URL url) throws IOException {
+    private static Attempt makeHttpRequest(EarthquakeFeedSource source, URL url, EarthquakeDiskCache.Entry cached,
+                                           EarthquakeFetchScheduler.Call call) {
 
-        String jsonResponse = "";
+        Attempt attempt = new Attempt();
         // URL判断，提前返回
         if (url == null) {
-            return jsonResponse;
+            return attempt;
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        EarthquakeHttpClient.Response httpResponse = null;
         try {
-            //网络连接设置
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */); // 10秒 连接主机的超时时间（单位：毫秒）
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);// 15秒 从主机读取数据的超时时间（单位：毫秒）
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // 返回码200，表示网络响应正常，获取输入流，并解析为字符串
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            // 有缓存时发送条件请求
+            httpResponse = EarthquakeHttpClient.getInstance().get(url,
+                    cached != null ? cached.etag : null,
+                    cached != null ? cached.lastModified : null);
+            if (call != null) {
+                final EarthquakeHttpClient.Response abortable = httpResponse;
+                call.setAbortAction(new Runnable() {
+                    @Override
+                    public void run() {
+                        abortable.abort();
+                    }
+                });
+            }
+
+            int responseCode = httpResponse.code;
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                // 返回码304，数据没有变化，使用缓存
+                EarthquakeMetrics.get().increment(EarthquakeMetrics.COUNTER_NOT_MODIFIED, 1);
+                attempt.response = cached;
+            } else if (responseCode == 200) {
+                // 返回码200，表示网络响应正常，获取输入流，边读边解析
+                List<Earthquake> earthquakes = new ArrayList<>();
+                try {
+                    extractFeatureFromStream(source, httpResponse, earthquakes);
+                } catch (IOException e) {
+                    // 保留已经解析出的数据。传输中断或正文不完整时整个请求可以重试；
+                    // 格式错误时服务器再次返回的也是同样的正文，不再重试
+                    Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
+                    attempt.partial = earthquakes.isEmpty() ? null : earthquakes;
+                    attempt.retryable = !(e instanceof JsonStreamReader.MalformedJsonException);
+                    return attempt;
+                }
+                attempt.response = new EarthquakeDiskCache.Entry(
+                        earthquakes,
+                        httpResponse.getHeader("ETag"),
+                        httpResponse.getHeader("Last-Modified"),
+                        System.currentTimeMillis());
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
+                attempt.retryable = EarthquakeRetryPolicy.isRetryable(responseCode);
+                attempt.retryAfterMillis = parseRetryAfter(httpResponse.getHeader("Retry-After"));
             }
+        } catch (UnknownHostException e) {
+            // 无法解析主机名，通常是没有网络连接，等待重试也不会成功，直接退回使用过期的缓存
+            Log.e(LOG_TAG, "Problem resolving the earthquake server.", e);
         } catch (IOException e) {
+            // 连接失败或超时
             Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
+            attempt.retryable = true;
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (inputStream != null) {
-                //最后关闭输入流
-                inputStream.close();
+            if (httpResponse != null) {
+                //最后关闭响应，连接回到连接池
+                httpResponse.close();
             }
         }
 
-        return jsonResponse;
+        return attempt;
     }
 
     /**
-     * 读取网络输入流数据，转为字符串返回
+     * 按数据源的格式流式解析，从中获取想要的数据信息。
+     * 不再把整个响应读成字符串再构建JSONObject树，峰值内存与响应大小无关。
+     * 读取和解析交替进行，解析的耗时是总耗时减去等待网络读取的时间
+     * @throws IOException 连接中断、正文不完整或格式错误，已解析的数据保留在earthquakes中
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            //读取输入流，还原为字符
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            //全部读取为字符，封装为BufferedReader
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            //取出，装在StringBuilder
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
-            }
-        }
-
-        //转为字符串返回
-        return output.toString();
-    }
-
-    /**
-     * JSON数据解析，从中获取想要的数据信息
-     */
-    private static List<Earthquake> extractFeatureFromJson(String earthquakeJSON) {
-        // 判断是否为空和Null
-        if (TextUtils.isEmpty(earthquakeJSON)) {
-            return null;
-        }
-
-        List<Earthquake> earthquakes = new ArrayList<>();
-
-        // 解析JSON数据，一级级访问获取
+    private static void extractFeatureFromStream(EarthquakeFeedSource source,
+                                                 EarthquakeHttpClient.Response httpResponse,
+                                                 List<Earthquake> earthquakes) throws IOException {
+        EarthquakeMetrics metrics = EarthquakeMetrics.get();
+        long start = System.nanoTime();
         try {
-            // 创建基类JSONObject
-            JSONObject baseJsonResponse = new JSONObject(earthquakeJSON);
-            // 获得次级JSONObject组
-            JSONArray earthquakeArray = baseJsonResponse.getJSONArray("features");
-            // 遍历，获取具体数据
-            for (int i = 0; i < earthquakeArray.length(); i++) {
-                //单个地震数据JSONObject
-                JSONObject currentEarthquake = earthquakeArray.getJSONObject(i);
-                //获取单个地震数据 JSONObject 下的properties JSONObject
-                JSONObject properties = currentEarthquake.getJSONObject("properties");
-                //获取具体的数据
-                double magnitude = properties.getDouble("mag");
-                String location = properties.getString("place");
-                long time = properties.getLong("time");
-                String url = properties.getString("url");
-                //封装为Earthquake
-                Earthquake earthquake = new Earthquake(magnitude, location, time, url);
-                // 加进地震list集合
-                earthquakes.add(earthquake);
-            }
-        } catch (JSONException e) {
-            Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
+            int dropped = source.parse(httpResponse.body(), earthquakes);
+            // 解析正常结束不代表收到了完整的正文，确认读到末尾后才能写入缓存
+            httpResponse.checkBodyComplete();
+            metrics.increment(EarthquakeMetrics.COUNTER_FEATURES_DROPPED, dropped);
+        } catch (IOException e) {
+            metrics.increment(EarthquakeMetrics.COUNTER_PARSE_ERRORS, 1);
+            throw e;
+        } finally {
+            metrics.recordDuration(EarthquakeMetrics.SPAN_PARSE,
+                    System.nanoTime() - start - httpResponse.getReadNanos());
+            metrics.increment(EarthquakeMetrics.COUNTER_FEATURES_PARSED, earthquakes.size());
         }
-
-        // 数据list集合earthquakes
-        return earthquakes;
     }
 }
@@ -61,6 +61,9 @@ public class SettingsActivity extends AppCompatActivity {
             //初始化EditTextPreference
             Preference orderBy = findPreference(getString(R.string.settings_order_by_key));
             bindPreferenceSummaryToValue(orderBy);
+            //初始化并行请求数的ListPreference
+            Preference concurrency = findPreference(getString(R.string.settings_concurrency_key));
+            bindPreferenceSummaryToValue(concurrency);
         }
         /**
          * 当用户更改了此Preference的值,显示其摘要
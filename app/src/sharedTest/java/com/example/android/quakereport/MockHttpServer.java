@@ -0,0 +1,273 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 测试用的本地HTTP服务器。每个连接一个线程，由Handler根据请求生成响应。
+ * 统计请求数、连接数、发送的正文字节数和同时处理中的请求数的峰值。
+ */
+class MockHttpServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** 根据请求生成响应 */
+    interface Handler {
+        Response handle(Request request) throws Exception;
+    }
+
+    static final class Request {
+        final String method;
+        /** 路径和查询参数，如 /query?format=geojson */
+        final String target;
+        /** 请求头，键为小写 */
+        final Map<String, String> headers;
+
+        Request(String method, String target, Map<String, String> headers) {
+            this.method = method;
+            this.target = target;
+            this.headers = headers;
+        }
+
+        /** 查询参数的值，没有时返回null */
+        String parameter(String name) {
+            int query = target.indexOf('?');
+            if (query < 0) {
+                return null;
+            }
+            for (String pair : target.substring(query + 1).split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                    return pair.substring(equals + 1);
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class Response {
+        final int code;
+        final byte[] body;
+        final Map<String, String> headers = new HashMap<>();
+        /** 慢速发送时每次写出的字节数，0表示一次写完 */
+        int chunkBytes;
+        /** 慢速发送时每次写出后的等待时间 */
+        long chunkDelayMillis;
+        /** 只发送正文的前几个字节后断开连接，-1表示完整发送 */
+        int truncateAt = -1;
+
+        Response(int code, byte[] body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        Response(int code, String body) {
+            this(code, body.getBytes(UTF_8));
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /** 模拟慢速网络，正文分块发送 */
+        Response slow(int chunkBytes, long chunkDelayMillis) {
+            this.chunkBytes = chunkBytes;
+            this.chunkDelayMillis = chunkDelayMillis;
+            return this;
+        }
+
+        /** 模拟传输中断：响应头中的长度不变，只发送正文的前bytes个字节后断开连接 */
+        Response truncate(int bytes) {
+            this.truncateAt = bytes;
+            return this;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Handler mHandler;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicLong mBodyBytes = new AtomicLong();
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+
+    MockHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "MockHttpServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** 服务器地址，如 http://127.0.0.1:12345 */
+    String url() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    int requestCount() {
+        return mRequestCount.get();
+    }
+
+    int maxInFlight() {
+        return mMaxInFlight.get();
+    }
+
+    /** 接受的TCP连接数 */
+    int connectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /** 发送的响应正文字节数 */
+    long bodyBytes() {
+        return mBodyBytes.get();
+    }
+
+    /** 清零所有统计 */
+    void resetCounts() {
+        mRequestCount.set(0);
+        mConnectionCount.set(0);
+        mBodyBytes.set(0);
+        mMaxInFlight.set(0);
+    }
+
+    void shutdown() throws IOException {
+        mServerSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * 处理一个连接上的请求；客户端要求keep-alive时继续读取下一个请求
+     */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    break;
+                }
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+                String[] parts = requestLine.split(" ");
+                Request request = new Request(parts[0], parts[1], headers);
+
+                mRequestCount.incrementAndGet();
+                int inFlight = mInFlight.incrementAndGet();
+                int max;
+                while (inFlight > (max = mMaxInFlight.get())) {
+                    mMaxInFlight.compareAndSet(max, inFlight);
+                }
+                Response response;
+                try {
+                    response = mHandler.handle(request);
+                } catch (Exception e) {
+                    response = new Response(500, String.valueOf(e));
+                } finally {
+                    mInFlight.decrementAndGet();
+                }
+                if (response == null) {
+                    // 模拟连接中断
+                    break;
+                }
+                write(out, response);
+                mBodyBytes.addAndGet(response.truncateAt >= 0 ? response.truncateAt : response.body.length);
+                if (response.truncateAt >= 0 || "close".equalsIgnoreCase(headers.get("connection"))) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // 客户端关闭了连接
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    private static void write(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ").append(response.code).append(" X\r\n")
+                .append("Content-Length: ").append(response.body.length).append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(UTF_8));
+        int length = response.truncateAt >= 0 ? Math.min(response.truncateAt, response.body.length)
+                : response.body.length;
+        if (response.chunkBytes <= 0) {
+            out.write(response.body, 0, length);
+            out.flush();
+            return;
+        }
+        for (int offset = 0; offset < length; offset += response.chunkBytes) {
+            out.write(response.body, offset, Math.min(response.chunkBytes, length - offset));
+            out.flush();
+            try {
+                Thread.sleep(response.chunkDelayMillis);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return new String(line.toByteArray(), UTF_8);
+    }
+}
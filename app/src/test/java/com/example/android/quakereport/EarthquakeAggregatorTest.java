@@ -0,0 +1,112 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按时间段的增量汇总与逐条统计的结果比较。
+ */
+public class EarthquakeAggregatorTest {
+
+    private static final long HOUR = EarthquakeAggregator.HOUR_MILLIS;
+
+    /** 整点的基准时间 */
+    private static final long NOW = 1556002800000L;
+
+    @Test
+    public void hourlyBucketsMatchBruteForce() {
+        int hours = 48;
+        EarthquakeAggregator aggregator = new EarthquakeAggregator(HOUR, hours);
+        Random random = new Random(3);
+        int count = 20000;
+        long[] times = new long[count];
+        double[] magnitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            // 乱序加入，与按等级排序的分页一致
+            times[i] = NOW - (long) (random.nextDouble() * hours * HOUR);
+            magnitudes[i] = random.nextDouble() * 9;
+            assertTrue(aggregator.add(times[i], magnitudes[i]));
+        }
+
+        assertEquals(hours, aggregator.getBucketCount());
+        for (int index = 0; index < hours; index++) {
+            long start = aggregator.getBucketStart(index);
+            int expectedCount = 0;
+            double expectedMax = Double.NaN;
+            int[] expectedBands = new int[MagnitudeBand.COUNT];
+            for (int i = 0; i < count; i++) {
+                if (times[i] >= start && times[i] < start + HOUR) {
+                    expectedCount++;
+                    if (Double.isNaN(expectedMax) || magnitudes[i] > expectedMax) {
+                        expectedMax = magnitudes[i];
+                    }
+                    expectedBands[MagnitudeBand.of(magnitudes[i])]++;
+                }
+            }
+            assertEquals(expectedCount, aggregator.getCount(index));
+            assertEquals(expectedMax, aggregator.getMaxMagnitude(index), 0);
+            for (int band = 0; band < MagnitudeBand.COUNT; band++) {
+                assertEquals(expectedBands[band], aggregator.getBandCount(index, band));
+            }
+        }
+
+        // 最近一天的汇总等于各小时之和
+        EarthquakeAggregator.Summary lastDay = aggregator.summarize(NOW - 24 * HOUR, NOW);
+        int expected = 0;
+        for (int i = 0; i < count; i++) {
+            if (times[i] >= NOW - 24 * HOUR && times[i] < NOW) {
+                expected++;
+            }
+        }
+        assertEquals(expected, lastDay.count);
+        int bandTotal = 0;
+        for (int band = 0; band < MagnitudeBand.COUNT; band++) {
+            bandTotal += lastDay.bandCounts[band];
+        }
+        assertEquals(expected, bandTotal);
+    }
+
+    @Test
+    public void newerEventsEvictOldBuckets() {
+        EarthquakeAggregator aggregator = new EarthquakeAggregator(HOUR, 3);
+        aggregator.add(NOW, 5.0);
+        aggregator.add(NOW + HOUR, 6.0);
+
+        aggregator.add(NOW + 3 * HOUR, 4.0);
+
+        // 窗口是NOW+1h到NOW+3h，NOW的时间段已被移出
+        assertEquals(NOW + HOUR, aggregator.getBucketStart(0));
+        assertEquals(1, aggregator.getCount(0));
+        assertEquals(0, aggregator.getCount(1));
+        assertTrue(Double.isNaN(aggregator.getMaxMagnitude(1)));
+        assertEquals(1, aggregator.getCount(2));
+        assertEquals(6.0, aggregator.summarize(NOW, NOW + 4 * HOUR).maxMagnitude, 0);
+        assertEquals(2, aggregator.summarize(NOW, NOW + 4 * HOUR).count);
+        assertFalse(aggregator.add(NOW + 30 * 60 * 1000, 7.0));
+
+        // 跨过整个窗口时全部清空
+        aggregator.add(NOW + 100 * HOUR, 2.0);
+        assertEquals(1, aggregator.summarize(0, Long.MAX_VALUE).count);
+    }
+
+    @Test
+    public void dailyBucketsUseTheListColourBands() {
+        EarthquakeAggregator aggregator = new EarthquakeAggregator(EarthquakeAggregator.DAY_MILLIS, 7);
+        aggregator.add(NOW, 1.5);
+        aggregator.add(NOW, 4.2);
+        aggregator.add(NOW, 4.9);
+        aggregator.add(NOW, 10.3);
+
+        EarthquakeAggregator.Summary summary = aggregator.summarize(NOW, NOW + 1);
+        assertEquals(4, summary.count);
+        assertEquals(10.3, summary.maxMagnitude, 0);
+        assertEquals(1, summary.bandCounts[MagnitudeBand.of(1.5)]);
+        assertEquals(2, summary.bandCounts[MagnitudeBand.of(4.5)]);
+        assertEquals(1, summary.bandCounts[MagnitudeBand.COUNT - 1]);
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 提醒规则的检查：等级、区域和时间窗口的条件，重复事件，保存和恢复，以及一整天数据的重放。
+ */
+public class EarthquakeAlertEngineTest {
+
+    private static final long NOW = 1556000000000L;
+
+    private static final long HOUR = 60L * 60 * 1000;
+
+    private static final long DAY = 24 * HOUR;
+
+    private EarthquakeAlertEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mEngine = new EarthquakeAlertEngine();
+    }
+
+    @Test
+    public void globalRuleFiresForEachQuakeAboveItsMagnitude() {
+        EarthquakeAlertRule rule = mEngine.addRule(global(5.0, 1, DAY));
+
+        List<EarthquakeAlertEngine.Alert> alerts = mEngine.evaluate(Arrays.asList(
+                quake("a", 5.0, NOW - HOUR, 10, 10),
+                quake("b", 4.9, NOW - HOUR, 10, 10),
+                quake("c", 6.1, NOW - 2 * HOUR, -30, 170)), NOW);
+
+        assertEquals(1, alerts.size());
+        assertEquals(rule.id, alerts.get(0).rule.id);
+        assertEquals(2, alerts.get(0).count);
+        // 最近一次触发的地震
+        assertTrue(alerts.get(0).earthquake.getUrl().endsWith("/a"));
+    }
+
+    @Test
+    public void regionalRuleMatchesOnlyInsideItsRadius() {
+        EarthquakeAlertRule tokyo = mEngine.addRule(regional(4.0, 35.7, 139.7, 100, 1, DAY));
+        mEngine.addRule(regional(4.0, -41.3, 174.8, 100, 1, DAY));
+
+        List<EarthquakeAlertEngine.Alert> alerts = mEngine.evaluate(Arrays.asList(
+                // 约55千米
+                quake("near", 5, NOW, 35.2, 139.7),
+                // 约170千米
+                quake("far", 5, NOW, 34.2, 139.7),
+                // 没有震中位置
+                new Earthquake(5, "unknown", NOW, "https://example.com/none")), NOW);
+
+        assertEquals(1, alerts.size());
+        assertEquals(tokyo.id, alerts.get(0).rule.id);
+        assertEquals(1, alerts.get(0).count);
+    }
+
+    @Test
+    public void regionsAcrossTheAntimeridianAndPolesAreIndexed() {
+        EarthquakeAlertRule fiji = mEngine.addRule(regional(4.0, -17.0, 179.5, 200, 1, DAY));
+        EarthquakeAlertRule arctic = mEngine.addRule(regional(4.0, 88.0, 0, 500, 1, DAY));
+
+        List<EarthquakeAlertEngine.Alert> alerts = mEngine.evaluate(Arrays.asList(
+                quake("a", 5, NOW, -17.0, -179.5),
+                // 经度相差180°，经过极点只有约440千米
+                quake("b", 5, NOW, 88.0, 180.0)), NOW);
+
+        assertEquals(2, alerts.size());
+        assertEquals(fiji.id, alerts.get(0).rule.id);
+        assertEquals(arctic.id, alerts.get(1).rule.id);
+    }
+
+    @Test
+    public void countRuleFiresOnceWindowHoldsEnoughQuakes() {
+        mEngine.addRule(regional(3.0, 35.0, -120.0, 50, 3, HOUR));
+
+        // 前一次匹配已在窗口之外
+        assertTrue(mEngine.evaluate(Arrays.asList(quake("a", 4, NOW - 2 * HOUR, 35, -120)), NOW - 2 * HOUR).isEmpty());
+        assertTrue(mEngine.evaluate(Arrays.asList(quake("b", 4, NOW - 30 * 60000, 35, -120)), NOW).isEmpty());
+        List<EarthquakeAlertEngine.Alert> alerts = mEngine.evaluate(Arrays.asList(
+                quake("c", 4, NOW - 20 * 60000, 35, -120),
+                quake("d", 4, NOW - 10 * 60000, 35, -120)), NOW);
+
+        assertEquals(1, alerts.size());
+        assertEquals(1, alerts.get(0).count);
+        // 触发后重新计数
+        assertTrue(mEngine.evaluate(Arrays.asList(quake("e", 4, NOW, 35, -120)), NOW).isEmpty());
+    }
+
+    @Test
+    public void quakesOlderThanTheWindowAreIgnored() {
+        mEngine.addRule(global(5.0, 1, HOUR));
+
+        assertTrue(mEngine.evaluate(Arrays.asList(quake("a", 6, NOW - 2 * HOUR, 0, 0)), NOW).isEmpty());
+    }
+
+    @Test
+    public void repeatedEventOnlyChecksRulesItNewlyReaches() {
+        EarthquakeAlertRule low = mEngine.addRule(global(4.0, 1, DAY));
+        EarthquakeAlertRule high = mEngine.addRule(global(5.0, 1, DAY));
+
+        assertEquals(1, mEngine.evaluate(Arrays.asList(quake("a", 4.5, NOW, 0, 0)), NOW).size());
+        // 同一事件再次收到
+        assertTrue(mEngine.evaluate(Arrays.asList(quake("a", 4.5, NOW, 0, 0)), NOW).isEmpty());
+        // 等级修订后只触发新达到的规则
+        List<EarthquakeAlertEngine.Alert> alerts = mEngine.evaluate(Arrays.asList(quake("a", 5.2, NOW, 0, 0)), NOW);
+
+        assertEquals(1, alerts.size());
+        assertEquals(high.id, alerts.get(0).rule.id);
+        assertFalse(low.id == high.id);
+    }
+
+    @Test
+    public void removedRuleNoLongerFires() {
+        EarthquakeAlertRule rule = mEngine.addRule(regional(4.0, 0, 0, 100, 1, DAY));
+
+        assertTrue(mEngine.removeRule(rule.id));
+        assertFalse(mEngine.removeRule(rule.id));
+        assertTrue(mEngine.evaluate(Arrays.asList(quake("a", 6, NOW, 0, 0)), NOW).isEmpty());
+        assertTrue(mEngine.getRules().isEmpty());
+    }
+
+    @Test
+    public void stateSurvivesWriteAndRead() throws Exception {
+        mEngine.addRule(global(4.0, 1, DAY));
+        mEngine.addRule(regional(3.0, 35.0, -120.0, 50, 2, HOUR));
+        mEngine.evaluate(Arrays.asList(quake("a", 4.5, NOW, 35, -120)), NOW);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mEngine.writeTo(new DataOutputStream(bytes));
+        EarthquakeAlertEngine restored = EarthquakeAlertEngine.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(2, restored.getRules().size());
+        assertEquals("rule", restored.getRules().get(1).name);
+        // a已检查过，不再提醒；区域规则已有一次匹配，b使它达到2次
+        List<EarthquakeAlertEngine.Alert> alerts = restored.evaluate(Arrays.asList(
+                quake("a", 4.5, NOW, 35, -120), quake("b", 3.5, NOW, 35, -120)), NOW);
+        assertEquals(1, alerts.size());
+        assertEquals(2, alerts.get(0).rule.id);
+        // 新规则的编号不与已有的重复
+        assertEquals(3, restored.addRule(global(7.0, 1, DAY)).id);
+    }
+
+    @Test
+    public void replaysADayOfTheGlobalFeedWithoutCheckingEveryRule() {
+        Random random = new Random(23);
+        List<EarthquakeAlertRule> rules = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            EarthquakeAlertRule rule = i % 100 == 0
+                    ? global(4 + random.nextDouble() * 3, 1, DAY)
+                    : regional(random.nextDouble() * 5, random.nextDouble() * 160 - 80,
+                    random.nextDouble() * 360 - 180, 50 + random.nextDouble() * 450, 1, DAY);
+            rules.add(mEngine.addRule(rule));
+        }
+        // 全部等级的全球feed一天约几百到上千条，取一个繁忙日的多倍
+        List<Earthquake> day = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            day.add(quake("e" + i, Math.abs(random.nextGaussian()) * 2, NOW - DAY + (long) (random.nextDouble() * DAY),
+                    random.nextDouble() * 160 - 80, random.nextDouble() * 360 - 180));
+        }
+        Collections.sort(day, new Comparator<Earthquake>() {
+            @Override
+            public int compare(Earthquake earthquake1, Earthquake earthquake2) {
+                return Long.compare(earthquake1.getTimeInMilliseconds(), earthquake2.getTimeInMilliseconds());
+            }
+        });
+
+        int fired = 0;
+        // 按到达的顺序逐条检查，与实时模式相同
+        for (int i = 0; i < day.size(); i++) {
+            Earthquake earthquake = day.get(i);
+            for (EarthquakeAlertEngine.Alert alert : mEngine.evaluate(Collections.singletonList(earthquake),
+                    earthquake.getTimeInMilliseconds())) {
+                fired += alert.count;
+            }
+        }
+
+        // 与逐条检查全部规则的结果一致
+        int expected = 0;
+        for (int i = 0; i < day.size(); i++) {
+            for (int j = 0; j < rules.size(); j++) {
+                if (rules.get(j).matches(day.get(i))) {
+                    expected++;
+                }
+            }
+        }
+        assertEquals(expected, fired);
+        assertTrue("checks " + mEngine.getCheckCount(), mEngine.getCheckCount() < day.size() * rules.size() / 50);
+    }
+
+    private static EarthquakeAlertRule global(double minMagnitude, int minCount, long windowMillis) {
+        return new EarthquakeAlertRule(0, "rule", minMagnitude, Double.NaN, Double.NaN, Double.NaN,
+                minCount, windowMillis);
+    }
+
+    private static EarthquakeAlertRule regional(double minMagnitude, double latitude, double longitude,
+                                                double radiusKm, int minCount, long windowMillis) {
+        return new EarthquakeAlertRule(0, "rule", minMagnitude, latitude, longitude, radiusKm,
+                minCount, windowMillis);
+    }
+
+    private static Earthquake quake(String id, double magnitude, long time, double latitude, double longitude) {
+        return new Earthquake(magnitude, "10km N of Town", time, "https://example.com/" + id, latitude, longitude, 10);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 地图标记的分层聚合：各层的数量和最大等级，可见范围的查询，以及5万个地震时每帧的查询量。
+ */
+public class EarthquakeClusterIndexTest {
+
+    @Test
+    public void everyLevelAccountsForEveryLocatedQuake() {
+        EarthquakeClusterIndex index = randomIndex(5000, 7);
+
+        for (int level = 0; level <= EarthquakeClusterIndex.MAX_LEVEL; level++) {
+            int total = 0;
+            for (int cluster = 0; cluster < index.getClusterCount(level); cluster++) {
+                total += index.getCount(level, cluster);
+            }
+            assertEquals("level " + level, 5000, total);
+        }
+        // 越细的层聚合点越多
+        for (int level = 1; level <= EarthquakeClusterIndex.MAX_LEVEL; level++) {
+            assertTrue(index.getClusterCount(level) >= index.getClusterCount(level - 1));
+        }
+    }
+
+    @Test
+    public void nearbyQuakesMergeAtCoarseLevelsAndSplitAtFineOnes() {
+        EarthquakeClusterIndex index = new EarthquakeClusterIndex(
+                new double[]{35.0, 35.05, -33.9, Double.NaN},
+                new double[]{139.0, 139.05, 151.2, 0},
+                new double[]{4.2, 6.8, 5.0, 7.5});
+
+        assertEquals(4, index.size());
+        // 第0层格子为45°，东京附近的两次地震合并
+        assertEquals(2, index.getClusterCount(0));
+        int tokyo = index.getCount(0, 0) == 2 ? 0 : 1;
+        assertEquals(6.8, index.getMaxMagnitude(0, tokyo), 1e-6);
+        assertEquals(1, index.getPosition(0, tokyo));
+        // 质心在两者之间
+        assertEquals(EarthquakeClusterIndex.x(139.025), index.getX(0, tokyo), 1e-6);
+        // 最细的一层各自分开，没有位置的不在索引中
+        assertEquals(3, index.getClusterCount(EarthquakeClusterIndex.MAX_LEVEL));
+    }
+
+    @Test
+    public void worldCoordinatesWrapLongitudeAndClampLatitude() {
+        assertEquals(0, EarthquakeClusterIndex.x(180), 0);
+        assertEquals(0, EarthquakeClusterIndex.x(-180), 0);
+        assertEquals(0.5, EarthquakeClusterIndex.x(0), 0);
+        assertEquals(0, EarthquakeClusterIndex.y(90), 0);
+        assertEquals(0.5, EarthquakeClusterIndex.y(-95), 0);
+    }
+
+    @Test
+    public void queryReturnsTheClustersInsideTheViewport() {
+        EarthquakeClusterIndex index = randomIndex(20000, 11);
+        int level = 4;
+        int[] out = new int[index.getClusterCount(level)];
+        double left = 0.30;
+        double top = 0.10;
+        double right = 0.42;
+        double bottom = 0.18;
+
+        int count = index.query(level, left, top, right, bottom, out);
+
+        // 与逐个检查质心所在格子的结果一致
+        int cells = EarthquakeClusterIndex.BASE_CELLS << level;
+        int expected = 0;
+        for (int cluster = 0; cluster < index.getClusterCount(level); cluster++) {
+            int column = (int) Math.floor(index.getX(level, cluster) * cells);
+            int row = (int) Math.floor(index.getY(level, cluster) * cells);
+            if (column >= Math.floor(left * cells) && column <= Math.floor(right * cells)
+                    && row >= Math.floor(top * cells) && row <= Math.floor(bottom * cells)) {
+                expected++;
+            }
+        }
+        assertEquals(expected, count);
+        for (int i = 0; i < count; i++) {
+            float x = index.getX(level, out[i]);
+            assertTrue(x >= Math.floor(left * cells) / cells && x < (Math.floor(right * cells) + 1) / cells);
+        }
+        // 超出世界范围的视图取边上的格子
+        assertEquals(index.getClusterCount(0), index.query(0, -1, -1, 2, 2, new int[index.getClusterCount(0)]));
+    }
+
+    @Test
+    public void levelKeepsClustersAboutTheRequestedSizeApart() {
+        int base = EarthquakeClusterIndex.BASE_CELLS;
+        // 世界宽度约一屏时显示第0层，格子与聚合间距相当
+        assertEquals(0, EarthquakeClusterIndex.levelFor(1080, 130));
+        assertEquals(0, EarthquakeClusterIndex.levelFor(500, 130));
+        assertEquals(3, EarthquakeClusterIndex.levelFor(base * 130 * 8, 130));
+        assertEquals(3, EarthquakeClusterIndex.levelFor(base * 130 * 15.9, 130));
+        assertEquals(EarthquakeClusterIndex.MAX_LEVEL, EarthquakeClusterIndex.levelFor(1e12, 130));
+    }
+
+    @Test
+    public void fiftyThousandQuakesDrawOnlyAScreenfulOfClustersPerFrame() {
+        EarthquakeClusterIndex index = randomIndex(50000, 23);
+        int[] out = new int[index.getClusterCount(EarthquakeClusterIndex.MAX_LEVEL)];
+
+        // 1080×1920像素的屏幕，聚合间距130像素，从整个世界逐步放大、平移
+        double clusterSize = 130;
+        int maxDrawn = 0;
+        for (double worldWidth = 1080; worldWidth < 1080 * 2048; worldWidth *= 1.05) {
+            int level = EarthquakeClusterIndex.levelFor(worldWidth, clusterSize);
+            for (double centerX = 0.1; centerX < 0.9; centerX += 0.1) {
+                double left = centerX - 540 / worldWidth;
+                double top = 0.25 - 960 / worldWidth;
+                int count = index.query(level, left, top, left + 1080 / worldWidth, top + 1920 / worldWidth, out);
+                maxDrawn = Math.max(maxDrawn, count);
+            }
+        }
+
+        // 格子不小于聚合间距，每帧画的聚合点不超过屏幕上能放下的格子数，与地震总数无关
+        assertTrue("drawn " + maxDrawn, maxDrawn <= (1080 / 130 + 2) * (1920 / 130 + 2));
+    }
+
+    /**
+     * 随机分布的地震，集中在几个地震带附近
+     */
+    private static EarthquakeClusterIndex randomIndex(int size, long seed) {
+        Random random = new Random(seed);
+        double[][] belts = {{35, 140}, {-20, -70}, {38, 22}, {61, -150}, {-6, 130}};
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        double[] magnitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            double[] belt = belts[random.nextInt(belts.length)];
+            latitudes[i] = Math.max(-90, Math.min(90, belt[0] + random.nextGaussian() * 8));
+            longitudes[i] = belt[1] + random.nextGaussian() * 12;
+            magnitudes[i] = Math.abs(random.nextGaussian()) * 2;
+        }
+        EarthquakeClusterIndex index = new EarthquakeClusterIndex(latitudes, longitudes, magnitudes);
+        assertEquals(size, index.size());
+        return index;
+    }
+}
@@ -0,0 +1,319 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 事件详细信息的解析、按需请求与预取的缓存，以及预取的行顺序。
+ */
+public class EarthquakeDetailTest {
+
+    private static final String EVENT_PAGE = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private static final String DETAIL = "{\"type\":\"Feature\",\"properties\":{"
+            + "\"mag\":6.4,\"place\":\"10km N of Town\",\"time\":1556000000000,\"felt\":1520,\"cdi\":7.1,"
+            + "\"mmi\":null,\"alert\":\"yellow\",\"status\":\"reviewed\",\"tsunami\":1,\"sig\":1012,"
+            + "\"nst\":null,\"dmin\":0.05,\"rms\":0.21,\"gap\":null,\"magType\":\"mww\","
+            + "\"title\":\"M 6.4 - 10km N of Town\",\"products\":{"
+            + "\"origin\":[{\"properties\":{\"num-phases-used\":\"123\",\"num-stations-used\":\"98\","
+            + "\"azimuthal-gap\":\"25\",\"minimum-distance\":\"0.06\",\"standard-error\":\"0.3\"},"
+            + "\"contents\":{\"quakeml.xml\":{\"url\":\"https://example.com/q.xml\",\"length\":100000}}},"
+            + "{\"properties\":{\"num-phases-used\":\"7\"}}],"
+            + "\"phase-data\":[{\"properties\":{\"num-phases-used\":\"999\",\"azimuthal-gap\":\"31\"}}],"
+            + "\"dyfi\":[{\"properties\":{\"num-responses\":\"1600\",\"maxmmi\":\"7.4\"}}],"
+            + "\"losspager\":[{\"properties\":{\"alertlevel\":\"yellow\"}}],"
+            + "\"shakemap\":[{\"properties\":{\"maxmmi\":\"7.8\",\"version\":\"3\"},"
+            + "\"contents\":{\"download/grid.xml\":{\"url\":\"https://example.com/grid.xml\"},"
+            + "\"download/intensity.jpg\":{\"contentType\":\"image/jpeg\","
+            + "\"url\":\"https://example.com/intensity.jpg\"}}}]"
+            + "}},\"geometry\":{\"type\":\"Point\",\"coordinates\":[140.1,35.2,10]},\"id\":\"us1000abcd\"}";
+
+    /** 在调用线程直接执行回调 */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /** 释放被阻塞的请求，测试失败时也不留下等待中的线程 */
+    private final CountDownLatch mGate = new CountDownLatch(1);
+
+    /** 按开始的顺序记录请求的事件 */
+    private final List<String> mFetched = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() {
+        mGate.countDown();
+    }
+
+    @Test
+    public void parsesSummaryAndFirstProductOfEachType() throws Exception {
+        EarthquakeDetail detail = EarthquakeDetailParser.parse(
+                new ByteArrayInputStream(DETAIL.getBytes(Charset.forName("UTF-8"))));
+
+        assertEquals("us1000abcd", detail.eventId);
+        assertEquals("M 6.4 - 10km N of Town", detail.title);
+        assertEquals("mww", detail.magnitudeType);
+        assertEquals("reviewed", detail.status);
+        assertEquals("yellow", detail.alert);
+        assertTrue(detail.tsunami);
+        assertEquals(1012, detail.significance, 0);
+        // 摘要字段优先，缺失时取origin产品，不取同类的第二个产品
+        assertEquals(123, detail.phaseCount, 0);
+        assertEquals(98, detail.stationCount, 0);
+        assertEquals(25, detail.azimuthalGap, 0);
+        assertEquals(0.05, detail.minimumDistance, 1e-9);
+        assertEquals(0.21, detail.standardError, 1e-9);
+        assertTrue(detail.hasFeltReports());
+        assertEquals(1520, detail.feltReports, 0);
+        assertEquals(7.1, detail.maxReportedIntensity, 1e-9);
+        assertTrue(detail.hasShakemap());
+        assertEquals(7.8, detail.shakemapMaxIntensity, 1e-9);
+        assertEquals("3", detail.shakemapVersion);
+        assertEquals("https://example.com/intensity.jpg", detail.shakemapImageUrl);
+    }
+
+    @Test
+    public void missingProductsLeaveFieldsEmpty() throws Exception {
+        EarthquakeDetail detail = EarthquakeDetailParser.parse(new ByteArrayInputStream(
+                "{\"id\":\"nc1\",\"properties\":{\"mag\":1.2,\"tsunami\":0,\"products\":{}}}"
+                        .getBytes(Charset.forName("UTF-8"))));
+
+        assertEquals("nc1", detail.eventId);
+        assertFalse(detail.tsunami);
+        assertTrue(Double.isNaN(detail.phaseCount));
+        assertFalse(detail.hasFeltReports());
+        assertFalse(detail.hasShakemap());
+        assertNull(detail.magnitudeType);
+    }
+
+    @Test
+    public void cachedDetailIsDeliveredWithoutFetchingAgain() throws Exception {
+        EarthquakeDetailCache cache = new EarthquakeDetailCache(recordingFetcher(false), DIRECT);
+
+        EarthquakeDetail first = await(cache, url("a"));
+        RecordingCallback second = new RecordingCallback();
+        cache.get(url("a"), second);
+
+        // 已缓存时在调用get的线程立即回调
+        assertSame(first, second.mDetail);
+        assertSame(first, cache.peek(url("a")));
+        assertEquals(Arrays.asList("a"), mFetched);
+    }
+
+    @Test
+    public void concurrentRequestsForOneEventShareAFetch() throws Exception {
+        EarthquakeDetailCache cache = new EarthquakeDetailCache(recordingFetcher(true), DIRECT);
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+
+        cache.get(url("a"), first);
+        cache.get(url("a"), second);
+        mGate.countDown();
+
+        assertTrue(first.await());
+        assertTrue(second.await());
+        assertSame(first.mDetail, second.mDetail);
+        assertEquals(Arrays.asList("a"), mFetched);
+    }
+
+    @Test
+    public void openedEventIsFetchedBeforePendingPrefetches() throws Exception {
+        EarthquakeDetailCache cache = new EarthquakeDetailCache(recordingFetcher(true), DIRECT);
+        // 两个线程都在等待a、b，c、d排队
+        cache.prefetch(Arrays.asList(url("a"), url("b"), url("c"), url("d")));
+        waitForFetches(2);
+
+        RecordingCallback opened = new RecordingCallback();
+        cache.get(url("x"), opened);
+        mGate.countDown();
+
+        assertTrue(opened.await());
+        waitForFetches(5);
+        assertEquals("x", mFetched.get(2));
+    }
+
+    @Test
+    public void scrollingAwayDropsPrefetchesThatHaveNotStarted() throws Exception {
+        EarthquakeDetailCache cache = new EarthquakeDetailCache(recordingFetcher(true), DIRECT);
+        cache.prefetch(Arrays.asList(url("a"), url("b"), url("c"), url("d")));
+        waitForFetches(2);
+
+        // 已经开始的a、b继续；c、d被新的可见区域替换
+        cache.prefetch(Arrays.asList(url("e"), url("a"), url("c")));
+        mGate.countDown();
+
+        RecordingCallback last = new RecordingCallback();
+        waitForFetches(4);
+        cache.get(url("e"), last);
+        assertTrue(last.await());
+        assertNotNull(cache.peek(url("a")));
+        assertNotNull(cache.peek(url("b")));
+        assertEquals(4, mFetched.size());
+        assertTrue(mFetched.contains("c"));
+        assertFalse(mFetched.contains("d"));
+    }
+
+    @Test
+    public void prefetchSkipsCachedAndNonUsgsEvents() throws Exception {
+        EarthquakeDetailCache cache = new EarthquakeDetailCache(recordingFetcher(false), DIRECT);
+        await(cache, url("a"));
+
+        cache.prefetch(Arrays.asList(url("a"), "https://www.emsc-csem.org/Earthquake/earthquake.php?id=1",
+                url("b")));
+        waitForFetches(2);
+
+        assertEquals(Arrays.asList("a", "b"), mFetched);
+        assertFalse(EarthquakeDetailCache.hasDetail("https://www.emsc-csem.org/Earthquake/earthquake.php?id=1"));
+    }
+
+    @Test
+    public void leastRecentlyUsedDetailIsEvicted() throws Exception {
+        EarthquakeDetailCache cache = new EarthquakeDetailCache(recordingFetcher(false), DIRECT);
+        for (int i = 0; i < EarthquakeDetailCache.MAX_ENTRIES; i++) {
+            await(cache, url("e" + i));
+        }
+        // e0最近访问过，淘汰的是e1
+        assertNotNull(cache.peek(url("e0")));
+        await(cache, url("new"));
+
+        assertNotNull(cache.peek(url("e0")));
+        assertNull(cache.peek(url("e1")));
+        assertNotNull(cache.peek(url("e2")));
+    }
+
+    @Test
+    public void failedFetchIsReportedAndRetriedOnNextRequest() throws Exception {
+        EarthquakeDetailCache cache = new EarthquakeDetailCache(new EarthquakeDetailCache.Fetcher() {
+            @Override
+            public EarthquakeDetail fetch(String eventUrl) throws IOException {
+                mFetched.add(EarthquakeFanOut.eventId(eventUrl));
+                throw new IOException("offline");
+            }
+        }, DIRECT);
+
+        RecordingCallback callback = new RecordingCallback();
+        cache.get(url("a"), callback);
+        assertTrue(callback.await());
+        assertNull(callback.mDetail);
+        assertNull(cache.peek(url("a")));
+
+        RecordingCallback retry = new RecordingCallback();
+        cache.get(url("a"), retry);
+        assertTrue(retry.await());
+        assertEquals(2, mFetched.size());
+    }
+
+    @Test
+    public void unexpectedFetchErrorIsReportedAsAFailure() throws Exception {
+        EarthquakeDetailCache cache = new EarthquakeDetailCache(new EarthquakeDetailCache.Fetcher() {
+            @Override
+            public EarthquakeDetail fetch(String eventUrl) {
+                String eventId = EarthquakeFanOut.eventId(eventUrl);
+                mFetched.add(eventId);
+                if (mFetched.size() <= 10) {
+                    throw new IllegalStateException("malformed detail");
+                }
+                EarthquakeDetail detail = new EarthquakeDetail();
+                detail.eventId = eventId;
+                return detail;
+            }
+        }, DIRECT);
+
+        // 比线程数多的失败之后，队列仍有线程处理
+        for (int i = 0; i < 10; i++) {
+            assertNull(await(cache, url("a")));
+        }
+        assertEquals("a", await(cache, url("a")).eventId);
+        assertEquals(11, mFetched.size());
+    }
+
+    @Test
+    public void prefetchPositionsStartWithVisibleRowsThenAlternateOutwards() {
+        assertEquals(Arrays.asList(10, 11, 12, 13, 9, 14, 8),
+                EarthquakeDetailCache.prefetchPositions(10, 12, 100, 2));
+        // 靠近两端时不超出列表
+        assertEquals(Arrays.asList(0, 1, 2, 3),
+                EarthquakeDetailCache.prefetchPositions(0, 1, 4, 3));
+        assertTrue(EarthquakeDetailCache.prefetchPositions(0, -1, 0, 5).isEmpty());
+    }
+
+    private static String url(String id) {
+        return EVENT_PAGE + id;
+    }
+
+    /**
+     * 返回以事件id为标题的详细信息
+     * @param blocking 是否等待mGate后才返回
+     */
+    private EarthquakeDetailCache.Fetcher recordingFetcher(final boolean blocking) {
+        return new EarthquakeDetailCache.Fetcher() {
+            @Override
+            public EarthquakeDetail fetch(String eventUrl) throws IOException {
+                String eventId = EarthquakeFanOut.eventId(eventUrl);
+                mFetched.add(eventId);
+                if (blocking) {
+                    try {
+                        mGate.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                EarthquakeDetail detail = new EarthquakeDetail();
+                detail.eventId = eventId;
+                return detail;
+            }
+        };
+    }
+
+    private static EarthquakeDetail await(EarthquakeDetailCache cache, String eventUrl) throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        cache.get(eventUrl, callback);
+        assertTrue(callback.await());
+        return callback.mDetail;
+    }
+
+    private void waitForFetches(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (mFetched.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue("fetched " + mFetched, mFetched.size() >= count);
+    }
+
+    private static final class RecordingCallback implements EarthquakeDetailCache.Callback {
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+
+        private volatile EarthquakeDetail mDetail;
+
+        @Override
+        public void onDetail(String eventUrl, EarthquakeDetail detail) {
+            mDetail = detail;
+            mDone.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return mDone.await(10, TimeUnit.SECONDS);
+        }
+    }
+}
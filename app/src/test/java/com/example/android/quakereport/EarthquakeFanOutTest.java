@@ -0,0 +1,233 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用本地HTTP服务器验证按时间窗口并行请求、合并去重和排序。
+ */
+public class EarthquakeFanOutTest {
+
+    private static final long HOUR = 60L * 60 * 1000;
+
+    /** 所有窗口都会返回的同一事件，模拟落在窗口边界上的地震 */
+    private static final String SHARED_EVENT_ID = "us-shared";
+
+    private static final long END_TIME = 1556000000000L;
+    private static final long START_TIME = END_TIME - EarthquakeFanOut.DEFAULT_HISTORY_MILLIS;
+
+    /** 每个请求在服务器上停留的时间，用于观察并行 */
+    private static final long RESPONSE_DELAY_MILLIS = 100;
+
+    private MockHttpServer mServer;
+
+    private EarthquakeRetryPolicy mDefaultPolicy;
+
+    /** 为true时最早的窗口返回500 */
+    private volatile boolean mFailOldestWindow;
+
+    /** 大于0时服务器改为返回均匀分布在整个范围内的这么多次地震，像USGS一样支持limit */
+    private volatile int mDenseEventCount;
+
+    /** 服务器单次请求的结果数上限，超过且没有limit时返回400 */
+    private static final int SERVER_LIMIT = 10;
+
+    @Before
+    public void setUp() throws Exception {
+        // 失败的窗口按默认策略重试要等待数秒，测试中缩短到几毫秒
+        mDefaultPolicy = EarthquakeRetryPolicy.getInstance();
+        EarthquakeRetryPolicy.setInstance(new EarthquakeRetryPolicy(EarthquakeRetryPolicy.MAX_ATTEMPTS, 1, 10,
+                EarthquakeRetryPolicy.MAX_BUDGET, new Random()));
+        mServer = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public MockHttpServer.Response handle(MockHttpServer.Request request) throws Exception {
+                Thread.sleep(RESPONSE_DELAY_MILLIS);
+                if (mDenseEventCount > 0) {
+                    return denseResponse(request);
+                }
+                long windowStart = parseTime(request.parameter("starttime"));
+                if (mFailOldestWindow && windowStart <= START_TIME) {
+                    return new MockHttpServer.Response(500, "");
+                }
+                return new MockHttpServer.Response(200, windowJson(windowStart));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        EarthquakeRetryPolicy.setInstance(mDefaultPolicy);
+    }
+
+    @Test
+    public void fetchesWindowsInParallelAndMergesWithoutDuplicates() throws Exception {
+        List<Earthquake> earthquakes = newFanOut(4).fetch(
+                mServer.url() + "/query?format=geojson", START_TIME, END_TIME, true);
+
+        assertEquals(EarthquakeFanOut.WINDOW_COUNT, mServer.requestCount());
+        assertTrue("max in flight: " + mServer.maxInFlight(), mServer.maxInFlight() > 1);
+        assertTrue("max in flight: " + mServer.maxInFlight(), mServer.maxInFlight() <= 4);
+
+        // 每个窗口两次地震，加上只保留一次的共享事件
+        assertEquals(EarthquakeFanOut.WINDOW_COUNT * 2 + 1, earthquakes.size());
+        int shared = 0;
+        for (int i = 0; i < earthquakes.size(); i++) {
+            if (earthquakes.get(i).getUrl().endsWith(SHARED_EVENT_ID)) {
+                shared++;
+            }
+            if (i > 0) {
+                assertTrue(earthquakes.get(i - 1).getTimeInMilliseconds()
+                        >= earthquakes.get(i).getTimeInMilliseconds());
+            }
+        }
+        assertEquals(1, shared);
+    }
+
+    @Test
+    public void ordersByMagnitude() throws Exception {
+        List<Earthquake> earthquakes = newFanOut(2).fetch(
+                mServer.url() + "/query?format=geojson", START_TIME, END_TIME, false);
+
+        for (int i = 1; i < earthquakes.size(); i++) {
+            assertTrue(earthquakes.get(i - 1).getMagnitude() >= earthquakes.get(i).getMagnitude());
+        }
+    }
+
+    @Test
+    public void concurrencyOfOneIsSequential() throws Exception {
+        newFanOut(1).fetch(mServer.url() + "/query?format=geojson", START_TIME, END_TIME, true);
+
+        assertEquals(1, mServer.maxInFlight());
+    }
+
+    @Test
+    public void failedWindowLeavesTheOtherWindowsAsPartialResult() throws Exception {
+        mFailOldestWindow = true;
+
+        List<Earthquake> earthquakes = newFanOut(4).fetch(
+                mServer.url() + "/query?format=geojson", START_TIME, END_TIME, true);
+
+        assertTrue(QueryUtils.isPartial(earthquakes));
+        assertEquals((EarthquakeFanOut.WINDOW_COUNT - 1) * 2 + 1, earthquakes.size());
+    }
+
+    @Test
+    public void everyWindowFailingFailsTheWholeFetch() throws Exception {
+        mServer.shutdown();
+
+        assertNull(newFanOut(4).fetch(mServer.url() + "/query?format=geojson", START_TIME, END_TIME, true));
+    }
+
+    @Test
+    public void windowsOverTheLimitAreSplitUntilEveryEventFits() throws Exception {
+        // 每个窗口约25次地震，超过上限，需要切分两次
+        mDenseEventCount = EarthquakeFanOut.WINDOW_COUNT * 25;
+
+        List<Earthquake> earthquakes = new EarthquakeFanOut(new EarthquakeFanOut.Fetcher() {
+            @Override
+            public List<Earthquake> fetch(String url) {
+                return QueryUtils.fetchEarthquakeData(url, null);
+            }
+        }, 4, SERVER_LIMIT).fetch(mServer.url() + "/query?format=geojson", START_TIME, END_TIME, true);
+
+        assertFalse(QueryUtils.isPartial(earthquakes));
+        assertEquals(mDenseEventCount, earthquakes.size());
+        assertTrue(mServer.requestCount() > EarthquakeFanOut.WINDOW_COUNT);
+        for (int i = 1; i < earthquakes.size(); i++) {
+            assertTrue(earthquakes.get(i - 1).getTimeInMilliseconds()
+                    >= earthquakes.get(i).getTimeInMilliseconds());
+        }
+    }
+
+    @Test
+    public void windowsAreAlignedAndNewestFirst() {
+        List<String> urls = EarthquakeFanOut.windowUrls("http://host/query?format=geojson",
+                START_TIME, END_TIME, EarthquakeFanOut.WINDOW_COUNT);
+
+        assertEquals(EarthquakeFanOut.WINDOW_COUNT, urls.size());
+        // 最新的窗口不带endtime，一直到服务器的当前时间
+        assertFalse(urls.get(0).contains("endtime="));
+        for (int i = 0; i < urls.size(); i++) {
+            assertTrue(urls.get(i).endsWith("&limit=" + EarthquakeFanOut.WINDOW_LIMIT));
+        }
+        for (int i = 1; i < urls.size(); i++) {
+            assertTrue(urls.get(i).contains("endtime="));
+            assertTrue(urls.get(i).contains(":00:00&") || urls.get(i).endsWith(":00:00"));
+        }
+    }
+
+    private EarthquakeFanOut newFanOut(int concurrency) {
+        return new EarthquakeFanOut(new EarthquakeFanOut.Fetcher() {
+            @Override
+            public List<Earthquake> fetch(String url) {
+                return QueryUtils.fetchEarthquakeData(url, null);
+            }
+        }, concurrency);
+    }
+
+    /**
+     * 请求的时间范围内均匀分布的地震，从新到旧；结果数超过上限且没有limit时返回400
+     */
+    private MockHttpServer.Response denseResponse(MockHttpServer.Request request) throws Exception {
+        long startTime = parseTime(request.parameter("starttime"));
+        long endTime = request.parameter("endtime") == null ? Long.MAX_VALUE : parseTime(request.parameter("endtime"));
+        int limit = request.parameter("limit") == null ? Integer.MAX_VALUE : Integer.parseInt(request.parameter("limit"));
+        long spacing = (END_TIME - START_TIME) / mDenseEventCount;
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        int count = 0;
+        for (int i = 0; i < mDenseEventCount; i++) {
+            long time = END_TIME - 1 - i * spacing;
+            if (time < startTime || time >= endTime) {
+                continue;
+            }
+            if (++count > Math.min(limit, SERVER_LIMIT)) {
+                if (limit > SERVER_LIMIT) {
+                    return new MockHttpServer.Response(400, "Bad Request");
+                }
+                break;
+            }
+            if (count > 1) {
+                json.append(',');
+            }
+            json.append(feature(4.0, time, "dense" + i));
+        }
+        return new MockHttpServer.Response(200, json.append("]}").toString());
+    }
+
+    /**
+     * 窗口内的两次地震，加上共享事件
+     */
+    private static String windowJson(long windowStart) {
+        long hours = windowStart / HOUR;
+        return "{\"type\":\"FeatureCollection\",\"features\":["
+                + feature(5.0 + (hours % 10) / 10.0, windowStart + HOUR, "us" + hours + "a") + ","
+                + feature(4.0 + (hours % 7) / 10.0, windowStart + 2 * HOUR, "us" + hours + "b") + ","
+                + feature(6.5, START_TIME + HOUR, SHARED_EVENT_ID)
+                + "]}";
+    }
+
+    private static String feature(double magnitude, long time, String eventId) {
+        return "{\"type\":\"Feature\",\"properties\":{\"mag\":" + magnitude
+                + ",\"place\":\"10km N of Town\",\"time\":" + time
+                + ",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/" + eventId + "\"}}";
+    }
+
+    private static long parseTime(String time) throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.parse(time).getTime();
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多个数据源的合并：按时间和距离去重、FDSN文本格式的解析，以及用本地HTTP服务器模拟两个目录的并行请求。
+ */
+public class EarthquakeFederationTest {
+
+    private static final long TIME = 1556000000000L;
+
+    private static final String FDSN_HEADER =
+            "#EventID|Time|Latitude|Longitude|Depth/km|Author|Catalog|Contributor|ContributorID|MagType"
+                    + "|Magnitude|MagAuthor|EventLocationName|EventType\n";
+
+    private MockHttpServer mServer;
+
+    private EarthquakeRetryPolicy mDefaultPolicy;
+
+    /** 主数据源和附加数据源返回的响应码 */
+    private volatile int mPrimaryCode = 200;
+    private volatile int mFdsnCode = 200;
+
+    /** 附加数据源最近收到的请求 */
+    private volatile String mFdsnTarget;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public MockHttpServer.Response handle(MockHttpServer.Request request) {
+                if (request.target.startsWith("/fdsn")) {
+                    mFdsnTarget = request.target;
+                    return new MockHttpServer.Response(mFdsnCode, FDSN_HEADER
+                            // 与主数据源的us1是同一事件，时间差3秒，距离约15千米
+                            + "e1|2019-04-23T06:13:23.4Z|35.1|-120.1|10.0|EMSC|EMSC-RTS|EMSC|1|mb|5.1|EMSC|CENTRAL CALIFORNIA|earthquake\n"
+                            // 只有这个目录有的事件
+                            + "e2|2019-04-23T06:00:00Z|-41.3|174.8|25|EMSC|EMSC-RTS|EMSC|2|ML|4.2|EMSC|NEW ZEALAND|earthquake\n");
+                }
+                if (mPrimaryCode != 200) {
+                    return new MockHttpServer.Response(mPrimaryCode, "");
+                }
+                return new MockHttpServer.Response(200, "{\"type\":\"FeatureCollection\",\"features\":["
+                        + feature(5.0, TIME, "us1", -120.0, 35.0) + ","
+                        + feature(4.5, TIME - 3600000, "us2", 140.0, 36.0) + "]}");
+            }
+        });
+        EarthquakeFeedSource.register(new EarthquakeFeedSource.FdsnText("mock", mServer.url() + "/fdsn/query",
+                "https://example.com/event/"));
+        // 失败的数据源按默认策略重试要等待数秒，测试中缩短到几毫秒
+        mDefaultPolicy = EarthquakeRetryPolicy.getInstance();
+        EarthquakeRetryPolicy.setInstance(new EarthquakeRetryPolicy(EarthquakeRetryPolicy.MAX_ATTEMPTS, 1, 10,
+                EarthquakeRetryPolicy.MAX_BUDGET, new Random()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        EarthquakeRetryPolicy.setInstance(mDefaultPolicy);
+    }
+
+    @Test
+    public void sameEventFromTwoCatalogsIsMergedKeepingThePrimaryRecord() {
+        List<Earthquake> merged = EarthquakeFederation.merge(Arrays.asList(
+                Arrays.asList(quake("a", TIME, 35.0, -120.0)),
+                Arrays.asList(quake("b", TIME + 3000, 35.1, -120.1))), true);
+
+        assertEquals(1, merged.size());
+        assertTrue(merged.get(0).getUrl().endsWith("/a"));
+    }
+
+    @Test
+    public void eventsOfOneCatalogAreNeverMerged() {
+        // 同一目录中时间和位置都很接近的两次余震
+        List<Earthquake> merged = EarthquakeFederation.merge(Arrays.asList(
+                Arrays.asList(quake("a", TIME, 35.0, -120.0), quake("b", TIME + 2000, 35.01, -120.01))), true);
+
+        assertEquals(2, merged.size());
+    }
+
+    @Test
+    public void eachRecordAbsorbsOneEventPerCatalog() {
+        List<Earthquake> merged = EarthquakeFederation.merge(Arrays.asList(
+                Arrays.asList(quake("a", TIME, 35.0, -120.0), quake("b", TIME + 10000, 35.0, -120.0)),
+                Arrays.asList(quake("x", TIME + 9000, 35.0, -120.0), quake("y", TIME + 1000, 35.0, -120.0))), true);
+
+        // x与时间更近的b合并，y与a合并
+        assertEquals(2, merged.size());
+    }
+
+    @Test
+    public void distantOrLaterEventsAreKept() {
+        List<Earthquake> merged = EarthquakeFederation.merge(Arrays.asList(
+                Arrays.asList(quake("a", TIME, 35.0, -120.0), quake("b", TIME, 0, 0)),
+                Arrays.asList(
+                        // 相距约150千米
+                        quake("x", TIME, 36.35, -120.0),
+                        // 晚了20秒
+                        quake("y", TIME + 20000, 35.0, -120.0),
+                        // 没有震中位置，无法判断
+                        new Earthquake(5, "unknown", TIME, "https://example.com/z"))), true);
+
+        assertEquals(5, merged.size());
+    }
+
+    @Test
+    public void matchesAcrossCellAndAntimeridianBoundaries() {
+        List<Earthquake> merged = EarthquakeFederation.merge(Arrays.asList(
+                Arrays.asList(quake("a", TIME, -17.0, 179.9), quake("b", TIME + 15999, 80.0, 10.0),
+                        quake("c", TIME, 0.999, 0.999)),
+                Arrays.asList(quake("x", TIME + 1000, -17.0, -179.9), quake("y", TIME, 80.2, 14.0),
+                        quake("z", TIME, 1.001, 1.001))), true);
+
+        // 经度180°两侧相距约21千米；北纬80°处经度相差4°约77千米；格子边界两侧相距约0.3千米
+        assertEquals(3, merged.size());
+    }
+
+    @Test
+    public void mergeIsSortedLikeTheServer() {
+        List<Earthquake> merged = EarthquakeFederation.merge(Arrays.asList(
+                Arrays.asList(quake("a", TIME - 1000000, 10, 10)),
+                Arrays.asList(quake("b", TIME, -10, -10))), true);
+
+        assertTrue(merged.get(0).getUrl().endsWith("/b"));
+    }
+
+    @Test
+    public void parsesFdsnTextAndDropsBadLines() throws Exception {
+        String text = FDSN_HEADER
+                + "ev1|2019-04-23T05:15:22.123456|-20.5|-70.25|35.5|A|C|C|1|mb|5.4|A|NORTHERN CHILE|earthquake\n"
+                + "ev2|2019-04-23T05:15:22|1|2||A|C|C|1|mb|4|A|Somewhere\n"
+                // 没有等级
+                + "ev3|2019-04-23T05:15:22Z|1|2|3|A|C|C|1|mb||A|Somewhere\n"
+                // 时间格式错误
+                + "ev4|yesterday|1|2|3|A|C|C|1|mb|4|A|Somewhere\n"
+                // 字段不全
+                + "ev5|2019-04-23T05:15:22Z|1|2\n"
+                + "\n";
+        List<Earthquake> earthquakes = new ArrayList<>();
+
+        int dropped = EarthquakeTextParser.parseEvents(
+                new ByteArrayInputStream(text.getBytes(Charset.forName("UTF-8"))), "https://example.com/", earthquakes);
+
+        assertEquals(3, dropped);
+        assertEquals(2, earthquakes.size());
+        Earthquake first = earthquakes.get(0);
+        assertEquals(5.4, first.getMagnitude(), 0);
+        assertEquals("NORTHERN CHILE", first.getLocation());
+        assertEquals("https://example.com/ev1", first.getUrl());
+        assertEquals(1555996522123L, first.getTimeInMilliseconds());
+        assertEquals(-20.5, first.getLatitude(), 0);
+        assertEquals(-70.25, first.getLongitude(), 0);
+        assertEquals(35.5, first.getDepth(), 0);
+        assertTrue(Double.isNaN(earthquakes.get(1).getDepth()));
+    }
+
+    @Test
+    public void parsesTimesLikeSimpleDateFormat() {
+        assertEquals(0, EarthquakeTextParser.parseTime("1970-01-01T00:00:00"));
+        assertEquals(951782400000L, EarthquakeTextParser.parseTime("2000-02-29T00:00:00Z"));
+        assertEquals(1555996522100L, EarthquakeTextParser.parseTime("2019-04-23T05:15:22.1Z"));
+        assertEquals(-1000L, EarthquakeTextParser.parseTime("1969-12-31T23:59:59.000"));
+    }
+
+    @Test
+    public void fetchesCatalogsInParallelAndMerges() {
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(query(), null);
+
+        // us1与e1合并，保留主数据源的记录
+        assertEquals(3, earthquakes.size());
+        assertFalse(QueryUtils.isPartial(earthquakes));
+        assertEquals("https://example.com/eventpage/us1", earthquakes.get(0).getUrl());
+        assertEquals("https://example.com/event/e2", earthquakes.get(1).getUrl());
+
+        // 附加数据源的请求换成FDSN的参数，sources参数不发送给任何服务器
+        assertTrue(mFdsnTarget, mFdsnTarget.startsWith("/fdsn/query?format=text&"));
+        assertTrue(mFdsnTarget, mFdsnTarget.contains("&minmagnitude=4"));
+        assertTrue(mFdsnTarget, mFdsnTarget.contains("&orderby=time"));
+        assertFalse(mFdsnTarget, mFdsnTarget.contains("sources"));
+    }
+
+    @Test
+    public void failedCatalogOnlyLosesItsOwnEvents() {
+        mFdsnCode = 503;
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(query(), null);
+
+        assertEquals(2, earthquakes.size());
+        assertFalse(QueryUtils.isPartial(earthquakes));
+    }
+
+    @Test
+    public void failedPrimaryGivesPartialResult() {
+        mPrimaryCode = 404;
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(query(), null);
+
+        assertEquals(2, earthquakes.size());
+        assertTrue(QueryUtils.isPartial(earthquakes));
+
+        mFdsnCode = 404;
+        assertNull(QueryUtils.fetchEarthquakeData(query(), null));
+    }
+
+    @Test
+    public void queryWithoutSourcesIsUnchanged() {
+        String query = mServer.url() + "/query?format=geojson&minmag=4";
+
+        assertEquals(1, EarthquakeFeedSource.forQuery(query).size());
+        assertEquals(query, EarthquakeFeedSource.primary().buildUrl(query));
+        assertEquals(mServer.url() + "/query?format=geojson&minmag=4",
+                EarthquakeFeedSource.primary().buildUrl(mServer.url() + "/query?format=geojson&sources=mock&minmag=4"));
+        assertEquals("emsc,mock", EarthquakeFeedSource.joinIds(Arrays.asList("mock", "usgs", "emsc")));
+        assertEquals("emsc,mock", EarthquakeFeedSource.getSources(
+                mServer.url() + "/query?format=geojson&sources=emsc%2Cmock"));
+    }
+
+    private String query() {
+        return mServer.url() + "/query?format=geojson&minmag=4&orderby=time&sources=mock";
+    }
+
+    private static Earthquake quake(String id, long time, double latitude, double longitude) {
+        return new Earthquake(5, "10km N of Town", time, "https://example.com/" + id, latitude, longitude, 10);
+    }
+
+    private static String feature(double magnitude, long time, String eventId, double longitude, double latitude) {
+        return "{\"type\":\"Feature\",\"properties\":{\"mag\":" + magnitude
+                + ",\"place\":\"10km N of Town\",\"time\":" + time
+                + ",\"url\":\"https://example.com/eventpage/" + eventId + "\"},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[" + longitude + "," + latitude + ",8]}}";
+    }
+}
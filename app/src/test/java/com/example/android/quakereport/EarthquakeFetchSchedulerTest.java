@@ -0,0 +1,200 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用假的传输层验证请求合并、优先级和取消；最后一个测试通过真实的HTTP栈验证取消时关闭连接。
+ */
+public class EarthquakeFetchSchedulerTest {
+
+    /**
+     * 记录请求顺序的传输层。网址以"block"开头的请求一直等到release()或被取消
+     */
+    private static final class FakeTransport implements EarthquakeFetchScheduler.Transport {
+
+        final List<String> mFetched = Collections.synchronizedList(new ArrayList<String>());
+
+        final CountDownLatch mRelease = new CountDownLatch(1);
+
+        final CountDownLatch mBlockedStarted = new CountDownLatch(1);
+
+        final AtomicBoolean mAborted = new AtomicBoolean();
+
+        @Override
+        public List<Earthquake> fetch(String url, EarthquakeFetchScheduler.Call call) {
+            mFetched.add(url);
+            if (url.startsWith("block")) {
+                final CountDownLatch aborted = new CountDownLatch(1);
+                call.setAbortAction(new Runnable() {
+                    @Override
+                    public void run() {
+                        mAborted.set(true);
+                        aborted.countDown();
+                    }
+                });
+                mBlockedStarted.countDown();
+                try {
+                    // 模拟读取中的连接，被关闭时读取失败
+                    while (!mRelease.await(10, TimeUnit.MILLISECONDS)) {
+                        if (aborted.getCount() == 0) {
+                            return null;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            List<Earthquake> result = new ArrayList<>();
+            result.add(new Earthquake(5, url, 0, "https://host/eventpage/" + url));
+            return result;
+        }
+
+        void release() {
+            mRelease.countDown();
+        }
+    }
+
+    @Test
+    public void identicalInFlightRequestsAreMerged() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        EarthquakeFetchScheduler scheduler = new EarthquakeFetchScheduler(transport, 4);
+
+        EarthquakeFetchScheduler.Handle first = scheduler.fetch("block-a", EarthquakeFetchScheduler.PRIORITY_VISIBLE);
+        transport.mBlockedStarted.await(5, TimeUnit.SECONDS);
+        EarthquakeFetchScheduler.Handle second = scheduler.fetch("block-a", EarthquakeFetchScheduler.PRIORITY_PREFETCH);
+        transport.release();
+
+        List<Earthquake> firstResult = first.get();
+        assertNotNull(firstResult);
+        assertSame(firstResult, second.get());
+        assertEquals(1, transport.mFetched.size());
+        assertEquals(0, scheduler.getInFlightCount());
+    }
+
+    @Test
+    public void visibleRequestsRunBeforeQueuedPrefetch() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        EarthquakeFetchScheduler scheduler = new EarthquakeFetchScheduler(transport, 1);
+
+        // 占住唯一的线程，其余请求排队
+        EarthquakeFetchScheduler.Handle blocker = scheduler.fetch("block", EarthquakeFetchScheduler.PRIORITY_PREFETCH);
+        transport.mBlockedStarted.await(5, TimeUnit.SECONDS);
+        EarthquakeFetchScheduler.Handle prefetch1 = scheduler.fetch("prefetch1", EarthquakeFetchScheduler.PRIORITY_PREFETCH);
+        EarthquakeFetchScheduler.Handle prefetch2 = scheduler.fetch("prefetch2", EarthquakeFetchScheduler.PRIORITY_PREFETCH);
+        EarthquakeFetchScheduler.Handle visible = scheduler.fetch("visible", EarthquakeFetchScheduler.PRIORITY_VISIBLE);
+        // 合并到排队中的预取请求，提高它的优先级
+        EarthquakeFetchScheduler.Handle raised = scheduler.fetch("prefetch2", EarthquakeFetchScheduler.PRIORITY_VISIBLE);
+        transport.release();
+
+        assertNotNull(blocker.get());
+        assertNotNull(prefetch1.get());
+        assertNotNull(prefetch2.get());
+        assertNotNull(visible.get());
+        assertNotNull(raised.get());
+        // 同一优先级按最初加入的先后执行
+        List<String> expected = new ArrayList<>();
+        Collections.addAll(expected, "block", "prefetch2", "visible", "prefetch1");
+        assertEquals(expected, transport.mFetched);
+    }
+
+    @Test
+    public void cancelledQueuedRequestNeverRuns() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        EarthquakeFetchScheduler scheduler = new EarthquakeFetchScheduler(transport, 1);
+        EarthquakeFetchScheduler.Handle blocker = scheduler.fetch("block", EarthquakeFetchScheduler.PRIORITY_VISIBLE);
+        transport.mBlockedStarted.await(5, TimeUnit.SECONDS);
+
+        EarthquakeFetchScheduler.Handle superseded = scheduler.fetch("old", EarthquakeFetchScheduler.PRIORITY_VISIBLE);
+        superseded.cancel();
+        assertNull(superseded.get());
+        transport.release();
+        blocker.get();
+
+        assertEquals(Collections.singletonList("block"), transport.mFetched);
+    }
+
+    @Test
+    public void cancellingTheLastSubscriberAbortsTheRunningRequest() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        EarthquakeFetchScheduler scheduler = new EarthquakeFetchScheduler(transport, 2);
+        EarthquakeFetchScheduler.Handle first = scheduler.fetch("block", EarthquakeFetchScheduler.PRIORITY_VISIBLE);
+        EarthquakeFetchScheduler.Handle second = scheduler.fetch("block", EarthquakeFetchScheduler.PRIORITY_VISIBLE);
+        transport.mBlockedStarted.await(5, TimeUnit.SECONDS);
+
+        // 还有其他请求者时不中断
+        first.cancel();
+        Thread.sleep(50);
+        assertTrue(!transport.mAborted.get());
+        assertNull(first.get());
+
+        second.cancel();
+        assertNull(second.get());
+        assertTrue(transport.mAborted.get());
+        assertEquals(0, scheduler.getInFlightCount());
+
+        // 取消后同一网址重新请求，发出新的请求
+        transport.release();
+        assertNotNull(scheduler.fetch("block", EarthquakeFetchScheduler.PRIORITY_VISIBLE).get());
+        assertEquals(2, transport.mFetched.size());
+    }
+
+    @Test
+    public void cancelClosesTheHttpConnectionMidStream() throws Exception {
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":4.5,\"place\":\"10km N of Town\",\"time\":")
+                    .append(i).append(",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/us")
+                    .append(i).append("\"}}");
+        }
+        final byte[] body = json.append("]}").toString().getBytes("UTF-8");
+        final CountDownLatch otherRequested = new CountDownLatch(1);
+        MockHttpServer server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public MockHttpServer.Response handle(MockHttpServer.Request request) {
+                if (request.target.startsWith("/other")) {
+                    otherRequested.countDown();
+                    return new MockHttpServer.Response(200, "{\"type\":\"FeatureCollection\",\"features\":[]}");
+                }
+                // 全部发完约需20秒
+                return new MockHttpServer.Response(200, body).slow(body.length / 400, 50);
+            }
+        });
+        try {
+            EarthquakeFetchScheduler scheduler = new EarthquakeFetchScheduler(new EarthquakeFetchScheduler.Transport() {
+                @Override
+                public List<Earthquake> fetch(String url, EarthquakeFetchScheduler.Call call) {
+                    return QueryUtils.fetchEarthquakeData(url, null, call);
+                }
+            }, 1);
+            EarthquakeFetchScheduler.Handle handle = scheduler.fetch(server.url() + "/query",
+                    EarthquakeFetchScheduler.PRIORITY_VISIBLE);
+            Thread.sleep(500);
+
+            handle.cancel();
+            assertNull(handle.get());
+            // 调度器唯一的线程已结束读取，下一个请求不必等上一个响应发完
+            EarthquakeFetchScheduler.Handle next = scheduler.fetch(server.url() + "/other",
+                    EarthquakeFetchScheduler.PRIORITY_VISIBLE);
+            assertTrue(otherRequested.await(10, TimeUnit.SECONDS));
+            assertNotNull(next.get());
+        } finally {
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用已知分布的耗时检查直方图的分位数误差，以及多线程同时记录时的计数。
+ */
+public class EarthquakeHistogramMetricsTest {
+
+    @Test
+    public void bucketsCoverAllValuesWithoutGaps() {
+        for (int index = 0; index < EarthquakeHistogramMetrics.Histogram.BUCKET_COUNT; index++) {
+            long lower = EarthquakeHistogramMetrics.Histogram.bucketLowerBound(index);
+            long next = EarthquakeHistogramMetrics.Histogram.bucketLowerBound(index + 1);
+            assertTrue("bucket " + index, next > lower);
+            assertEquals(index, EarthquakeHistogramMetrics.Histogram.bucketIndex(lower));
+            assertEquals(index, EarthquakeHistogramMetrics.Histogram.bucketIndex(next - 1));
+        }
+        // 最后一个桶的上界即Long.MAX_VALUE
+        assertEquals(Long.MAX_VALUE, EarthquakeHistogramMetrics.Histogram.bucketLowerBound(
+                EarthquakeHistogramMetrics.Histogram.BUCKET_COUNT));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketError() {
+        // 对数正态分布，中位数约2毫秒，和网络请求的耗时相似
+        Random random = new Random(19);
+        long[] values = new long[100000];
+        EarthquakeHistogramMetrics.Histogram histogram = new EarthquakeHistogramMetrics.Histogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) (2e6 * Math.exp(random.nextGaussian()));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        for (double percentile : new double[] {50, 90, 95, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long estimate = histogram.getPercentile(percentile);
+            double error = Math.abs(estimate - exact) / (double) exact;
+            assertTrue("p" + percentile + " error " + error, error < 0.032);
+        }
+        assertEquals(histogram.getMax(), histogram.getPercentile(100));
+    }
+
+    @Test
+    public void emptyAndSmallValues() {
+        EarthquakeHistogramMetrics.Histogram histogram = new EarthquakeHistogramMetrics.Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMean());
+
+        histogram.record(-5);
+        histogram.record(3);
+        histogram.record(7);
+        assertEquals(0, histogram.getPercentile(1));
+        assertEquals(3, histogram.getPercentile(50));
+        assertEquals(7, histogram.getPercentile(99));
+        assertEquals(3, histogram.getMean());
+    }
+
+    @Test
+    public void countersAndSpansAreKeptByName() {
+        EarthquakeHistogramMetrics metrics = new EarthquakeHistogramMetrics();
+        metrics.increment(EarthquakeMetrics.COUNTER_BYTES_READ, 1000);
+        metrics.increment(EarthquakeMetrics.COUNTER_BYTES_READ, 24);
+        metrics.increment(EarthquakeMetrics.COUNTER_FEATURES_PARSED, 3);
+        metrics.recordDuration(EarthquakeMetrics.SPAN_PARSE, 5000000);
+
+        assertEquals(1024, metrics.getCounter(EarthquakeMetrics.COUNTER_BYTES_READ));
+        assertEquals(0, metrics.getCounter(EarthquakeMetrics.COUNTER_PARSE_ERRORS));
+        assertEquals(Arrays.asList(EarthquakeMetrics.COUNTER_BYTES_READ, EarthquakeMetrics.COUNTER_FEATURES_PARSED),
+                metrics.getCounterNames());
+        assertEquals(Arrays.asList(EarthquakeMetrics.SPAN_PARSE), metrics.getSpanNames());
+        assertTrue(MetricsActivity.format(metrics).contains(EarthquakeMetrics.COUNTER_BYTES_READ));
+
+        metrics.reset();
+        assertTrue(metrics.getSpanNames().isEmpty());
+        assertEquals(0, metrics.getCounter(EarthquakeMetrics.COUNTER_BYTES_READ));
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        final EarthquakeHistogramMetrics metrics = new EarthquakeHistogramMetrics();
+        final int threads = 4;
+        final int perThread = 50000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perThread; i++) {
+                            metrics.recordDuration(EarthquakeMetrics.SPAN_BIND, i + offset);
+                            metrics.increment(EarthquakeMetrics.COUNTER_FEATURES_PARSED, 1);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        EarthquakeHistogramMetrics.Histogram histogram = metrics.getHistogram(EarthquakeMetrics.SPAN_BIND);
+        assertEquals(threads * perThread, histogram.getCount());
+        assertEquals(perThread - 1 + threads - 1, histogram.getMax());
+        assertEquals(threads * perThread, metrics.getCounter(EarthquakeMetrics.COUNTER_FEATURES_PARSED));
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 流式GeoJSON解析：字符串转义、数字形式、null和类型错误的字段、未知字段的跳过、
+ * properties与geometry的顺序，以及不完整或格式错误的输入。
+ */
+public class EarthquakeJsonParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String PROPERTIES = "\"properties\":{\"mag\":4.5,\"place\":\"10km N of Town\","
+            + "\"time\":1556000000000,\"url\":\"https://example.com/us1\"}";
+
+    private static final String GEOMETRY = "\"geometry\":{\"type\":\"Point\",\"coordinates\":[-120.5,35.25,8.2]}";
+
+    @Test
+    public void stringEscapesAreDecoded() throws IOException {
+        List<Earthquake> earthquakes = parse(collection(
+                "{\"properties\":{\"mag\":4.5,"
+                        + "\"place\":\"Caf\\u00e9 \\uD83C\\uDF0B \\\"Q\\\" a\\/b\\\\c\\n\\td\","
+                        + "\"time\":1,\"url\":\"https:\\/\\/example.com\\/us1\"}}"));
+
+        assertEquals(1, earthquakes.size());
+        assertEquals("Caf\u00e9 \uD83C\uDF0B \"Q\" a/b\\c\n\td", earthquakes.get(0).getLocation());
+        assertEquals("https://example.com/us1", earthquakes.get(0).getUrl());
+    }
+
+    @Test
+    public void unescapedMultiByteCharactersAreDecoded() throws IOException {
+        List<Earthquake> earthquakes = parse(collection(
+                "{\"properties\":{\"mag\":4.5,\"place\":\"\u6771\u4eac \uD83C\uDF0B\",\"time\":1,\"url\":\"u\"}}"));
+
+        assertEquals("\u6771\u4eac \uD83C\uDF0B", earthquakes.get(0).getLocation());
+    }
+
+    @Test
+    public void numbersInExponentAndNegativeForms() throws IOException {
+        List<Earthquake> earthquakes = parse(collection(
+                "{\"properties\":{\"mag\":-0.5,\"place\":\"p\",\"time\":1.556E12,\"url\":\"u\"},"
+                        + "\"geometry\":{\"coordinates\":[-1.205e2,-3.25E-1,-0]}}",
+                "{\"properties\":{\"mag\":45e-1,\"place\":\"p\",\"time\":-86400000,\"url\":\"u\"}}"));
+
+        assertEquals(2, earthquakes.size());
+        Earthquake first = earthquakes.get(0);
+        assertEquals(-0.5, first.getMagnitude(), 0);
+        assertEquals(1556000000000L, first.getTimeInMilliseconds());
+        assertEquals(-120.5, first.getLongitude(), 0);
+        assertEquals(-0.325, first.getLatitude(), 0);
+        assertEquals(0, first.getDepth(), 0);
+        assertEquals(4.5, earthquakes.get(1).getMagnitude(), 0);
+        assertEquals(-86400000L, earthquakes.get(1).getTimeInMilliseconds());
+    }
+
+    @Test
+    public void nullsAndWrongTypesDropOnlyThatFeature() throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        int dropped = EarthquakeJsonParser.parseFeatures(stream(collection(
+                feature("\"mag\":null,\"place\":\"p\",\"time\":1,\"url\":\"u\""),
+                feature("\"mag\":4.5,\"place\":\"p\",\"time\":null,\"url\":\"u\""),
+                feature("\"mag\":4.5,\"place\":null,\"time\":1,\"url\":\"u\""),
+                feature("\"mag\":4.5,\"place\":\"p\",\"time\":1,\"url\":null"),
+                feature("\"mag\":true,\"place\":\"p\",\"time\":1,\"url\":\"u\""),
+                feature("\"mag\":\"strong\",\"place\":\"p\",\"time\":1,\"url\":\"u\""),
+                feature("\"mag\":4.5,\"place\":\"p\",\"time\":\"1556000000000\",\"url\":\"u\""),
+                feature("\"mag\":4.5,\"place\":42,\"time\":1,\"url\":\"u\""),
+                feature("\"mag\":4.5,\"place\":\"p\",\"time\":1,\"url\":[\"u\"]"),
+                feature("\"mag\":4.5,\"place\":\"p\",\"time\":1,\"url\":{\"href\":\"u\"}"),
+                // 字符串形式的等级可以使用
+                feature("\"mag\":\"4.5\",\"place\":\"p\",\"time\":1,\"url\":\"u\""),
+                "null",
+                "[1,2]",
+                "{\"properties\":null," + GEOMETRY + "}",
+                "{" + PROPERTIES + ",\"geometry\":null}")), earthquakes);
+
+        assertEquals(2, earthquakes.size());
+        assertEquals(4.5, earthquakes.get(0).getMagnitude(), 0);
+        // geometry为null时没有位置
+        assertTrue(Double.isNaN(earthquakes.get(1).getLatitude()));
+        assertEquals(13, dropped);
+    }
+
+    @Test
+    public void unknownNestedValuesAreSkipped() throws IOException {
+        String json = "{\"type\":\"FeatureCollection\","
+                + "\"metadata\":{\"generated\":1556000000000,\"title\":\"USGS \\\"feed\\\" ]}\","
+                + "\"nested\":[[{}],[[]],{\"a\":{\"b\":[null,true,false,-1.5e3]}}]},"
+                + "\"bbox\":[-179.9,-60.2,0,179.9,70.1,600],"
+                + "\"features\":[{\"type\":\"Feature\","
+                + "\"properties\":{\"ids\":\",us1,\",\"products\":{\"origin\":[{\"x\":[1,{\"y\":\"}\"}]}]},"
+                + "\"mag\":4.5,\"tsunami\":0,\"place\":\"p\",\"felt\":null,\"time\":1,"
+                + "\"alert\":false,\"url\":\"u\",\"extra\":[[[\"]\"]]]},"
+                + GEOMETRY + ",\"id\":\"us1\",\"more\":{\"list\":[{},{}]}}],"
+                + "\"trailer\":{\"count\":1}}";
+
+        List<Earthquake> earthquakes = parse(json);
+
+        assertEquals(1, earthquakes.size());
+        assertEquals("p", earthquakes.get(0).getLocation());
+        assertEquals(35.25, earthquakes.get(0).getLatitude(), 0);
+    }
+
+    @Test
+    public void propertiesMayComeBeforeOrAfterGeometry() throws IOException {
+        List<Earthquake> earthquakes = parse(collection(
+                "{\"type\":\"Feature\"," + PROPERTIES + "," + GEOMETRY + "}",
+                "{\"type\":\"Feature\"," + GEOMETRY + "," + PROPERTIES + "}"));
+
+        assertEquals(2, earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            assertEquals(4.5, earthquake.getMagnitude(), 0);
+            assertEquals("10km N of Town", earthquake.getLocation());
+            assertEquals(1556000000000L, earthquake.getTimeInMilliseconds());
+            assertEquals(-120.5, earthquake.getLongitude(), 0);
+            assertEquals(35.25, earthquake.getLatitude(), 0);
+            assertEquals(8.2, earthquake.getDepth(), 0);
+        }
+    }
+
+    @Test
+    public void everyTruncationRaisesIOException() {
+        String json = collection(
+                "{\"type\":\"Feature\"," + PROPERTIES + "," + GEOMETRY + "}",
+                "{\"type\":\"Feature\",\"properties\":{\"mag\":null,\"place\":\"\\u00e9\\\"\",\"time\":-1e3,"
+                        + "\"url\":\"u\",\"x\":[true,false,null]}}");
+        for (int length = 0; length < json.length(); length++) {
+            List<Earthquake> earthquakes = new ArrayList<>();
+            try {
+                EarthquakeJsonParser.parseFeatures(stream(json.substring(0, length)), earthquakes);
+                fail("parsed truncated input of " + length + " chars");
+            } catch (IOException e) {
+                // 已解析的数据保留，不会多于完整的输入
+                assertTrue(earthquakes.size() <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void malformedInputRaisesIOException() {
+        String[] inputs = {
+                "",
+                "   ",
+                "[]",
+                "{\"features\":[1,]}",
+                "{\"features\":[}",
+                "{\"features\" []}",
+                "{\"features\":[] \"x\":1}",
+                "{features:[]}",
+                "{\"features\":[nul]}",
+                "{\"features\":[tru]}",
+                "{\"features\":[12abc]}",
+                "{\"features\":[" + feature("\"mag\":1.2.3,\"place\":\"p\",\"time\":1,\"url\":\"u\"") + "]}",
+                "{\"features\":[-]}",
+                "{\"features\":[@]}",
+                "{\"features\":[\"\\u12G4\"]}",
+                "{\"features\":[" + feature("\"mag\":4.5,\"place\":\"\\u00\",\"time\":1,\"url\":\"u\"") + "]}",
+                "{\"features\":[]}{}",
+                "{\"features\":[]}x",
+        };
+        for (String input : inputs) {
+            try {
+                parse(input);
+                fail("parsed " + input);
+            } catch (IOException e) {
+                // 预期的异常
+            }
+        }
+    }
+
+    @Test
+    public void trailingWhitespaceIsAccepted() throws IOException {
+        assertEquals(1, parse(collection(feature("\"mag\":4.5,\"place\":\"p\",\"time\":1,\"url\":\"u\""))
+                + " \r\n\t").size());
+    }
+
+    @Test
+    public void tokensSplitAcrossReadsAndBufferRefills() throws IOException {
+        // 超过读取缓冲区的大小，每次只读一个字节，记号和多字节字符会被切开
+        List<String> features = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            features.add("{\"type\":\"Feature\",\"properties\":{\"mag\":" + (i % 70) / 10.0
+                    + ",\"place\":\"" + i + "km \u6771 \\u00e9\",\"time\":" + (1556000000000L - i)
+                    + ",\"url\":\"https://example.com/us" + i + "\",\"skip\":[{\"a\":\"b\"}]},"
+                    + GEOMETRY + "}");
+        }
+        String json = collection(features.toArray(new String[features.size()]));
+        assertTrue(json.length() > 8192 * 2);
+
+        List<Earthquake> whole = parse(json);
+        final byte[] bytes = json.getBytes(UTF_8);
+        List<Earthquake> trickled = new ArrayList<>();
+        EarthquakeJsonParser.parseFeatures(new InputStream() {
+            private int mPosition;
+
+            @Override
+            public int read() {
+                return mPosition < bytes.length ? bytes[mPosition++] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) {
+                if (mPosition == bytes.length) {
+                    return -1;
+                }
+                buffer[offset] = bytes[mPosition++];
+                return 1;
+            }
+        }, trickled);
+
+        assertEquals(200, whole.size());
+        assertEquals(whole.size(), trickled.size());
+        for (int i = 0; i < whole.size(); i++) {
+            assertEquals(i + "km \u6771 \u00e9", trickled.get(i).getLocation());
+            assertEquals(whole.get(i).getUrl(), trickled.get(i).getUrl());
+            assertEquals(whole.get(i).getMagnitude(), trickled.get(i).getMagnitude(), 0);
+            assertEquals(whole.get(i).getTimeInMilliseconds(), trickled.get(i).getTimeInMilliseconds());
+        }
+    }
+
+    @Test
+    public void readerReadsValuesAndSkipsNestedOnes() throws IOException {
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(
+                "{\"a\":[1,{\"b\":[[],{}]},\"]\"],\"n\":-12,\"e\":2.5e3,\"big\":12345678901234567890,"
+                        + "\"s\":\"x\\/y\",\"t\":true,\"f\":false,\"z\":null}"));
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.skipValue();
+        assertEquals("n", reader.nextName());
+        assertEquals(-12, reader.nextLong());
+        assertEquals("e", reader.nextName());
+        assertEquals(2500, reader.nextLong());
+        assertEquals("big", reader.nextName());
+        assertEquals(1.2345678901234567e19, reader.nextDouble(), 1e4);
+        assertEquals("s", reader.nextName());
+        assertEquals("x/y", reader.nextString());
+        assertEquals("t", reader.nextName());
+        assertTrue(reader.nextBoolean());
+        assertEquals("f", reader.nextName());
+        assertFalse(reader.nextBoolean());
+        assertEquals("z", reader.nextName());
+        assertEquals(JsonStreamReader.Token.NULL, reader.peek());
+        reader.nextNull();
+        assertFalse(reader.hasNext());
+        reader.endObject();
+        reader.endDocument();
+    }
+
+    private static List<Earthquake> parse(String json) throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJsonParser.parseFeatures(stream(json), earthquakes);
+        return earthquakes;
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(UTF_8));
+    }
+
+    private static String collection(String... features) {
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < features.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(features[i]);
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String feature(String properties) {
+        return "{\"type\":\"Feature\",\"properties\":{" + properties + "}," + GEOMETRY + "}";
+    }
+}
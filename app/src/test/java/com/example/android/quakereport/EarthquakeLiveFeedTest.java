@@ -0,0 +1,350 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用回放摘要feed的本地HTTP服务器验证实时模式：
+ * 只交付新增或修改的地震，没有变化时服务器返回304且轮询间隔逐次加倍；
+ * 超过保留范围、修订后低于最小等级和从feed中删除的地震被移除，旧行过多时重建地震表。
+ * 并测量从地震出现在feed中到交给界面的延迟。
+ */
+public class EarthquakeLiveFeedTest {
+
+    private static final long MINUTE = 60L * 1000;
+
+    /** 保留范围按真实时间计算，测试数据以当前时间为准 */
+    private static final long NOW = System.currentTimeMillis();
+
+    private static final long MIN_INTERVAL_MILLIS = 50;
+
+    private static final long MAX_INTERVAL_MILLIS = 400;
+
+    private MockHttpServer mServer;
+
+    /** 最近一天的feed，键为事件id */
+    private final Map<String, String> mDayFeed = new LinkedHashMap<>();
+
+    /** 最近一小时的feed */
+    private final Map<String, String> mHourFeed = new LinkedHashMap<>();
+
+    /** feed内容的版本，用作ETag */
+    private int mVersion;
+
+    private final AtomicInteger mPollRequests = new AtomicInteger();
+
+    private final AtomicInteger mNotModified = new AtomicInteger();
+
+    private final BlockingQueue<Delivery> mDeliveries = new LinkedBlockingQueue<>();
+
+    private EarthquakeLiveFeed mFeed;
+
+    private final EarthquakeHistogramMetrics mMetrics = new EarthquakeHistogramMetrics();
+
+    @Before
+    public void setUp() throws Exception {
+        EarthquakeMetrics.set(mMetrics);
+        mServer = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public MockHttpServer.Response handle(MockHttpServer.Request request) {
+                boolean hour = request.target.startsWith("/hour");
+                String body;
+                String etag;
+                synchronized (mDayFeed) {
+                    body = feed(hour ? mHourFeed : mDayFeed);
+                    etag = "\"" + (hour ? "hour-" : "day-") + mVersion + "\"";
+                }
+                if (hour) {
+                    mPollRequests.incrementAndGet();
+                }
+                if (etag.equals(request.headers.get("if-none-match"))) {
+                    mNotModified.incrementAndGet();
+                    return new MockHttpServer.Response(304, "");
+                }
+                return new MockHttpServer.Response(200, body).header("ETag", etag);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            addEvent("us" + i, 5.0, NOW - (i + 1) * 20 * MINUTE, i < 2);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mFeed != null) {
+            mFeed.stop();
+        }
+        mServer.shutdown();
+        EarthquakeMetrics.set(new EarthquakeHistogramMetrics());
+    }
+
+    @Test
+    public void newEventIsDeliveredAlone() throws Exception {
+        startFeed(4.5);
+        Delivery prime = nextDelivery();
+        assertEquals(5, prime.inserted);
+        assertEquals(5, prime.rows.size());
+
+        addEvent("us-small", 2.0, NOW + MINUTE, true);
+        long addedAt = System.nanoTime();
+        addEvent("us-new", 5.5, NOW + 2 * MINUTE, true);
+        Delivery delivery = nextDelivery();
+        // 端到端延迟：轮询间隔加上请求、比较和切换到回调线程的时间
+        long latencyMillis = (delivery.receivedAt - addedAt) / 1000000;
+
+        assertEquals(1, delivery.inserted);
+        assertEquals(0, delivery.updated);
+        assertEquals(6, delivery.rows.size());
+        // 按时间从新到旧，新地震在最前
+        EarthquakeTable table = delivery.rows.getTable();
+        assertEquals("us-new", table.getEventId(delivery.rows.row(0)));
+        assertOrderedByTime(delivery.rows);
+        // 宽松的上限，只防止退化为整个最长间隔的若干倍
+        assertTrue("live feed latency " + latencyMillis + " ms", latencyMillis < MAX_INTERVAL_MILLIS * 5);
+        // 应用内的部分记录在指标中：初始数据和新地震各一次
+        EarthquakeHistogramMetrics.Histogram delivered = mMetrics.getHistogram(EarthquakeMetrics.SPAN_LIVE_DELIVERY);
+        assertEquals(2, delivered.getCount());
+        assertTrue(delivered.getMax() <= delivery.receivedAt - addedAt + MAX_INTERVAL_MILLIS * 1000000);
+    }
+
+    @Test
+    public void eventBelowTheMinimumAloneIsNotDelivered() throws Exception {
+        startFeed(4.5);
+        nextDelivery();
+
+        addEvent("us-small", 2.0, NOW + MINUTE, true);
+
+        // feed有变化，但当前的行没有变化，不回调
+        assertNull(mDeliveries.poll(MAX_INTERVAL_MILLIS * 3, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void eventRevisedBelowTheMinimumIsRemoved() throws Exception {
+        startFeed(4.5);
+        nextDelivery();
+
+        addEvent("us1", 4.0, NOW - 2 * 20 * MINUTE, true);
+        Delivery delivery = nextDelivery();
+
+        assertEquals(0, delivery.inserted);
+        assertEquals(0, delivery.updated);
+        assertEquals(4, delivery.rows.size());
+        assertFalse(eventIds(delivery.rows).contains("us1"));
+        assertOrderedByTime(delivery.rows);
+    }
+
+    @Test
+    public void eventDeletedFromTheFeedIsRemoved() throws Exception {
+        startFeed(4.5);
+        nextDelivery();
+
+        removeEvent("us0");
+        Delivery delivery = nextDelivery();
+
+        assertEquals(0, delivery.inserted);
+        assertEquals(0, delivery.updated);
+        assertEquals(4, delivery.rows.size());
+        assertFalse(eventIds(delivery.rows).contains("us0"));
+        // 更早的地震不在一小时的feed中，不当作已删除
+        assertTrue(eventIds(delivery.rows).contains("us4"));
+    }
+
+    @Test
+    public void revisedEventReplacesItsRow() throws Exception {
+        startFeed(4.5);
+        nextDelivery();
+
+        addEvent("us1", 6.1, NOW - 2 * 20 * MINUTE, true);
+        Delivery delivery = nextDelivery();
+
+        assertEquals(0, delivery.inserted);
+        assertEquals(1, delivery.updated);
+        assertEquals(5, delivery.rows.size());
+        EarthquakeTable table = delivery.rows.getTable();
+        int revised = 0;
+        for (int i = 0; i < delivery.rows.size(); i++) {
+            int row = delivery.rows.row(i);
+            if (table.getEventId(row).equals("us1")) {
+                assertEquals(6.1, table.getMagnitude(row), 0);
+                revised++;
+            }
+        }
+        assertEquals(1, revised);
+    }
+
+    @Test
+    public void expiredEventsAreRemoved() throws Exception {
+        addEvent("us-expiring", 5.0, System.currentTimeMillis() - 30 * MINUTE + 1000, true);
+        startFeed(4.5, 30 * MINUTE);
+        Delivery prime = nextDelivery();
+        // 只有us0在30分钟内，us-expiring即将超过保留范围
+        assertEquals(2, prime.rows.size());
+
+        // feed没有变化，超过保留范围时仍然回调
+        Delivery delivery = nextDelivery();
+
+        assertEquals(0, delivery.inserted);
+        assertEquals(1, delivery.rows.size());
+        assertEquals("us0", delivery.rows.getTable().getEventId(delivery.rows.row(0)));
+    }
+
+    @Test
+    public void revisionsDoNotGrowTheTableWithoutBound() throws Exception {
+        startFeed(4.5);
+        nextDelivery();
+
+        Delivery delivery = null;
+        for (int round = 1; round <= EarthquakeLiveFeed.COMPACT_MIN_STALE_ROWS; round++) {
+            synchronized (mDayFeed) {
+                for (int i = 0; i < 5; i++) {
+                    addEvent("us" + i, 5.0 + round / 100.0, NOW - (i + 1) * 20 * MINUTE, i < 2);
+                }
+            }
+            delivery = nextDelivery();
+            assertEquals(2, delivery.updated);
+        }
+
+        // 每轮修订两次地震，旧行积累到一定数量后按当前的行重建
+        EarthquakeTable table = delivery.rows.getTable();
+        assertEquals(5, delivery.rows.size());
+        assertTrue("table rows: " + table.size(),
+                table.size() <= 5 + EarthquakeLiveFeed.COMPACT_MIN_STALE_ROWS);
+        for (int i = 0; i < delivery.rows.size(); i++) {
+            int row = delivery.rows.row(i);
+            assertEquals("us" + i, table.getEventId(row));
+            assertEquals(i < 2 ? 5.64 : 5.0, table.getMagnitude(row), 1e-9);
+            // 重建后预先格式化的显示文本仍在
+            assertNotNull(table.getMagnitudeText(row));
+        }
+    }
+
+    @Test
+    public void unchangedFeedBacksOff() throws Exception {
+        startFeed(4.5);
+        nextDelivery();
+
+        Thread.sleep(1000);
+
+        assertNull(mDeliveries.poll());
+        assertTrue(mNotModified.get() > 0);
+        // 以最短间隔轮询时约20次，加倍到最长间隔后只有几次
+        assertTrue("poll requests: " + mPollRequests.get(), mPollRequests.get() < 10);
+    }
+
+    private void startFeed(double minMagnitude) {
+        startFeed(minMagnitude, EarthquakeLiveFeed.RETENTION_MILLIS);
+    }
+
+    private void startFeed(double minMagnitude, long retentionMillis) {
+        mFeed = new EarthquakeLiveFeed(mServer.url() + "/day", mServer.url() + "/hour", minMagnitude,
+                MIN_INTERVAL_MILLIS, MAX_INTERVAL_MILLIS, retentionMillis, new EarthquakeRowFormatter("Near the"),
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                },
+                new EarthquakeLiveFeed.Listener() {
+                    @Override
+                    public void onLiveRows(EarthquakeTable.RowView rows, int inserted, int updated) {
+                        mDeliveries.add(new Delivery(rows, inserted, updated));
+                    }
+                });
+        mFeed.start();
+    }
+
+    private Delivery nextDelivery() throws InterruptedException {
+        Delivery delivery = mDeliveries.poll(5, TimeUnit.SECONDS);
+        assertNotNull(delivery);
+        return delivery;
+    }
+
+    private static List<String> eventIds(EarthquakeTable.RowView rows) {
+        List<String> eventIds = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            eventIds.add(rows.getTable().getEventId(rows.row(i)));
+        }
+        return eventIds;
+    }
+
+    private static void assertOrderedByTime(EarthquakeTable.RowView rows) {
+        EarthquakeTable table = rows.getTable();
+        for (int i = 1; i < rows.size(); i++) {
+            assertTrue(table.getTimeInMilliseconds(rows.row(i - 1)) >= table.getTimeInMilliseconds(rows.row(i)));
+        }
+    }
+
+    /**
+     * 从两个feed中删除一次地震
+     */
+    private void removeEvent(String eventId) {
+        synchronized (mDayFeed) {
+            mDayFeed.remove(eventId);
+            mHourFeed.remove(eventId);
+            mVersion++;
+        }
+    }
+
+    /**
+     * 加入或修订一次地震，同时改变feed的版本
+     * @param lastHour 是否也出现在最近一小时的feed中
+     */
+    private void addEvent(String eventId, double magnitude, long time, boolean lastHour) {
+        String feature = "{\"type\":\"Feature\",\"properties\":{\"mag\":" + magnitude
+                + ",\"place\":\"10km N of Town\",\"time\":" + time
+                + ",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/" + eventId + "\"}}";
+        synchronized (mDayFeed) {
+            mDayFeed.put(eventId, feature);
+            if (lastHour) {
+                mHourFeed.put(eventId, feature);
+            }
+            mVersion++;
+        }
+    }
+
+    private static String feed(Map<String, String> features) {
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        boolean first = true;
+        for (String feature : features.values()) {
+            if (!first) {
+                json.append(',');
+            }
+            json.append(feature);
+            first = false;
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * 一次回调
+     */
+    private static final class Delivery {
+        final EarthquakeTable.RowView rows;
+        final int inserted;
+        final int updated;
+        final long receivedAt = System.nanoTime();
+
+        Delivery(EarthquakeTable.RowView rows, int inserted, int updated) {
+            this.rows = rows;
+            this.inserted = inserted;
+            this.updated = updated;
+        }
+    }
+}
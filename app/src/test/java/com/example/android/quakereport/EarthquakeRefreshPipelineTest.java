@@ -0,0 +1,212 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 模拟在设置界面连续修改最小等级和排序方式，统计合并后实际的刷新和节省的网络请求。
+ * 计时用模拟的主线程消息队列和时钟，不等待真实的时间。
+ */
+public class EarthquakeRefreshPipelineTest {
+
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    private static final String BASE = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson";
+
+    /** 模拟主线程的消息队列 */
+    private final FakeScheduler mScheduler = new FakeScheduler();
+
+    /** 当前的设置 */
+    private String mMinMagnitude = "6";
+
+    private String mOrderBy = "magnitude";
+
+    /** 各次刷新的网址 */
+    private final List<String> mRefreshed = new ArrayList<>();
+
+    /** 刷新是否能在本地过滤 */
+    private boolean mLocal;
+
+    private EarthquakeRefreshPipeline mPipeline;
+
+    private EarthquakeHistogramMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mMetrics = new EarthquakeHistogramMetrics();
+        EarthquakeMetrics.set(mMetrics);
+        mPipeline = new EarthquakeRefreshPipeline(DEBOUNCE_MILLIS, mScheduler, new EarthquakeRefreshPipeline.Target() {
+            @Override
+            public String buildQueryUri() {
+                return BASE + "&minmag=" + mMinMagnitude + "&orderby=" + mOrderBy;
+            }
+
+            @Override
+            public boolean refresh(String uri) {
+                mRefreshed.add(uri);
+                return !mLocal;
+            }
+        });
+        mPipeline.setAppliedUri(BASE + "&minmag=6&orderby=magnitude");
+    }
+
+    @After
+    public void tearDown() {
+        EarthquakeMetrics.set(new EarthquakeHistogramMetrics());
+    }
+
+    @Test
+    public void burstOfChangesRefreshesOnce() {
+        // 逐个字符输入最小等级"4.5"，再改排序方式
+        change("4", mOrderBy);
+        change("4.", mOrderBy);
+        change("4.5", mOrderBy);
+        change("4.5", "time");
+        drain();
+
+        assertEquals(1, mRefreshed.size());
+        assertEquals(BASE + "&minmag=4.5&orderby=time", mRefreshed.get(0));
+        assertEquals(4, mPipeline.getRequestCount());
+        assertEquals(1, mPipeline.getNetworkRefreshCount());
+        assertEquals(3, mPipeline.getSavedRequestCount());
+        assertEquals(4, mMetrics.getCounter(EarthquakeMetrics.COUNTER_REFRESH_REQUESTS));
+        assertEquals(1, mMetrics.getCounter(EarthquakeMetrics.COUNTER_NETWORK_REFRESHES));
+    }
+
+    @Test
+    public void unchangedQueryIsNotRefreshed() {
+        // 改了又改回
+        change("5", mOrderBy);
+        change("6", mOrderBy);
+        drain();
+        assertTrue(mRefreshed.isEmpty());
+
+        // 在计时结束后改回，第二次刷新时网址与显示的相同
+        change("5", mOrderBy);
+        drain();
+        change("5", "time");
+        change("5", "magnitude");
+        drain();
+
+        assertEquals(1, mRefreshed.size());
+        assertEquals(4, mPipeline.getSavedRequestCount());
+    }
+
+    @Test
+    public void spacedChangesAreNotMerged() {
+        change("5", mOrderBy);
+        drain();
+        mLocal = true;
+        change("4", mOrderBy);
+        drain();
+
+        assertEquals(2, mRefreshed.size());
+        // 第二次在本地过滤，不计为网络请求
+        assertEquals(1, mPipeline.getNetworkRefreshCount());
+        assertEquals(1, mPipeline.getSavedRequestCount());
+    }
+
+    @Test
+    public void cancelledRefreshNeverRuns() {
+        change("3", mOrderBy);
+        assertTrue(mPipeline.isPending());
+        mPipeline.cancelPending();
+        assertFalse(mPipeline.isPending());
+
+        mScheduler.advance(3 * DEBOUNCE_MILLIS);
+        assertTrue(mRefreshed.isEmpty());
+        assertEquals(0, mScheduler.size());
+    }
+
+    @Test
+    public void shutdownRemovesThePendingRefresh() {
+        change("3", mOrderBy);
+        mPipeline.shutdown();
+
+        mScheduler.advance(3 * DEBOUNCE_MILLIS);
+        assertTrue(mRefreshed.isEmpty());
+        assertEquals(0, mScheduler.size());
+    }
+
+    /**
+     * 修改设置并通知，与onSharedPreferenceChanged相同
+     */
+    private void change(String minMagnitude, String orderBy) {
+        mMinMagnitude = minMagnitude;
+        mOrderBy = orderBy;
+        mPipeline.requestRefresh();
+        // 用户两次修改之间的间隔小于等待时间
+        mScheduler.advance(DEBOUNCE_MILLIS / 4);
+    }
+
+    /**
+     * 推进时钟，直到等待的刷新完成
+     */
+    private void drain() {
+        while (mPipeline.isPending()) {
+            assertTrue(mScheduler.size() > 0);
+            mScheduler.advance(DEBOUNCE_MILLIS);
+        }
+    }
+
+    /**
+     * 模拟主线程Handler的延迟消息，时钟只在advance()时前进
+     */
+    private static final class FakeScheduler implements EarthquakeRefreshPipeline.Scheduler {
+
+        private final List<Runnable> mRunnables = new ArrayList<>();
+
+        private final List<Long> mTimes = new ArrayList<>();
+
+        private long mNow;
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayMillis) {
+            mRunnables.add(runnable);
+            mTimes.add(mNow + delayMillis);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            for (int i = mRunnables.size() - 1; i >= 0; i--) {
+                if (mRunnables.get(i) == runnable) {
+                    mRunnables.remove(i);
+                    mTimes.remove(i);
+                }
+            }
+        }
+
+        int size() {
+            return mRunnables.size();
+        }
+
+        /**
+         * 时钟前进millis，按时间顺序执行到期的消息
+         */
+        void advance(long millis) {
+            long end = mNow + millis;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mTimes.size(); i++) {
+                    if (mTimes.get(i) <= end && (next < 0 || mTimes.get(i) < mTimes.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                mNow = mTimes.remove(next);
+                mRunnables.remove(next).run();
+            }
+            mNow = end;
+        }
+    }
+}
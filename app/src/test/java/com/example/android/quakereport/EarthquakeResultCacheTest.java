@@ -0,0 +1,133 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 查询结果缓存：命中、未命中、超过有效期和按估算字节数淘汰，以及命中和未命中的计数。
+ */
+public class EarthquakeResultCacheTest {
+
+    private static final long NOW = 1556000000000L;
+
+    private static final String URL_A = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&minmag=6";
+
+    private static final String URL_B = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&minmag=5";
+
+    private static final String URL_C = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&minmag=4";
+
+    private EarthquakeHistogramMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mMetrics = new EarthquakeHistogramMetrics();
+        EarthquakeMetrics.set(mMetrics);
+    }
+
+    @After
+    public void tearDown() {
+        EarthquakeMetrics.set(new EarthquakeHistogramMetrics());
+    }
+
+    @Test
+    public void storedResultIsAHit() {
+        EarthquakeResultCache cache = new EarthquakeResultCache(1024 * 1024);
+        List<Earthquake> earthquakes = earthquakes(3);
+        cache.put(URL_A, earthquakes, NOW);
+
+        // 参数顺序不同的同一查询
+        assertSame(earthquakes, cache.get(
+                "https://earthquake.usgs.gov/fdsnws/event/1/query?minmag=6&format=geojson", NOW + 1000));
+        assertEquals(1, cache.hitCount());
+        assertEquals(0, cache.missCount());
+        assertEquals(1, mMetrics.getCounter(EarthquakeMetrics.COUNTER_RESULT_CACHE_HITS));
+        assertEquals(EarthquakeResultCache.estimateSize(earthquakes), cache.sizeBytes());
+    }
+
+    @Test
+    public void unknownQueryIsAMiss() {
+        EarthquakeResultCache cache = new EarthquakeResultCache(1024 * 1024);
+        cache.put(URL_A, earthquakes(3), NOW);
+
+        assertNull(cache.get(URL_B, NOW));
+        assertEquals(0, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(0, mMetrics.getCounter(EarthquakeMetrics.COUNTER_RESULT_CACHE_HITS));
+    }
+
+    @Test
+    public void expiredResultIsAMissAndIsRemoved() {
+        EarthquakeResultCache cache = new EarthquakeResultCache(1024 * 1024);
+        cache.put(URL_A, earthquakes(3), NOW);
+
+        assertNotNull(cache.get(URL_A, NOW + EarthquakeDiskCache.TTL_MILLIS - 1));
+        assertNull(cache.get(URL_A, NOW + EarthquakeDiskCache.TTL_MILLIS));
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(0, cache.sizeBytes());
+        // 已移除，之后仍是未命中
+        assertNull(cache.get(URL_A, NOW));
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedResultIsEvictedAtTheByteBound() {
+        List<Earthquake> a = earthquakes(10);
+        List<Earthquake> b = earthquakes(10);
+        List<Earthquake> c = earthquakes(10);
+        int entryBytes = EarthquakeResultCache.estimateSize(a);
+        // 只能放下两个结果
+        EarthquakeResultCache cache = new EarthquakeResultCache(entryBytes * 2 + entryBytes / 2);
+        cache.put(URL_A, a, NOW);
+        cache.put(URL_B, b, NOW);
+        assertSame(a, cache.get(URL_A, NOW));
+        cache.put(URL_C, c, NOW);
+
+        assertEquals(entryBytes * 2, cache.sizeBytes());
+        assertNull(cache.get(URL_B, NOW));
+        assertSame(a, cache.get(URL_A, NOW));
+        assertSame(c, cache.get(URL_C, NOW));
+        assertEquals(3, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(3, mMetrics.getCounter(EarthquakeMetrics.COUNTER_RESULT_CACHE_HITS));
+    }
+
+    @Test
+    public void replacedResultIsCountedOnce() {
+        List<Earthquake> earthquakes = earthquakes(10);
+        EarthquakeResultCache cache = new EarthquakeResultCache(1024 * 1024);
+        cache.put(URL_A, earthquakes(5), NOW);
+        cache.put(URL_A, earthquakes, NOW);
+
+        assertEquals(EarthquakeResultCache.estimateSize(earthquakes), cache.sizeBytes());
+    }
+
+    @Test
+    public void sizeIncludesEveryEarthquakeField() {
+        List<Earthquake> earthquakes = earthquakes(1);
+        Earthquake earthquake = earthquakes.get(0);
+        // 64字节的Earthquake对象加上列表中的引用
+        assertEquals(68, EarthquakeResultCache.EARTHQUAKE_OVERHEAD_BYTES);
+        assertEquals(68 + 2 * EarthquakeResultCache.STRING_OVERHEAD_BYTES
+                        + 2 * (earthquake.getLocation().length() + earthquake.getUrl().length()),
+                EarthquakeResultCache.estimateSize(earthquakes));
+    }
+
+    private static List<Earthquake> earthquakes(int count) {
+        List<Earthquake> earthquakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            earthquakes.add(new Earthquake(5.0, "10km SSW of Town " + (i % 10), NOW - i * 60000L,
+                    "https://earthquake.usgs.gov/earthquakes/eventpage/us" + (1000000 + i), 35.0, 139.0, 10.0));
+        }
+        return earthquakes;
+    }
+}
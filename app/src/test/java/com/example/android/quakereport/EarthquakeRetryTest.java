@@ -0,0 +1,308 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用注入故障的本地HTTP服务器验证重试、退避、重试预算、部分数据挽救和退回使用过期缓存。
+ */
+public class EarthquakeRetryTest {
+
+    private static final int FEATURE_COUNT = 50;
+
+    private MockHttpServer mServer;
+
+    /** 依次返回的响应，用完后一直返回mDefaultResponse */
+    private final Queue<MockHttpServer.Response> mResponses = new ConcurrentLinkedQueue<>();
+
+    private volatile MockHttpServer.Response mDefaultResponse;
+
+    private EarthquakeRetryPolicy mPolicy;
+
+    private EarthquakeRetryPolicy mDefaultPolicy;
+
+    private EarthquakeHistogramMetrics mMetrics;
+
+    private File mCacheDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public MockHttpServer.Response handle(MockHttpServer.Request request) {
+                MockHttpServer.Response response = mResponses.poll();
+                return response != null ? response : mDefaultResponse;
+            }
+        });
+        mDefaultResponse = new MockHttpServer.Response(200, featuresJson(FEATURE_COUNT));
+        // 等待时间缩短到几毫秒，Retry-After最多接受2秒
+        mDefaultPolicy = EarthquakeRetryPolicy.getInstance();
+        setPolicy(new EarthquakeRetryPolicy(4, 4, 2000, 10, new Random(21)));
+        mMetrics = new EarthquakeHistogramMetrics();
+        EarthquakeMetrics.set(mMetrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        EarthquakeRetryPolicy.setInstance(mDefaultPolicy);
+        EarthquakeMetrics.set(new EarthquakeHistogramMetrics());
+        if (mCacheDirectory != null) {
+            File[] files = mCacheDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            mCacheDirectory.delete();
+        }
+    }
+
+    @Test
+    public void retriesServerErrorsUntilSuccess() {
+        mResponses.add(new MockHttpServer.Response(503, ""));
+        mResponses.add(new MockHttpServer.Response(502, ""));
+
+        List<Earthquake> earthquakes = fetch();
+
+        assertEquals(FEATURE_COUNT, earthquakes.size());
+        assertFalse(QueryUtils.isPartial(earthquakes));
+        assertEquals(3, mServer.requestCount());
+        assertEquals(2, mPolicy.getRetryCount());
+        assertEquals(2, mMetrics.getCounter(EarthquakeMetrics.COUNTER_RETRIES));
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() {
+        mDefaultResponse = new MockHttpServer.Response(404, "");
+
+        assertNull(fetch());
+        assertEquals(1, mServer.requestCount());
+        assertEquals(0, mPolicy.getRetryCount());
+    }
+
+    @Test
+    public void waitsAsLongAsRetryAfter() {
+        mResponses.add(new MockHttpServer.Response(429, "").header("Retry-After", "1"));
+
+        long start = System.nanoTime();
+        List<Earthquake> earthquakes = fetch();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(FEATURE_COUNT, earthquakes.size());
+        assertEquals(2, mServer.requestCount());
+        assertTrue("elapsed " + elapsedMillis + " ms", elapsedMillis >= 1000);
+    }
+
+    @Test
+    public void retryAfterBeyondMaxDelayIsNotRetried() {
+        mDefaultResponse = new MockHttpServer.Response(503, "").header("Retry-After", "120");
+
+        assertNull(fetch());
+        assertEquals(1, mServer.requestCount());
+    }
+
+    @Test
+    public void budgetLimitsRetriesWhenServerKeepsFailing() {
+        setPolicy(new EarthquakeRetryPolicy(4, 1, 10, 2, new Random(21)));
+        mDefaultResponse = new MockHttpServer.Response(500, "");
+
+        assertNull(fetch());
+        // 预算只够两次重试
+        assertEquals(3, mServer.requestCount());
+        assertNull(fetch());
+        // 预算用完，之后的请求只尝试一次，直到成功的请求存入足够的额度
+        assertEquals(4, mServer.requestCount());
+        assertEquals(2, mPolicy.getRetryCount());
+        assertEquals(2, mPolicy.getDeniedCount());
+        assertEquals(2, mMetrics.getCounter(EarthquakeMetrics.COUNTER_RETRIES_DENIED));
+    }
+
+    @Test
+    public void truncatedBodyIsRetried() {
+        byte[] body = mDefaultResponse.body;
+        mResponses.add(new MockHttpServer.Response(200, body).truncate(body.length / 2));
+
+        List<Earthquake> earthquakes = fetch();
+
+        assertEquals(FEATURE_COUNT, earthquakes.size());
+        assertFalse(QueryUtils.isPartial(earthquakes));
+        assertEquals(2, mServer.requestCount());
+    }
+
+    @Test
+    public void partialResultIsSalvagedWhenRetriesRunOut() {
+        byte[] body = mDefaultResponse.body;
+        mDefaultResponse = new MockHttpServer.Response(200, body).truncate(body.length / 2);
+
+        List<Earthquake> earthquakes = fetch();
+
+        assertTrue(QueryUtils.isPartial(earthquakes));
+        assertTrue("salvaged " + earthquakes.size(),
+                earthquakes.size() > 0 && earthquakes.size() < FEATURE_COUNT);
+        assertEquals(4, mServer.requestCount());
+        assertEquals(1, mMetrics.getCounter(EarthquakeMetrics.COUNTER_PARTIAL_RESULTS));
+    }
+
+    @Test
+    public void incompleteBodyIsNotCached() throws Exception {
+        EarthquakeDiskCache cache = newCache();
+        // 文档本身完整，但连接在Content-Length之前断开，读取可能只是正常结束
+        String json = featuresJson(FEATURE_COUNT);
+        byte[] padded = (json + "                ").getBytes("UTF-8");
+        mDefaultResponse = new MockHttpServer.Response(200, padded)
+                .header("ETag", "\"v1\"")
+                .truncate(json.length());
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(url(), cache);
+
+        assertTrue(QueryUtils.isPartial(earthquakes));
+        assertNull(cache.get(url()));
+
+        // 完整的正文才写入缓存
+        mDefaultResponse = new MockHttpServer.Response(200, padded).header("ETag", "\"v1\"");
+        earthquakes = QueryUtils.fetchEarthquakeData(url(), cache);
+
+        assertFalse(QueryUtils.isPartial(earthquakes));
+        assertEquals(FEATURE_COUNT, cache.get(url()).earthquakes.size());
+    }
+
+    @Test
+    public void dataAfterTheDocumentIsRejected() throws Exception {
+        EarthquakeDiskCache cache = newCache();
+        mDefaultResponse = new MockHttpServer.Response(200, featuresJson(FEATURE_COUNT) + "{}");
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(url(), cache);
+
+        assertTrue(QueryUtils.isPartial(earthquakes));
+        assertNull(cache.get(url()));
+        // 格式错误不重试
+        assertEquals(1, mServer.requestCount());
+        assertEquals(1, mMetrics.getCounter(EarthquakeMetrics.COUNTER_PARSE_ERRORS));
+    }
+
+    @Test
+    public void malformedBodyIsNotRetriedAndKeepsSalvagedRows() {
+        // 第三个地震之后的内容不是合法的JSON
+        mDefaultResponse = new MockHttpServer.Response(200, "{\"type\":\"FeatureCollection\",\"features\":["
+                + feature(0) + "," + feature(1) + "," + feature(2) + ",oops," + feature(3) + "]}");
+
+        List<Earthquake> earthquakes = fetch();
+
+        assertTrue(QueryUtils.isPartial(earthquakes));
+        assertEquals(3, earthquakes.size());
+        assertEquals(1, mServer.requestCount());
+        assertEquals(0, mPolicy.getRetryCount());
+        assertEquals(1, mMetrics.getCounter(EarthquakeMetrics.COUNTER_PARTIAL_RESULTS));
+    }
+
+    @Test
+    public void unknownHostFallsBackToLastGoodResultWithoutRetrying() throws Exception {
+        EarthquakeDiskCache cache = newCache();
+        String url = "http://quakereport.invalid/query?format=geojson";
+        List<Earthquake> lastGood = new ArrayList<>();
+        lastGood.add(new Earthquake(5.5, "10km N of Town", 1556000000000L, "https://example.com/us1"));
+        cache.put(url, new EarthquakeDiskCache.Entry(lastGood, "\"etag\"", "", 0));
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(url, cache);
+
+        assertEquals(1, earthquakes.size());
+        assertFalse(QueryUtils.isPartial(earthquakes));
+        assertEquals(0, mPolicy.getRetryCount());
+        assertEquals(1, mMetrics.getCounter(EarthquakeMetrics.COUNTER_STALE_FALLBACKS));
+    }
+
+    @Test
+    public void malformedFeaturesAreSkipped() {
+        mDefaultResponse = new MockHttpServer.Response(200, "{\"type\":\"FeatureCollection\",\"features\":["
+                + feature(0) + ","
+                // 字段类型错误
+                + "{\"properties\":{\"mag\":4.5,\"place\":\"Somewhere\",\"time\":\"yesterday\",\"url\":\"u\"}},"
+                + "{\"properties\":{\"mag\":\"strong\",\"place\":\"Somewhere\",\"time\":1,\"url\":\"u\"}},"
+                // 不是对象
+                + "42,"
+                // 字符串形式的等级可以使用
+                + "{\"properties\":{\"mag\":\"4.5\",\"place\":\"Somewhere\",\"time\":1,\"url\":\"u\"}},"
+                + feature(1)
+                + "]}");
+
+        List<Earthquake> earthquakes = fetch();
+
+        assertEquals(3, earthquakes.size());
+        assertFalse(QueryUtils.isPartial(earthquakes));
+        assertEquals(4.5, earthquakes.get(1).getMagnitude(), 0);
+        assertEquals(1, mServer.requestCount());
+        assertEquals(3, mMetrics.getCounter(EarthquakeMetrics.COUNTER_FEATURES_DROPPED));
+    }
+
+    @Test
+    public void fallsBackToLastGoodResult() throws Exception {
+        EarthquakeDiskCache cache = newCache();
+        List<Earthquake> lastGood = new ArrayList<>();
+        lastGood.add(new Earthquake(5.5, "10km N of Town", 1556000000000L, "https://example.com/us1"));
+        // 早已过期的缓存，需要重新请求
+        cache.put(url(), new EarthquakeDiskCache.Entry(lastGood, "\"etag\"", "", 0));
+        mDefaultResponse = new MockHttpServer.Response(503, "");
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(url(), cache);
+
+        assertEquals(1, earthquakes.size());
+        assertEquals("https://example.com/us1", earthquakes.get(0).getUrl());
+        assertFalse(QueryUtils.isPartial(earthquakes));
+        assertEquals(4, mServer.requestCount());
+        assertEquals(1, mMetrics.getCounter(EarthquakeMetrics.COUNTER_STALE_FALLBACKS));
+    }
+
+    private EarthquakeDiskCache newCache() throws IOException {
+        mCacheDirectory = File.createTempFile("earthquake_cache", null);
+        mCacheDirectory.delete();
+        return new EarthquakeDiskCache(mCacheDirectory, 1024 * 1024);
+    }
+
+    private void setPolicy(EarthquakeRetryPolicy policy) {
+        mPolicy = policy;
+        EarthquakeRetryPolicy.setInstance(policy);
+        assertSame(policy, EarthquakeRetryPolicy.getInstance());
+    }
+
+    private List<Earthquake> fetch() {
+        return QueryUtils.fetchEarthquakeData(url(), null);
+    }
+
+    private String url() {
+        return mServer.url() + "/query?format=geojson";
+    }
+
+    private static String featuresJson(int count) {
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(feature(i));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String feature(int i) {
+        return "{\"type\":\"Feature\",\"properties\":{\"mag\":" + (2.0 + i % 60 / 10.0)
+                + ",\"place\":\"" + i + "km N of Town\",\"time\":" + (1556000000000L - i * 60000L)
+                + ",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/us" + i + "\"},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[-120.5," + (35 + i % 10) + ",8.2]}}";
+    }
+}
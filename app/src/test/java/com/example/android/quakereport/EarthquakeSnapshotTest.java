@@ -0,0 +1,171 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 快照写入后读回的数据与原数据完全相同，损坏、截断和其他版本的文件不会被当作有效数据。
+ */
+public class EarthquakeSnapshotTest {
+
+    private static final String QUERY =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&minmag=2&orderby=time";
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("earthquake_snapshot", null);
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void roundTripIsExact() throws IOException {
+        List<Earthquake> earthquakes = earthquakes(10000);
+        EarthquakeSnapshot.write(mFile, new EarthquakeSnapshot(QUERY, 1556000000000L, earthquakes));
+
+        EarthquakeSnapshot snapshot = EarthquakeSnapshot.read(mFile);
+        assertEquals(QUERY, snapshot.query);
+        assertEquals(1556000000000L, snapshot.savedAt);
+        assertEquals(earthquakes.size(), snapshot.earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake expected = earthquakes.get(i);
+            Earthquake actual = snapshot.earthquakes.get(i);
+            assertEquals(expected.getMagnitude(), actual.getMagnitude(), 0);
+            assertEquals(expected.getLocation(), actual.getLocation());
+            assertEquals(expected.getTimeInMilliseconds(), actual.getTimeInMilliseconds());
+            assertEquals(expected.getUrl(), actual.getUrl());
+            // NaN与NaN按assertEquals(double, double, delta)视为相等
+            assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+            assertEquals(expected.getLongitude(), actual.getLongitude(), 0);
+            assertEquals(expected.getDepth(), actual.getDepth(), 0);
+        }
+    }
+
+    @Test
+    public void emptySnapshot() throws IOException {
+        EarthquakeSnapshot.write(mFile, new EarthquakeSnapshot(QUERY, 0, new ArrayList<Earthquake>()));
+        EarthquakeSnapshot snapshot = EarthquakeSnapshot.read(mFile);
+        assertEquals(QUERY, snapshot.query);
+        assertTrue(snapshot.earthquakes.isEmpty());
+    }
+
+    @Test
+    public void missingFileIsNotAnError() throws IOException {
+        assertNull(EarthquakeSnapshot.read(mFile));
+    }
+
+    @Test
+    public void otherVersionIsIgnored() throws IOException {
+        EarthquakeSnapshot.write(mFile, new EarthquakeSnapshot(QUERY, 0, earthquakes(10)));
+        // 版本号紧跟魔数之后
+        overwriteInt(4, EarthquakeSnapshot.FORMAT_VERSION + 1);
+        assertNull(EarthquakeSnapshot.read(mFile));
+    }
+
+    @Test
+    public void corruptedSnapshotIsRejected() throws IOException {
+        EarthquakeSnapshot.write(mFile, new EarthquakeSnapshot(QUERY, 0, earthquakes(100)));
+        long length = mFile.length();
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            // 改动数据部分中间的一个字节
+            raf.seek(length / 2);
+            int b = raf.read();
+            raf.seek(length / 2);
+            raf.write(b ^ 0x10);
+        } finally {
+            raf.close();
+        }
+        assertReadFails();
+    }
+
+    @Test
+    public void truncatedSnapshotIsRejected() throws IOException {
+        EarthquakeSnapshot.write(mFile, new EarthquakeSnapshot(QUERY, 0, earthquakes(100)));
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.setLength(raf.length() - 7);
+        } finally {
+            raf.close();
+        }
+        assertReadFails();
+    }
+
+    @Test
+    public void otherFileIsRejected() throws IOException {
+        EarthquakeSnapshot.write(mFile, new EarthquakeSnapshot(QUERY, 0, earthquakes(10)));
+        overwriteInt(0, 0x7b226665);
+        assertReadFails();
+    }
+
+    private void assertReadFails() {
+        try {
+            EarthquakeSnapshot.read(mFile);
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    private void overwriteInt(long position, int value) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(position);
+            raf.writeInt(value);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 与USGS数据精度相同的地震：等级一到两位小数，纬度和经度四到七位，深度两到三位；
+     * 按服务器的方式按等级排序，时间无序；少数没有震中位置，地点含非ASCII字符
+     */
+    private static List<Earthquake> earthquakes(int count) {
+        Random random = new Random(count);
+        List<Earthquake> earthquakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double magnitude = round(random.nextDouble() * 8, 1 + random.nextInt(2));
+            String location = (1 + random.nextInt(200)) + "km SSW of Town " + random.nextInt(300)
+                    + (i % 7 == 0 ? ", México" : ", Region");
+            long time = 1556000000000L - (long) (random.nextDouble() * 30L * 24 * 60 * 60 * 1000);
+            String url = "https://earthquake.usgs.gov/earthquakes/eventpage/us" + Integer.toString(1000000 + i, 36);
+            if (i % 50 == 0) {
+                earthquakes.add(new Earthquake(magnitude, location, time, url));
+            } else {
+                earthquakes.add(new Earthquake(magnitude, location, time, url,
+                        round(random.nextDouble() * 180 - 90, 4 + random.nextInt(4)),
+                        round(random.nextDouble() * 360 - 180, 4 + random.nextInt(4)),
+                        round(random.nextDouble() * 700 - 3, 2 + random.nextInt(2))));
+            }
+        }
+        QueryUtils.sortLikeServer(earthquakes, false);
+        return earthquakes;
+    }
+
+    /**
+     * 保留decimals位小数，得到与解析同样文本的JSON数字相同的double
+     */
+    private static double round(double value, int decimals) {
+        return Double.parseDouble(String.format(Locale.US, "%." + decimals + "f", value));
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 空间索引与逐行检查的结果比较，数据是10万条随机分布的地震。
+ */
+public class EarthquakeSpatialIndexTest {
+
+    private static final int EARTHQUAKE_COUNT = 100000;
+
+    private final double[] mLatitudes = new double[EARTHQUAKE_COUNT];
+
+    private final double[] mLongitudes = new double[EARTHQUAKE_COUNT];
+
+    private EarthquakeSpatialIndex mIndex;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        for (int row = 0; row < EARTHQUAKE_COUNT; row++) {
+            if (row % 100 == 0) {
+                // 没有位置的行
+                mLatitudes[row] = Double.NaN;
+                mLongitudes[row] = Double.NaN;
+            } else {
+                // 纬度按面积均匀分布
+                mLatitudes[row] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+                mLongitudes[row] = random.nextDouble() * 360 - 180;
+            }
+        }
+        mIndex = new EarthquakeSpatialIndex(mLatitudes, mLongitudes);
+    }
+
+    @Test
+    public void radiusQueriesMatchBruteForce() {
+        double[][] queries = {
+                {35.7, 139.7, 300},      // 东京
+                {-33.4, -70.6, 1000},    // 圣地亚哥
+                {0, 179.8, 800},         // 跨越180°经线
+                {88.5, 20, 400},         // 包含北极
+                {-60, 0, 10000},         // 半个地球
+                {10, 10, 0.5},           // 很小的范围
+        };
+        for (double[] query : queries) {
+            int[] expected = bruteForceRadius(query[0], query[1], query[2]);
+            int[] actual = sorted(mIndex.withinRadius(query[0], query[1], query[2]));
+            assertArrayEquals(Arrays.toString(query), expected, actual);
+        }
+    }
+
+    @Test
+    public void boxQueriesMatchBruteForce() {
+        double[][] queries = {
+                {30, 125, 46, 146},      // 日本
+                {-10, 170, 10, -170},    // 跨越180°经线
+                {-90, -180, 90, 180},    // 全球
+                {50.2, 10.7, 50.3, 10.4} // 跨越180°经线、几乎全部经度的窄带
+        };
+        for (double[] query : queries) {
+            int[] expected = bruteForceBox(query[0], query[1], query[2], query[3]);
+            int[] actual = sorted(mIndex.inBox(query[0], query[1], query[2], query[3]));
+            assertArrayEquals(Arrays.toString(query), expected, actual);
+        }
+        assertEquals(EARTHQUAKE_COUNT - EARTHQUAKE_COUNT / 100, mIndex.inBox(-90, -180, 90, 180).length);
+    }
+
+    @Test
+    public void randomRadiusQueriesMatchBruteForce() {
+        Random random = new Random(7);
+        long found = 0;
+        for (int i = 0; i < 50; i++) {
+            double latitude = random.nextDouble() * 160 - 80;
+            double longitude = random.nextDouble() * 360 - 180;
+            int[] expected = bruteForceRadius(latitude, longitude, 500);
+            assertArrayEquals(latitude + ", " + longitude, expected,
+                    sorted(mIndex.withinRadius(latitude, longitude, 500)));
+            found += expected.length;
+        }
+        assertTrue(found > 0);
+    }
+
+    @Test
+    public void parserKeepsCoordinatesAndDepth() throws Exception {
+        String json = "{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[142.37,38.30,29]},"
+                + "\"properties\":{\"mag\":9.1,\"place\":\"near the east coast of Honshu, Japan\","
+                + "\"time\":1299822384120,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/official\"}},"
+                + "{\"type\":\"Feature\",\"properties\":{\"mag\":2.1,\"place\":\"5km N of Town\","
+                + "\"time\":1,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/nogeo\"},\"geometry\":null}"
+                + "]}";
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJsonParser.parseFeatures(
+                new ByteArrayInputStream(json.getBytes(Charset.forName("UTF-8"))), earthquakes);
+
+        assertEquals(2, earthquakes.size());
+        Earthquake tohoku = earthquakes.get(0);
+        assertEquals(38.30, tohoku.getLatitude(), 0);
+        assertEquals(142.37, tohoku.getLongitude(), 0);
+        assertEquals(29, tohoku.getDepth(), 0);
+        assertFalse(earthquakes.get(1).hasCoordinates());
+
+        EarthquakeTable table = new EarthquakeTable();
+        for (Earthquake earthquake : earthquakes) {
+            table.add(earthquake.getMagnitude(), earthquake.getLocation(), earthquake.getTimeInMilliseconds(),
+                    earthquake.getUrl(), earthquake.getLatitude(), earthquake.getLongitude(), earthquake.getDepth());
+        }
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex(table, table.size());
+        // 仙台到震中约130千米
+        assertArrayEquals(new int[]{0}, index.withinRadius(38.27, 140.87, 150));
+        assertEquals(0, index.withinRadius(38.27, 140.87, 100).length);
+    }
+
+    private int[] bruteForceRadius(double latitude, double longitude, double radiusKm) {
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < EARTHQUAKE_COUNT; row++) {
+            if (!Double.isNaN(mLatitudes[row]) && EarthquakeSpatialIndex.distanceKm(
+                    latitude, longitude, mLatitudes[row], mLongitudes[row]) <= radiusKm) {
+                rows.add(row);
+            }
+        }
+        return toArray(rows);
+    }
+
+    private int[] bruteForceBox(double south, double west, double north, double east) {
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < EARTHQUAKE_COUNT; row++) {
+            double latitude = mLatitudes[row];
+            double longitude = mLongitudes[row];
+            if (Double.isNaN(latitude) || latitude < south || latitude > north) {
+                continue;
+            }
+            boolean inLongitude = west <= east ? longitude >= west && longitude <= east
+                    : longitude >= west || longitude <= east;
+            if (inLongitude) {
+                rows.add(row);
+            }
+        }
+        return toArray(rows);
+    }
+
+    private static int[] toArray(List<Integer> rows) {
+        int[] array = new int[rows.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = rows.get(i);
+        }
+        return array;
+    }
+
+    private static int[] sorted(int[] rows) {
+        Arrays.sort(rows);
+        return rows;
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用本地HTTP服务器验证全量同步、updatedafter增量同步和按事件id合并。
+ */
+public class EarthquakeSyncTest {
+
+    private static final long NOW = 1556000000000L;
+
+    private static final long MINUTE = 60L * 1000;
+
+    private MockHttpServer mServer;
+
+    private File mFile;
+
+    private EarthquakeStore mStore;
+
+    /** 全量请求返回的事件 */
+    private final List<String> mFullFeed = new ArrayList<>();
+
+    /** 增量请求返回的事件 */
+    private final List<String> mDeltaFeed = new ArrayList<>();
+
+    /** 最近一次增量请求的updatedafter */
+    private volatile String mLastUpdatedAfter;
+
+    /** 全量和增量请求中最大的响应字节数 */
+    private final Map<String, Integer> mBodySizes = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("earthquake_store", null);
+        mFile.delete();
+        mStore = new EarthquakeStore(mFile);
+        mServer = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public MockHttpServer.Response handle(MockHttpServer.Request request) {
+                String updatedAfter = request.parameter("updatedafter");
+                List<String> features;
+                if (updatedAfter != null) {
+                    mLastUpdatedAfter = updatedAfter;
+                    features = mDeltaFeed;
+                } else if (request.parameter("endtime") == null) {
+                    // 全量同步中最新的窗口返回全部事件，其余窗口为空
+                    features = mFullFeed;
+                } else {
+                    features = new ArrayList<>();
+                }
+                String body = feed(features);
+                synchronized (mBodySizes) {
+                    String kind = updatedAfter != null ? "delta" : "full";
+                    Integer size = mBodySizes.get(kind);
+                    mBodySizes.put(kind, Math.max(size != null ? size : 0, body.length()));
+                }
+                return new MockHttpServer.Response(200, body);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        mFile.delete();
+    }
+
+    @Test
+    public void fullSyncThenDeltaMergesByEventId() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            mFullFeed.add(feature("us" + i, 4.5, NOW - (i + 1) * 10 * MINUTE));
+        }
+        EarthquakeSync sync = newSync();
+
+        EarthquakeSync.Result full = sync.sync(baseUrl(), 4.5, NOW);
+        assertNotNull(full);
+        assertTrue(full.full);
+        assertEquals(200, full.stored);
+
+        // 一次地震被修订，一次新的地震
+        mDeltaFeed.add(feature("us3", 5.1, NOW - 4 * 10 * MINUTE));
+        mDeltaFeed.add(feature("us-new", 4.8, NOW + 5 * MINUTE));
+        mServer.resetCounts();
+
+        EarthquakeSync.Result delta = sync.sync(baseUrl(), 4.5, NOW + 10 * MINUTE);
+        assertNotNull(delta);
+        assertFalse(delta.full);
+        assertEquals(1, mServer.requestCount());
+        assertEquals(2, delta.received);
+        assertEquals(201, delta.stored);
+        assertEquals(QueryUtils.formatQueryTime(NOW - EarthquakeSync.OVERLAP_MILLIS), mLastUpdatedAfter);
+        // 增量请求的数据量与变化量成正比
+        assertTrue(mBodySizes.get("delta") * 50 < mBodySizes.get("full"));
+
+        EarthquakeStore.Snapshot snapshot = mStore.read();
+        assertEquals(201, snapshot.earthquakes.size());
+        assertEquals(NOW + 10 * MINUTE, snapshot.syncedAt);
+        assertEquals(NOW, snapshot.fullSyncedAt);
+        int revised = 0;
+        for (Earthquake earthquake : snapshot.earthquakes) {
+            if (earthquake.getUrl().endsWith("/us3")) {
+                assertEquals(5.1, earthquake.getMagnitude(), 0);
+                revised++;
+            }
+        }
+        assertEquals(1, revised);
+    }
+
+    @Test
+    public void minMagnitudeChangeForcesFullSync() throws Exception {
+        mFullFeed.add(feature("us1", 6.0, NOW - MINUTE));
+        EarthquakeSync sync = newSync();
+        sync.sync(baseUrl(), 6.0, NOW);
+
+        EarthquakeSync.Result result = sync.sync(baseUrl(), 4.5, NOW + MINUTE);
+
+        assertTrue(result.full);
+        assertNull(mLastUpdatedAfter);
+    }
+
+    @Test
+    public void mergeDropsEventsOutsideTheWindow() {
+        List<Earthquake> existing = new ArrayList<>();
+        existing.add(new Earthquake(5, "old", 100, "https://host/eventpage/a"));
+        existing.add(new Earthquake(5, "kept", 300, "https://host/eventpage/b"));
+        List<Earthquake> changes = new ArrayList<>();
+        changes.add(new Earthquake(6, "kept, revised", 300, "https://host/eventpage/b"));
+
+        List<Earthquake> merged = EarthquakeStore.merge(existing, changes, 200);
+
+        assertEquals(1, merged.size());
+        assertEquals("kept, revised", merged.get(0).getLocation());
+    }
+
+    @Test
+    public void storeServesOnlyFreshCoveringSnapshots() {
+        EarthquakeStore.Snapshot snapshot = new EarthquakeStore.Snapshot(4.5, "", NOW, NOW,
+                new ArrayList<Earthquake>());
+
+        assertTrue(EarthquakeSync.canServe(snapshot, 6.0, "", NOW + MINUTE));
+        assertFalse(EarthquakeSync.canServe(snapshot, 4.0, "", NOW + MINUTE));
+        assertFalse(EarthquakeSync.canServe(snapshot, 6.0, "", NOW + EarthquakeSync.MAX_STORE_AGE_MILLIS));
+        assertFalse(EarthquakeSync.canServe(null, 6.0, "", NOW));
+        // 数据源不同的本地数据不能使用
+        assertFalse(EarthquakeSync.canServe(snapshot, 6.0, "emsc", NOW + MINUTE));
+    }
+
+    private EarthquakeSync newSync() {
+        return new EarthquakeSync(mStore, new EarthquakeFanOut(new EarthquakeFanOut.Fetcher() {
+            @Override
+            public List<Earthquake> fetch(String url) {
+                return QueryUtils.fetchEarthquakeData(url, null);
+            }
+        }, 4));
+    }
+
+    private String baseUrl() {
+        return mServer.url() + "/query?format=geojson";
+    }
+
+    private static String feed(List<String> features) {
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < features.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(features.get(i));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String feature(String eventId, double magnitude, long time) {
+        return "{\"type\":\"Feature\",\"properties\":{\"mag\":" + magnitude
+                + ",\"place\":\"10km N of Town\",\"time\":" + time
+                + ",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/" + eventId + "\"}}";
+    }
+}
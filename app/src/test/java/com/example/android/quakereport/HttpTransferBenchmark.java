@@ -0,0 +1,201 @@
+package com.example.android.quakereport;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 对比原来的请求方式（每次新连接、disconnect()、不压缩、读成字符串后用JSONObject解析）与EarthquakeHttpClient
+ * （连接复用、gzip边解压边解析）请求本地服务器时的传输字节数、连接数和首条结果时间。
+ * 只断言服务器统计的数量；首条结果时间记录在直方图中，随断言信息报告。
+ * 本地回环没有TLS，连接复用省下的握手时间比真实网络小。
+ */
+public class HttpTransferBenchmark {
+
+    private static final int FEATURE_COUNT = 5000;
+
+    private static final int REQUEST_COUNT = 20;
+
+    /** 从发出请求到得到第一个地震对象的时间 */
+    private static final String FIRST_RESULT_BEFORE = "first_result_before";
+    private static final String FIRST_RESULT_AFTER = "first_result_after";
+
+    private final EarthquakeHistogramMetrics mFirstResult = new EarthquakeHistogramMetrics();
+
+    private MockHttpServer mServer;
+
+    private byte[] mPlainBody;
+
+    private byte[] mGzipBody;
+
+    @Before
+    public void setUp() throws Exception {
+        mPlainBody = feedJson(FEATURE_COUNT).getBytes(Charset.forName("UTF-8"));
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(mPlainBody);
+        gzip.close();
+        mGzipBody = compressed.toByteArray();
+
+        mServer = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public MockHttpServer.Response handle(MockHttpServer.Request request) {
+                String acceptEncoding = request.headers.get("accept-encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    return new MockHttpServer.Response(200, mGzipBody).header("Content-Encoding", "gzip");
+                }
+                return new MockHttpServer.Response(200, mPlainBody);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void compareTransfer() throws Exception {
+        URL url = new URL(mServer.url() + "/query?format=geojson");
+
+        // 预热
+        fetchBefore(url);
+        fetchAfter(url);
+
+        mServer.resetCounts();
+        mFirstResult.reset();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            fetchBefore(url);
+        }
+        long beforeBytes = mServer.bodyBytes();
+        int beforeConnections = mServer.connectionCount();
+
+        mServer.resetCounts();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            fetchAfter(url);
+        }
+        long afterBytes = mServer.bodyBytes();
+        int afterConnections = mServer.connectionCount();
+
+        String report = "before: " + beforeBytes / REQUEST_COUNT + " bytes/request, "
+                + beforeConnections + " connections, first result " + firstResultMicros(FIRST_RESULT_BEFORE)
+                + "; after: " + afterBytes / REQUEST_COUNT + " bytes/request, "
+                + afterConnections + " connections, first result " + firstResultMicros(FIRST_RESULT_AFTER);
+        assertEquals(report, REQUEST_COUNT, mFirstResult.getHistogram(FIRST_RESULT_BEFORE).getCount());
+        assertEquals(report, REQUEST_COUNT, mFirstResult.getHistogram(FIRST_RESULT_AFTER).getCount());
+        // 顺序请求时一直复用同一个连接
+        assertTrue(report, afterConnections <= 1);
+        assertTrue(report, afterConnections < beforeConnections);
+        assertTrue(report, afterBytes * 5 < beforeBytes);
+    }
+
+    /**
+     * 首条结果时间的中位数和最大值
+     */
+    private String firstResultMicros(String span) {
+        EarthquakeHistogramMetrics.Histogram histogram = mFirstResult.getHistogram(span);
+        return "p50 " + histogram.getPercentile(50) / 1000 + " us, max " + histogram.getMax() / 1000 + " us";
+    }
+
+    /**
+     * 原来QueryUtils的请求方式：整个响应按行读进StringBuilder，再用JSONObject逐层解析
+     */
+    private void fetchBefore(URL url) throws Exception {
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setReadTimeout(10000);
+        connection.setConnectTimeout(15000);
+        connection.setRequestMethod("GET");
+        connection.connect();
+        assertEquals(200, connection.getResponseCode());
+        InputStream in = connection.getInputStream();
+        StringBuilder output = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")));
+        String line = reader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = reader.readLine();
+        }
+        connection.disconnect();
+        in.close();
+
+        FirstResultList earthquakes = new FirstResultList();
+        JSONArray features = new JSONObject(output.toString()).getJSONArray("features");
+        for (int i = 0; i < features.length(); i++) {
+            JSONObject properties = features.getJSONObject(i).getJSONObject("properties");
+            earthquakes.add(new Earthquake(properties.getDouble("mag"), properties.getString("place"),
+                    properties.getLong("time"), properties.getString("url")));
+        }
+        assertEquals(FEATURE_COUNT, earthquakes.size());
+        mFirstResult.recordDuration(FIRST_RESULT_BEFORE, earthquakes.mFirstResultNanos - start);
+    }
+
+    /**
+     * 通过EarthquakeHttpClient请求，边读边解析
+     */
+    private void fetchAfter(URL url) throws Exception {
+        long start = System.nanoTime();
+        EarthquakeHttpClient.Response response = EarthquakeHttpClient.getInstance().get(url, null, null);
+        FirstResultList earthquakes = new FirstResultList();
+        try {
+            EarthquakeJsonParser.parseFeatures(response.body(), earthquakes);
+        } finally {
+            response.close();
+        }
+        assertEquals(FEATURE_COUNT, earthquakes.size());
+        mFirstResult.recordDuration(FIRST_RESULT_AFTER, earthquakes.mFirstResultNanos - start);
+    }
+
+    /**
+     * 记录第一个地震加入的时间
+     */
+    private static final class FirstResultList extends ArrayList<Earthquake> {
+        long mFirstResultNanos;
+
+        @Override
+        public boolean add(Earthquake earthquake) {
+            if (isEmpty()) {
+                mFirstResultNanos = System.nanoTime();
+            }
+            return super.add(earthquake);
+        }
+    }
+
+    private static String feedJson(int count) {
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"metadata\":{\"count\":")
+                .append(count).append("},\"features\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append((i % 90) / 10.0)
+                    .append(",\"place\":\"").append(i % 50).append("km SSW of Town ").append(i % 500)
+                    .append(", Region\",\"time\":").append(1556000000000L - i * 60000L)
+                    .append(",\"updated\":").append(1556000100000L - i * 60000L)
+                    .append(",\"tz\":null,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/us")
+                    .append(1000000 + i).append("\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/")
+                    .append("query?eventid=us").append(1000000 + i)
+                    .append("&format=geojson\",\"status\":\"reviewed\",\"type\":\"earthquake\"},")
+                    .append("\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(-120 + (i % 240)).append('.').append(i % 1000).append(',')
+                    .append(-60 + (i % 120)).append('.').append(i % 997).append(',')
+                    .append(i % 700).append(".0]},\"id\":\"us").append(1000000 + i).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按到达顺序逐条重放一天的全球地震、检查提醒规则（EarthquakeAlertEngine）的耗时。
+ * 规则按区域索引，总耗时应随规则数缓慢增长，而不是与规则数成正比。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AlertBenchmark {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final long END_TIME = 1556000000000L;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int ruleCount;
+
+    @Param({"10000"})
+    public int eventCount;
+
+    private List<EarthquakeAlertRule> mRules;
+
+    private List<Earthquake> mDay;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(23);
+        mRules = new ArrayList<>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            // 大部分规则限定区域，少数是全球的高等级规则
+            mRules.add(i % 100 == 0
+                    ? new EarthquakeAlertRule(0, "global", 4 + random.nextDouble() * 3,
+                    Double.NaN, Double.NaN, Double.NaN, 1, DAY_MILLIS)
+                    : new EarthquakeAlertRule(0, "regional", random.nextDouble() * 5,
+                    random.nextDouble() * 160 - 80, random.nextDouble() * 360 - 180,
+                    50 + random.nextDouble() * 450, 1 + random.nextInt(3), DAY_MILLIS));
+        }
+
+        mDay = new ArrayList<>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            mDay.add(new Earthquake(Math.abs(random.nextGaussian()) * 2, "10km N of Town",
+                    END_TIME - (long) (random.nextDouble() * DAY_MILLIS), "https://example.com/" + i,
+                    random.nextDouble() * 160 - 80, random.nextDouble() * 360 - 180, 10));
+        }
+        Collections.sort(mDay, new Comparator<Earthquake>() {
+            @Override
+            public int compare(Earthquake earthquake1, Earthquake earthquake2) {
+                long time1 = earthquake1.getTimeInMilliseconds();
+                long time2 = earthquake2.getTimeInMilliseconds();
+                return time1 < time2 ? -1 : (time1 == time2 ? 0 : 1);
+            }
+        });
+    }
+
+    @Benchmark
+    public int replayDay() {
+        EarthquakeAlertEngine engine = new EarthquakeAlertEngine();
+        for (int i = 0; i < mRules.size(); i++) {
+            engine.addRule(mRules.get(i));
+        }
+        int fired = 0;
+        for (int i = 0; i < mDay.size(); i++) {
+            Earthquake earthquake = mDay.get(i);
+            List<EarthquakeAlertEngine.Alert> alerts = engine.evaluate(Collections.singletonList(earthquake),
+                    earthquake.getTimeInMilliseconds());
+            for (int j = 0; j < alerts.size(); j++) {
+                fired += alerts.get(j).count;
+            }
+        }
+        return fired;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 地图标记聚合（EarthquakeClusterIndex）的建索引耗时，以及平移、缩放时每一帧查询可见聚合点的耗时。
+ * 每帧的耗时应与地震总数无关，远小于一帧的16毫秒。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClusterBenchmark {
+
+    /** 1080×1920像素的屏幕，聚合间距约130像素 */
+    private static final double SCREEN_WIDTH = 1080;
+    private static final double SCREEN_HEIGHT = 1920;
+    private static final double CLUSTER_SIZE = 130;
+
+    @Param({"5000", "50000"})
+    public int eventCount;
+
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private double[] mMagnitudes;
+
+    private EarthquakeClusterIndex mIndex;
+
+    private int[] mVisible;
+
+    /** 每次调用换一个缩放级别和位置 */
+    private int mFrame;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(25);
+        // 集中在几个地震带附近
+        double[][] belts = {{35, 140}, {-20, -70}, {38, 22}, {61, -150}, {-6, 130}};
+        mLatitudes = new double[eventCount];
+        mLongitudes = new double[eventCount];
+        mMagnitudes = new double[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            double[] belt = belts[random.nextInt(belts.length)];
+            mLatitudes[i] = Math.max(-90, Math.min(90, belt[0] + random.nextGaussian() * 8));
+            mLongitudes[i] = belt[1] + random.nextGaussian() * 12;
+            mMagnitudes[i] = Math.abs(random.nextGaussian()) * 2;
+        }
+        mIndex = new EarthquakeClusterIndex(mLatitudes, mLongitudes, mMagnitudes);
+        mVisible = new int[mIndex.getClusterCount(EarthquakeClusterIndex.MAX_LEVEL)];
+    }
+
+    @Benchmark
+    public EarthquakeClusterIndex build() {
+        return new EarthquakeClusterIndex(mLatitudes, mLongitudes, mMagnitudes);
+    }
+
+    @Benchmark
+    public int frame() {
+        // 世界宽度从一屏放大到约2000屏，中心沿赤道附近移动
+        int frame = mFrame++ & 255;
+        double worldWidth = SCREEN_WIDTH * Math.pow(2, (frame & 15) * 11 / 15.0);
+        double centerX = 0.05 + (frame >> 4) * 0.06;
+        int level = EarthquakeClusterIndex.levelFor(worldWidth, CLUSTER_SIZE);
+        double left = centerX - SCREEN_WIDTH / 2 / worldWidth;
+        double top = 0.25 - SCREEN_HEIGHT / 2 / worldWidth;
+        int count = mIndex.query(level, left, top, left + SCREEN_WIDTH / worldWidth,
+                top + SCREEN_HEIGHT / worldWidth, mVisible);
+        // 与绘制相同，读取每个聚合点的位置、数量和等级
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            int cluster = mVisible[i];
+            sum += mIndex.getX(level, cluster) + mIndex.getY(level, cluster)
+                    + mIndex.getCount(level, cluster) + mIndex.getMaxMagnitude(level, cluster);
+        }
+        return count + (int) sum;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并多个数据源时去重（EarthquakeDedupIndex）的耗时。
+ * 每个数据源含同样的一批地震，时间和震中略有偏差，另有一成只属于这个数据源；
+ * 总耗时除以记录总数应与数据源的数量基本无关。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DedupBenchmark {
+
+    private static final long THIRTY_DAYS_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    @Param({"1", "2", "4", "8"})
+    public int sourceCount;
+
+    @Param({"10000"})
+    public int eventsPerSource;
+
+    private List<List<Earthquake>> mSources;
+
+    private int mTotal;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(22);
+        long[] times = new long[eventsPerSource];
+        double[] latitudes = new double[eventsPerSource];
+        double[] longitudes = new double[eventsPerSource];
+        for (int i = 0; i < eventsPerSource; i++) {
+            times[i] = 1556000000000L - (long) (random.nextDouble() * THIRTY_DAYS_MILLIS);
+            latitudes[i] = random.nextDouble() * 140 - 70;
+            longitudes[i] = random.nextDouble() * 360 - 180;
+        }
+
+        mSources = new ArrayList<>(sourceCount);
+        for (int source = 0; source < sourceCount; source++) {
+            List<Earthquake> earthquakes = new ArrayList<>(eventsPerSource);
+            for (int i = 0; i < eventsPerSource; i++) {
+                boolean shared = i % 10 != 0;
+                long time = shared ? times[i] + random.nextInt(8000) - 4000
+                        : 1556000000000L - (long) (random.nextDouble() * THIRTY_DAYS_MILLIS);
+                double latitude = shared ? latitudes[i] + random.nextGaussian() * 0.1 : random.nextDouble() * 140 - 70;
+                double longitude = shared ? longitudes[i] + random.nextGaussian() * 0.1
+                        : random.nextDouble() * 360 - 180;
+                earthquakes.add(new Earthquake(4 + random.nextDouble() * 3, "10km N of Town", time,
+                        "https://example.com/source" + source + "/" + i, latitude, longitude, 10));
+            }
+            mSources.add(earthquakes);
+        }
+        mTotal = sourceCount * eventsPerSource;
+    }
+
+    @Benchmark
+    public List<Earthquake> dedup() {
+        EarthquakeDedupIndex index = new EarthquakeDedupIndex(mTotal);
+        for (int source = 0; source < mSources.size(); source++) {
+            List<Earthquake> earthquakes = mSources.get(source);
+            for (int i = 0; i < earthquakes.size(); i++) {
+                index.add(earthquakes.get(i), source);
+            }
+        }
+        return index.getEarthquakes();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.android.quakereport;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试用的数据。
+ * 按USGS fdsnws查询返回的GeoJSON格式生成，包含解析时跳过的全部字段，同一种子生成的内容相同。
+ */
+final class FeedFixtures {
+
+    private static final String[] DIRECTIONS = {"N", "NNE", "NE", "E", "SE", "S", "SW", "W", "NW"};
+
+    private static final String[] PLACES = {
+            "Ridgecrest, CA", "Anchorage, Alaska", "Hilo, Hawaii", "Tokyo, Japan", "Valparaiso, Chile",
+            "Pacific-Antarctic Ridge", "Fiji region", "Kermadec Islands, New Zealand", "Tonga", "Mid-Atlantic Ridge"
+    };
+
+    private FeedFixtures() {
+    }
+
+    /**
+     * 含featureCount个地震的GeoJSON
+     */
+    static byte[] feed(int featureCount) {
+        Random random = new Random(featureCount);
+        StringBuilder json = new StringBuilder(featureCount * 1100 + 512);
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":1556002800000,")
+                .append("\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson\",")
+                .append("\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.8.1\",\"count\":")
+                .append(featureCount).append("},\"features\":[");
+        for (int i = 0; i < featureCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            double magnitude = Math.round(random.nextDouble() * 80) / 10.0;
+            long time = 1556002800000L - (long) (random.nextDouble() * 30L * 24 * 60 * 60 * 1000);
+            String id = "us" + Integer.toString(1000000 + i, 36);
+            json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(magnitude)
+                    .append(",\"place\":\"").append(place(random))
+                    .append("\",\"time\":").append(time)
+                    .append(",\"updated\":").append(time + 600000)
+                    .append(",\"tz\":null,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/").append(id)
+                    .append("\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=").append(id)
+                    .append("&format=geojson\",\"felt\":null,\"cdi\":null,\"mmi\":null,\"alert\":null,")
+                    .append("\"status\":\"reviewed\",\"tsunami\":0,\"sig\":").append(random.nextInt(1000))
+                    .append(",\"net\":\"us\",\"code\":\"").append(id.substring(2))
+                    .append("\",\"ids\":\",").append(id).append(",\",\"sources\":\",us,\",")
+                    .append("\"types\":\",geoserve,origin,phase-data,\",\"nst\":null,\"dmin\":")
+                    .append(random.nextDouble() * 10)
+                    .append(",\"rms\":").append(random.nextDouble())
+                    .append(",\"gap\":").append(random.nextInt(360))
+                    .append(",\"magType\":\"mb\",\"type\":\"earthquake\",\"title\":\"M ").append(magnitude)
+                    .append("\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(random.nextDouble() * 360 - 180).append(',')
+                    .append(random.nextDouble() * 180 - 90).append(',')
+                    .append(random.nextDouble() * 600)
+                    .append("]},\"id\":\"").append(id).append("\"}");
+        }
+        json.append("],\"bbox\":[-180,-90,0,180,90,600]}");
+        return json.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * featureCount个地震对象，约十分之一的地点没有距离信息
+     */
+    static List<Earthquake> earthquakes(int featureCount) {
+        Random random = new Random(featureCount);
+        List<Earthquake> earthquakes = new ArrayList<>(featureCount);
+        for (int i = 0; i < featureCount; i++) {
+            earthquakes.add(new Earthquake(Math.round(random.nextDouble() * 80) / 10.0, place(random),
+                    1556002800000L - (long) (random.nextDouble() * 30L * 24 * 60 * 60 * 1000),
+                    "https://earthquake.usgs.gov/earthquakes/eventpage/us" + Integer.toString(1000000 + i, 36)));
+        }
+        return earthquakes;
+    }
+
+    private static String place(Random random) {
+        String place = PLACES[random.nextInt(PLACES.length)];
+        if (random.nextInt(10) == 0) {
+            return place;
+        }
+        return (1 + random.nextInt(200)) + "km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                + EarthquakeRowFormatter.LOCATION_SEPARATOR + place;
+    }
+}
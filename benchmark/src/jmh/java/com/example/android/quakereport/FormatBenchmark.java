@@ -0,0 +1,122 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 列表显示文本的耗时：等级、日期和时间的格式化，按LOCATION_SEPARATOR切割地点，
+ * 以及onBindViewHolder中除设置控件外的部分，即从表中读取一行的显示文本和颜色区间。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormatBenchmark {
+
+    @Param({"100", "10000"})
+    public int rowCount;
+
+    private List<Earthquake> mEarthquakes;
+
+    private EarthquakeRowFormatter mFormatter;
+
+    private EarthquakeTable.RowView mRows;
+
+    /** 下一次使用的地震，逐次轮换 */
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mEarthquakes = FeedFixtures.earthquakes(rowCount);
+        mFormatter = new EarthquakeRowFormatter("Near the ");
+        EarthquakeTable table = new EarthquakeTable();
+        table.addAll(mEarthquakes, mFormatter.format(mEarthquakes));
+        mRows = table.view();
+    }
+
+    private Earthquake next() {
+        Earthquake earthquake = mEarthquakes.get(mNext);
+        mNext = mNext + 1 == mEarthquakes.size() ? 0 : mNext + 1;
+        return earthquake;
+    }
+
+    @Benchmark
+    public String formatMagnitude() {
+        return mFormatter.formatMagnitude(next().getMagnitude());
+    }
+
+    @Benchmark
+    public String formatDate() {
+        return mFormatter.formatDate(next().getTimeInMilliseconds());
+    }
+
+    @Benchmark
+    public String formatTime() {
+        return mFormatter.formatTime(next().getTimeInMilliseconds());
+    }
+
+    /**
+     * 列表使用的切割方式
+     */
+    @Benchmark
+    public void splitLocation(Blackhole blackhole) {
+        String location = next().getLocation();
+        int separator = location.indexOf(EarthquakeRowFormatter.LOCATION_SEPARATOR);
+        if (separator >= 0) {
+            int start = separator + EarthquakeRowFormatter.LOCATION_SEPARATOR.length();
+            blackhole.consume(location.substring(0, start));
+            blackhole.consume(location.substring(start));
+        } else {
+            blackhole.consume(location);
+        }
+    }
+
+    /**
+     * 改为indexOf之前的切割方式，作为对照
+     */
+    @Benchmark
+    public void splitLocationWithRegex(Blackhole blackhole) {
+        String location = next().getLocation();
+        if (location.contains(EarthquakeRowFormatter.LOCATION_SEPARATOR)) {
+            String[] parts = location.split(EarthquakeRowFormatter.LOCATION_SEPARATOR);
+            blackhole.consume(parts[0] + EarthquakeRowFormatter.LOCATION_SEPARATOR);
+            blackhole.consume(parts[1]);
+        } else {
+            blackhole.consume(location);
+        }
+    }
+
+    /**
+     * 加载线程为一页数据预先格式化全部显示文本
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void formatPage(Blackhole blackhole) {
+        blackhole.consume(mFormatter.format(mEarthquakes));
+    }
+
+    /**
+     * 绑定一行时读取的内容
+     */
+    @Benchmark
+    public void bindRow(Blackhole blackhole) {
+        EarthquakeTable table = mRows.getTable();
+        int row = mRows.row(mNext);
+        mNext = mNext + 1 == mRows.size() ? 0 : mNext + 1;
+        blackhole.consume(table.getMagnitudeText(row));
+        blackhole.consume(MagnitudeBand.of(table.getMagnitude(row)));
+        blackhole.consume(table.getLocationOffset(row));
+        blackhole.consume(table.getPrimaryLocation(row));
+        blackhole.consume(table.getDateText(row));
+        blackhole.consume(table.getTimeText(row));
+    }
+}
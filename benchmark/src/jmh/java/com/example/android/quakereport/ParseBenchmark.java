@@ -0,0 +1,43 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QueryUtils从响应中提取地震数据的耗时，即EarthquakeJsonParser的流式解析。
+ * 响应已在内存中，不包含网络和gzip解压。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int featureCount;
+
+    private byte[] mFeed;
+
+    @Setup
+    public void setUp() {
+        mFeed = FeedFixtures.feed(featureCount);
+    }
+
+    @Benchmark
+    public List<Earthquake> parseFeatures() throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJsonParser.parseFeatures(new ByteArrayInputStream(mFeed), earthquakes);
+        return earthquakes;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 冷启动时从文件得到地震数据的耗时：读取二进制快照，与重新解析保存的GeoJSON对比。
+ * 两个文件含同样的地震，都在页缓存中，不包含磁盘读取。
+ * 各自读取的文件大小作为辅助结果fileBytes与耗时一起报告。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int featureCount;
+
+    private File mFeedFile;
+
+    private File mSnapshotFile;
+
+    /** 文件大小，在setUp中读取一次 */
+    private long mFeedBytes;
+
+    private long mSnapshotBytes;
+
+    /**
+     * 与耗时一起报告的辅助结果
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FileSize {
+        /** 这个基准读取的文件的字节数 */
+        public long fileBytes;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] feed = FeedFixtures.feed(featureCount);
+        mFeedFile = File.createTempFile("feed", ".json");
+        FileOutputStream out = new FileOutputStream(mFeedFile);
+        try {
+            out.write(feed);
+        } finally {
+            out.close();
+        }
+
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJsonParser.parseFeatures(new ByteArrayInputStream(feed), earthquakes);
+        mSnapshotFile = File.createTempFile("snapshot", null);
+        EarthquakeSnapshot.write(mSnapshotFile, new EarthquakeSnapshot("query", 0, earthquakes));
+        mFeedBytes = mFeedFile.length();
+        mSnapshotBytes = mSnapshotFile.length();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFeedFile.delete();
+        mSnapshotFile.delete();
+    }
+
+    @Benchmark
+    public List<Earthquake> parseGeoJson(FileSize size) throws IOException {
+        size.fileBytes = mFeedBytes;
+        List<Earthquake> earthquakes = new ArrayList<>();
+        InputStream in = new BufferedInputStream(new FileInputStream(mFeedFile));
+        try {
+            EarthquakeJsonParser.parseFeatures(in, earthquakes);
+        } finally {
+            in.close();
+        }
+        return earthquakes;
+    }
+
+    @Benchmark
+    public List<Earthquake> readSnapshot(FileSize size) throws IOException {
+        size.fileBytes = mSnapshotBytes;
+        return EarthquakeSnapshot.read(mSnapshotFile).earthquakes;
+    }
+}
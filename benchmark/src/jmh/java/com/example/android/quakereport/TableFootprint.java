@@ -0,0 +1,33 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.List;
+
+/**
+ * 对比 List<Earthquake> 与列式 EarthquakeTable 保存同一批数据时占用的堆内存。
+ * 用JOL遍历从各自根对象可达的全部对象并累加大小，结果与GC的时机无关，每次运行相同：
+ * ./gradlew :benchmark:footprint
+ */
+public class TableFootprint {
+
+    private static final int[] ROW_COUNTS = {1000, 100000};
+
+    public static void main(String[] args) {
+        System.out.println(String.format("%8s %24s %24s", "rows", "List<Earthquake>", "EarthquakeTable"));
+        for (int rowCount : ROW_COUNTS) {
+            // 每个地震对象有自己的字符串，与解析网络数据得到的相同
+            List<Earthquake> list = FeedFixtures.earthquakes(rowCount);
+            EarthquakeTable table = new EarthquakeTable();
+            for (int i = 0; i < list.size(); i++) {
+                Earthquake earthquake = list.get(i);
+                table.add(earthquake.getMagnitude(), earthquake.getLocation(),
+                        earthquake.getTimeInMilliseconds(), earthquake.getUrl());
+            }
+            long listBytes = GraphLayout.parseInstance(list).totalSize();
+            long tableBytes = GraphLayout.parseInstance(table).totalSize();
+            System.out.println(String.format("%8d %10d B, %4d B/row %10d B, %4d B/row", rowCount,
+                    listBytes, listBytes / rowCount, tableBytes, tableBytes / rowCount));
+        }
+    }
+}